@@ -42,6 +42,7 @@ import net.imagej.axis.CalibratedAxis;
 import net.imagej.axis.DefaultLinearAxis;
 import net.imagej.event.DataCreatedEvent;
 import net.imagej.event.DataDeletedEvent;
+import net.imagej.event.EventCoalescingService;
 import net.imagej.interval.AbstractCalibratedRealInterval;
 import net.imagej.overlay.AbstractOverlay;
 import net.imagej.overlay.Overlay;
@@ -76,6 +77,9 @@ public abstract class AbstractData extends
 	@Parameter(required = false)
 	private EventService eventService;
 
+	@Parameter(required = false)
+	private EventCoalescingService eventCoalescingService;
+
 	/**
 	 * Default constructor for use by serialization code.
 	 * 
@@ -221,7 +225,8 @@ public abstract class AbstractData extends
 	// -- Internal methods --
 
 	protected void publish(final SciJavaEvent event) {
-		if (eventService != null) eventService.publish(event);
+		if (eventCoalescingService != null) eventCoalescingService.publish(event);
+		else if (eventService != null) eventService.publish(event);
 	}
 
 }
@@ -106,6 +106,45 @@ public interface Dataset extends Data, ImgPlusMetadata, Img<RealType<?>> {
 	 */
 	boolean setPlaneSilently(int planeNum, Object newPlane);
 
+	/**
+	 * Gets primitive-array access to the given plane. Unlike
+	 * {@link #getPlane(int, boolean)}, this shares the image's storage whenever
+	 * the plane is stored as one or more contiguous runs of primitive arrays,
+	 * and supports planes of more than {@link Integer#MAX_VALUE} elements.
+	 * 
+	 * @param planeIndex The index of the plane, as numbered by
+	 *          {@link #getPlane(int)}.
+	 * @return The plane, or null if the dataset's type has no primitive array
+	 *         representation.
+	 * @see PlaneView#isCopy()
+	 */
+	default PlaneView getPlaneView(final long planeIndex) {
+		return PlaneView.create(getImgPlus(), planeIndex);
+	}
+
+	/**
+	 * Gets summary statistics of the given plane. Implementations may cache the
+	 * statistics until the plane is next updated, via {@link #update()},
+	 * {@link #updatePlanes(long...)} or {@link #setPlane(int, Object)}.
+	 * 
+	 * @param planeIndex The index of the plane, as numbered by
+	 *          {@link #getPlane(int)}.
+	 */
+	default PlaneStatistics getPlaneStatistics(final long planeIndex) {
+		return PlaneStatistics.compute(getImgPlus(), planeIndex);
+	}
+
+	/**
+	 * Informs interested parties that the sample values of the given planes
+	 * have changed. Equivalent to {@link #update()}, but lets listeners and
+	 * caches refresh only the affected planes.
+	 * 
+	 * @see net.imagej.event.DatasetUpdatedEvent#getPlanes()
+	 */
+	default void updatePlanes(final long... planeIndices) {
+		update();
+	}
+
 	/** TODO */
 	RealType<?> getType();
 
@@ -91,7 +91,9 @@ public interface DatasetService extends ImageJService {
 	 *          include 1, 8, 12, 16, 32 and 64.
 	 * @param signed Whether the dataset's pixels can have negative values.
 	 * @param floating Whether the dataset's pixels can have non-integer values.
-	 * @param virtual Whether to store in a virtual data structure or not.
+	 * @param virtual Whether to store the pixels on disk rather than in memory
+	 *          (see {@link net.imagej.mapped.MappedCellImgFactory}), in a
+	 *          temporary file deleted when the dataset is deleted.
 	 * @return The newly created dataset.
 	 * @throws IllegalArgumentException If the combination of bitsPerPixel, signed
 	 *           and floating parameters do not form a valid data type.
@@ -120,7 +122,10 @@ public interface DatasetService extends ImageJService {
 	 * @param dims The dataset's dimensional extents.
 	 * @param name The dataset's name.
 	 * @param axes The dataset's dimensional axis labels.
-	 * @param virtual If true make a virtual dataset.
+	 * @param virtual If true make a virtual dataset, whose pixels are stored on
+	 *          disk rather than in memory (see
+	 *          {@link net.imagej.mapped.MappedCellImgFactory}), in a temporary
+	 *          file deleted when the dataset is deleted.
 	 * @return The newly created dataset.
 	 */
 	<T extends RealType<T> & NativeType<T>> Dataset create(T type, long[] dims,
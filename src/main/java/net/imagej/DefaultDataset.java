@@ -31,6 +31,7 @@
 
 package net.imagej;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
@@ -44,7 +45,9 @@ import net.imagej.event.DatasetRGBChangedEvent;
 import net.imagej.event.DatasetRestructuredEvent;
 import net.imagej.event.DatasetTypeChangedEvent;
 import net.imagej.event.DatasetUpdatedEvent;
+import net.imagej.mapped.MappedCellImg;
 import net.imagej.types.DataTypeService;
+import net.imagej.util.BulkCopier;
 import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.Positionable;
@@ -75,6 +78,7 @@ import net.imglib2.util.Intervals;
 import org.scijava.Context;
 import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
+import org.scijava.thread.ThreadService;
 
 /**
  * Default implementation of {@link Dataset}.
@@ -90,10 +94,16 @@ public class DefaultDataset extends AbstractData implements Dataset {
 	@Parameter
 	private DataTypeService dataTypeService;
 
+	@Parameter(required = false)
+	private ThreadService threadService;
+
 	private ImgPlus<? extends RealType<?>> imgPlus;
 	private boolean rgbMerged;
 	private boolean isDirty;
 
+	private final PlaneStatisticsCache planeStatistics =
+		new PlaneStatisticsCache();
+
 	public DefaultDataset(final Context context,
 		final ImgPlus<? extends RealType<?>> imgPlus)
 	{
@@ -113,6 +123,19 @@ public class DefaultDataset extends AbstractData implements Dataset {
 	@Override
 	protected void delete() {
 		publish(new DatasetDeletedEvent(this));
+		// NB: Release the temporary file of a virtual dataset now that nothing
+		// uses it, rather than when the JVM exits.
+		final Img<?> img = imgPlus.getImg();
+		if (img instanceof MappedCellImg && ((MappedCellImg<?, ?>) img)
+			.isTemporary())
+		{
+			try {
+				((MappedCellImg<?, ?>) img).close();
+			}
+			catch (final IOException exc) {
+				log.error("Cannot close image file", exc);
+			}
+		}
 	}
 
 	// -- Dataset methods --
@@ -144,6 +167,7 @@ public class DefaultDataset extends AbstractData implements Dataset {
 		}
 
 		this.imgPlus = imgPlus;
+		planeStatistics.invalidateAll();
 
 		// NB - keeping all the old metadata for now. TODO - revisit this?
 		// NB - keeping isRgbMerged status for now. TODO - revisit this?
@@ -182,7 +206,13 @@ public class DefaultDataset extends AbstractData implements Dataset {
 			if (plane instanceof ArrayDataAccess) return ((ArrayDataAccess<?>) plane)
 				.getCurrentStorageArray();
 		}
-		if (copyOK) return copyOfPlane(planeNumber);
+		final PlaneView view = PlaneView.wrap(imgPlus, planeNumber);
+		if (view != null && view.isArray()) return view.toArray();
+		if (copyOK) {
+			// NB: Copy the backing arrays in bulk where possible.
+			if (view != null) return view.toArray();
+			return copyOfPlane(planeNumber);
+		}
 		return null;
 	}
 
@@ -204,13 +234,26 @@ public class DefaultDataset extends AbstractData implements Dataset {
 		if (newPlane == currPlane) return false;
 		final ArrayDataAccess<?> array = createArrayDataAccess(newPlane);
 		planarAccess.setPlane(planeNum, array);
+		planeStatistics.invalidate(planeNum);
 		return true;
 	}
 
+	@Override
+	public PlaneStatistics getPlaneStatistics(final long planeIndex) {
+		return planeStatistics.get(imgPlus, planeIndex);
+	}
+
+	@Override
+	public void updatePlanes(final long... planeIndices) {
+		planeStatistics.invalidate(planeIndices);
+		setDirty(true);
+		publish(new DatasetUpdatedEvent(this, false, planeIndices.clone()));
+	}
+
 	@Override
 	public boolean setPlane(final int planeNum, final Object newPlane) {
 		if (setPlaneSilently(planeNum, newPlane)) {
-			update(false);
+			updatePlanes(planeNum);
 			return true;
 		}
 		return false;
@@ -247,7 +290,17 @@ public class DefaultDataset extends AbstractData implements Dataset {
 
 	@Override
 	public Dataset duplicate() {
-		ImgPlus<? extends RealType<?>> newImgPlus = imgPlus.copy();
+		final ImgPlus<? extends RealType<?>> newImgPlus;
+		if (BulkCopier.isSupported(imgPlus)) {
+			// NB: Copy the storage arrays in bulk, rather than sample by sample.
+			@SuppressWarnings("rawtypes")
+			final ImgPlus untypedImg = imgPlus;
+			@SuppressWarnings("unchecked")
+			final ImgPlus<? extends RealType<?>> blank = createBlankCopy(untypedImg);
+			copyDataValues(imgPlus, blank.getImg());
+			newImgPlus = blank;
+		}
+		else newImgPlus = imgPlus.copy();
 		return new DefaultDataset(getContext(), newImgPlus);
 		// OLD WAY
 		//final Dataset d = duplicateBlank();
@@ -344,6 +397,7 @@ public class DefaultDataset extends AbstractData implements Dataset {
 
 	@Override
 	public void rebuild() {
+		planeStatistics.invalidateAll();
 		setDirty(true);
 		publish(new DatasetRestructuredEvent(this));
 	}
@@ -606,6 +660,7 @@ public class DefaultDataset extends AbstractData implements Dataset {
 	private void copyDataValues(final Img<? extends RealType<?>> input,
 		final Img<? extends RealType<?>> output)
 	{
+		if (BulkCopier.copy(input, output, threadService)) return;
 		final long[] position = new long[output.numDimensions()];
 		final Cursor<? extends RealType<?>> outputCursor =
 			output.localizingCursor();
@@ -630,6 +685,8 @@ public class DefaultDataset extends AbstractData implements Dataset {
 				"Can't create an in memory plane of " + (w * h) +
 					" entities (MAX = " + Integer.MAX_VALUE + ")");
 		}
+		final PlaneView view = PlaneView.create(imgPlus, planeNum);
+		if (view != null) return view.toArray();
 		final Type<?> type = getType();
 		// might not be able to get a copy of native data
 		if (!(type instanceof NativeType<?>)) return null;
@@ -701,6 +758,7 @@ public class DefaultDataset extends AbstractData implements Dataset {
 	}
 
 	private void update(boolean metadataOnly) {
+		if (!metadataOnly) planeStatistics.invalidateAll();
 		setDirty(true);
 		publish(new DatasetUpdatedEvent(this, metadataOnly));
 	}
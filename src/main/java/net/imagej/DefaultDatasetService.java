@@ -38,12 +38,12 @@ import java.util.List;
 import net.imagej.axis.AxisType;
 import net.imagej.display.DataView;
 import net.imagej.display.ImageDisplay;
+import net.imagej.mapped.MappedCellImgFactory;
 import net.imagej.types.DataTypeService;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.ImgView;
-import net.imglib2.img.cell.CellImgFactory;
 import net.imglib2.img.planar.PlanarImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.logic.BitType;
@@ -180,7 +180,7 @@ public final class DefaultDatasetService extends AbstractService implements
 		final boolean virtual)
 	{
 		final ImgFactory<T> imgFactory;
-		if (virtual) imgFactory = new CellImgFactory<>();
+		if (virtual) imgFactory = new MappedCellImgFactory<>();
 		else imgFactory = new PlanarImgFactory<>();
 		return create(imgFactory, type, dims, name, axes);
 	}
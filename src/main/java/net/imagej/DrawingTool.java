@@ -31,6 +31,9 @@
 
 package net.imagej;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import net.imagej.axis.Axes;
 import net.imagej.render.RenderingService;
 import net.imagej.render.TextRenderer;
@@ -72,6 +75,11 @@ public class DrawingTool {
 
 	private TextRenderer textRenderer;
 
+	private final long[] planeStrides;
+	private final Set<Long> dirtyPlanes = new HashSet<>();
+	private boolean allPlanesDirty;
+	private boolean planesMarked;
+
 	// -- constructor --
 
 	/**
@@ -91,6 +99,7 @@ public class DrawingTool {
 		this.u0 = 0;
 		this.v0 = 0;
 		this.preferredChannel = -1;
+		this.planeStrides = planeStrides(ds);
 		initAxisVariables();
 	}
 
@@ -116,6 +125,7 @@ public class DrawingTool {
 					"preferred channel outside valid range");
 		}
 		this.preferredChannel = channelNumber;
+		planesMarked = false;
 	}
 	
 	/** Return the Dataset associated with this DrawingTool. */
@@ -128,6 +138,7 @@ public class DrawingTool {
 		checkAxisValid(axisNum);
 		uAxis = axisNum;
 		maxU = dataset.dimension(uAxis) - 1;
+		planesMarked = false;
 	}
 
 	/** Returns the index of the U axis of this Drawing Tool. */
@@ -140,6 +151,7 @@ public class DrawingTool {
 		checkAxisValid(axisNum);
 		vAxis = axisNum;
 		maxV = dataset.dimension(vAxis) - 1;
+		planesMarked = false;
 	}
 
 	/** Returns the index of the V axis of this Drawing Tool. */
@@ -154,6 +166,7 @@ public class DrawingTool {
 	 */
 	public void setPosition(final long[] position) {
 		accessor.setPosition(position);
+		planesMarked = false;
 	}
 
 	/** Gets this DrawingHelper's current drawing position. */
@@ -284,9 +297,59 @@ public class DrawingTool {
 				accessor.get().setReal(value);
 			}
 		}
+		if (!planesMarked) markPlanes();
 		dataset.setDirty(true);
 	}
 
+	/**
+	 * Draws a horizontal run of pixels in the current UV plane, from uStart to
+	 * uEnd (inclusive) at the given V coordinate. This is much faster than
+	 * drawing the pixels one at a time.
+	 */
+	public void drawSpan(final long uStart, final long uEnd, final long v) {
+		if (v < 0 || v > maxV) return;
+		final long u1 = Math.max(uStart, 0), u2 = Math.min(uEnd, maxU);
+		if (u1 > u2) return;
+		accessor.setPosition(v, vAxis);
+		// draw in single channel mode
+		if (preferredChannel >= 0) {
+			final double value = intensity * channels.getChannelValue(preferredChannel);
+			if (channelAxis != -1) accessor.setPosition(preferredChannel, channelAxis);
+			fillRun(u1, u2, value);
+		}
+		else { // draw across all channels
+			long numChannels = 1;
+			if (channelAxis != -1) numChannels = dataset.dimension(channelAxis);
+			for (long c = 0; c < numChannels; c++) {
+				final double value = intensity * channels.getChannelValue(c);
+				if (channelAxis != -1) accessor.setPosition(c, channelAxis);
+				fillRun(u1, u2, value);
+			}
+		}
+		if (!planesMarked) markPlanes();
+		dataset.setDirty(true);
+	}
+
+	/**
+	 * Informs the {@link Dataset} of the planes drawn into since the last call,
+	 * via {@link Dataset#updatePlanes(long...)}. Call this once after a series
+	 * of drawing operations, in place of {@link Dataset#update()}.
+	 */
+	public void update() {
+		if (allPlanesDirty) dataset.update();
+		else if (!dirtyPlanes.isEmpty()) {
+			final long[] planes = new long[dirtyPlanes.size()];
+			int i = 0;
+			for (final long plane : dirtyPlanes) {
+				planes[i++] = plane;
+			}
+			dataset.updatePlanes(planes);
+		}
+		dirtyPlanes.clear();
+		allPlanesDirty = false;
+		planesMarked = false;
+	}
+
 	/**
 	 * Draws a dot in the current UV plane at specified UV coordinates. The size
 	 * of the dot is determined by the current line width.
@@ -393,10 +456,9 @@ public class DrawingTool {
 	 * height, and origin.
 	 */
 	public void fillRect(long uOrigin, long vOrigin, long w, long h) {
-		for (long du = 0; du < w; du++) {
-			for (long dv = 0; dv < h; dv++) {
-				drawPixel(uOrigin+du, vOrigin+dv);
-			}
+		if (w <= 0) return;
+		for (long dv = 0; dv < h; dv++) {
+			drawSpan(uOrigin, uOrigin+w-1, vOrigin+dv);
 		}
 	}
 
@@ -489,6 +551,57 @@ public class DrawingTool {
 		maxV = dataset.dimension(vAxis) - 1;
 	}
 
+	/** Sets the given range of U positions to the given value. */
+	private void fillRun(final long u1, final long u2, final double value) {
+		accessor.setPosition(u1, uAxis);
+		accessor.get().setReal(value);
+		// NB: Do not step past the last pixel; it may lie outside the image.
+		for (long u = u1; u < u2; u++) {
+			accessor.fwd(uAxis);
+			accessor.get().setReal(value);
+		}
+	}
+
+	/**
+	 * Records the planes touched by drawing at the current position. As long as
+	 * U and V lie within the XY plane, these are fixed until the position,
+	 * axes or preferred channel change.
+	 */
+	private void markPlanes() {
+		if (uAxis >= 2 || vAxis >= 2) {
+			// NB: Drawing cuts across planes.
+			allPlanesDirty = true;
+			return;
+		}
+		long base = 0;
+		for (int d = 2; d < planeStrides.length; d++) {
+			if (d == channelAxis) continue;
+			base += accessor.getLongPosition(d) * planeStrides[d];
+		}
+		if (channelAxis < 2) dirtyPlanes.add(base);
+		else if (preferredChannel >= 0) {
+			dirtyPlanes.add(base + preferredChannel * planeStrides[channelAxis]);
+		}
+		else {
+			final long numChannels = dataset.dimension(channelAxis);
+			for (long c = 0; c < numChannels; c++) {
+				dirtyPlanes.add(base + c * planeStrides[channelAxis]);
+			}
+		}
+		planesMarked = true;
+	}
+
+	/** Computes the plane index increment of each non-XY axis. */
+	private static long[] planeStrides(final Dataset ds) {
+		final long[] strides = new long[ds.numDimensions()];
+		long stride = 1;
+		for (int d = 2; d < strides.length; d++) {
+			strides[d] = stride;
+			stride *= ds.dimension(d);
+		}
+		return strides;
+	}
+
 	private void checkAxisValid(final int axisNum) {
 		if (axisNum == channelAxis) {
 			throw new IllegalArgumentException("DrawingTool misconfiguration. "
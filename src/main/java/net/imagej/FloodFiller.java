@@ -36,7 +36,11 @@ import java.util.LinkedList;
 import java.util.List;
 
 import net.imagej.axis.Axes;
+import net.imagej.overlay.Spans;
+import net.imagej.util.StorageBlocks;
+import net.imagej.util.StorageBlocks.Block;
 import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
 import net.imglib2.type.numeric.RealType;
 
 import org.scijava.util.RealRect;
@@ -48,12 +52,22 @@ import org.scijava.util.RealRect;
  * particle analyzer. The Wikipedia article at
  * "http://en.wikipedia.org/wiki/Flood_fill" has a good description of the
  * algorithm used here as well as examples in C and Java.
+ * <p>
+ * Fills first find the spans of the region, tracking the pixels already found
+ * in a bit mask, and then draw each span in one go. Where the image is stored
+ * in primitive arrays with the U and V axes as its X and Y axes, pixels are
+ * compared by reading those arrays directly.
+ * </p>
  * 
  * @author Wayne Rasband
  * @author Barry DeZonia
  */
 public class FloodFiller {
 
+	/** Primitive storage types understood by {@link ArrayProbe}. */
+	private static final int BYTE = 0, UBYTE = 1, SHORT = 2, USHORT = 3,
+			INT = 4, UINT = 5, LONG = 6, FLOAT = 7, DOUBLE = 8;
+
 	private final DrawingTool tool;
 	private int channelAxis;
 	private int uAxis;
@@ -61,6 +75,27 @@ public class FloodFiller {
 	private final StackOfLongs uStack;
 	private final StackOfLongs vStack;
 
+	/** Size of the plane being filled. */
+	private long width, height;
+
+	/** Scan-lines (u1, u2, v, w) still to be searched. */
+	private long[] spans = new long[400];
+	private int spanCount;
+
+	/** Spans (u1, u2, v, w) found by the current search. */
+	private long[] filled = new long[400];
+	private int filledCount;
+
+	/** Visited mask holding no bits, for when no fill is in progress. */
+	private static final long[] NO_BITS = new long[0];
+
+	/**
+	 * One bit per pixel of the plane or volume being filled, set for the pixels
+	 * already found. A plane's mask is kept for the next fill; a volume's is
+	 * dropped once its fill is done.
+	 */
+	private long[] visited = NO_BITS;
+
 	/**
 	 * Constructs a FloodFiller from a given DrawingTool. The FloodFiller uses the
 	 * DrawingTool to fill a region of contiguous pixels in a plane of a Dataset.
@@ -79,56 +114,18 @@ public class FloodFiller {
 	 * true if any pixels actually changed and false otherwise.
 	 */
 	public boolean fill4(final long u0, final long v0, final long[] position) {
-		final Dataset ds = tool.getDataset();
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		accessor.setPosition(position);
-		uAxis = tool.getUAxis();
-		vAxis = tool.getVAxis();
-		final ChannelCollection fillValues = tool.getChannels();
-		// avoid degenerate case
-		if (matches(accessor,u0,v0,fillValues)) return false;
-		final ChannelCollection origValues = getValues(accessor, u0, v0);
-		final long maxU = ds.dimension(uAxis) - 1;
-		final long maxV = ds.dimension(vAxis) - 1;
-		clearUV();
-		pushUV(u0, v0);
-		while (!uStack.isEmpty()) {
-			final long u = popU();
-			final long v = popV();
-			if (!matches(accessor,u,v,origValues)) continue;
-			long u1 = u;
-			long u2 = u;
-			// find start of scan-line
-			while (u1>=0 && matches(accessor,u1,v,origValues)) u1--;
-			u1++;
-		  // find end of scan-line
-			while (u2<=maxU && matches(accessor,u2,v,origValues)) u2++;                 
-			u2--;
-			// fill scan-line
-			tool.drawLine(u1, v, u2, v);
-			// find scan-lines above this one
-			boolean inScanLine = false;
-			for (long i=u1; i<=u2; i++) {
-				if (!inScanLine && v>0 && matches(accessor,i,v-1,origValues))
-					{pushUV(i, v-1); inScanLine = true;}
-				else if (inScanLine && v>0 &&
-									!matches(accessor,i,v-1,origValues))
-					inScanLine = false;
-			}
-			// find scan-lines below this one
-			inScanLine = false;
-			for (long i=u1; i<=u2; i++) {
-				if (!inScanLine && v<maxV &&
-							matches(accessor,i,v+1,origValues))
-					{pushUV(i, v+1); inScanLine = true;}
-				else if (inScanLine && v<maxV &&
-									!matches(accessor,i,v+1,origValues))
-					inScanLine = false;
-			}
-		}
-		// System.out.println("Stack allocated (but not necessarily used) "+uStack.stack.length);
-		return true;
+		return fill4(u0, v0, position, 0);
+	}
+
+	/**
+	 * Does a 4-connected flood fill of the pixels whose channel values are all
+	 * within the given tolerance of those at (u0, v0). Returns true if any
+	 * pixels were filled and false otherwise.
+	 */
+	public boolean fill4(final long u0, final long v0, final long[] position,
+		final double tolerance)
+	{
+		return fill(u0, v0, position, -1, false, tolerance);
 	}
 
 	/**
@@ -136,80 +133,74 @@ public class FloodFiller {
 	 * true if any pixels actually changed and false otherwise.
 	 */
 	public boolean fill8(final long u0, final long v0, final long[] position) {
-		final Dataset ds = tool.getDataset();
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		accessor.setPosition(position);
+		return fill8(u0, v0, position, 0);
+	}
+
+	/**
+	 * Does an 8-connected flood fill of the pixels whose channel values are all
+	 * within the given tolerance of those at (u0, v0). Returns true if any
+	 * pixels were filled and false otherwise.
+	 */
+	public boolean fill8(final long u0, final long v0, final long[] position,
+		final double tolerance)
+	{
+		return fill(u0, v0, position, -1, true, tolerance);
+	}
+
+	/**
+	 * Does a 6-connected flood fill through the volume spanned by the U, V and
+	 * given W axes, starting at (u0, v0, position[wAxis]). Pixels whose channel
+	 * values are all within the given tolerance of the starting pixel's are
+	 * filled. Returns true if any pixels were filled and false otherwise.
+	 */
+	public boolean fill6(final long u0, final long v0, final long[] position,
+		final int wAxis, final double tolerance)
+	{
+		checkWAxis(wAxis);
+		return fill(u0, v0, position, wAxis, false, tolerance);
+	}
+
+	/**
+	 * Does a 26-connected flood fill through the volume spanned by the U, V and
+	 * given W axes. Otherwise like
+	 * {@link #fill6(long, long, long[], int, double)}.
+	 */
+	public boolean fill26(final long u0, final long v0, final long[] position,
+		final int wAxis, final double tolerance)
+	{
+		checkWAxis(wAxis);
+		return fill(u0, v0, position, wAxis, true, tolerance);
+	}
+
+	/**
+	 * Finds the region a 4- or 8-connected flood fill from (u0, v0) would cover,
+	 * without drawing anything. This is what a wand tool selects. The returned
+	 * {@link Spans} have U as column and V as row.
+	 */
+	public Spans select(final long u0, final long v0, final long[] position,
+		final boolean eightConnected, final double tolerance)
+	{
 		uAxis = tool.getUAxis();
 		vAxis = tool.getVAxis();
-		final ChannelCollection fillValues = tool.getChannels();
-		// avoid degenerate case
-		if (matches(accessor,u0,v0,fillValues)) return false;
-		final ChannelCollection origValues = getValues(accessor, u0, v0);
-		final long maxU = ds.dimension(uAxis) - 1;
-		final long maxV = ds.dimension(vAxis) - 1;
-		clearUV();
-		pushUV(u0, v0);
-		while(!uStack.isEmpty()) {
-			final long u = popU(); 
-			final long v = popV();
-			long u1 = u;
-			long u2 = u;
-			if (matches(accessor,u,v,origValues)) {
-				// find start of scan-line
-				while (u1>=0 && matches(accessor,u1,v,origValues)) u1--;
-				u1++;
-			  // find end of scan-line
-				while (u2<=maxU && matches(accessor,u2,v,origValues)) u2++;
-				u2--;
-				tool.drawLine(u1, v, u2, v); // fill scan-line
-			}
-			if (v > 0) {
-				if (u1 > 0) {
-					if (matches(accessor,u1-1,v-1,origValues)) {
-						pushUV(u1-1, v-1);
-					}
-				}
-				if (u2 < maxU) {
-					if (matches(accessor,u2+1,v-1,origValues)) {
-						pushUV(u2+1, v-1);
-					}
-				}
-			}
-			if (v < maxV) {
-				if (u1 > 0) {
-					if (matches(accessor,u1-1,v+1,origValues)) {
-						pushUV(u1-1, v+1);
-					}
-				}
-				if (u2 < maxU) {
-					if (matches(accessor,u2+1,v+1,origValues)) {
-						pushUV(u2+1, v+1);
-					}
-				}
-			}
-			// find scan-lines above this one
-			boolean inScanLine = false;
-			for (long i=u1; i<=u2; i++) {
-				if (!inScanLine && v>0 && matches(accessor,i,v-1,origValues))
-					{pushUV(i, v-1); inScanLine = true;}
-				else if (inScanLine && v>0 &&
-									!matches(accessor,i,v-1,origValues))
-					inScanLine = false;
-			}
-			// find scan-lines below this one
-			inScanLine = false;
-			for (long i=u1; i<=u2; i++) {
-				if (!inScanLine && v<maxV &&
-							matches(accessor,i,v+1,origValues))
-					{pushUV(i, v+1); inScanLine = true;}
-				else if (inScanLine && v<maxV &&
-									!matches(accessor,i,v+1,origValues))
-					inScanLine = false;
-			}
+		final Probe probe = probe(u0, v0, position, -1, tolerance);
+		if (probe == null) return Spans.EMPTY;
+		search(probe, u0, v0, 0, eightConnected);
+
+		// NB: Spans must be built in row order. Spans found within a row are
+		// disjoint, so sort them by start and recover their ends from the mask.
+		final long[] keys = new long[filledCount];
+		for (int i = 0; i < filledCount; i++) {
+			keys[i] = filled[4 * i + 2] * width + filled[4 * i];
 		}
-		// System.out.println("Stack allocated (but not necessarily used) "+uStack.stack.length);
-		return true;
+		Arrays.sort(keys);
+		final Spans.Builder builder = new Spans.Builder();
+		for (final long key : keys) {
+			final long u = key % width;
+			final long v = key / width;
+			builder.add(v, u, nextUnvisited(u, width - 1, v, 0) - 1);
+		}
+		clearVisited();
+		return builder.build();
 	}
 
 	// NOTE - ported from IJ1 but not yet in use anywhere
@@ -282,6 +273,291 @@ public class FloodFiller {
 	
 	// -- private helpers --
 
+	/**
+	 * Fills the region connected to the given seed, in the UV plane or, if
+	 * wAxis is not -1, in the UVW volume.
+	 */
+	private boolean fill(final long u0, final long v0, final long[] position,
+		final int wAxis, final boolean diagonal, final double tolerance)
+	{
+		uAxis = tool.getUAxis();
+		vAxis = tool.getVAxis();
+		final Probe probe = probe(u0, v0, position, wAxis, tolerance);
+		if (probe == null) return false;
+		final double[] fillValues = fillValues(probe.reference.length);
+		// avoid degenerate case
+		if (tolerance == 0 && Arrays.equals(fillValues, probe.reference)) {
+			return false;
+		}
+		final long w0 = wAxis < 0 ? 0 : position[wAxis];
+		search(probe, u0, v0, w0, diagonal);
+		if (wAxis < 0) clearVisited();
+		else visited = NO_BITS;
+		if (filledCount == 0) return false;
+
+		// fill the spans found, moving the drawing position between slices
+		final long[] original = new long[position.length];
+		tool.getPosition(original);
+		final long[] pos = original.clone();
+		long currentW = wAxis < 0 ? 0 : pos[wAxis];
+		for (int i = 0; i < filledCount; i++) {
+			final long w = filled[4 * i + 3];
+			if (wAxis >= 0 && w != currentW) {
+				pos[wAxis] = currentW = w;
+				tool.setPosition(pos);
+			}
+			tool.drawSpan(filled[4 * i], filled[4 * i + 1], filled[4 * i + 2]);
+		}
+		if (wAxis >= 0) tool.setPosition(original);
+		return true;
+	}
+
+	/**
+	 * Finds the spans connected to (u0, v0, w0), recording them in
+	 * {@link #filled} and marking them in {@link #visited}.
+	 */
+	private void search(final Probe probe, final long u0, final long v0,
+		final long w0, final boolean diagonal)
+	{
+		filledCount = 0;
+		spanCount = 0;
+		allocateVisited(probe.depth);
+		final long maxU = width - 1;
+		final long maxV = height - 1;
+		final long maxW = probe.depth - 1;
+		final int reach = diagonal ? 1 : 0;
+		pushSpan(u0, u0, v0, w0);
+		while (spanCount > 0) {
+			spanCount--;
+			final long a = spans[4 * spanCount];
+			final long b = spans[4 * spanCount + 1];
+			final long v = spans[4 * spanCount + 2];
+			final long w = spans[4 * spanCount + 3];
+			long u = a;
+			while (u <= b) {
+				if (isVisited(u, v, w)) {
+					u = nextUnvisited(u, b, v, w);
+					continue;
+				}
+				if (!probe.matches(u, v, w)) {
+					u++;
+					continue;
+				}
+				// find start and end of scan-line
+				final long u1 = probe.scanLeft(u, v, w);
+				final long u2 = probe.scanRight(u, maxU, v, w);
+				markVisited(u1, u2, v, w);
+				addFilled(u1, u2, v, w);
+
+				// look for more of the region in the neighboring scan-lines
+				final long s = Math.max(u1 - reach, 0);
+				final long e = Math.min(u2 + reach, maxU);
+				for (long dw = -1; dw <= 1; dw++) {
+					final long nw = w + dw;
+					if (nw < 0 || nw > maxW) continue;
+					for (long dv = -1; dv <= 1; dv++) {
+						final long nv = v + dv;
+						if (nv < 0 || nv > maxV || dv == 0 && dw == 0) continue;
+						if (dv != 0 && dw != 0 && !diagonal) continue;
+						pushSpan(s, e, nv, nw);
+					}
+				}
+				u = u2 + 2;
+			}
+		}
+	}
+
+	/** Checks that the given axis can serve as the third axis of a fill. */
+	private void checkWAxis(final int wAxis) {
+		final Dataset ds = tool.getDataset();
+		if (wAxis < 0 || wAxis >= ds.numDimensions() ||
+			wAxis == tool.getUAxis() || wAxis == tool.getVAxis() ||
+			wAxis == channelAxis)
+		{
+			throw new IllegalArgumentException("Invalid W axis: " + wAxis);
+		}
+	}
+
+	/**
+	 * Creates a {@link Probe} for the volume through the given position,
+	 * reading the primitive storage of each plane directly where possible.
+	 * Returns null if the starting pixel lies outside the volume.
+	 */
+	private Probe probe(final long u0, final long v0, final long[] position,
+		final int wAxis, final double tolerance)
+	{
+		final Dataset ds = tool.getDataset();
+		width = ds.dimension(uAxis);
+		height = ds.dimension(vAxis);
+		final long depth = wAxis < 0 ? 1 : ds.dimension(wAxis);
+		final long w0 = wAxis < 0 ? 0 : position[wAxis];
+		if (u0 < 0 || u0 >= width || v0 < 0 || v0 >= height || w0 < 0 ||
+			w0 >= depth)
+		{
+			return null;
+		}
+		final Probe probe = createProbe(position, wAxis, depth, tolerance);
+		for (int c = 0; c < probe.reference.length; c++) {
+			probe.setReference(c, probe.value(u0, v0, w0, c));
+		}
+		return probe;
+	}
+
+	private Probe createProbe(final long[] position, final int wAxis,
+		final long depth, final double tolerance)
+	{
+		final Dataset ds = tool.getDataset();
+		final int numChannels =
+			channelAxis == -1 ? 1 : (int) ds.dimension(channelAxis);
+		final Object type = StorageBlocks.unwrap(ds) instanceof Img ?
+			((Img<?>) StorageBlocks.unwrap(ds)).firstElement() : null;
+		if (uAxis == 0 && vAxis == 1 && StorageBlocks.isSupportedType(type) &&
+			depth * numChannels <= Integer.MAX_VALUE)
+		{
+			final Object[] arrays = new Object[(int) depth * numChannels];
+			final int[] offsets = new int[arrays.length];
+			final long[] pos = position.clone();
+			boolean direct = true;
+			for (int w = 0; w < depth && direct; w++) {
+				if (wAxis >= 0) pos[wAxis] = w;
+				for (int c = 0; c < numChannels && direct; c++) {
+					if (channelAxis != -1) pos[channelAxis] = c;
+					final List<Block> blocks =
+						StorageBlocks.planeBlocks(ds, planeIndex(ds, pos));
+					direct = blocks != null && blocks.size() == 1;
+					if (direct) {
+						arrays[w * numChannels + c] = blocks.get(0).getArray();
+						offsets[w * numChannels + c] = blocks.get(0).getOffset();
+					}
+				}
+			}
+			if (direct) {
+				return new ArrayProbe(arrays, offsets, StorageBlocks.isUnsigned(type),
+					numChannels, depth, tolerance);
+			}
+		}
+		return new AccessProbe(position, wAxis, numChannels, depth, tolerance);
+	}
+
+	/**
+	 * Gets the index of the XY plane through the given position, as understood
+	 * by {@link StorageBlocks#planeBlocks}.
+	 */
+	private static long planeIndex(final Dataset ds, final long[] position) {
+		long index = 0, stride = 1;
+		for (int d = 2; d < ds.numDimensions(); d++) {
+			index += position[d] * stride;
+			stride *= ds.dimension(d);
+		}
+		return index;
+	}
+
+	/** Gets the values the tool will draw, one per channel. */
+	private double[] fillValues(final int numChannels) {
+		final ChannelCollection channels = tool.getChannels();
+		final double[] values = new double[numChannels];
+		for (int c = 0; c < numChannels; c++) {
+			values[c] = channels.getChannelValue(c);
+		}
+		return values;
+	}
+
+	private void pushSpan(final long u1, final long u2, final long v,
+		final long w)
+	{
+		if (4 * spanCount == spans.length) {
+			spans = Arrays.copyOf(spans, 2 * spans.length);
+		}
+		spans[4 * spanCount] = u1;
+		spans[4 * spanCount + 1] = u2;
+		spans[4 * spanCount + 2] = v;
+		spans[4 * spanCount + 3] = w;
+		spanCount++;
+	}
+
+	private void addFilled(final long u1, final long u2, final long v,
+		final long w)
+	{
+		if (4 * filledCount == filled.length) {
+			filled = Arrays.copyOf(filled, 2 * filled.length);
+		}
+		filled[4 * filledCount] = u1;
+		filled[4 * filledCount + 1] = u2;
+		filled[4 * filledCount + 2] = v;
+		filled[4 * filledCount + 3] = w;
+		filledCount++;
+	}
+
+	/**
+	 * Makes sure {@link #visited} has a bit for every pixel of the volume. A
+	 * plane's mask is reused from fill to fill, and cleared span by span
+	 * afterwards.
+	 */
+	private void allocateVisited(final long depth) {
+		final long words = (width * height * depth + 63) >>> 6;
+		if (words > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Volume too large to fill");
+		}
+		if (visited.length < words) visited = new long[(int) words];
+	}
+
+	private boolean isVisited(final long u, final long v, final long w) {
+		final long bit = (w * height + v) * width + u;
+		return (visited[(int) (bit >>> 6)] & 1L << bit) != 0;
+	}
+
+	/**
+	 * Gets the first pixel from u to max (inclusive) of the given scan-line
+	 * which has not been visited, or max + 1 if there is none.
+	 */
+	private long nextUnvisited(final long u, final long max, final long v,
+		final long w)
+	{
+		final long base = (w * height + v) * width;
+		final long end = base + max + 1;
+		long bit = base + u;
+		int i = (int) (bit >>> 6);
+		long word = ~visited[i] & -1L << bit;
+		while (word == 0) {
+			bit = (long) ++i << 6;
+			if (bit >= end) return max + 1;
+			word = ~visited[i];
+		}
+		bit = ((long) i << 6) + Long.numberOfTrailingZeros(word);
+		return Math.min(bit, end) - base;
+	}
+
+	private void markVisited(final long u1, final long u2, final long v,
+		final long w)
+	{
+		setVisited((w * height + v) * width, u1, u2, true);
+	}
+
+	/** Clears the visited bits of all filled spans. */
+	private void clearVisited() {
+		for (int i = 0; i < filledCount; i++) {
+			final long base = (filled[4 * i + 3] * height + filled[4 * i + 2]) *
+				width;
+			setVisited(base, filled[4 * i], filled[4 * i + 1], false);
+		}
+	}
+
+	private void setVisited(final long base, final long u1, final long u2,
+		final boolean on)
+	{
+		final long start = base + u1, end = base + u2 + 1;
+		final int first = (int) (start >>> 6), last = (int) ((end - 1) >>> 6);
+		final long firstMask = -1L << start, lastMask = -1L >>> -end;
+		for (int i = first; i <= last; i++) {
+			long mask = -1L;
+			if (i == first) mask &= firstMask;
+			if (i == last) mask &= lastMask;
+			if (on) visited[i] |= mask;
+			else visited[i] &= ~mask;
+		}
+	}
+
+
 	/**
 	 * Returns true if value of pixel is inside a given range
 	 */
@@ -303,57 +579,6 @@ public class FloodFiller {
 		tool.setChannels(channels);
 	}
 	
-	/**
-	 * Returns true if the current pixel located at the given (u,v) coordinates is
-	 * the same as the specified color or gray values.
-	 */
-	private boolean	matches(
-		final RandomAccess<? extends RealType<?>> accessor, final long u,
-		final long v, final ChannelCollection channels)
-	{
-		accessor.setPosition(u, uAxis);
-		accessor.setPosition(v, vAxis);
-
-		// 0 channel image?
-		if (channelAxis == -1) {
-			final double val = accessor.get().getRealDouble();
-			return val == channels.getChannelValue(0);
-		}
-
-		// else image has 1 or more channels
-		long numChan = tool.getDataset().dimension(channelAxis);
-		for (long c = 0; c < numChan; c++) {
-			accessor.setPosition(c, channelAxis);
-			double value = accessor.get().getRealDouble();
-			// TODO - do we need a "near" rather than "equal" here?
-			if (value != channels.getChannelValue(c)) return false;
-		}
-		
-		return true;
-	}
-
-	/**
-	 * Records the values of all the channels at a given (u,v) coord in a Dataset.
-	 * The non-UV coords must be set on the accessor before calling this method.
-	 */
-	private ChannelCollection getValues(
-		final RandomAccess<? extends RealType<?>> accessor,
-		final long u, final long v)
-	{
-		final List<Double> channels = new LinkedList<>();
-		accessor.setPosition(u, uAxis);
-		accessor.setPosition(v, vAxis);
-		long numChannels = 1;
-		if (channelAxis != -1)
-			numChannels = tool.getDataset().dimension(channelAxis);
-		for (long c = 0; c < numChannels; c++) {
-			if (channelAxis != -1) accessor.setPosition(c, channelAxis);
-			final double val = accessor.get().getRealDouble();
-			channels.add(val);
-		}
-		return new ChannelCollection(channels);
-	}
-
 	/**
 	 * Pushes the specified (u,v) point on the working stacks.
 	 */
@@ -412,4 +637,250 @@ public class FloodFiller {
 		}
 	}
 
+	/**
+	 * Compares pixels against the channel values of the pixel a fill starts
+	 * from.
+	 */
+	private abstract class Probe {
+
+		protected final double[] reference;
+		protected final double[] lower;
+		protected final double[] upper;
+		protected final double tolerance;
+		protected final long depth;
+
+		public Probe(final int numChannels, final long depth,
+			final double tolerance)
+		{
+			this.reference = new double[numChannels];
+			this.lower = new double[numChannels];
+			this.upper = new double[numChannels];
+			this.depth = depth;
+			this.tolerance = tolerance;
+		}
+
+		/** Sets the value of channel c which pixels are compared against. */
+		public void setReference(final int c, final double value) {
+			reference[c] = value;
+			lower[c] = value - tolerance;
+			upper[c] = value + tolerance;
+		}
+
+		/** Gets the value of channel c at (u, v, w). */
+		public abstract double value(long u, long v, long w, int c);
+
+		/**
+		 * Returns true if every channel at (u, v, w) is within the tolerance of
+		 * the reference values.
+		 */
+		public boolean matches(final long u, final long v, final long w) {
+			for (int c = 0; c < reference.length; c++) {
+				// NB: NaN never matches, as with an exact comparison
+				final double value = value(u, v, w, c);
+				if (!(value >= lower[c] && value <= upper[c])) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Gets the first pixel of the run of matching pixels which ends at
+		 * the matching pixel (u, v, w).
+		 */
+		public long scanLeft(final long u, final long v, final long w) {
+			long u1 = u;
+			while (u1 > 0 && matches(u1 - 1, v, w)) u1--;
+			return u1;
+		}
+
+		/**
+		 * Gets the last pixel, up to max, of the run of matching pixels which
+		 * starts at the matching pixel (u, v, w).
+		 */
+		public long scanRight(final long u, final long max, final long v,
+			final long w)
+		{
+			long u2 = u;
+			while (u2 < max && matches(u2 + 1, v, w)) u2++;
+			return u2;
+		}
+	}
+
+	/** Reads pixels straight from the primitive arrays of each plane. */
+	private class ArrayProbe extends Probe {
+
+		private final Object[] arrays;
+		private final int[] offsets;
+		private final int kind;
+		private final int numChannels;
+
+		public ArrayProbe(final Object[] arrays, final int[] offsets,
+			final boolean unsigned, final int numChannels, final long depth,
+			final double tolerance)
+		{
+			super(numChannels, depth, tolerance);
+			this.arrays = arrays;
+			this.offsets = offsets;
+			this.numChannels = numChannels;
+			final Object array = arrays[0];
+			if (array instanceof byte[]) kind = unsigned ? UBYTE : BYTE;
+			else if (array instanceof short[]) kind = unsigned ? USHORT : SHORT;
+			else if (array instanceof int[]) kind = unsigned ? UINT : INT;
+			else if (array instanceof long[]) kind = LONG;
+			else if (array instanceof float[]) kind = FLOAT;
+			else kind = DOUBLE;
+		}
+
+		@Override
+		public double value(final long u, final long v, final long w,
+			final int c)
+		{
+			final int k = (int) w * numChannels + c;
+			return read(arrays[k], offsets[k] + (int) (v * width + u));
+		}
+
+		@Override
+		public boolean matches(final long u, final long v, final long w) {
+			final int index = (int) (v * width + u);
+			final int k = (int) w * numChannels;
+			for (int c = 0; c < numChannels; c++) {
+				final double value = read(arrays[k + c], offsets[k + c] + index);
+				if (!(value >= lower[c] && value <= upper[c])) return false;
+			}
+			return true;
+		}
+
+		@Override
+		public long scanLeft(final long u, final long v, final long w) {
+			// NB: narrow the run one channel at a time, to keep the loops tight
+			final int row = (int) (v * width);
+			final int k = (int) w * numChannels;
+			int start = 0;
+			for (int c = 0; c < numChannels && start < u; c++) {
+				final int base = offsets[k + c] + row;
+				start = scan(arrays[k + c], base + (int) u, base + start, -1, c) -
+					base;
+			}
+			return start;
+		}
+
+		@Override
+		public long scanRight(final long u, final long max, final long v,
+			final long w)
+		{
+			final int row = (int) (v * width);
+			final int k = (int) w * numChannels;
+			int end = (int) max;
+			for (int c = 0; c < numChannels && end > u; c++) {
+				final int base = offsets[k + c] + row;
+				end = scan(arrays[k + c], base + (int) u, base + end, 1, c) - base;
+			}
+			return end;
+		}
+
+		/**
+		 * Steps from the matching element at index from towards index to, and
+		 * returns the last index reached whose channel c value matches.
+		 */
+		private int scan(final Object array, final int from, final int to,
+			final int step, final int c)
+		{
+			final double lo = lower[c], hi = upper[c];
+			// NB: integer values match if within the integer part of the bounds
+			final long min = (long) Math.ceil(lo), max = (long) Math.floor(hi);
+			if (!(lo <= hi)) return from;
+			int i = from;
+			switch (kind) {
+				case BYTE: {
+					final byte[] a = (byte[]) array;
+					while (i != to && a[i + step] >= min && a[i + step] <= max) i += step;
+					return i;
+				}
+				case UBYTE: {
+					final byte[] a = (byte[]) array;
+					while (i != to && (a[i + step] & 0xff) >= min &&
+						(a[i + step] & 0xff) <= max) i += step;
+					return i;
+				}
+				case SHORT: {
+					final short[] a = (short[]) array;
+					while (i != to && a[i + step] >= min && a[i + step] <= max) i += step;
+					return i;
+				}
+				case USHORT: {
+					final short[] a = (short[]) array;
+					while (i != to && (a[i + step] & 0xffff) >= min &&
+						(a[i + step] & 0xffff) <= max) i += step;
+					return i;
+				}
+				case INT: {
+					final int[] a = (int[]) array;
+					while (i != to && a[i + step] >= min && a[i + step] <= max) i += step;
+					return i;
+				}
+				case FLOAT: {
+					final float[] a = (float[]) array;
+					while (i != to && a[i + step] >= lo && a[i + step] <= hi) i += step;
+					return i;
+				}
+				default:
+					while (i != to) {
+						final double value = read(array, i + step);
+						if (!(value >= lo && value <= hi)) break;
+						i += step;
+					}
+					return i;
+			}
+		}
+
+		private double read(final Object array, final int index) {
+			switch (kind) {
+				case BYTE:
+					return ((byte[]) array)[index];
+				case UBYTE:
+					return ((byte[]) array)[index] & 0xff;
+				case SHORT:
+					return ((short[]) array)[index];
+				case USHORT:
+					return ((short[]) array)[index] & 0xffff;
+				case INT:
+					return ((int[]) array)[index];
+				case UINT:
+					return ((int[]) array)[index] & 0xffffffffL;
+				case LONG:
+					return ((long[]) array)[index];
+				case FLOAT:
+					return ((float[]) array)[index];
+				default:
+					return ((double[]) array)[index];
+			}
+		}
+	}
+
+	/** Reads pixels through a {@link RandomAccess}, for any kind of image. */
+	private class AccessProbe extends Probe {
+
+		private final RandomAccess<? extends RealType<?>> accessor;
+		private final int wAxis;
+
+		public AccessProbe(final long[] position, final int wAxis,
+			final int numChannels, final long depth, final double tolerance)
+		{
+			super(numChannels, depth, tolerance);
+			this.accessor = tool.getDataset().getImgPlus().randomAccess();
+			accessor.setPosition(position);
+			this.wAxis = wAxis;
+		}
+
+		@Override
+		public double value(final long u, final long v, final long w,
+			final int c)
+		{
+			accessor.setPosition(u, uAxis);
+			accessor.setPosition(v, vAxis);
+			if (wAxis >= 0) accessor.setPosition(w, wAxis);
+			if (channelAxis != -1) accessor.setPosition(c, channelAxis);
+			return accessor.get().getRealDouble();
+		}
+	}
+
 }
@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import java.util.List;
+
+import net.imagej.autoscale.HistogramSketch;
+import net.imagej.util.StorageBlocks;
+import net.imagej.util.StorageBlocks.Block;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Summary statistics of the sample values of one XY plane of an image: the
+ * minimum, maximum, mean, standard deviation and a coarse histogram.
+ * <p>
+ * All statistics are computed together in a single pass over the plane. NaN
+ * and infinite values are ignored.
+ * </p>
+ * 
+ * @see Dataset#getPlaneStatistics(long)
+ */
+public class PlaneStatistics {
+
+	/** Number of bins of the coarse histogram. */
+	public static final int BIN_COUNT = 256;
+
+	private final long planeIndex;
+	private final HistogramSketch histogram;
+
+	private PlaneStatistics(final long planeIndex,
+		final HistogramSketch histogram)
+	{
+		this.planeIndex = planeIndex;
+		this.histogram = histogram;
+	}
+
+	/**
+	 * Computes the statistics of the given plane of an image.
+	 * 
+	 * @param img The image to examine.
+	 * @param planeIndex The index of the plane, as numbered by
+	 *          {@link Dataset#getPlane(int)}.
+	 */
+	public static PlaneStatistics compute(
+		final RandomAccessibleInterval<? extends RealType<?>> img,
+		final long planeIndex)
+	{
+		final HistogramSketch sketch = new HistogramSketch(BIN_COUNT);
+		final List<Block> blocks = StorageBlocks.planeBlocks(img, planeIndex);
+		if (blocks != null) {
+			final boolean unsigned = StorageBlocks.isUnsigned(Views.iterable(img)
+				.firstElement());
+			for (final Block block : blocks) {
+				sketch.add(block, unsigned);
+			}
+		}
+		else {
+			for (final RealType<?> t : Views.flatIterable(PlaneView.plane(img,
+				planeIndex))) {
+				sketch.add(t.getRealDouble());
+			}
+		}
+		return new PlaneStatistics(planeIndex, sketch);
+	}
+
+	// -- PlaneStatistics methods --
+
+	/** Gets the index of the plane these statistics describe. */
+	public long getPlaneIndex() {
+		return planeIndex;
+	}
+
+	/** Gets the number of finite values in the plane. */
+	public long getCount() {
+		return histogram.getCount();
+	}
+
+	/** Gets the smallest value of the plane, or NaN if there are none. */
+	public double getMin() {
+		return histogram.getMin();
+	}
+
+	/** Gets the largest value of the plane, or NaN if there are none. */
+	public double getMax() {
+		return histogram.getMax();
+	}
+
+	/** Gets the sum of the values of the plane. */
+	public double getSum() {
+		return histogram.getSum();
+	}
+
+	/** Gets the mean value of the plane, or NaN if there are no values. */
+	public double getMean() {
+		final long n = getCount();
+		return n == 0 ? Double.NaN : getSum() / n;
+	}
+
+	/**
+	 * Gets the (population) standard deviation of the values of the plane, or
+	 * NaN if there are no values.
+	 */
+	public double getStdDev() {
+		final long n = getCount();
+		if (n == 0) return Double.NaN;
+		final double mean = getMean();
+		final double variance = histogram.getSumOfSquares() / n - mean * mean;
+		return Math.sqrt(Math.max(0, variance));
+	}
+
+	/**
+	 * Gets the coarse histogram of the plane. The histogram is shared; callers
+	 * must not modify it.
+	 */
+	public HistogramSketch getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * Estimates the given quantile of the plane's values.
+	 * 
+	 * @see HistogramSketch#quantile(double)
+	 */
+	public double quantile(final double q) {
+		return histogram.quantile(q);
+	}
+
+}
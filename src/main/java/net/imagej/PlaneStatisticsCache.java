@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * A thread-safe cache of {@link PlaneStatistics}, keyed on plane index.
+ * <p>
+ * Planes are computed lazily on first request and remain cached until they
+ * are {@link #invalidate(long...) invalidated}. A computation which races
+ * with an invalidation is returned to its caller but never cached, so stale
+ * statistics are not served after the data changes.
+ * </p>
+ */
+public class PlaneStatisticsCache {
+
+	private final Map<Long, PlaneStatistics> cache = new ConcurrentHashMap<>();
+
+	/** Incremented on every invalidation. */
+	private volatile long generation;
+
+	// -- PlaneStatisticsCache methods --
+
+	/**
+	 * Gets the statistics of the given plane of an image, computing them if
+	 * they are not already cached.
+	 */
+	public PlaneStatistics get(
+		final RandomAccessibleInterval<? extends RealType<?>> img,
+		final long planeIndex)
+	{
+		final PlaneStatistics cached = cache.get(planeIndex);
+		if (cached != null) return cached;
+		final long gen = generation;
+		final PlaneStatistics stats = PlaneStatistics.compute(img, planeIndex);
+		synchronized (this) {
+			if (gen == generation) cache.put(planeIndex, stats);
+		}
+		return stats;
+	}
+
+	/** Gets whether the statistics of the given plane are cached. */
+	public boolean isCached(final long planeIndex) {
+		return cache.containsKey(planeIndex);
+	}
+
+	/** Discards the cached statistics of the given planes. */
+	public synchronized void invalidate(final long... planeIndices) {
+		generation++;
+		for (final long planeIndex : planeIndices) {
+			cache.remove(planeIndex);
+		}
+	}
+
+	/** Discards all cached statistics. */
+	public synchronized void invalidateAll() {
+		generation++;
+		cache.clear();
+	}
+
+}
@@ -0,0 +1,313 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import java.lang.reflect.Array;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.imagej.util.StorageBlocks;
+import net.imagej.util.StorageBlocks.Block;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.NativeImgFactory;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Primitive-array access to one XY plane of an image.
+ * <p>
+ * A plane consists of one or more chunks, each a contiguous run of a
+ * primitive array; concatenated in order, the chunks hold the plane's samples
+ * in flat iteration order. Where the image's storage allows, the chunks are
+ * its backing arrays, so reading and writing them reads and writes the image
+ * directly. Otherwise the plane is copied, into chunks of at most
+ * {@link #MAX_CHUNK_LENGTH} elements, which supports planes too large for a
+ * single Java array.
+ * </p>
+ * <p>
+ * Only the primitive-backed integer and floating point types supported by
+ * {@link StorageBlocks} are available as plane views.
+ * </p>
+ * 
+ * @see Dataset#getPlaneView(long)
+ */
+public class PlaneView {
+
+	/** Largest number of elements in a copied chunk. */
+	public static final int MAX_CHUNK_LENGTH = Integer.MAX_VALUE - 8;
+
+	private final long planeIndex;
+	private final long size;
+	private final List<Block> chunks;
+	private final boolean copy;
+	private final boolean unsigned;
+
+	private PlaneView(final long planeIndex, final long size,
+		final List<Block> chunks, final boolean copy, final boolean unsigned)
+	{
+		this.planeIndex = planeIndex;
+		this.size = size;
+		this.chunks = Collections.unmodifiableList(chunks);
+		this.copy = copy;
+		this.unsigned = unsigned;
+	}
+
+	/**
+	 * Gets a view of the given plane which shares the image's storage.
+	 * 
+	 * @param img The image whose plane is desired.
+	 * @param planeIndex The index of the plane, as numbered by
+	 *          {@link Dataset#getPlane(int)}.
+	 * @return The view, or null if the plane cannot be accessed without
+	 *         copying.
+	 */
+	public static PlaneView wrap(
+		final RandomAccessibleInterval<? extends RealType<?>> img,
+		final long planeIndex)
+	{
+		final List<Block> blocks = StorageBlocks.planeBlocks(img, planeIndex);
+		if (blocks == null) return null;
+		return new PlaneView(planeIndex, planeSize(img), blocks, false,
+			StorageBlocks.isUnsigned(type(img)));
+	}
+
+	/**
+	 * Gets a view of the given plane, sharing the image's storage if possible
+	 * and copying the plane otherwise.
+	 * 
+	 * @param img The image whose plane is desired.
+	 * @param planeIndex The index of the plane, as numbered by
+	 *          {@link Dataset#getPlane(int)}.
+	 * @return The view, or null if the image's type has no primitive array
+	 *         representation.
+	 */
+	public static PlaneView create(
+		final RandomAccessibleInterval<? extends RealType<?>> img,
+		final long planeIndex)
+	{
+		final PlaneView view = wrap(img, planeIndex);
+		if (view != null) return view;
+		final RealType<?> type = type(img);
+		if (!StorageBlocks.isSupportedType(type)) return null;
+
+		// copy the plane sample by sample, one chunk at a time
+		final long size = planeSize(img);
+		final Cursor<? extends RealType<?>> in =
+			Views.flatIterable(plane(img, planeIndex)).cursor();
+		final List<Block> chunks = new ArrayList<>();
+		for (long offset = 0; offset < size; offset += MAX_CHUNK_LENGTH) {
+			final int length = (int) Math.min(MAX_CHUNK_LENGTH, size - offset);
+			final ArrayImg<? extends RealType<?>, ?> chunk = createChunk(type,
+				length);
+			for (final RealType<?> t : chunk) {
+				t.setReal(in.next().getRealDouble());
+			}
+			final Object array =
+				((ArrayDataAccess<?>) chunk.update(null)).getCurrentStorageArray();
+			chunks.add(new Block(chunks.size(), array, 0, length));
+		}
+		return new PlaneView(planeIndex, size, chunks, true, StorageBlocks
+			.isUnsigned(type));
+	}
+
+	// -- PlaneView methods --
+
+	/** Gets the index of the plane. */
+	public long getPlaneIndex() {
+		return planeIndex;
+	}
+
+	/** Gets the number of elements in the plane. */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Gets whether the chunks are a copy of the plane, in which case writing to
+	 * them does not affect the image.
+	 */
+	public boolean isCopy() {
+		return copy;
+	}
+
+	/** Gets whether integer elements are to be interpreted as unsigned. */
+	public boolean isUnsigned() {
+		return unsigned;
+	}
+
+	/** Gets the number of chunks making up the plane. */
+	public int getChunkCount() {
+		return chunks.size();
+	}
+
+	/** Gets the primitive array holding the given chunk. */
+	public Object getChunkArray(final int chunk) {
+		return chunks.get(chunk).getArray();
+	}
+
+	/** Gets the offset of the given chunk within its array. */
+	public int getChunkOffset(final int chunk) {
+		return chunks.get(chunk).getOffset();
+	}
+
+	/** Gets the number of elements in the given chunk. */
+	public int getChunkLength(final int chunk) {
+		return chunks.get(chunk).getLength();
+	}
+
+	/**
+	 * Gets a buffer over the given chunk. The buffer shares the chunk's array;
+	 * its position is zero and its capacity is the chunk length.
+	 */
+	public Buffer getBuffer(final int chunk) {
+		final Block block = chunks.get(chunk);
+		final Object array = block.getArray();
+		final int offset = block.getOffset();
+		final int length = block.getLength();
+		if (array instanceof byte[]) {
+			return ByteBuffer.wrap((byte[]) array, offset, length).slice();
+		}
+		if (array instanceof short[]) {
+			return ShortBuffer.wrap((short[]) array, offset, length).slice();
+		}
+		if (array instanceof int[]) {
+			return IntBuffer.wrap((int[]) array, offset, length).slice();
+		}
+		if (array instanceof long[]) {
+			return LongBuffer.wrap((long[]) array, offset, length).slice();
+		}
+		if (array instanceof float[]) {
+			return FloatBuffer.wrap((float[]) array, offset, length).slice();
+		}
+		if (array instanceof double[]) {
+			return DoubleBuffer.wrap((double[]) array, offset, length).slice();
+		}
+		throw new IllegalStateException("Unsupported storage: " + array
+			.getClass().getName());
+	}
+
+	/**
+	 * Gets whether the plane is exactly one whole primitive array, which
+	 * {@link #toArray()} then returns without copying.
+	 */
+	public boolean isArray() {
+		if (chunks.size() != 1) return false;
+		final Block block = chunks.get(0);
+		return block.getOffset() == 0 &&
+			block.getLength() == Array.getLength(block.getArray());
+	}
+
+	/**
+	 * Gets the plane as a single primitive array. If the plane is not
+	 * {@link #isArray() exactly one array}, its chunks are copied into a new
+	 * one.
+	 * 
+	 * @throws IllegalArgumentException if the plane is too large for a single
+	 *           array.
+	 */
+	public Object toArray() {
+		if (isArray()) return chunks.get(0).getArray();
+		if (size > MAX_CHUNK_LENGTH) {
+			throw new IllegalArgumentException(
+				"Can't create an in memory plane of " + size + " entities (MAX = " +
+					MAX_CHUNK_LENGTH + ")");
+		}
+		final Object array = Array.newInstance(chunks.get(0)
+			.getArray().getClass().getComponentType(), (int) size);
+		int pos = 0;
+		for (final Block block : chunks) {
+			System.arraycopy(block.getArray(), block.getOffset(), array, pos, block
+				.getLength());
+			pos += block.getLength();
+		}
+		return array;
+	}
+
+	// -- Helper methods --
+
+	private static RealType<?> type(
+		final RandomAccessibleInterval<? extends RealType<?>> img)
+	{
+		return Views.iterable(img).firstElement();
+	}
+
+	private static long planeSize(final RandomAccessibleInterval<?> img) {
+		long size = img.dimension(0);
+		if (img.numDimensions() > 1) size *= img.dimension(1);
+		return size;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static ArrayImg<? extends RealType<?>, ?> createChunk(
+		final RealType<?> type, final int length)
+	{
+		final NativeImgFactory factory = new ArrayImgFactory();
+		return (ArrayImg<? extends RealType<?>, ?>) ((NativeType) type)
+			.createSuitableNativeImg(factory, new long[] { length });
+	}
+
+	/** Gets a view of the given XY plane of an image. */
+	static <T> RandomAccessibleInterval<T> plane(
+		final RandomAccessibleInterval<T> img, final long planeIndex)
+	{
+		final int numDims = img.numDimensions();
+		final long[] min = new long[numDims];
+		final long[] max = new long[numDims];
+		img.min(min);
+		img.max(max);
+		long index = planeIndex;
+		for (int d = 2; d < numDims; d++) {
+			final long pos = min[d] + index % img.dimension(d);
+			index /= img.dimension(d);
+			min[d] = max[d] = pos;
+		}
+		if (planeIndex < 0 || index > 0) {
+			throw new IndexOutOfBoundsException("Invalid plane index: " +
+				planeIndex);
+		}
+		return Views.interval(img, min, max);
+	}
+
+}
@@ -31,17 +31,31 @@
 
 package net.imagej.autoscale;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.util.StorageBlocks;
+import net.imagej.util.StorageBlocks.Block;
 import net.imglib2.IterableInterval;
-import net.imglib2.histogram.Histogram1d;
-import net.imglib2.histogram.Real1dBinMapper;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
 
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
+import org.scijava.thread.ThreadService;
 
 /**
  * Computes a confidence interval containing percentages of the an entire set of
  * values in an {@link IterableInterval}.
+ * <p>
+ * The data is read in a single pass into a {@link HistogramSketch}. Images
+ * backed by primitive arrays are divided into blocks which are sketched in
+ * parallel, with the partial sketches merged afterwards.
+ * </p>
  * 
  * @author Barry DeZonia
  */
@@ -50,12 +64,19 @@ public class ConfidenceIntervalAutoscaleMethod<T extends RealType<T>> extends
 	AbstractAutoscaleMethod<T>
 {
 
+	// -- constants --
+
+	/** Minimum number of elements per block of work. */
+	private static final int MIN_BLOCK_LENGTH = 1 << 16;
+
 	// -- instance variables --
 
 	private double lowerTail, upperTail;
 
+	private double errorBound = 0.001;
+
 	@Parameter
-	private AutoscaleService autoscaleService;
+	private ThreadService threadService;
 
 	// -- ConfidenceIntervalAutoscaleMethod methods --
 
@@ -120,48 +141,112 @@ public class ConfidenceIntervalAutoscaleMethod<T extends RealType<T>> extends
 		upperTail = upper;
 	}
 
+	/**
+	 * Returns the maximum error of the computed range end points, as a fraction
+	 * of the full data range.
+	 */
+	public double getErrorBound() {
+		return errorBound;
+	}
+
+	/**
+	 * Sets the maximum error of the computed range end points, as a fraction of
+	 * the full data range. Smaller bounds require more memory (roughly
+	 * {@code 16 / error} bytes per thread).
+	 * 
+	 * @param error A fraction of 1 specifying the acceptable error
+	 */
+	public void setErrorBound(double error) {
+		if (!(error > 0 && error <= 1)) {
+			throw new IllegalArgumentException(
+				"error bound must be greater than 0 and at most 1");
+		}
+		errorBound = error;
+	}
+
 	// -- AutoscaleMethod methods --
 
 	@Override
 	public DataRange getRange(IterableInterval<T> interval) {
-		// pass one through data
-		DataRange range = autoscaleService.getDefaultIntervalRange(interval);
-		// pass two through data
-		Real1dBinMapper<T> mapper =
-			new Real1dBinMapper<>(range.getMin(), range.getMax(), 1000, false);
-		Histogram1d<T> histogram = new Histogram1d<>(mapper);
-		histogram.countData(interval);
+		// one pass through data
+		final HistogramSketch sketch = sketch(interval);
+		final T type = interval.firstElement();
+		final long totValues = sketch.getCount();
+		if (totValues == 0) {
+			// no finite values: fall back to the range of the type
+			return new DataRange(type.getMinValue(), type.getMaxValue());
+		}
 		// calc some sizes
-		long totValues = histogram.distributionCount();
 		long lowerSize = (long) Math.floor(lowerTail * totValues);
 		long upperSize = (long) Math.floor(upperTail * totValues);
-		// determine bin number containing > than lower tail size
-		long soFar = 0;
-		int bottom = 0;
-		while (soFar < lowerSize) {
-			soFar += histogram.frequency(bottom++);
-		}
-		while (histogram.frequency(bottom) == 0) {
-			bottom++;
-		}
-		// determine bin number containing < upper tail size
-		soFar = 0;
-		int top = 999;
-		while (soFar < upperSize) {
-			soFar += histogram.frequency(top--);
+		// determine bins containing the tail boundaries
+		final double width = sketch.getBinWidth();
+		final double bottom = sketch.getBinStart(lowerSize);
+		final double top = sketch.getBinStart(totValues - 1 - upperSize);
+		// determine approx boundaries
+		double min, max;
+		if (type instanceof IntegerType) {
+			min = Math.ceil(bottom);
+			max = Math.ceil(top + width) - 1;
 		}
-		while (histogram.frequency(top) == 0) {
-			top--;
+		else {
+			min = bottom;
+			max = top + width;
 		}
-		// determine approx boundaries
-		T approxMin = interval.firstElement().createVariable();
-		T approxMax = approxMin.createVariable();
-		histogram.getLowerBound(bottom, approxMin);
-		histogram.getUpperBound(top, approxMax);
-		double min = approxMin.getRealDouble();
-		double max = approxMax.getRealDouble();
+		min = Math.max(min, sketch.getMin());
+		max = Math.min(max, sketch.getMax());
 		// return them
 		return new DataRange(min, max);
 	}
 
+	// -- Helper methods --
+
+	/** Builds a histogram sketch of all the values in the interval. */
+	private HistogramSketch sketch(final IterableInterval<T> interval) {
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+		final long length = interval.size() / (4L * numThreads);
+		final int maxLength =
+			(int) Math.min(Integer.MAX_VALUE, Math.max(MIN_BLOCK_LENGTH, length));
+		final List<Block> blocks = StorageBlocks.blocks(interval, maxLength);
+		if (blocks == null) {
+			// unsupported storage: sketch serially, via the cursor
+			final HistogramSketch sketch = HistogramSketch.forError(errorBound);
+			for (final T value : interval) {
+				sketch.add(value.getRealDouble());
+			}
+			return sketch;
+		}
+
+		final boolean unsigned = StorageBlocks.isUnsigned(interval.firstElement());
+		final AtomicInteger nextBlock = new AtomicInteger();
+		final Callable<HistogramSketch> sketcher = new Callable<HistogramSketch>() {
+
+			@Override
+			public HistogramSketch call() {
+				final HistogramSketch sketch = HistogramSketch.forError(errorBound);
+				int b;
+				while ((b = nextBlock.getAndIncrement()) < blocks.size()) {
+					sketch.add(blocks.get(b), unsigned);
+				}
+				return sketch;
+			}
+		};
+
+		final int taskCount = Math.min(numThreads, blocks.size());
+		final List<Future<HistogramSketch>> futures = new ArrayList<>(taskCount);
+		for (int t = 0; t < taskCount; t++) {
+			futures.add(threadService.run(sketcher));
+		}
+		final HistogramSketch sketch = HistogramSketch.forError(errorBound);
+		try {
+			for (final Future<HistogramSketch> future : futures) {
+				sketch.merge(future.get());
+			}
+		}
+		catch (final InterruptedException | ExecutionException exc) {
+			throw new RuntimeException(exc);
+		}
+		return sketch;
+	}
+
 }
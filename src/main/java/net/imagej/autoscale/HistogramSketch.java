@@ -0,0 +1,327 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.autoscale;
+
+import net.imagej.util.StorageBlocks.Block;
+
+/**
+ * A one-pass, mergeable histogram which adapts its bins to the data it sees.
+ * <p>
+ * Bins are aligned on a grid whose width is a power of two. Whenever a value
+ * falls outside the current window of bins, the window is shifted or the bin
+ * width doubled (merging neighboring bins) as needed. Hence the histogram
+ * requires no prior knowledge of the data range, and sketches of disjoint
+ * subsets of the data (e.g., one per thread) can be {@link #merge merged} into
+ * a sketch of the whole.
+ * </p>
+ * <p>
+ * With {@code n} bins, every bin is narrower than {@code 2 / (n - 2)} of the
+ * data range, which bounds the error of any quantile estimate. NaN and
+ * infinite values are ignored.
+ * </p>
+ */
+public class HistogramSketch {
+
+	/** Smallest supported bin width exponent. */
+	private static final int MIN_SHIFT = Double.MIN_EXPONENT;
+
+	/** Bin counts of the current window. */
+	private final long[] counts;
+
+	/** Bin width is {@code 2^shift}. */
+	private int shift;
+
+	/** Grid index of {@code counts[0]}. */
+	private long start;
+
+	/** Value range covered by the current window. */
+	private double windowMin, windowMax;
+
+	private long count;
+	private double sum, sumOfSquares;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Creates a sketch with the given number of bins.
+	 * 
+	 * @param binCount number of bins; must be at least 4.
+	 */
+	public HistogramSketch(final int binCount) {
+		if (binCount < 4) {
+			throw new IllegalArgumentException("at least 4 bins are required");
+		}
+		counts = new long[binCount];
+	}
+
+	/**
+	 * Creates a sketch whose bins are narrower than the given fraction of the
+	 * data range.
+	 */
+	public static HistogramSketch forError(final double error) {
+		if (!(error > 0 && error <= 1)) {
+			throw new IllegalArgumentException(
+				"error bound must be greater than 0 and at most 1");
+		}
+		final double bins = Math.ceil(2 / error) + 2;
+		if (bins > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("error bound is too small: " + error);
+		}
+		return new HistogramSketch((int) bins);
+	}
+
+	// -- HistogramSketch methods --
+
+	/** Adds a value to the histogram. */
+	public void add(final double v) {
+		// NB: The negated comparison is also true for NaN.
+		if (!(v >= windowMin && v < windowMax) && !expand(v)) return;
+		counts[(int) (index(v, shift) - start)]++;
+		count++;
+		sum += v;
+		sumOfSquares += v * v;
+		if (v < min) min = v;
+		if (v > max) max = v;
+	}
+
+	/**
+	 * Adds all values of the given storage block to the histogram.
+	 * 
+	 * @param block the block of primitive storage to add
+	 * @param unsigned whether integer storage is interpreted as unsigned
+	 */
+	public void add(final Block block, final boolean unsigned) {
+		final Object array = block.getArray();
+		final int start = block.getOffset();
+		final int end = start + block.getLength();
+		if (array instanceof byte[]) {
+			final byte[] a = (byte[]) array;
+			if (unsigned) for (int i = start; i < end; i++) add(a[i] & 0xff);
+			else for (int i = start; i < end; i++) add(a[i]);
+		}
+		else if (array instanceof short[]) {
+			final short[] a = (short[]) array;
+			if (unsigned) for (int i = start; i < end; i++) add(a[i] & 0xffff);
+			else for (int i = start; i < end; i++) add(a[i]);
+		}
+		else if (array instanceof int[]) {
+			final int[] a = (int[]) array;
+			if (unsigned) for (int i = start; i < end; i++) add(a[i] & 0xffffffffL);
+			else for (int i = start; i < end; i++) add(a[i]);
+		}
+		else if (array instanceof long[]) {
+			final long[] a = (long[]) array;
+			for (int i = start; i < end; i++) add(a[i]);
+		}
+		else if (array instanceof float[]) {
+			final float[] a = (float[]) array;
+			for (int i = start; i < end; i++) add(a[i]);
+		}
+		else if (array instanceof double[]) {
+			final double[] a = (double[]) array;
+			for (int i = start; i < end; i++) add(a[i]);
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported storage: " +
+				array.getClass().getName());
+		}
+	}
+
+	/** Adds all the values of another sketch to this one. */
+	public void merge(final HistogramSketch other) {
+		if (other.count == 0) return;
+		final double newMin = Math.min(min, other.min);
+		final double newMax = Math.max(max, other.max);
+		rebin(count == 0 ? other.shift : Math.max(shift, other.shift), newMin,
+			newMax);
+		final int d = shift - other.shift;
+		for (int i = 0; i < other.counts.length; i++) {
+			if (other.counts[i] == 0) continue;
+			counts[(int) (coarsen(other.start + i, d) - start)] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		sumOfSquares += other.sumOfSquares;
+		min = newMin;
+		max = newMax;
+	}
+
+	/** Gets the number of values added to the histogram. */
+	public long getCount() {
+		return count;
+	}
+
+	/** Gets the sum of the values added. */
+	public double getSum() {
+		return sum;
+	}
+
+	/** Gets the sum of the squares of the values added. */
+	public double getSumOfSquares() {
+		return sumOfSquares;
+	}
+
+	/** Gets the smallest value added, or NaN if there are none. */
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/** Gets the largest value added, or NaN if there are none. */
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	/** Gets the current width of each bin. */
+	public double getBinWidth() {
+		return count == 0 ? Double.NaN : Math.scalb(1.0, shift);
+	}
+
+	/** Gets the number of bins in the histogram. */
+	public int getBinCount() {
+		return counts.length;
+	}
+
+	/** Gets the number of values counted in the given bin. */
+	public long frequency(final int bin) {
+		return counts[bin];
+	}
+
+	/** Gets the lower edge of the given bin. */
+	public double getLowerBound(final int bin) {
+		return Math.scalb((double) (start + bin), shift);
+	}
+
+	/**
+	 * Gets the lower edge of the bin containing the value of the given rank.
+	 * 
+	 * @param rank 0-based position of the value when all values are sorted in
+	 *          ascending order
+	 */
+	public double getBinStart(final long rank) {
+		if (rank < 0 || rank >= count) {
+			throw new IndexOutOfBoundsException("Invalid rank: " + rank);
+		}
+		long soFar = 0;
+		int bin = 0;
+		while (true) {
+			soFar += counts[bin];
+			if (soFar > rank) break;
+			bin++;
+		}
+		return getLowerBound(bin);
+	}
+
+	/**
+	 * Estimates the given quantile of the values added. The estimate is the
+	 * center of the bin containing the quantile, clamped to the data range.
+	 * 
+	 * @param q the quantile, between 0 and 1
+	 */
+	public double quantile(final double q) {
+		if (q < 0 || q > 1) {
+			throw new IllegalArgumentException("quantile must be between 0 and 1");
+		}
+		if (count == 0) return Double.NaN;
+		final long rank = Math.min(count - 1, (long) Math.floor(q * count));
+		final double center = getBinStart(rank) + getBinWidth() / 2;
+		return Math.max(min, Math.min(max, center));
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Adapts the bins so that the given value falls within the window.
+	 * 
+	 * @return false iff the value cannot be binned
+	 */
+	private boolean expand(final double v) {
+		if (Double.isNaN(v) || Double.isInfinite(v)) return false;
+		if (count == 0) rebin(MIN_SHIFT, v, v);
+		else rebin(shift, Math.min(min, v), Math.max(max, v));
+		return true;
+	}
+
+	/**
+	 * Moves the existing counts onto the coarsest grid needed for the bin window
+	 * to span the given range using at least the given bin width exponent.
+	 */
+	private void rebin(final int minShift, final double lo, final double hi) {
+		final int newShift = fitShift(minShift, lo, hi);
+		final long first = index(lo, newShift);
+		final long last = index(hi, newShift);
+		// NB: Center the data range within the window.
+		final long newStart = first - (counts.length - (last - first + 1)) / 2;
+		final long[] newCounts = new long[counts.length];
+		if (count > 0) {
+			final int d = newShift - shift;
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0) continue;
+				newCounts[(int) (coarsen(start + i, d) - newStart)] += counts[i];
+			}
+		}
+		System.arraycopy(newCounts, 0, counts, 0, counts.length);
+		shift = newShift;
+		start = newStart;
+		windowMin = Math.scalb((double) start, shift);
+		windowMax = Math.scalb((double) (start + counts.length), shift);
+	}
+
+	/**
+	 * Finds the smallest bin width exponent, no smaller than the given one, for
+	 * which the range fits within the window. Grid indices are kept within the
+	 * 53-bit range in which doubles represent integers exactly.
+	 */
+	private int fitShift(final int minShift, final double lo, final double hi) {
+		final double maxAbs = Math.max(Math.abs(lo), Math.abs(hi));
+		int s = Math.max(minShift, Math.getExponent(maxAbs) - 52);
+		double span = hi - lo;
+		if (Double.isInfinite(span)) span = Double.MAX_VALUE;
+		if (span > 0) s = Math.max(s, Math.getExponent(span / counts.length));
+		while (index(hi, s) - index(lo, s) >= counts.length) s++;
+		return s;
+	}
+
+	/** Gets the index of the bin containing the given value. */
+	private static long index(final double v, final int s) {
+		final double scaled = Math.scalb(v, -s);
+		// NB: Tiny negative values may underflow to -0.0 when scaled.
+		if (scaled == 0 && v < 0) return -1;
+		return (long) Math.floor(scaled);
+	}
+
+	/** Converts a grid index to a grid {@code 2^d} times coarser. */
+	private static long coarsen(final long index, final int d) {
+		if (d >= 63) return index < 0 ? -1 : 0;
+		return index >> d;
+	}
+
+}
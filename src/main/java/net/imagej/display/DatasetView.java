@@ -43,6 +43,7 @@ import net.imglib2.type.numeric.RealType;
 
 import org.scijava.display.Display;
 import org.scijava.util.ColorRGB;
+import org.scijava.util.IntRect;
 
 /**
  * A linkage between a {@link Dataset} and a {@link Display}. The view takes
@@ -153,4 +154,50 @@ public interface DatasetView extends DataView {
 	
 	ColorRGB getColor(ChannelCollection channels);
 
+	/**
+	 * Limits rendering to the region of the data visible on the given canvas.
+	 * <p>
+	 * While a viewport is set, the {@link #getScreenImage() screen image} covers
+	 * only (a neighborhood of) the visible region, given by
+	 * {@link #getScreenRegion()}, and at low zoom it is rendered from a
+	 * downsampled version of the data, with {@link #getScreenScale()} data pixels
+	 * per screen pixel. Panning and zooming the canvas re-renders as needed.
+	 * </p>
+	 * <p>
+	 * Views which do not support viewport rendering ignore this setting, and
+	 * always render whole planes.
+	 * </p>
+	 * 
+	 * @param canvas The canvas whose visible region should be rendered, or null
+	 *          to render whole planes.
+	 */
+	default void setViewport(final ImageCanvas canvas) {
+		// NB: No implementation needed.
+	}
+
+	/**
+	 * Gets the canvas which limits rendering to its visible region, or null if
+	 * whole planes are rendered.
+	 */
+	default ImageCanvas getViewport() {
+		return null;
+	}
+
+	/**
+	 * Gets the region of the XY plane, in data coordinates, covered by the
+	 * {@link #getScreenImage() screen image}.
+	 */
+	default IntRect getScreenRegion() {
+		return new IntRect(0, 0, (int) getData().dimension(0), (int) getData()
+			.dimension(1));
+	}
+
+	/**
+	 * Gets the number of data pixels (along each of X and Y) represented by one
+	 * pixel of the {@link #getScreenImage() screen image}.
+	 */
+	default int getScreenScale() {
+		return 1;
+	}
+
 }
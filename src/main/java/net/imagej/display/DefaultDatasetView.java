@@ -32,6 +32,7 @@
 package net.imagej.display;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -39,6 +40,7 @@ import net.imagej.ChannelCollection;
 import net.imagej.Data;
 import net.imagej.Dataset;
 import net.imagej.ImgPlus;
+import net.imagej.PlaneStatistics;
 import net.imagej.Position;
 import net.imagej.autoscale.AutoscaleService;
 import net.imagej.autoscale.DataRange;
@@ -46,9 +48,13 @@ import net.imagej.axis.Axes;
 import net.imagej.axis.AxisType;
 import net.imagej.display.event.DataViewUpdatedEvent;
 import net.imagej.display.event.LUTsChangedEvent;
+import net.imagej.display.event.PanZoomEvent;
+import net.imagej.display.event.PyramidUpdatedEvent;
+import net.imagej.display.event.ViewportResizeEvent;
 import net.imagej.event.DatasetRGBChangedEvent;
 import net.imagej.event.DatasetTypeChangedEvent;
 import net.imagej.event.DatasetUpdatedEvent;
+import net.imagej.util.StorageBlocks;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.RealLUTConverter;
 import net.imglib2.display.ColorTable;
@@ -67,6 +73,8 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.thread.ThreadService;
 import org.scijava.util.ColorRGB;
+import org.scijava.util.IntRect;
+import org.scijava.util.RealCoords;
 
 /**
  * A view into a {@link Dataset}, for use with a {@link ImageDisplay}.
@@ -79,6 +87,15 @@ import org.scijava.util.ColorRGB;
 public class DefaultDatasetView extends AbstractDataView implements DatasetView
 {
 
+	/** Largest number of data pixels per screen pixel, along X and Y. */
+	private static final int MAX_SCREEN_SCALE = 1 << 10;
+
+	/**
+	 * Fraction of the viewport size rendered beyond each edge of the visible
+	 * region, when rendering is limited to a viewport.
+	 */
+	private static final double VIEWPORT_MARGIN = 0.25;
+
 	@Parameter
 	private AutoscaleService autoscaleService;
 
@@ -88,6 +105,9 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 	@Parameter(required = false)
 	private EventService eventService;
 
+	@Parameter(required = false)
+	private PyramidService pyramidService;
+
 	/** The dimensional index representing channels, for compositing. */
 	private int channelDimIndex;
 
@@ -104,6 +124,15 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 	private final ArrayList<RealLUTConverter<? extends RealType<?>>> converters =
 		new ArrayList<>();
 
+	/** Canvas limiting rendering to its visible region, or null for none. */
+	private ImageCanvas viewport;
+
+	/** Region of the XY plane, in data coordinates, covered by the screen. */
+	private IntRect screenRegion;
+
+	/** Number of data pixels per screen pixel, along each of X and Y. */
+	private int screenScale = 1;
+
 	// -- DatasetView methods --
 
 	@Override
@@ -164,11 +193,7 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 		double max = data.getChannelMaximum(c);
 		if (Double.isNaN(min) || Double.isNaN(max)) {
 			// not provided in metadata, so calculate the min/max
-			RandomAccessibleInterval<? extends RealType<?>> interval =
-				channelData(data, c);
-			interval = xyPlane(interval);
-			final DataRange result =
-				autoscaleService.getDefaultRandomAccessRange(interval);
+			final DataRange result = planeRange(data, c);
 			min = result.getMin();
 			max = result.getMax();
 			// cache min/max in metadata for next time
@@ -320,6 +345,29 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 		return new ColorRGB(r, g, b);
 	}
 
+	@Override
+	public synchronized void setViewport(final ImageCanvas canvas) {
+		viewport = canvas;
+		if (isInitialized()) updateScreenRegion(true);
+	}
+
+	@Override
+	public ImageCanvas getViewport() {
+		return viewport;
+	}
+
+	@Override
+	public IntRect getScreenRegion() {
+		if (screenRegion == null) return DatasetView.super.getScreenRegion();
+		return new IntRect(screenRegion.x, screenRegion.y, screenRegion.width,
+			screenRegion.height);
+	}
+
+	@Override
+	public int getScreenScale() {
+		return screenScale;
+	}
+
 	@Override
 	public RandomAccessibleInterval<? extends RealType<?>> xyPlane() {
 		return xyPlane(getData().getImgPlus());
@@ -362,11 +410,13 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 
 	@Override
 	public int getPreferredWidth() {
+		if (viewport != null) return (int) getData().dimension(0);
 		return getScreenImage().image().getWidth(null);
 	}
 
 	@Override
 	public int getPreferredHeight() {
+		if (viewport != null) return (int) getData().dimension(1);
 		return getScreenImage().image().getHeight(null);
 	}
 
@@ -392,9 +442,9 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 			resetColorTables(false);
 		}
 
-		final int width = (int) img.dimension(0);
-		final int height = (int) img.dimension(1);
-		screenImage = new ARGBScreenImage(width, height);
+		screenScale = viewportScale();
+		screenRegion = viewportRegion(img, screenScale);
+		screenImage = screenBuffer();
 
 		initializeView(isComposite());
 		updateLUTs();
@@ -434,7 +484,9 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 			updateLUTs();
 		}
 
-		projector.map();
+		// NB: At low zoom, the new plane may not be up to date in the pyramid.
+		if (screenScale > 1) updateScreenRegion(true);
+		else projector.map();
 
 		super.setPosition(position, axis);
 	}
@@ -471,6 +523,27 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 		}
 	}
 
+	@EventHandler
+	protected void onEvent(final PanZoomEvent event) {
+		if (viewport != null && viewport == event.getCanvas()) {
+			updateScreenRegion(false);
+		}
+	}
+
+	@EventHandler
+	protected void onEvent(final ViewportResizeEvent event) {
+		if (viewport != null && viewport == event.getCanvas()) {
+			updateScreenRegion(false);
+		}
+	}
+
+	@EventHandler
+	protected void onEvent(final PyramidUpdatedEvent event) {
+		if (screenScale > 1 && event.getPyramid().getDataset() == getData()) {
+			updateScreenRegion(true);
+		}
+	}
+
 	@EventHandler
 	protected void onEvent(final DatasetUpdatedEvent event) {
 		// FIXME: eliminate hacky logic here
@@ -482,7 +555,9 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 		}
 		if (getData() == event.getObject()) {
 			if (event.isMetaDataOnly()) return;
-			projector.map();
+			// NB: Pyramid levels are stale until rebuilt, so render without them.
+			if (screenScale > 1) updateScreenRegion(true, false);
+			else projector.map();
 		}
 	}
 
@@ -519,20 +594,256 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 			converters.add(converter);
 		}
 
+		projector = createProjector(true);
+		projector.setComposite(composite);
+	}
+
+	/**
+	 * Creates a projector from the current screen region to the screen.
+	 * Downsampled data comes from the dataset's {@link ImagePyramid} when it is
+	 * complete and allowed, and is subsampled from the image itself otherwise.
+	 * 
+	 * @param usePyramid Whether downsampled data may come from the dataset's
+	 *          {@link ImagePyramid}.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private CompositeXYProjector<? extends RealType<?>> createProjector(
+		final boolean usePyramid)
+	{
 		final ImgPlus<?> img = getData().getImgPlus();
+		final ImagePyramid pyramid =
+			usePyramid && screenScale > 1 ? pyramid() : null;
+		int level = 0;
+		if (pyramid != null) {
+			final long[] planes = getDisplayedPlanes();
+			if (pyramid.isComplete(planes)) {
+				level = pyramid.getLevelForScale(screenScale);
+			}
+			// NB: Planes invalidated with the whole dataset are built once shown.
+			else pyramidService.build(pyramid, planes);
+		}
+		final RandomAccessibleInterval source =
+			level == 0 ? img : pyramid.getLevel(level);
+		final int levelScale = 1 << level;
+		final long x0 = screenRegion.x / levelScale;
+		final long y0 = screenRegion.y / levelScale;
+		final int step = screenScale / levelScale;
+
+		if (isPlaneStorage(source)) {
+			return new LookupCompositeXYProjector(source, screenImage, converters,
+				channelDimIndex, threadService, x0, y0, step);
+		}
+		if (isWholeImage() &&
+			AbstractCellImg.class.isAssignableFrom(img.getImg().getClass()))
+		{
+			return new SourceOptimizedCompositeXYProjector(img, screenImage,
+				converters, channelDimIndex);
+		}
+		return new CompositeXYProjector(screenSource(source, levelScale),
+			screenImage, converters, channelDimIndex);
+	}
+
+	/** Gets whether the whole image is rendered to the screen at full size. */
+	private boolean isWholeImage() {
+		final Dataset data = getData();
+		return screenScale == 1 && screenRegion.x == 0 && screenRegion.y == 0 &&
+			screenRegion.width == data.dimension(0) &&
+			screenRegion.height == data.dimension(1);
+	}
 
-		if (AbstractCellImg.class.isAssignableFrom(img.getImg().getClass())) {
-			projector =
-				new SourceOptimizedCompositeXYProjector(getData().getImgPlus(),
-					screenImage, converters, channelDimIndex);
+	/**
+	 * Gets the data rendered to the screen: the screen region of the given
+	 * pyramid level, downsampled by the rest of the screen scale.
+	 */
+	private RandomAccessibleInterval<?> screenSource(
+		final RandomAccessibleInterval<?> source, final int levelScale)
+	{
+		if (isWholeImage()) return source;
+		final long[] offset = new long[source.numDimensions()];
+		final long[] dims = new long[source.numDimensions()];
+		final long[] steps = new long[source.numDimensions()];
+		source.dimensions(dims);
+		Arrays.fill(steps, 1);
+		offset[0] = screenRegion.x / levelScale;
+		offset[1] = screenRegion.y / levelScale;
+		dims[0] = (screenRegion.width + levelScale - 1) / levelScale;
+		dims[1] = (screenRegion.height + levelScale - 1) / levelScale;
+		steps[0] = steps[1] = screenScale / levelScale;
+		return Views.subsample(Views.offsetInterval(source, offset, dims), steps);
+	}
+
+	/**
+	 * Gets the dataset's pyramid, requesting one if there is none yet. Only
+	 * views rendering to a viewport use pyramids.
+	 */
+	private ImagePyramid pyramid() {
+		if (pyramidService == null || viewport == null) return null;
+		final ImagePyramid pyramid = pyramidService.getPyramid(getData());
+		if (pyramid != null) return pyramid;
+		pyramidService.createPyramid(getData(), DownsampleMethod.MEAN);
+		return null;
+	}
+
+	/**
+	 * Gets the indices of the planes rendered to the screen: the plane at the
+	 * current position, or all of its channels if the view is composite.
+	 * Planes are numbered as by {@link net.imagej.Position}.
+	 */
+	long[] getDisplayedPlanes() {
+		final Dataset data = getData();
+		final boolean composite =
+			projector == null ? isComposite() : projector.isComposite();
+		long plane = 0, stride = 1, channelStride = 0;
+		for (int d = 2; d < data.numDimensions(); d++) {
+			if (d == channelDimIndex && composite) channelStride = stride;
+			else if (projector != null) {
+				plane += stride * projector.getLongPosition(d);
+			}
+			stride *= data.dimension(d);
 		}
-		else {
-			projector =
-				new CompositeXYProjector(getData().getImgPlus(), screenImage,
-					converters, channelDimIndex);
+		if (channelStride == 0) return new long[] { plane };
+		final long[] planes = new long[(int) data.dimension(channelDimIndex)];
+		for (int c = 0; c < planes.length; c++) {
+			planes[c] = plane + c * channelStride;
+		}
+		return planes;
+	}
+
+	/**
+	 * Gets a screen image sized for the current screen region, reusing the
+	 * current one if it already has the right size.
+	 */
+	private ARGBScreenImage screenBuffer() {
+		final int width = (screenRegion.width + screenScale - 1) / screenScale;
+		final int height = (screenRegion.height + screenScale - 1) / screenScale;
+		if (screenImage != null && screenImage.dimension(0) == width &&
+			screenImage.dimension(1) == height)
+		{
+			return screenImage;
+		}
+		return new ARGBScreenImage(width, height);
+	}
+
+	/**
+	 * Re-renders the screen if the visible region of the viewport is no longer
+	 * covered by the screen region, or needs a different screen scale.
+	 */
+	private void updateScreenRegion(final boolean force) {
+		updateScreenRegion(force, true);
+	}
+
+	/**
+	 * Re-renders the screen as {@link #updateScreenRegion(boolean)} does.
+	 * 
+	 * @param usePyramid Whether downsampled data may come from the dataset's
+	 *          {@link ImagePyramid}. Callers which know the pyramid to be stale
+	 *          pass false, since it is not necessarily invalidated yet.
+	 */
+	private synchronized void updateScreenRegion(final boolean force,
+		final boolean usePyramid)
+	{
+		if (!isInitialized()) return;
+		final ImgPlus<?> img = getData().getImgPlus();
+		final int scale = viewportScale();
+		if (!force && scale == screenScale &&
+			contains(screenRegion, visibleRegion(img, scale, 0)))
+		{
+			return;
 		}
 
+		// NB: Carry the view state over to the new projector.
+		final long[] position = new long[projector.numDimensions()];
+		projector.localize(position);
+		final boolean composite = projector.isComposite();
+
+		screenScale = scale;
+		screenRegion = viewportRegion(img, scale);
+		screenImage = screenBuffer();
+		projector = createProjector(usePyramid);
+		for (int d = 2; d < position.length; d++) {
+			projector.setPosition(position[d], d);
+		}
 		projector.setComposite(composite);
+		projector.map();
+		update();
+	}
+
+	/**
+	 * Gets the screen scale for the viewport's zoom factor: the largest power of
+	 * two data pixels which still fit within one canvas pixel.
+	 */
+	private int viewportScale() {
+		if (viewport == null) return 1;
+		final double zoom = viewport.getZoomFactor();
+		int scale = 1;
+		while (scale < MAX_SCREEN_SCALE && 2 * scale * zoom <= 1) {
+			scale *= 2;
+		}
+		return scale;
+	}
+
+	/**
+	 * Gets the screen region for the viewport: its visible region plus a margin
+	 * (so that small pans need no re-rendering), or the whole plane if there is
+	 * no viewport.
+	 */
+	private IntRect viewportRegion(final ImgPlus<?> img, final int scale) {
+		if (viewport == null) {
+			return new IntRect(0, 0, (int) img.dimension(0), (int) img
+				.dimension(1));
+		}
+		return visibleRegion(img, scale, VIEWPORT_MARGIN);
+	}
+
+	/**
+	 * Gets the region of the plane visible on the viewport, grown by the given
+	 * fraction of the viewport size on each side, aligned to the screen scale
+	 * and clipped to the plane.
+	 */
+	private IntRect visibleRegion(final ImgPlus<?> img, final int scale,
+		final double margin)
+	{
+		final double zoom = viewport.getZoomFactor();
+		final RealCoords center = viewport.getPanCenter();
+		final double halfWidth =
+			viewport.getViewportWidth() * (0.5 + margin) / zoom;
+		final double halfHeight =
+			viewport.getViewportHeight() * (0.5 + margin) / zoom;
+		final int[] x = span(center.x - halfWidth, center.x + halfWidth, scale,
+			img.dimension(0));
+		final int[] y = span(center.y - halfHeight, center.y + halfHeight, scale,
+			img.dimension(1));
+		return new IntRect(x[0], y[0], x[1] - x[0], y[1] - y[0]);
+	}
+
+	/**
+	 * Gets the pixel span {@code [start, end)} covering the given coordinates,
+	 * aligned to multiples of {@code scale} and clipped to {@code [0, size)}.
+	 * The span is never empty.
+	 */
+	private static int[] span(final double from, final double to,
+		final int scale, final long size)
+	{
+		long start = (long) Math.floor(from) / scale * scale;
+		long end = ((long) Math.ceil(to) + scale - 1) / scale * scale;
+		start = Math.max(0, Math.min(start, size - 1));
+		end = Math.max(start + 1, Math.min(end, size));
+		return new int[] { (int) start, (int) end };
+	}
+
+	private static boolean contains(final IntRect outer, final IntRect inner) {
+		return inner.x >= outer.x && inner.y >= outer.y &&
+			inner.x + inner.width <= outer.x + outer.width &&
+			inner.y + inner.height <= outer.y + outer.height;
+	}
+
+	/**
+	 * Gets whether the XY planes of the given image can be read directly from
+	 * its primitive storage arrays.
+	 */
+	private boolean isPlaneStorage(final RandomAccessibleInterval<?> img) {
+		if (Intervals.numElements(img) == 0) return false;
+		return StorageBlocks.planeBlocks(img, 0) != null;
 	}
 
 	private void updateLUTs() {
@@ -563,6 +874,26 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 		return defaultLUTs.get(cPos); // return default channel LUT
 	}
 
+	/**
+	 * Computes the data range of the current plane of the given channel, using
+	 * the dataset's cached plane statistics where possible.
+	 */
+	private DataRange planeRange(final Dataset d, final int c) {
+		final Position pos = getPlanePosition();
+		if (channelDimIndex >= 0) {
+			pos.setPosition(c, channelDimIndex - 2);
+		}
+		final PlaneStatistics stats = d.getPlaneStatistics(pos.getIndex());
+		if (stats.getCount() > 0 && stats.getMin() != stats.getMax()) {
+			return new DataRange(stats.getMin(), stats.getMax());
+		}
+		// NB - fall back to the autoscale service, which never returns a display
+		// range of zero
+		final RandomAccessibleInterval<? extends RealType<?>> interval =
+			xyPlane(channelData(d, c));
+		return autoscaleService.getDefaultRandomAccessRange(interval);
+	}
+
 	private RandomAccessibleInterval<? extends RealType<?>> channelData(
 		final Dataset d, final int c)
 	{
@@ -143,6 +143,9 @@ public class DefaultImageCanvas implements ImageCanvas {
 	@Parameter(required = false)
 	private EventService eventService;
 
+	@Parameter(required = false)
+	private PyramidService pyramidService;
+
 	/** Initial scale factor, for resetting zoom. */
 	private double initialScale = 1;
 
@@ -406,9 +409,9 @@ public class DefaultImageCanvas implements ImageCanvas {
 
 		final int zoomIndex = lookupZoomIndex(levels, fractionalScale);
 
-		if (zoomIndex != -1) return levels[zoomIndex];
-
-		return nextSmallerZoom(levels, fractionalScale);
+		final double zoom = zoomIndex != -1 ? levels[zoomIndex] :
+			nextSmallerZoom(levels, fractionalScale);
+		return pyramidZoom(levels, zoom);
 	}
 
 	// -- Helper methods --
@@ -436,6 +439,25 @@ public class DefaultImageCanvas implements ImageCanvas {
 		return getPanCenter().y - viewportImageHeight / 2d;
 	}
 
+	/**
+	 * Snaps a zoom factor below 1 down to the nearest zoom level which matches a
+	 * level of the displayed dataset's {@link ImagePyramid}, if it has one, so
+	 * that the level can be shown at one screen pixel per level pixel.
+	 */
+	private double pyramidZoom(final double[] levels, final double zoom) {
+		if (zoom >= 1 || pyramidService == null) return zoom;
+		final DataView view = getDisplay().getActiveView();
+		if (!(view instanceof DatasetView)) return zoom;
+		final ImagePyramid pyramid =
+			pyramidService.getPyramid(((DatasetView) view).getData());
+		if (pyramid == null) return zoom;
+		int level = pyramid.getLevelForScale(1 / zoom);
+		if ((1L << level) * zoom < 1) level++; // NB: Stay below the given zoom.
+		if (level > pyramid.getLevelCount()) return zoom;
+		final double levelZoom = 1d / (1L << level);
+		return lookupZoomIndex(levels, levelZoom) == -1 ? zoom : levelZoom;
+	}
+
 	/** Checks whether the given scale is out of bounds. */
 	private boolean scaleOutOfBounds(final double desiredScale) {
 		if (desiredScale <= 0) {
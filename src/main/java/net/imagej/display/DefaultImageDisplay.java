@@ -113,6 +113,9 @@ public class DefaultImageDisplay extends AbstractDisplay<DataView> implements
 	// private final HashMap<AxisType, Long> pos =
 	// new HashMap<AxisType, Long>();
 
+	/** Number of times views have been added to or removed from the display. */
+	private volatile int modCount;
+
 	public DefaultImageDisplay() {
 		super(DataView.class);
 	}
@@ -156,6 +159,12 @@ public class DefaultImageDisplay extends AbstractDisplay<DataView> implements
 		if (getActiveAxis() == null) initActiveAxis();
 	}
 
+	@Override
+	protected void noteStructureChange() {
+		super.noteStructureChange();
+		modCount++;
+	}
+
 	// -- ImageDisplay methods --
 
 	@Override
@@ -648,6 +657,17 @@ public class DefaultImageDisplay extends AbstractDisplay<DataView> implements
 		cleanup();
 	}
 
+	// -- Internal methods --
+
+	/**
+	 * Gets the number of times views have been added to or removed from the
+	 * display through its {@link java.util.List} methods, so that callers can
+	 * notice such changes without comparing the views themselves.
+	 */
+	int getModificationCount() {
+		return modCount;
+	}
+
 	// -- Helper methods --
 
 	/**
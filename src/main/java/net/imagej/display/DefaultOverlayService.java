@@ -32,37 +32,49 @@
 package net.imagej.display;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 
 import net.imagej.ChannelCollection;
 import net.imagej.Data;
 import net.imagej.Dataset;
 import net.imagej.DrawingTool;
+import net.imagej.Extents;
 import net.imagej.Position;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.display.event.DataViewSelectionEvent;
+import net.imagej.event.DataDeletedEvent;
+import net.imagej.event.DataRestructuredEvent;
+import net.imagej.event.DataUpdatedEvent;
+import net.imagej.event.EventCoalescingService;
 import net.imagej.options.OptionsOverlay;
 import net.imagej.overlay.CompositeOverlay;
 import net.imagej.overlay.Overlay;
 import net.imagej.overlay.OverlaySettings;
+import net.imagej.overlay.SpanRasterizer;
+import net.imagej.overlay.Spans;
 import net.imagej.render.RenderingService;
-import net.imglib2.Cursor;
-import net.imglib2.IterableInterval;
-import net.imglib2.RealInterval;
-import net.imglib2.RealRandomAccess;
-import net.imglib2.RealRandomAccessibleRealInterval;
-import net.imglib2.roi.RegionOfInterest;
-import net.imglib2.type.logic.BitType;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.RandomAccessibleOnRealRandomAccessible;
-import net.imglib2.view.Views;
+import net.imagej.sampler.AxisSubrange;
+import net.imagej.sampler.SamplingDefinition;
+import net.imglib2.img.planar.PlanarImg;
 
 import org.scijava.display.Display;
 import org.scijava.display.DisplayService;
+import org.scijava.display.event.DisplayDeletedEvent;
+import org.scijava.event.EventHandler;
 import org.scijava.object.ObjectService;
 import org.scijava.options.OptionsService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.service.AbstractService;
 import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
 import org.scijava.util.RealRect;
 
 /**
@@ -91,9 +103,19 @@ public final class DefaultOverlayService extends AbstractService implements
 	@Parameter
 	private RenderingService renderingService;
 
+	@Parameter(required = false)
+	private ThreadService threadService;
+
+	@Parameter(required = false)
+	private EventCoalescingService eventCoalescingService;
+
 	private OverlaySettings defaultSettings;
 	private OverlayInfoList overlayInfo;
 
+	/** Spatial indices over the views of each display, built on demand. */
+	private final Map<ImageDisplay, DisplayIndex> indices =
+		new IdentityHashMap<>();
+
 	// -- OverlayService methods --
 
 	@Override
@@ -129,12 +151,31 @@ public final class DefaultOverlayService extends AbstractService implements
 		return getOverlays(display, false);
 	}
 
+	@Override
+	public List<Overlay> getOverlays(final ImageDisplay display,
+		final RealRect region)
+	{
+		return overlays(index(display).query(region));
+	}
+
+	@Override
+	public List<Overlay> getOverlays(final ImageDisplay display, final double x,
+		final double y)
+	{
+		return overlays(index(display).query(x, y));
+	}
+
 	@Override
 	public void addOverlays(final ImageDisplay display,
 		final List<? extends Overlay> overlays)
 	{
 		for (final Overlay overlay : overlays) {
+			final DisplayIndex index = currentIndex(display);
 			display.display(overlay);
+			// NB: the new view is appended; index it without a full rebuild
+			if (index != null && !display.isEmpty()) {
+				index.add(display.get(display.size() - 1), display);
+			}
 		}
 	}
 
@@ -146,9 +187,11 @@ public final class DefaultOverlayService extends AbstractService implements
 			final Data data = view.getData();
 			if (data == overlay) overlayViews.add(view);
 		}
+		final DisplayIndex index = currentIndex(display);
 		for (final DataView view : overlayViews) {
 			display.remove(view);
 			view.dispose();
+			if (index != null) index.remove(view, display);
 		}
 		display.update();
 	}
@@ -165,22 +208,17 @@ public final class DefaultOverlayService extends AbstractService implements
 	public RealRect getSelectionBounds(final ImageDisplay display) {
 		// TODO - Compute bounds over N dimensions, not just two.
 
-		// determine XY bounding box by checking all data objects
+		// determine XY bounding box from the indexed selection
+		final RealRect selection = index(display).getSelectionBounds();
 		double xMin = Double.POSITIVE_INFINITY;
 		double xMax = Double.NEGATIVE_INFINITY;
 		double yMin = Double.POSITIVE_INFINITY;
 		double yMax = Double.NEGATIVE_INFINITY;
-		for (final DataView view : display) {
-			if (!view.isSelected()) continue;
-			final Data data = view.getData();
-			final double min0 = data.realMin(0);
-			final double max0 = data.realMax(0);
-			final double min1 = data.realMin(1);
-			final double max1 = data.realMax(1);
-			if (min0 < xMin) xMin = min0;
-			if (max0 > xMax) xMax = max0;
-			if (min1 < yMin) yMin = min1;
-			if (max1 > yMax) yMax = max1;
+		if (selection != null) {
+			xMin = selection.x;
+			xMax = selection.x + selection.width;
+			yMin = selection.y;
+			yMax = selection.y + selection.height;
 		}
 
 		// get total XY extents of the display
@@ -251,6 +289,67 @@ public final class DefaultOverlayService extends AbstractService implements
 		draw(o, ds, position, channels, new OverlayFiller());
 	}
 
+	@Override
+	public void drawOverlays(final List<? extends Overlay> overlays,
+		final Dataset ds, final List<Position> planes,
+		final ChannelCollection channels)
+	{
+		draw(overlays, ds, planes, channels, new OverlayOutliner());
+	}
+
+	@Override
+	public void fillOverlays(final List<? extends Overlay> overlays,
+		final Dataset ds, final List<Position> planes,
+		final ChannelCollection channels)
+	{
+		draw(overlays, ds, planes, channels, new OverlayFiller());
+	}
+
+	@Override
+	public List<Position> getPlanes(final Dataset ds) {
+		return getPlanes(ds, null);
+	}
+
+	@Override
+	public List<Position> getPlanes(final Dataset ds,
+		final SamplingDefinition def)
+	{
+		final Map<AxisType, AxisSubrange> subranges = new HashMap<>();
+		if (def != null) {
+			final AxisType[] axes = def.getInputAxes();
+			final List<AxisSubrange> ranges = def.getInputSubranges();
+			for (int i = 0; i < axes.length; i++) {
+				subranges.put(axes[i], ranges.get(i));
+			}
+		}
+		// enumerate the selected indices of each non-XY axis
+		final int n = ds.numDimensions() - 2;
+		final long[] dims = new long[n];
+		final AxisSubrange[] indices = new AxisSubrange[n];
+		for (int d = 0; d < n; d++) {
+			dims[d] = ds.dimension(d + 2);
+			final AxisSubrange subrange = subranges.get(ds.axis(d + 2).type());
+			indices[d] = subrange == null ? new AxisSubrange(0, dims[d] - 1)
+				: subrange;
+		}
+		final Extents extents = new Extents(dims);
+		final List<Position> planes = new ArrayList<>();
+		final long[] counters = new long[n];
+		while (true) {
+			final Position position = extents.createPosition();
+			for (int d = 0; d < n; d++) {
+				position.setPosition(indices[d].getIndex(counters[d]), d);
+			}
+			planes.add(position);
+			int d = 0;
+			while (d < n && ++counters[d] == indices[d].getIndexCount()) {
+				counters[d++] = 0;
+			}
+			if (d == n) break;
+		}
+		return planes;
+	}
+
 	@Override
 	public ImageDisplay getFirstDisplay(final Overlay o) {
 		final List<Display<?>> displays = displayService.getDisplays();
@@ -284,7 +383,7 @@ public final class DefaultOverlayService extends AbstractService implements
 	// TODO - assumes first selected overlay view is the only one. bad?
 	@Override
 	public Overlay getActiveOverlay(final ImageDisplay disp) {
-		for (final DataView view : disp) {
+		for (final DataView view : index(disp).getSelected()) {
 			if (view.isSelected() && view instanceof OverlayView) {
 				return ((OverlayView) view).getData();
 			}
@@ -324,8 +423,102 @@ public final class DefaultOverlayService extends AbstractService implements
 		removeOverlay(overlay);
 	}
 
+	// -- Event handlers --
+
+	/** Refreshes the indexed bounds of modified data. */
+	@EventHandler
+	protected void onEvent(final DataUpdatedEvent event) {
+		for (final OverlayIndex index : indices()) {
+			index.update(event.getObject());
+		}
+	}
+
+	/** Refreshes the indexed bounds of restructured data. */
+	@EventHandler
+	protected void onEvent(final DataRestructuredEvent event) {
+		for (final OverlayIndex index : indices()) {
+			index.update(event.getObject());
+		}
+	}
+
+	/** Drops deleted data from the indices. */
+	@EventHandler
+	protected void onEvent(final DataDeletedEvent event) {
+		for (final OverlayIndex index : indices()) {
+			index.remove(event.getObject());
+		}
+	}
+
+	/** Tracks which views are selected. */
+	@EventHandler
+	protected void onEvent(final DataViewSelectionEvent event) {
+		for (final OverlayIndex index : indices()) {
+			index.update(event.getView());
+		}
+	}
+
+	/** Discards the index of a deleted display. */
+	@EventHandler
+	protected void onEvent(final DisplayDeletedEvent event) {
+		synchronized (indices) {
+			indices.remove(event.getObject());
+		}
+	}
+
 	// -- Helper methods --
 
+	/**
+	 * Gets the spatial index of the given display, (re)building it if the
+	 * display's views have been added or removed behind our back.
+	 */
+	private OverlayIndex index(final ImageDisplay display) {
+		synchronized (indices) {
+			DisplayIndex index = indices.get(display);
+			if (index == null || !index.isCurrent(display)) {
+				index = new DisplayIndex(display);
+				indices.put(display, index);
+			}
+			return index.index;
+		}
+	}
+
+	/**
+	 * Gets the spatial index of the given display if it is up to date, or
+	 * discards it and returns null otherwise.
+	 */
+	private DisplayIndex currentIndex(final ImageDisplay display) {
+		synchronized (indices) {
+			final DisplayIndex index = indices.get(display);
+			if (index == null || index.isCurrent(display)) return index;
+			indices.remove(display);
+			return null;
+		}
+	}
+
+	private List<OverlayIndex> indices() {
+		synchronized (indices) {
+			final List<OverlayIndex> list = new ArrayList<>(indices.size());
+			for (final DisplayIndex index : indices.values()) {
+				list.add(index.index);
+			}
+			return list;
+		}
+	}
+
+	private static int modificationCount(final ImageDisplay display) {
+		return display instanceof DefaultImageDisplay ? //
+			((DefaultImageDisplay) display).getModificationCount() : 0;
+	}
+
+	private List<Overlay> overlays(final List<DataView> views) {
+		final ArrayList<Overlay> overlays = new ArrayList<>();
+		for (final DataView view : views) {
+			final Data data = view.getData();
+			if (data instanceof Overlay) overlays.add((Overlay) data);
+		}
+		return overlays;
+	}
+
 	private void draw(final Overlay o, final Dataset ds, final Position position,
 		final ChannelCollection channels, final Drawer drawer)
 	{
@@ -341,109 +534,161 @@ public final class DefaultOverlayService extends AbstractService implements
 			fullPos[i] = pp[i - 2];
 		tool.setPosition(fullPos);
 		tool.setChannels(channels);
-		drawer.draw(o, tool);
-		ds.update();
+		drawSpans(drawer.rasterize(o), tool);
+		tool.update();
 	}
 
-	// -- Helper classes --
-
-	private interface Drawer {
+	private void draw(final List<? extends Overlay> overlays, final Dataset ds,
+		final List<Position> planes, final ChannelCollection channels,
+		final Drawer drawer)
+	{
+		if (ds == null || overlays.isEmpty() || planes.isEmpty()) return;
 
-		void draw(Overlay o, DrawingTool tool);
+		// rasterize each overlay once
+		final List<Spans> rasters = new ArrayList<>(overlays.size());
+		for (int i = 0; i < overlays.size(); i++) {
+			rasters.add(null);
+		}
+		parallel(overlays.size(), true, i -> rasters.set(i, drawer.rasterize(
+			overlays.get(i))));
+		// NB: Every overlay is drawn in the same color, so the union suffices.
+		final Spans spans = Spans.union(rasters);
+
+		// draw the planes, each with its own tool
+		// NB: Only planar images keep planes in separate arrays; elsewhere,
+		// neighboring planes may share storage words.
+		final boolean planar = ds.getImgPlus().getImg() instanceof PlanarImg;
+		// NB: Each position names a single plane, channel included, so each
+		// tool draws only its own channel. Otherwise a multichannel batch would
+		// draw every channel once per channel position, and parallel tools
+		// would write into the same planes at once.
+		final int channelAxis = ds.dimensionIndex(Axes.CHANNEL);
+		final DrawingTool[] tools = new DrawingTool[planes.size()];
+		parallel(planes.size(), planar, p -> {
+			final DrawingTool tool = new DrawingTool(ds, renderingService);
+			final long[] pp = new long[planes.get(p).numDimensions()];
+			planes.get(p).localize(pp);
+			final long[] fullPos = new long[pp.length + 2];
+			System.arraycopy(pp, 0, fullPos, 2, pp.length);
+			tool.setPosition(fullPos);
+			tool.setChannels(channels);
+			if (channelAxis >= 2) tool.setPreferredChannel(fullPos[channelAxis]);
+			drawSpans(spans, tool);
+			tools[p] = tool;
+		});
+
+		// notify listeners once
+		if (eventCoalescingService == null) ds.update();
+		else {
+			eventCoalescingService.batch(() -> {
+				for (final DrawingTool tool : tools) {
+					tool.update();
+				}
+			});
+		}
 	}
 
-	private static class OverlayOutliner implements Drawer {
+	private void drawSpans(final Spans spans, final DrawingTool tool) {
+		spans.forEach((row, start, end) -> tool.drawSpan(start, end, row));
+	}
 
-		@Override
-		public void draw(final Overlay o, final DrawingTool tool) {
-			final RegionOfInterest region = o.getRegionOfInterest();
-			final IterableInterval<BitType> ii = iterableInterval(region);
-
-			final long[] max = new long[region.numDimensions()];
-			ii.max(max);
-
-			final Cursor<BitType> cursor = ii.localizingCursor();
-			final RealRandomAccess<BitType> accessor = region.realRandomAccess();
-
-			long[] pos = new long[region.numDimensions()];
-			while (cursor.hasNext()) {
-				cursor.fwd();
-				cursor.localize(pos);
-				accessor.setPosition(pos);
-				if (accessor.get().get() &&
-					isBorderPixel(accessor, pos, max[0], max[1]))
-				{
-					tool.drawPixel(pos[0], pos[1]);
+	/**
+	 * Runs the given task for each index from 0 to count - 1, spreading the
+	 * indices across threads when allowed.
+	 */
+	private void parallel(final int count, final boolean allowed,
+		final IntConsumer task)
+	{
+		final int threads = threadService == null || !allowed ? 1 : Math.min(
+			count, Runtime.getRuntime().availableProcessors());
+		if (threads <= 1) {
+			for (int i = 0; i < count; i++) {
+				task.accept(i);
+			}
+			return;
+		}
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final int first = t;
+			futures.add(threadService.run(() -> {
+				for (int i = first; i < count; i += threads) {
+					task.accept(i);
 				}
+			}));
+		}
+		try {
+			for (final Future<?> future : futures) {
+				future.get();
 			}
 		}
-
-		private boolean isBorderPixel(final RealRandomAccess<BitType> accessor,
-			final long[] pos, final long maxX, final long maxY)
-		{
-			if (pos[0] == 0) return true;
-			if (pos[0] == maxX) return true;
-			if (pos[1] == 0) return true;
-			if (pos[1] == maxY) return true;
-			accessor.setPosition(pos[0] - 1, 0);
-			if (!accessor.get().get()) return true;
-			accessor.setPosition(pos[0] + 1, 0);
-			if (!accessor.get().get()) return true;
-			accessor.setPosition(pos[0], 0);
-			accessor.setPosition(pos[1] - 1, 1);
-			if (!accessor.get().get()) return true;
-			accessor.setPosition(pos[1] + 1, 1);
-			if (!accessor.get().get()) return true;
-			return false;
+		catch (final InterruptedException | ExecutionException exc) {
+			throw new RuntimeException(exc);
 		}
-
 	}
 
-	private static class OverlayFiller implements Drawer {
+	// -- Helper classes --
 
-		@Override
-		public void draw(final Overlay o, final DrawingTool tool) {
-			final RegionOfInterest region = o.getRegionOfInterest();
+	/**
+	 * The spatial index of a display, along with the modification count of the
+	 * display when the index last matched its views. Displays publish no events
+	 * when views are added or removed, so this is how staleness is noticed
+	 * without comparing all views.
+	 */
+	private static class DisplayIndex {
+
+		private final OverlayIndex index;
+		private volatile int modCount;
 
-			final Cursor<BitType> cursor =
-				iterableInterval(region).localizingCursor();
+		private DisplayIndex(final ImageDisplay display) {
+			modCount = modificationCount(display);
+			index = new OverlayIndex(display);
+		}
 
-			long[] pos = new long[region.numDimensions()];
-			while (cursor.hasNext()) {
-				cursor.fwd();
-				cursor.localize(pos);
-				if (cursor.get().get()) tool.drawPixel(pos[0], pos[1]);
+		private boolean isCurrent(final ImageDisplay display) {
+			if (display instanceof DefaultImageDisplay) {
+				return modCount == modificationCount(display);
 			}
+			// NB: Other displays keep no count, so compare the number of views and
+			// the views at either end.
+			final int size = display.size();
+			return index.size() == size && (size == 0 || index.contains(display
+				.get(0)) && index.contains(display.get(size - 1)));
+		}
+
+		private void add(final DataView view, final ImageDisplay display) {
+			index.add(view);
+			modCount = modificationCount(display);
+		}
+
+		private void remove(final DataView view, final ImageDisplay display) {
+			index.remove(view);
+			modCount = modificationCount(display);
 		}
 	}
 
-	// TODO: Consider contributing this method to net.imglib2.view.Views.
-	// See also: net.imglib2.roi.IterableRegionOfInterest
+	private interface Drawer {
 
-	private static <T> IterableInterval<T> iterableInterval(
-		final RealRandomAccessibleRealInterval<T> realInterval)
-	{
-		final RandomAccessibleOnRealRandomAccessible<T> raster =
-			Views.raster(realInterval);
-		final IntervalView<T> interval =
-			Views.interval(raster, findMin(realInterval), findMax(realInterval));
-		return Views.iterable(interval);
+		Spans rasterize(Overlay o);
 	}
 
-	private static long[] findMin(final RealInterval realInterval) {
-		final long[] boundMin = new long[realInterval.numDimensions()];
-		for (int i = 0; i < boundMin.length; i++) {
-			boundMin[i] = (long) Math.floor(realInterval.realMin(i));
+	private static class OverlayOutliner implements Drawer {
+
+		@Override
+		public Spans rasterize(final Overlay o) {
+			// NB: Where the region is cut off by the image's top or left edge, the
+			// outline runs along that edge.
+			return SpanRasterizer.rasterize(o).clip(0, 0, Long.MAX_VALUE,
+				Long.MAX_VALUE).outline();
 		}
-		return boundMin;
+
 	}
 
-	private static long[] findMax(final RealInterval realInterval) {
-		final long[] boundMax = new long[realInterval.numDimensions()];
-		for (int i = 0; i < boundMax.length; i++) {
-			boundMax[i] = (long) Math.ceil(realInterval.realMax(i));
+	private static class OverlayFiller implements Drawer {
+
+		@Override
+		public Spans rasterize(final Overlay o) {
+			return SpanRasterizer.rasterize(o);
 		}
-		return boundMax;
 	}
 
 }
@@ -0,0 +1,226 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.display;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import net.imagej.Dataset;
+import net.imagej.display.event.PyramidUpdatedEvent;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imagej.event.DatasetRestructuredEvent;
+import net.imagej.event.DatasetTypeChangedEvent;
+import net.imagej.event.DatasetUpdatedEvent;
+
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Default service for maintaining {@link ImagePyramid}s.
+ */
+@Plugin(type = Service.class)
+public class DefaultPyramidService extends AbstractService implements
+	PyramidService
+{
+
+	@Parameter
+	private ThreadService threadService;
+
+	@Parameter(required = false)
+	private EventService eventService;
+
+	@Parameter(required = false)
+	private LogService log;
+
+	@Parameter(required = false)
+	private ImageDisplayService imageDisplayService;
+
+	private Map<Dataset, ImagePyramid> pyramids;
+
+	/** Background builds in progress, per pyramid. */
+	private Map<ImagePyramid, Future<?>> builds;
+
+	// -- PyramidService methods --
+
+	@Override
+	public ImagePyramid getPyramid(final Dataset dataset) {
+		return pyramids.get(dataset);
+	}
+
+	@Override
+	public ImagePyramid createPyramid(final Dataset dataset,
+		final DownsampleMethod method)
+	{
+		final ImagePyramid pyramid = new ImagePyramid(dataset, method);
+		pyramids.put(dataset, pyramid);
+		build(pyramid);
+		return pyramid;
+	}
+
+	@Override
+	public void removePyramid(final Dataset dataset) {
+		pyramids.remove(dataset);
+	}
+
+	@Override
+	public Future<?> build(final ImagePyramid pyramid) {
+		pyramid.requestAll();
+		return start(pyramid);
+	}
+
+	@Override
+	public Future<?> build(final ImagePyramid pyramid, final long... planes) {
+		pyramid.request(planes);
+		return start(pyramid);
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		pyramids = new ConcurrentHashMap<>();
+		builds = new ConcurrentHashMap<>();
+	}
+
+	// -- Event handlers --
+
+	/** Invalidates and rebuilds the changed planes of a dataset's pyramid. */
+	@EventHandler
+	protected void onEvent(final DatasetUpdatedEvent event) {
+		final ImagePyramid pyramid = pyramids.get(event.getObject());
+		if (pyramid == null || event.isMetaDataOnly()) return;
+		if (event instanceof DatasetTypeChangedEvent) {
+			// NB: Levels share the type of the dataset, so must be recreated.
+			createPyramid(pyramid.getDataset(), pyramid.getMethod());
+			return;
+		}
+		final long[] planes = event.getPlanes();
+		if (planes == null) {
+			// NB: Rebuild the planes on screen now, and the others once shown.
+			pyramid.invalidate();
+			requestDisplayedPlanes(pyramid);
+		}
+		else pyramid.invalidatePlanes(planes);
+		if (pyramid.hasQueuedTiles()) start(pyramid);
+	}
+
+	/** Recreates the pyramid of a dataset whose dimensions may have changed. */
+	@EventHandler
+	protected void onEvent(final DatasetRestructuredEvent event) {
+		final ImagePyramid pyramid = pyramids.get(event.getObject());
+		if (pyramid == null) return;
+		createPyramid(pyramid.getDataset(), pyramid.getMethod());
+	}
+
+	/**
+	 * Discards the pyramid of a deleted dataset, stopping its build and
+	 * releasing its levels.
+	 */
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent event) {
+		final ImagePyramid pyramid = pyramids.remove(event.getObject());
+		if (pyramid == null) return;
+		pyramid.cancel();
+		// NB: The dataset's storage may be released once this event is handled,
+		// so wait for the build to stop reading it.
+		final Future<?> build = builds.get(pyramid);
+		try {
+			if (build != null) build.get();
+			pyramid.dispose();
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		catch (final ExecutionException | IOException exc) {
+			if (log != null) log.warn("Cannot release pyramid", exc);
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Builds the queued tiles of the given pyramid in the background. */
+	private synchronized Future<?> start(final ImagePyramid pyramid) {
+		final Future<?> running = builds.get(pyramid);
+		if (running != null) return running;
+		final Future<?> future = threadService.run(new Runnable() {
+
+			@Override
+			public void run() {
+				while (true) {
+					pyramid.build();
+					// NB: Tiles may be invalidated after the build loop finishes but
+					// before the build is deregistered; if so, keep building.
+					synchronized (DefaultPyramidService.this) {
+						if (!pyramid.hasQueuedTiles()) {
+							builds.remove(pyramid);
+							break;
+						}
+					}
+				}
+				if (eventService != null && pyramids.get(pyramid
+					.getDataset()) == pyramid)
+				{
+					eventService.publish(new PyramidUpdatedEvent(pyramid));
+				}
+			}
+		});
+		builds.put(pyramid, future);
+		return future;
+	}
+
+	/**
+	 * Queues the planes of the given pyramid which are shown downsampled, and
+	 * hence from the pyramid, by some view.
+	 */
+	private void requestDisplayedPlanes(final ImagePyramid pyramid) {
+		if (imageDisplayService == null) return;
+		for (final ImageDisplay display : imageDisplayService.getImageDisplays()) {
+			for (final DataView view : display) {
+				if (!(view instanceof DefaultDatasetView)) continue;
+				final DefaultDatasetView datasetView = (DefaultDatasetView) view;
+				if (datasetView.getData() != pyramid.getDataset() || datasetView
+					.getScreenScale() == 1) continue;
+				pyramid.request(datasetView.getDisplayedPlanes());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,579 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.display;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.Dataset;
+import net.imagej.ImgPlus;
+import net.imagej.mapped.MappedCellImg;
+import net.imagej.util.StorageBlocks;
+import net.imagej.util.StorageBlocks.Block;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+
+/**
+ * A stack of successively downsampled versions of a {@link Dataset}, for fast
+ * display at low zoom.
+ * <p>
+ * Level 0 is the dataset itself; each further level halves the X and Y
+ * dimensions of the one before it (rounding up), combining 2x2 blocks of
+ * pixels according to a {@link DownsampleMethod}. All other dimensions are
+ * kept, so planes are numbered identically at every level.
+ * </p>
+ * <p>
+ * Levels are maintained tile by tile: {@link #invalidate} marks the tiles
+ * covering a changed region as stale, and {@link #build()} recomputes only
+ * stale tiles. A tile spans {@link #TILE_SIZE} dataset pixels along X and Y,
+ * for a single plane.
+ * </p>
+ * <p>
+ * Invalidating the whole pyramid is lazy: the tiles of each plane are only
+ * queued for rebuilding once the plane is {@link #request requested}, e.g.
+ * because it is on screen.
+ * </p>
+ */
+public class ImagePyramid {
+
+	/** Maximum number of downsampled levels. */
+	public static final int MAX_LEVELS = 10;
+
+	/** Edge length of a tile, in dataset pixels. */
+	public static final int TILE_SIZE = 1 << MAX_LEVELS;
+
+	private final Dataset dataset;
+	private final DownsampleMethod method;
+	private final Img<? extends RealType<?>>[] levels;
+
+	private final long planeCount;
+	private final long tilesX, tilesY;
+
+	/** Indices of tiles whose levels are out of date. */
+	private final Set<Long> staleTiles = ConcurrentHashMap.newKeySet();
+
+	/** Number of tiles taken off {@link #staleTiles} but not yet built. */
+	private final AtomicInteger buildingTiles = new AtomicInteger();
+
+	/** Whether any plane is stale without its tiles being queued. */
+	private volatile boolean deferred;
+
+	/** Planes queued since the whole pyramid was last invalidated. */
+	private final Set<Long> requestedPlanes = new HashSet<>();
+
+	private final boolean unsigned;
+
+	/**
+	 * Creates a pyramid for the given dataset, storing levels in images of the
+	 * dataset's own type, created by its own {@link ImgFactory}. All tiles start
+	 * out stale.
+	 */
+	public ImagePyramid(final Dataset dataset, final DownsampleMethod method) {
+		this(dataset, method, dataset.getImgPlus().factory());
+	}
+
+	/**
+	 * Creates a pyramid for the given dataset, storing levels in images of the
+	 * dataset's own type, created by the given {@link ImgFactory} (e.g., to keep
+	 * large levels on disk). All tiles start out stale.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public ImagePyramid(final Dataset dataset, final DownsampleMethod method,
+		final ImgFactory<?> factory)
+	{
+		this.dataset = dataset;
+		this.method = method;
+
+		final ImgPlus<? extends RealType<?>> img = dataset.getImgPlus();
+		final long[] dims = new long[img.numDimensions()];
+		img.dimensions(dims);
+		final long width = dims[0], height = dims.length > 1 ? dims[1] : 1;
+		planeCount = img.size() / (width * height);
+		tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+		int levelCount = 0;
+		while (levelCount < MAX_LEVELS &&
+			(scaled(width, levelCount) > 1 || scaled(height, levelCount) > 1))
+		{
+			levelCount++;
+		}
+		levels = new Img[levelCount + 1];
+		final NativeType type =
+			(NativeType) ((NativeType) img.firstElement()).createVariable();
+		for (int level = 1; level <= levelCount; level++) {
+			dims[0] = scaled(width, level);
+			if (dims.length > 1) dims[1] = scaled(height, level);
+			levels[level] = ((ImgFactory) factory).create(dims, type);
+		}
+		unsigned = StorageBlocks.isUnsigned(type);
+		for (long plane = 0; plane < planeCount; plane++) {
+			queue(plane, 0, 0, tilesX * TILE_SIZE, tilesY * TILE_SIZE);
+		}
+	}
+
+	// -- ImagePyramid methods --
+
+	public Dataset getDataset() {
+		return dataset;
+	}
+
+	public DownsampleMethod getMethod() {
+		return method;
+	}
+
+	/** Gets the number of downsampled levels, not counting level 0. */
+	public int getLevelCount() {
+		return levels.length - 1;
+	}
+
+	/**
+	 * Gets the given level: the dataset's {@link ImgPlus} for level 0, and an
+	 * image downsampled by {@code 2^level} along X and Y otherwise. Stale tiles
+	 * of a downsampled level hold outdated (or no) data.
+	 */
+	public Img<? extends RealType<?>> getLevel(final int level) {
+		if (level == 0) return dataset.getImgPlus();
+		return levels[level];
+	}
+
+	/**
+	 * Gets the deepest level whose downsampling factor does not exceed the
+	 * given one.
+	 */
+	public int getLevelForScale(final double scale) {
+		int level = 0;
+		while (level < getLevelCount() && 1L << (level + 1) <= scale) {
+			level++;
+		}
+		return level;
+	}
+
+	/** Gets whether every tile of every level is up to date. */
+	public boolean isComplete() {
+		return !deferred && !hasQueuedTiles();
+	}
+
+	/**
+	 * Gets whether every tile of the given planes is up to date, at every level.
+	 * While any tile is queued for rebuilding, no plane counts as up to date.
+	 */
+	public boolean isComplete(final long... planeIndices) {
+		for (final long plane : planeIndices) {
+			if (isDeferred(plane)) return false;
+		}
+		return !hasQueuedTiles();
+	}
+
+	/** Gets whether any tile is queued for rebuilding, or being rebuilt. */
+	public boolean hasQueuedTiles() {
+		// NB: Check the stale tiles first; a tile is counted as building before
+		// it leaves the stale set, and until after it has been built.
+		return !staleTiles.isEmpty() || buildingTiles.get() > 0;
+	}
+
+	/**
+	 * Gets whether the given plane is stale since the whole pyramid was
+	 * invalidated, but has not been {@link #request requested} since.
+	 */
+	public synchronized boolean isDeferred(final long planeIndex) {
+		return deferred && !requestedPlanes.contains(planeIndex);
+	}
+
+	/**
+	 * Marks every tile as stale. Unlike the other invalidate methods, this
+	 * queues no tiles: those of each plane are queued once the plane is
+	 * {@link #request requested}, so that only planes which are looked at get
+	 * rebuilt.
+	 */
+	public synchronized void invalidate() {
+		requestedPlanes.clear();
+		deferred = true;
+	}
+
+	/**
+	 * Queues the tiles of those given planes which are {@link #isDeferred
+	 * deferred}, for the next {@link #build()}.
+	 * 
+	 * @return Whether any tiles were queued.
+	 */
+	public synchronized boolean request(final long... planeIndices) {
+		boolean queued = false;
+		for (final long plane : planeIndices) {
+			checkPlane(plane);
+			if (!isDeferred(plane)) continue;
+			queue(plane, 0, 0, tilesX * TILE_SIZE, tilesY * TILE_SIZE);
+			requestedPlanes.add(plane);
+			queued = true;
+		}
+		if (deferred && requestedPlanes.size() == planeCount) {
+			deferred = false;
+			requestedPlanes.clear();
+		}
+		return queued;
+	}
+
+	/**
+	 * Queues the tiles of every {@link #isDeferred deferred} plane, for the next
+	 * {@link #build()}.
+	 * 
+	 * @return Whether any tiles were queued.
+	 */
+	public synchronized boolean requestAll() {
+		if (!deferred) return false;
+		for (long plane = 0; plane < planeCount; plane++) {
+			if (requestedPlanes.contains(plane)) continue;
+			queue(plane, 0, 0, tilesX * TILE_SIZE, tilesY * TILE_SIZE);
+		}
+		deferred = false;
+		requestedPlanes.clear();
+		return true;
+	}
+
+	/** Marks every tile of the given planes as stale. */
+	public void invalidatePlanes(final long... planeIndices) {
+		for (final long plane : planeIndices) {
+			invalidate(plane, 0, 0, tilesX * TILE_SIZE, tilesY * TILE_SIZE);
+		}
+	}
+
+	/**
+	 * Marks the tiles covering the given region of a plane as stale, and queues
+	 * them for rebuilding unless the plane is {@link #isDeferred deferred}.
+	 * 
+	 * @param planeIndex The plane, numbered as by {@link net.imagej.Position}.
+	 * @param x The left edge of the region, in dataset pixels.
+	 * @param y The top edge of the region, in dataset pixels.
+	 * @param width The width of the region, in dataset pixels.
+	 * @param height The height of the region, in dataset pixels.
+	 */
+	public void invalidate(final long planeIndex, final long x, final long y,
+		final long width, final long height)
+	{
+		checkPlane(planeIndex);
+		// NB: A deferred plane is rebuilt as a whole once requested.
+		if (isDeferred(planeIndex)) return;
+		queue(planeIndex, x, y, width, height);
+	}
+
+	/**
+	 * Stops maintaining the pyramid: no tile is stale any longer, so a build in
+	 * progress stops after its current tile. Levels are left as they are.
+	 */
+	public synchronized void cancel() {
+		deferred = false;
+		requestedPlanes.clear();
+		staleTiles.clear();
+	}
+
+	/**
+	 * Releases the storage of the downsampled levels, closing those which are
+	 * {@link MappedCellImg}s. The pyramid should not be building, nor be used
+	 * afterwards: reading a closed level may throw
+	 * {@link IllegalStateException}.
+	 */
+	public void dispose() throws IOException {
+		for (final Img<?> level : levels) {
+			if (level instanceof MappedCellImg) ((MappedCellImg<?, ?>) level).close();
+		}
+	}
+
+	/**
+	 * Recomputes all stale tiles, at every level. Tiles invalidated while this
+	 * method runs are recomputed before it returns.
+	 */
+	public void build() {
+		while (!staleTiles.isEmpty()) {
+			for (final Long tile : staleTiles) {
+				// NB: A tile invalidated again while being built is built again.
+				buildingTiles.incrementAndGet();
+				try {
+					if (staleTiles.remove(tile)) buildTile(tile);
+				}
+				finally {
+					buildingTiles.decrementAndGet();
+				}
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	private void checkPlane(final long planeIndex) {
+		if (planeIndex < 0 || planeIndex >= planeCount) {
+			throw new IndexOutOfBoundsException("Invalid plane index: " +
+				planeIndex);
+		}
+	}
+
+	/** Queues the tiles covering the given region of a plane. */
+	private void queue(final long planeIndex, final long x, final long y,
+		final long width, final long height)
+	{
+		if (width <= 0 || height <= 0) return;
+		final long x0 = Math.max(0, x / TILE_SIZE);
+		final long y0 = Math.max(0, y / TILE_SIZE);
+		final long x1 = Math.min(tilesX - 1, (x + width - 1) / TILE_SIZE);
+		final long y1 = Math.min(tilesY - 1, (y + height - 1) / TILE_SIZE);
+		for (long ty = y0; ty <= y1; ty++) {
+			for (long tx = x0; tx <= x1; tx++) {
+				staleTiles.add((planeIndex * tilesY + ty) * tilesX + tx);
+			}
+		}
+	}
+
+	private void buildTile(final long tile) {
+		final long tx = tile % tilesX;
+		final long ty = tile / tilesX % tilesY;
+		final long plane = tile / tilesX / tilesY;
+
+		final long[] pos = new long[dataset.numDimensions()];
+		long index = plane;
+		for (int d = 2; d < pos.length; d++) {
+			pos[d] = index % dataset.dimension(d);
+			index /= dataset.dimension(d);
+		}
+		for (int level = 1; level < levels.length; level++) {
+			final int size = TILE_SIZE >> level;
+			final Img<? extends RealType<?>> out = levels[level];
+			final long xMax = Math.min(out.dimension(0), (tx + 1) * size);
+			final long yMax =
+				out.numDimensions() > 1 ? Math.min(out.dimension(1), (ty + 1) * size)
+					: 1;
+			final Img<? extends RealType<?>> in = getLevel(level - 1);
+			// NB: Read and write whole rows of the arrays storing the plane.
+			final List<Block> inBlocks = StorageBlocks.planeBlocks(in, plane);
+			final List<Block> outBlocks = StorageBlocks.planeBlocks(out, plane);
+			if (inBlocks != null && inBlocks.size() == 1 && outBlocks != null &&
+				outBlocks.size() == 1)
+			{
+				downsample(inBlocks.get(0), in, outBlocks.get(0), out, tx * size, ty *
+					size, xMax, yMax);
+			}
+			else downsample(in, out, pos, tx * size, ty * size, xMax, yMax);
+		}
+	}
+
+	/**
+	 * Computes the pixels {@code [x0, x1) x [y0, y1)} of a level, directly from
+	 * the primitive arrays storing a plane of it and of the level above.
+	 */
+	private void downsample(final Block inBlock,
+		final Img<? extends RealType<?>> in, final Block outBlock,
+		final Img<? extends RealType<?>> out, final long x0, final long y0,
+		final long x1, final long y1)
+	{
+		final long inWidth = in.dimension(0);
+		final long inHeight = in.numDimensions() > 1 ? in.dimension(1) : 1;
+		final long outWidth = out.dimension(0);
+		final int inX = (int) (2 * x0);
+		final int inLength = (int) (Math.min(inWidth, 2 * x1) - inX);
+		final int outLength = (int) (x1 - x0);
+		final double[] row0 = new double[inLength];
+		final double[] row1 = new double[inLength];
+		final double[] values = new double[outLength];
+		for (long y = y0; y < y1; y++) {
+			final long iy = 2 * y;
+			final boolean hasRow1 = iy + 1 < inHeight;
+			read(inBlock, iy * inWidth + inX, inLength, row0);
+			if (hasRow1) read(inBlock, (iy + 1) * inWidth + inX, inLength, row1);
+			for (int i = 0; i < outLength; i++) {
+				final int ix = 2 * i;
+				final boolean hasColumn1 = ix + 1 < inLength;
+				double value = row0[ix];
+				if (method == DownsampleMethod.MAX) {
+					if (hasColumn1) value = Math.max(value, row0[ix + 1]);
+					if (hasRow1) {
+						value = Math.max(value, row1[ix]);
+						if (hasColumn1) value = Math.max(value, row1[ix + 1]);
+					}
+				}
+				else if (method == DownsampleMethod.MEAN) {
+					int count = 1;
+					if (hasColumn1) {
+						value += row0[ix + 1];
+						count++;
+					}
+					if (hasRow1) {
+						value += row1[ix];
+						count++;
+						if (hasColumn1) {
+							value += row1[ix + 1];
+							count++;
+						}
+					}
+					value /= count;
+				}
+				values[i] = value;
+			}
+			write(values, outBlock, y * outWidth + x0);
+		}
+	}
+
+	/** Reads the given number of elements of a block, as doubles. */
+	private void read(final Block block, final long index, final int length,
+		final double[] values)
+	{
+		final Object array = block.getArray();
+		final int offset = block.getOffset() + (int) index;
+		if (array instanceof byte[]) {
+			final byte[] a = (byte[]) array;
+			for (int i = 0; i < length; i++) {
+				values[i] = unsigned ? a[offset + i] & 0xff : a[offset + i];
+			}
+		}
+		else if (array instanceof short[]) {
+			final short[] a = (short[]) array;
+			for (int i = 0; i < length; i++) {
+				values[i] = unsigned ? a[offset + i] & 0xffff : a[offset + i];
+			}
+		}
+		else if (array instanceof int[]) {
+			final int[] a = (int[]) array;
+			for (int i = 0; i < length; i++) {
+				values[i] = unsigned ? a[offset + i] & 0xffffffffL : a[offset + i];
+			}
+		}
+		else if (array instanceof long[]) {
+			final long[] a = (long[]) array;
+			for (int i = 0; i < length; i++) {
+				values[i] = a[offset + i];
+			}
+		}
+		else if (array instanceof float[]) {
+			final float[] a = (float[]) array;
+			for (int i = 0; i < length; i++) {
+				values[i] = a[offset + i];
+			}
+		}
+		else {
+			final double[] a = (double[]) array;
+			System.arraycopy(a, offset, values, 0, length);
+		}
+	}
+
+	/**
+	 * Writes the given values to a block, converting them as
+	 * {@link RealType#setReal(double)} does.
+	 */
+	private static void write(final double[] values, final Block block,
+		final long index)
+	{
+		final Object array = block.getArray();
+		final int offset = block.getOffset() + (int) index;
+		if (array instanceof byte[]) {
+			final byte[] a = (byte[]) array;
+			for (int i = 0; i < values.length; i++) {
+				a[offset + i] = (byte) Util.round(values[i]);
+			}
+		}
+		else if (array instanceof short[]) {
+			final short[] a = (short[]) array;
+			for (int i = 0; i < values.length; i++) {
+				a[offset + i] = (short) Util.round(values[i]);
+			}
+		}
+		else if (array instanceof int[]) {
+			final int[] a = (int[]) array;
+			for (int i = 0; i < values.length; i++) {
+				a[offset + i] = (int) Util.round(values[i]);
+			}
+		}
+		else if (array instanceof long[]) {
+			final long[] a = (long[]) array;
+			for (int i = 0; i < values.length; i++) {
+				a[offset + i] = Util.round(values[i]);
+			}
+		}
+		else if (array instanceof float[]) {
+			final float[] a = (float[]) array;
+			for (int i = 0; i < values.length; i++) {
+				a[offset + i] = (float) values[i];
+			}
+		}
+		else {
+			final double[] a = (double[]) array;
+			System.arraycopy(values, 0, a, offset, values.length);
+		}
+	}
+
+	/** Computes the pixels {@code [x0, x1) x [y0, y1)} of a level. */
+	private void downsample(final Img<? extends RealType<?>> in,
+		final Img<? extends RealType<?>> out, final long[] pos, final long x0,
+		final long y0, final long x1, final long y1)
+	{
+		final boolean hasY = in.numDimensions() > 1;
+		final long inWidth = in.dimension(0);
+		final long inHeight = hasY ? in.dimension(1) : 1;
+		final RandomAccess<? extends RealType<?>> inAccess = in.randomAccess();
+		final RandomAccess<? extends RealType<?>> outAccess = out.randomAccess();
+		inAccess.setPosition(pos);
+		outAccess.setPosition(pos);
+		for (long y = y0; y < y1; y++) {
+			if (hasY) outAccess.setPosition(y, 1);
+			for (long x = x0; x < x1; x++) {
+				outAccess.setPosition(x, 0);
+				double value = 0;
+				int count = 0;
+				final long xEnd = Math.min(inWidth, 2 * x + 2);
+				final long yEnd = Math.min(inHeight, 2 * y + 2);
+				for (long iy = 2 * y; iy < yEnd; iy++) {
+					if (hasY) inAccess.setPosition(iy, 1);
+					for (long ix = 2 * x; ix < xEnd; ix++) {
+						inAccess.setPosition(ix, 0);
+						final double v = inAccess.get().getRealDouble();
+						if (count == 0 || method == DownsampleMethod.MEAN) value += v;
+						else if (method == DownsampleMethod.MAX) value = Math.max(value, v);
+						count++;
+						if (method == DownsampleMethod.NEAREST) break;
+					}
+					if (method == DownsampleMethod.NEAREST) break;
+				}
+				if (method == DownsampleMethod.MEAN) value /= count;
+				outAccess.get().setReal(value);
+			}
+		}
+	}
+
+	private static long scaled(final long size, final int level) {
+		return Math.max(1, (size + (1L << level) - 1) >> level);
+	}
+
+}
@@ -0,0 +1,569 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.display;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.util.StorageBlocks;
+import net.imagej.util.StorageBlocks.Block;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.RealLUTConverter;
+import net.imglib2.display.ColorTable;
+import net.imglib2.display.projector.composite.CompositeXYProjector;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * As {@link CompositeXYProjector} but reads each channel's XY plane directly
+ * from its primitive storage arrays, and writes the composited result
+ * directly into the {@code int[]} of an {@link ArrayImg} target (such as an
+ * {@link net.imglib2.display.screenimage.awt.ARGBScreenImage}).
+ * <p>
+ * Each channel is converted through a lookup table: for 8-bit and 16-bit
+ * types, the ARGB value of every possible sample is computed once, and only
+ * recomputed when the channel's {@link ColorTable} or display range changes.
+ * Wider types are looked up per sample. Rows of the target are distributed
+ * across the available processors.
+ * </p>
+ * <p>
+ * The projector may also show a region of the source, subsampled by a step
+ * along X and Y, in which case it reads the storage arrays at that stride.
+ * </p>
+ * <p>
+ * The fast path requires {@link RealLUTConverter}s, a source backed by storage
+ * understood by {@link StorageBlocks#planeBlocks} and a target which the
+ * region fits. Otherwise, the projector falls back to the behavior of
+ * {@link CompositeXYProjector}.
+ * </p>
+ */
+public class LookupCompositeXYProjector<A extends RealType<A>> extends
+	CompositeXYProjector<A>
+{
+
+	/** Minimum number of target pixels per parallel task. */
+	private static final int MIN_PIXELS_PER_TASK = 1 << 16;
+
+	private final RandomAccessibleInterval<A> source;
+	private final ArrayImg<ARGBType, IntArray> target;
+	private final ArrayList<Converter<A, ARGBType>> converters;
+	private final int dimIndex;
+	private final ThreadService threadService;
+
+	/** The view of the source seen by {@link CompositeXYProjector}. */
+	private final RandomAccessibleInterval<A> region;
+	private final long x0, y0;
+	private final int step;
+
+	/** Lookup tables, one per channel, reused while still valid. */
+	private final ChannelLookup[] lookups;
+
+	/**
+	 * @param source The image to project; channels lie along {@code dimIndex}.
+	 * @param target The image into which to project.
+	 * @param converters One {@link Converter} per channel.
+	 * @param dimIndex The channel dimension, or -1 if there is none.
+	 * @param threadService Service used to project rows in parallel, or null to
+	 *          project on the calling thread.
+	 */
+	public LookupCompositeXYProjector(final RandomAccessibleInterval<A> source,
+		final ArrayImg<ARGBType, IntArray> target,
+		final ArrayList<Converter<A, ARGBType>> converters, final int dimIndex,
+		final ThreadService threadService)
+	{
+		this(source, target, converters, dimIndex, threadService, 0, 0, 1);
+	}
+
+	/**
+	 * Creates a projector which shows source pixel
+	 * {@code (x0 + step * x, y0 + step * y)} at target pixel {@code (x, y)}.
+	 * 
+	 * @param source The image to project; channels lie along {@code dimIndex}.
+	 * @param target The image into which to project.
+	 * @param converters One {@link Converter} per channel.
+	 * @param dimIndex The channel dimension, or -1 if there is none.
+	 * @param threadService Service used to project rows in parallel, or null to
+	 *          project on the calling thread.
+	 * @param x0 The left edge of the region to show, from the source minimum.
+	 * @param y0 The top edge of the region to show, from the source minimum.
+	 * @param step The subsampling step along X and Y.
+	 */
+	public LookupCompositeXYProjector(final RandomAccessibleInterval<A> source,
+		final ArrayImg<ARGBType, IntArray> target,
+		final ArrayList<Converter<A, ARGBType>> converters, final int dimIndex,
+		final ThreadService threadService, final long x0, final long y0,
+		final int step)
+	{
+		this(source, region(source, target, x0, y0, step), target, converters,
+			dimIndex, threadService, x0, y0, step);
+	}
+
+	private LookupCompositeXYProjector(final RandomAccessibleInterval<A> source,
+		final RandomAccessibleInterval<A> region,
+		final ArrayImg<ARGBType, IntArray> target,
+		final ArrayList<Converter<A, ARGBType>> converters, final int dimIndex,
+		final ThreadService threadService, final long x0, final long y0,
+		final int step)
+	{
+		super(region, target, converters, dimIndex);
+		this.source = source;
+		this.region = region;
+		this.target = target;
+		this.converters = converters;
+		this.dimIndex = dimIndex;
+		this.threadService = threadService;
+		this.x0 = x0;
+		this.y0 = y0;
+		this.step = step;
+		lookups = new ChannelLookup[dimIndex < 0 ? 1 : (int) source.dimension(
+			dimIndex)];
+	}
+
+	// -- Projector methods --
+
+	@Override
+	public void map() {
+		final int size = dimIndex < 0 ? 1 : updateCurrentArrays();
+		final List<List<Block>> planes = new ArrayList<>(size);
+		final ChannelLookup[] channelLookups = new ChannelLookup[size];
+		if (!prepare(size, planes, channelLookups)) {
+			super.map();
+			return;
+		}
+
+		final int width = (int) target.dimension(0);
+		final int height = (int) target.dimension(1);
+		final int[] argb = target.update(null).getCurrentStorageArray();
+		final int threads = threadService == null ? 1 : Runtime.getRuntime()
+			.availableProcessors();
+		final int rowsPerChunk = Math.max(1, MIN_PIXELS_PER_TASK / width);
+		final int chunkCount = (height + rowsPerChunk - 1) / rowsPerChunk;
+		final RowProjector rowProjector = new RowProjector(planes,
+			channelLookups, argb, width, height, (int) source.dimension(0), (int) x0,
+			(int) y0, step, rowsPerChunk, chunkCount, new AtomicInteger());
+
+		final int taskCount = Math.max(1, Math.min(threads, chunkCount));
+		if (taskCount == 1) {
+			rowProjector.run();
+			return;
+		}
+		final List<Future<?>> futures = new ArrayList<>(taskCount);
+		for (int t = 0; t < taskCount; t++) {
+			futures.add(threadService.run(rowProjector));
+		}
+		try {
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		}
+		catch (final InterruptedException | ExecutionException exc) {
+			throw new RuntimeException(exc);
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the region of the source which the given target shows, as seen by
+	 * {@link CompositeXYProjector}.
+	 */
+	private static <A> RandomAccessibleInterval<A> region(
+		final RandomAccessibleInterval<A> source,
+		final RandomAccessibleInterval<?> target, final long x0, final long y0,
+		final int step)
+	{
+		if (step < 1) throw new IllegalArgumentException("Invalid step: " + step);
+		if (x0 == 0 && y0 == 0 && step == 1) return source;
+		final long[] offset = new long[source.numDimensions()];
+		final long[] dims = new long[source.numDimensions()];
+		final long[] steps = new long[source.numDimensions()];
+		source.min(offset);
+		source.dimensions(dims);
+		Arrays.fill(steps, 1);
+		offset[0] += x0;
+		offset[1] += y0;
+		dims[0] = Math.min(dims[0] - x0, target.dimension(0) * step);
+		dims[1] = Math.min(dims[1] - y0, target.dimension(1) * step);
+		steps[0] = steps[1] = step;
+		return Views.subsample(Views.offsetInterval(source, offset, dims), steps);
+	}
+
+	/**
+	 * Gathers the plane storage and lookup table of each channel to composite.
+	 * 
+	 * @return false if the fast path cannot be used.
+	 */
+	private boolean prepare(final int size, final List<List<Block>> planes,
+		final ChannelLookup[] channelLookups)
+	{
+		if (source.numDimensions() < 2) return false;
+		// NB: The region must lie within the source, and a plane within an array.
+		if (target.numDimensions() != 2 || x0 < 0 || y0 < 0 ||
+			x0 + (target.dimension(0) - 1) * step >= source.dimension(0) ||
+			y0 + (target.dimension(1) - 1) * step >= source.dimension(1) ||
+			source.dimension(0) * source.dimension(1) > Integer.MAX_VALUE)
+		{
+			return false;
+		}
+		final boolean unsigned =
+			StorageBlocks.isUnsigned(Util.getTypeFromInterval(source));
+		for (int i = 0; i < size; i++) {
+			final Converter<A, ARGBType> converter =
+				dimIndex < 0 ? converters.get(0) : currentConverters[i];
+			if (!(converter instanceof RealLUTConverter)) return false;
+			final RealLUTConverter<?> lutConverter = (RealLUTConverter<?>) converter;
+			if (lutConverter.getLUT() == null) return false;
+
+			final List<Block> blocks =
+				StorageBlocks.planeBlocks(source, planeIndex(i));
+			if (blocks == null || blocks.isEmpty()) return false;
+			final Class<?> arrayClass = blocks.get(0).getArray().getClass();
+
+			final int c =
+				dimIndex < 0 ? 0 : (int) (currentPositions[i] - region.min(dimIndex));
+			ChannelLookup lookup = lookups[c];
+			if (lookup == null || !lookup.matches(lutConverter, arrayClass, unsigned))
+			{
+				lookup = ChannelLookup.create(lutConverter, arrayClass, unsigned);
+				if (lookup == null) return false;
+				lookups[c] = lookup;
+			}
+			planes.add(blocks);
+			channelLookups[i] = lookup;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the index of the XY plane to read for the given composited channel,
+	 * numbered as by {@link net.imagej.Position} over the non-XY dimensions.
+	 * Positions are those of the region, which spans the source's non-XY
+	 * dimensions.
+	 */
+	private long planeIndex(final int i) {
+		long index = 0, stride = 1;
+		for (int d = 2; d < source.numDimensions(); d++) {
+			final long pos = d == dimIndex ? currentPositions[i] : position[d];
+			index += (pos - region.min(d)) * stride;
+			stride *= source.dimension(d);
+		}
+		return index;
+	}
+
+	// -- Helper classes --
+
+	/** Projects chunks of rows, pulling chunk numbers from a shared counter. */
+	private static class RowProjector implements Runnable {
+
+		private final List<List<Block>> planes;
+		private final ChannelLookup[] lookups;
+		private final int[] argb;
+		private final int width, height;
+		private final int sourceWidth, x0, y0, step;
+		private final int rowsPerChunk, chunkCount;
+		private final AtomicInteger nextChunk;
+
+		public RowProjector(final List<List<Block>> planes,
+			final ChannelLookup[] lookups, final int[] argb, final int width,
+			final int height, final int sourceWidth, final int x0, final int y0,
+			final int step, final int rowsPerChunk, final int chunkCount,
+			final AtomicInteger nextChunk)
+		{
+			this.planes = planes;
+			this.lookups = lookups;
+			this.argb = argb;
+			this.width = width;
+			this.height = height;
+			this.sourceWidth = sourceWidth;
+			this.x0 = x0;
+			this.y0 = y0;
+			this.step = step;
+			this.rowsPerChunk = rowsPerChunk;
+			this.chunkCount = chunkCount;
+			this.nextChunk = nextChunk;
+		}
+
+		@Override
+		public void run() {
+			final int size = lookups.length;
+			final int[] row = size > 1 ? new int[width] : null;
+			final int[] aSum = size > 1 ? new int[width] : null;
+			final int[] rSum = size > 1 ? new int[width] : null;
+			final int[] gSum = size > 1 ? new int[width] : null;
+			final int[] bSum = size > 1 ? new int[width] : null;
+			while (true) {
+				final int chunk = nextChunk.getAndIncrement();
+				if (chunk >= chunkCount) return;
+				final int yEnd = Math.min(height, (chunk + 1) * rowsPerChunk);
+				for (int y = chunk * rowsPerChunk; y < yEnd; y++) {
+					final int offset = y * width;
+					final int from = (y0 + y * step) * sourceWidth + x0;
+					if (size == 0) {
+						Arrays.fill(argb, offset, offset + width, 0);
+					}
+					else if (size == 1) {
+						lookupRow(planes.get(0), lookups[0], from, argb, offset);
+					}
+					else {
+						Arrays.fill(aSum, 0);
+						Arrays.fill(rSum, 0);
+						Arrays.fill(gSum, 0);
+						Arrays.fill(bSum, 0);
+						for (int i = 0; i < size; i++) {
+							lookupRow(planes.get(i), lookups[i], from, row, 0);
+							for (int x = 0; x < width; x++) {
+								final int value = row[x];
+								aSum[x] += value >>> 24;
+								rSum[x] += (value >> 16) & 0xff;
+								gSum[x] += (value >> 8) & 0xff;
+								bSum[x] += value & 0xff;
+							}
+						}
+						for (int x = 0; x < width; x++) {
+							argb[offset + x] = ARGBType.rgba(Math.min(rSum[x], 255),
+								Math.min(gSum[x], 255), Math.min(bSum[x], 255),
+								Math.min(aSum[x], 255));
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Converts one row of a plane, starting at plane offset {@code from} and
+		 * reading every {@code step}th sample.
+		 */
+		private void lookupRow(final List<Block> blocks,
+			final ChannelLookup lookup, final int from, final int[] out,
+			final int outOffset)
+		{
+			int pos = 0, b = 0;
+			// find the block containing the start of the row
+			while (pos + blocks.get(b).getLength() <= from) {
+				pos += blocks.get(b++).getLength();
+			}
+			int done = 0;
+			while (done < width) {
+				final Block block = blocks.get(b++);
+				final int start = from + done * step - pos;
+				// NB: A large step may skip over short blocks entirely.
+				final int length = Math.max(0, Math.min(width - done,
+					(block.getLength() - start + step - 1) / step));
+				lookup.lookup(block.getArray(), block.getOffset() + start, step,
+					length, out, outOffset + done);
+				done += length;
+				pos += block.getLength();
+			}
+		}
+	}
+
+	/** Converts primitive samples of one channel to ARGB values. */
+	private abstract static class ChannelLookup {
+
+		private final ColorTable lut;
+		private final double min, max;
+		private final Class<?> arrayClass;
+		private final boolean unsigned;
+
+		public ChannelLookup(final RealLUTConverter<?> converter,
+			final Class<?> arrayClass, final boolean unsigned)
+		{
+			lut = converter.getLUT();
+			min = converter.getMin();
+			max = converter.getMax();
+			this.arrayClass = arrayClass;
+			this.unsigned = unsigned;
+		}
+
+		public static ChannelLookup create(final RealLUTConverter<?> converter,
+			final Class<?> arrayClass, final boolean unsigned)
+		{
+			if (arrayClass == byte[].class) {
+				return new ByteLookup(converter, unsigned);
+			}
+			if (arrayClass == short[].class) {
+				return new ShortLookup(converter, unsigned);
+			}
+			if (arrayClass == int[].class || arrayClass == long[].class ||
+				arrayClass == float[].class || arrayClass == double[].class)
+			{
+				return new DirectLookup(converter, arrayClass, unsigned);
+			}
+			return null;
+		}
+
+		/** Gets whether this lookup still reflects the given converter. */
+		public boolean matches(final RealLUTConverter<?> converter,
+			final Class<?> c, final boolean u)
+		{
+			return lut == converter.getLUT() && min == converter.getMin() &&
+				max == converter.getMax() && arrayClass == c && unsigned == u;
+		}
+
+		/**
+		 * Converts {@code length} samples, every {@code step}th from
+		 * {@code offset}.
+		 */
+		public abstract void lookup(Object array, int offset, int step,
+			int length, int[] out, int outOffset);
+
+		protected int lookup(final double value) {
+			return lut.lookupARGB(min, max, value);
+		}
+
+		protected boolean isUnsigned() {
+			return unsigned;
+		}
+
+		/** Builds a table indexed by sample value minus {@code first}. */
+		protected int[] table(final int first, final int length) {
+			final int[] table = new int[length];
+			for (int i = 0; i < length; i++) {
+				table[i] = lookup(first + i);
+			}
+			return table;
+		}
+	}
+
+	/** Table lookup for 8-bit samples. */
+	private static class ByteLookup extends ChannelLookup {
+
+		private final int[] table;
+
+		public ByteLookup(final RealLUTConverter<?> converter,
+			final boolean unsigned)
+		{
+			super(converter, byte[].class, unsigned);
+			table = unsigned ? table(0, 256) : table(Byte.MIN_VALUE, 256);
+		}
+
+		@Override
+		public void lookup(final Object array, final int offset, final int step,
+			final int length, final int[] out, final int outOffset)
+		{
+			final byte[] data = (byte[]) array;
+			if (isUnsigned()) {
+				for (int i = 0; i < length; i++) {
+					out[outOffset + i] = table[data[offset + i * step] & 0xff];
+				}
+			}
+			else {
+				for (int i = 0; i < length; i++) {
+					out[outOffset + i] = table[data[offset + i * step] - Byte.MIN_VALUE];
+				}
+			}
+		}
+	}
+
+	/** Table lookup for 16-bit samples. */
+	private static class ShortLookup extends ChannelLookup {
+
+		private final int[] table;
+
+		public ShortLookup(final RealLUTConverter<?> converter,
+			final boolean unsigned)
+		{
+			super(converter, short[].class, unsigned);
+			table = unsigned ? table(0, 65536) : table(Short.MIN_VALUE, 65536);
+		}
+
+		@Override
+		public void lookup(final Object array, final int offset, final int step,
+			final int length, final int[] out, final int outOffset)
+		{
+			final short[] data = (short[]) array;
+			if (isUnsigned()) {
+				for (int i = 0; i < length; i++) {
+					out[outOffset + i] = table[data[offset + i * step] & 0xffff];
+				}
+			}
+			else {
+				for (int i = 0; i < length; i++) {
+					out[outOffset + i] = table[data[offset + i * step] - Short.MIN_VALUE];
+				}
+			}
+		}
+	}
+
+	/** Per-sample lookup for 32-bit and 64-bit samples. */
+	private static class DirectLookup extends ChannelLookup {
+
+		public DirectLookup(final RealLUTConverter<?> converter,
+			final Class<?> arrayClass, final boolean unsigned)
+		{
+			super(converter, arrayClass, unsigned);
+		}
+
+		@Override
+		public void lookup(final Object array, final int offset, final int step,
+			final int length, final int[] out, final int outOffset)
+		{
+			if (array instanceof int[]) {
+				final int[] data = (int[]) array;
+				for (int i = 0; i < length; i++) {
+					final int v = data[offset + i * step];
+					out[outOffset + i] = lookup(isUnsigned() ? v & 0xffffffffL : v);
+				}
+			}
+			else if (array instanceof long[]) {
+				final long[] data = (long[]) array;
+				for (int i = 0; i < length; i++) {
+					out[outOffset + i] = lookup(data[offset + i * step]);
+				}
+			}
+			else if (array instanceof float[]) {
+				final float[] data = (float[]) array;
+				for (int i = 0; i < length; i++) {
+					out[outOffset + i] = lookup(data[offset + i * step]);
+				}
+			}
+			else {
+				final double[] data = (double[]) array;
+				for (int i = 0; i < length; i++) {
+					out[outOffset + i] = lookup(data[offset + i * step]);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,456 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.display;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.imagej.Data;
+
+import org.scijava.util.RealRect;
+
+/**
+ * A spatial index over the XY bounding boxes of the {@link DataView}s of an
+ * {@link ImageDisplay}.
+ * <p>
+ * Bounding boxes are binned into a uniform grid whose cell size is chosen from
+ * the population of indexed views, so rectangle and point queries only visit
+ * the cells they touch. Views which span too many cells go to a coarser grid,
+ * so that each view occupies only a few cells of some level; only views with
+ * unbounded bounds are kept in a separate list which every query checks. The
+ * index also tracks
+ * which views are selected, so that the combined bounds of the selection are
+ * maintained incrementally.
+ * </p>
+ * <p>
+ * The index does not listen for events itself: callers are expected to
+ * {@link #update(Data)} it when a view's data changes, and to {@link #add} and
+ * {@link #remove} views as the display changes. Query results are reported in
+ * the order in which views were added.
+ * </p>
+ */
+public class OverlayIndex {
+
+	/** Largest number of grid cells a single view may occupy. */
+	private static final int MAX_CELLS = 256;
+
+	/** Ratio between the cell sizes of successive grid levels. */
+	private static final int LEVEL_SCALE = 16;
+
+	/** Number of grid levels, the finest first. */
+	private static final int LEVELS = 12;
+
+	/** Minimum number of views before the grid is resized. */
+	private static final int MIN_REBIN = 64;
+
+	private final Map<DataView, Entry> entries = new IdentityHashMap<>();
+	private final Map<Data, List<Entry>> entriesByData = new IdentityHashMap<>();
+	private final List<Map<Long, List<Entry>>> levels = new ArrayList<>(LEVELS);
+	private final List<Entry> unbounded = new ArrayList<>();
+	private final Set<Entry> selected = new HashSet<>();
+
+	private final double[] cellSizes = new double[LEVELS];
+	private int binnedCount;
+	private long nextOrder;
+	private int stamp;
+
+	private boolean selectionValid = true;
+	private double selMinX, selMinY, selMaxX, selMaxY;
+
+	/** Creates an empty index. */
+	public OverlayIndex() {
+		for (int level = 0; level < LEVELS; level++) {
+			levels.add(new HashMap<>());
+		}
+		setCellSize(64);
+		clearSelectionBounds();
+	}
+
+	/** Creates an index over the given views, in iteration order. */
+	public OverlayIndex(final Iterable<? extends DataView> views) {
+		this();
+		for (final DataView view : views) {
+			insert(view);
+		}
+		rebin();
+	}
+
+	// -- OverlayIndex methods --
+
+	/** Gets the number of indexed views. */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/** Gets whether the given view is indexed. */
+	public synchronized boolean contains(final DataView view) {
+		return entries.containsKey(view);
+	}
+
+	/** Adds the given view after all previously added views. */
+	public synchronized void add(final DataView view) {
+		if (entries.containsKey(view)) return;
+		insert(view);
+		if (entries.size() > 4 * Math.max(binnedCount, MIN_REBIN)) rebin();
+	}
+
+	/** Removes the given view from the index. */
+	public synchronized void remove(final DataView view) {
+		final Entry entry = entries.remove(view);
+		if (entry == null) return;
+		unbin(entry);
+		final List<Entry> siblings = entriesByData.get(entry.data);
+		siblings.remove(entry);
+		if (siblings.isEmpty()) entriesByData.remove(entry.data);
+		if (selected.remove(entry)) selectionValid = false;
+	}
+
+	/** Removes all views of the given data object from the index. */
+	public synchronized void remove(final Data data) {
+		final List<Entry> list = entriesByData.get(data);
+		if (list == null) return;
+		for (final Entry entry : new ArrayList<>(list)) {
+			remove(entry.view);
+		}
+	}
+
+	/**
+	 * Refreshes the bounds and selection state of all views of the given data
+	 * object, e.g. after it has been moved or resized.
+	 */
+	public synchronized void update(final Data data) {
+		final List<Entry> list = entriesByData.get(data);
+		if (list == null) return;
+		for (final Entry entry : list) {
+			refresh(entry);
+		}
+	}
+
+	/** Refreshes the bounds and selection state of the given view. */
+	public synchronized void update(final DataView view) {
+		final Entry entry = entries.get(view);
+		if (entry != null) refresh(entry);
+	}
+
+	/**
+	 * Gets the views whose bounding boxes intersect the given rectangle. The
+	 * bounds of the rectangle are inclusive.
+	 */
+	public synchronized List<DataView> query(final double minX,
+		final double minY, final double maxX, final double maxY)
+	{
+		final List<Entry> hits = new ArrayList<>();
+		final int s = ++stamp;
+		for (int level = 0; level < LEVELS; level++) {
+			final Map<Long, List<Entry>> cells = levels.get(level);
+			if (cells.isEmpty()) continue;
+			final double size = cellSizes[level];
+			final long cx0 = cell(minX, size), cy0 = cell(minY, size);
+			final long cx1 = cell(maxX, size), cy1 = cell(maxY, size);
+			final double area = (double) (cx1 - cx0 + 1) * (cy1 - cy0 + 1);
+			if (area > cells.size()) {
+				for (final List<Entry> cell : cells.values()) {
+					collect(cell, s, minX, minY, maxX, maxY, hits);
+				}
+				continue;
+			}
+			for (long cy = cy0; cy <= cy1; cy++) {
+				for (long cx = cx0; cx <= cx1; cx++) {
+					final List<Entry> cell = cells.get(key(cx, cy));
+					if (cell != null) collect(cell, s, minX, minY, maxX, maxY, hits);
+				}
+			}
+		}
+		collect(unbounded, s, minX, minY, maxX, maxY, hits);
+		return views(hits);
+	}
+
+	/** Gets the views whose bounding boxes intersect the given rectangle. */
+	public List<DataView> query(final RealRect rect) {
+		return query(rect.x, rect.y, rect.x + rect.width, rect.y + rect.height);
+	}
+
+	/** Gets the views whose bounding boxes contain the given point. */
+	public List<DataView> query(final double x, final double y) {
+		return query(x, y, x, y);
+	}
+
+	/** Gets the selected views. */
+	public synchronized List<DataView> getSelected() {
+		return views(new ArrayList<>(selected));
+	}
+
+	/**
+	 * Gets the combined bounding box of the selected views, or null if no view
+	 * is selected.
+	 */
+	public synchronized RealRect getSelectionBounds() {
+		if (!selectionValid) {
+			clearSelectionBounds();
+			for (final Entry entry : selected) {
+				includeInSelection(entry);
+			}
+			selectionValid = true;
+		}
+		if (selected.isEmpty()) return null;
+		return new RealRect(selMinX, selMinY, selMaxX - selMinX, selMaxY -
+			selMinY);
+	}
+
+	// -- Helper methods --
+
+	private void insert(final DataView view) {
+		final Entry entry = new Entry(view, nextOrder++);
+		entries.put(view, entry);
+		entriesByData.computeIfAbsent(entry.data, k -> new ArrayList<>(1)).add(
+			entry);
+		entry.readBounds();
+		bin(entry);
+		entry.selected = view.isSelected();
+		if (entry.selected) {
+			selected.add(entry);
+			if (selectionValid) includeInSelection(entry);
+		}
+	}
+
+	private void refresh(final Entry entry) {
+		final boolean wasSelected = entry.selected;
+		final double minX = entry.minX, minY = entry.minY;
+		final double maxX = entry.maxX, maxY = entry.maxY;
+		unbin(entry);
+		entry.readBounds();
+		bin(entry);
+		entry.selected = entry.view.isSelected();
+
+		if (entry.selected && !wasSelected) {
+			selected.add(entry);
+			if (selectionValid) includeInSelection(entry);
+		}
+		else if (!entry.selected && wasSelected) {
+			selected.remove(entry);
+			selectionValid = false;
+		}
+		else if (entry.selected && selectionValid) {
+			// the selection only needs recomputing if the entry has shrunk away
+			// from the combined bounds
+			if (minX == selMinX && entry.minX > minX || minY == selMinY &&
+				entry.minY > minY || maxX == selMaxX && entry.maxX < maxX ||
+				maxY == selMaxY && entry.maxY < maxY)
+			{
+				selectionValid = false;
+			}
+			else includeInSelection(entry);
+		}
+	}
+
+	/** Resizes the grid to suit the current population and rebins all views. */
+	private void rebin() {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		double extent = 0;
+		int count = 0;
+		for (final Entry entry : entries.values()) {
+			if (!entry.isFinite()) continue;
+			minX = Math.min(minX, entry.minX);
+			minY = Math.min(minY, entry.minY);
+			maxX = Math.max(maxX, entry.maxX);
+			maxY = Math.max(maxY, entry.maxY);
+			extent += Math.max(entry.maxX - entry.minX, entry.maxY - entry.minY);
+			count++;
+		}
+		if (count > 0) {
+			// cells about as large as a typical view, but no smaller than needed
+			// to keep the number of cells proportional to the number of views
+			final double area = (maxX - minX + 1) * (maxY - minY + 1);
+			setCellSize(Math.max(1, Math.max(extent / count, Math.sqrt(area /
+				count))));
+		}
+
+		for (final Map<Long, List<Entry>> cells : levels) {
+			cells.clear();
+		}
+		unbounded.clear();
+		for (final Entry entry : entries.values()) {
+			bin(entry);
+		}
+		binnedCount = entries.size();
+	}
+
+	private void setCellSize(final double cellSize) {
+		for (int level = 0; level < LEVELS; level++) {
+			cellSizes[level] = level == 0 ? cellSize : cellSizes[level - 1] *
+				LEVEL_SCALE;
+		}
+	}
+
+	/** Bins the given view into the finest grid level on which it fits. */
+	private void bin(final Entry entry) {
+		if (entry.isFinite()) {
+			for (int level = 0; level < LEVELS; level++) {
+				final double size = cellSizes[level];
+				final long cx0 = cell(entry.minX, size), cy0 = cell(entry.minY, size);
+				final long cx1 = cell(entry.maxX, size), cy1 = cell(entry.maxY, size);
+				// NB: Spans can reach 2^32 cells, so bound each before multiplying.
+				final long spanX = cx1 - cx0 + 1, spanY = cy1 - cy0 + 1;
+				if (spanX > MAX_CELLS || spanY > MAX_CELLS ||
+					spanX * spanY > MAX_CELLS)
+				{
+					continue;
+				}
+				entry.level = level;
+				entry.cx0 = cx0;
+				entry.cy0 = cy0;
+				entry.cx1 = cx1;
+				entry.cy1 = cy1;
+				final Map<Long, List<Entry>> cells = levels.get(level);
+				for (long cy = cy0; cy <= cy1; cy++) {
+					for (long cx = cx0; cx <= cx1; cx++) {
+						cells.computeIfAbsent(key(cx, cy), k -> new ArrayList<>(2)).add(
+							entry);
+					}
+				}
+				return;
+			}
+		}
+		unbounded.add(entry);
+		entry.level = -1;
+	}
+
+	private void unbin(final Entry entry) {
+		if (entry.level < 0) {
+			unbounded.remove(entry);
+			return;
+		}
+		final Map<Long, List<Entry>> cells = levels.get(entry.level);
+		for (long cy = entry.cy0; cy <= entry.cy1; cy++) {
+			for (long cx = entry.cx0; cx <= entry.cx1; cx++) {
+				final Long key = key(cx, cy);
+				final List<Entry> cell = cells.get(key);
+				cell.remove(entry);
+				if (cell.isEmpty()) cells.remove(key);
+			}
+		}
+	}
+
+	private static long cell(final double v, final double size) {
+		final double c = Math.floor(v / size);
+		// NB: clamp so that far-away coordinates still produce sane keys
+		return (long) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, c));
+	}
+
+	private static Long key(final long cx, final long cy) {
+		return (cx << 32) ^ (cy & 0xffffffffL);
+	}
+
+	private static void collect(final List<Entry> list, final int s,
+		final double minX, final double minY, final double maxX,
+		final double maxY, final List<Entry> hits)
+	{
+		for (final Entry entry : list) {
+			if (entry.stamp == s) continue;
+			entry.stamp = s;
+			if (entry.intersects(minX, minY, maxX, maxY)) hits.add(entry);
+		}
+	}
+
+	private static List<DataView> views(final List<Entry> list) {
+		Collections.sort(list, Comparator.comparingLong(e -> e.order));
+		final List<DataView> views = new ArrayList<>(list.size());
+		for (final Entry entry : list) {
+			views.add(entry.view);
+		}
+		return views;
+	}
+
+	private void clearSelectionBounds() {
+		selMinX = selMinY = Double.POSITIVE_INFINITY;
+		selMaxX = selMaxY = Double.NEGATIVE_INFINITY;
+	}
+
+	private void includeInSelection(final Entry entry) {
+		if (entry.minX < selMinX) selMinX = entry.minX;
+		if (entry.minY < selMinY) selMinY = entry.minY;
+		if (entry.maxX > selMaxX) selMaxX = entry.maxX;
+		if (entry.maxY > selMaxY) selMaxY = entry.maxY;
+	}
+
+	// -- Helper classes --
+
+	/** The cached bounds and grid placement of an indexed view. */
+	private static class Entry {
+
+		private final DataView view;
+		private final Data data;
+		private final long order;
+
+		private double minX, minY, maxX, maxY;
+		private long cx0, cy0, cx1, cy1;
+		private int level;
+		private boolean selected;
+		private int stamp;
+
+		private Entry(final DataView view, final long order) {
+			this.view = view;
+			this.data = view.getData();
+			this.order = order;
+		}
+
+		private void readBounds() {
+			minX = data.realMin(0);
+			maxX = data.realMax(0);
+			minY = data.realMin(1);
+			maxY = data.realMax(1);
+		}
+
+		private boolean isFinite() {
+			return Double.isFinite(minX) && Double.isFinite(minY) && Double
+				.isFinite(maxX) && Double.isFinite(maxY) && minX <= maxX &&
+				minY <= maxY;
+		}
+
+		private boolean intersects(final double x0, final double y0,
+			final double x1, final double y1)
+		{
+			// NB: views with degenerate bounds are always reported as candidates
+			if (!isFinite()) return true;
+			return minX <= x1 && maxX >= x0 && minY <= y1 && maxY >= y0;
+		}
+	}
+
+}
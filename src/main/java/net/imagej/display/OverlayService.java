@@ -40,6 +40,7 @@ import net.imagej.Position;
 import net.imagej.overlay.CompositeOverlay;
 import net.imagej.overlay.Overlay;
 import net.imagej.overlay.OverlaySettings;
+import net.imagej.sampler.SamplingDefinition;
 
 import org.scijava.object.ObjectService;
 import org.scijava.util.RealRect;
@@ -72,6 +73,22 @@ public interface OverlayService extends ImageJService {
 	 */
 	List<Overlay> getOverlays(ImageDisplay display);
 
+	/**
+	 * Gets the {@link Overlay}s of the given {@link ImageDisplay} whose XY
+	 * bounding boxes intersect the given region. The result is a list of
+	 * candidates suitable for hit-testing; callers needing exact containment
+	 * should check each overlay's region of interest.
+	 */
+	List<Overlay> getOverlays(ImageDisplay display, RealRect region);
+
+	/**
+	 * Gets the {@link Overlay}s of the given {@link ImageDisplay} whose XY
+	 * bounding boxes contain the given point.
+	 *
+	 * @see #getOverlays(ImageDisplay, RealRect)
+	 */
+	List<Overlay> getOverlays(ImageDisplay display, double x, double y);
+
 	/** Adds the list of {@link Overlay}s to the given {@link ImageDisplay}. */
 	void addOverlays(ImageDisplay display, List<? extends Overlay> overlays);
 
@@ -131,6 +148,52 @@ public interface OverlayService extends ImageJService {
 	void fillOverlay(Overlay o, Dataset ds, Position position,
 		ChannelCollection channelData);
 
+	/**
+	 * Draws the outlines of the given overlays into each of the given planes of
+	 * a dataset using the set of channel information provided. Each overlay is
+	 * rasterized only once, and listeners are notified of the change only once,
+	 * at the end.
+	 * 
+	 * @param planes The positions of the planes to draw into, as in
+	 *          {@link #drawOverlay(Overlay, Dataset, Position, ChannelCollection)}.
+	 *          Unlike there, a position along the channel axis selects a
+	 *          single channel, so a multichannel dataset needs one position
+	 *          per channel to be drawn.
+	 * @see #getPlanes(Dataset, SamplingDefinition)
+	 */
+	void drawOverlays(List<? extends Overlay> overlays, Dataset ds,
+		List<Position> planes, ChannelCollection channelData);
+
+	/**
+	 * Draws and fills the outlines of the given overlays in each of the given
+	 * planes of a dataset using the set of channel information provided. Each
+	 * overlay is rasterized only once, and listeners are notified of the change
+	 * only once, at the end.
+	 * 
+	 * @param planes The positions of the planes to draw into, as in
+	 *          {@link #fillOverlay(Overlay, Dataset, Position, ChannelCollection)}.
+	 *          Unlike there, a position along the channel axis selects a
+	 *          single channel, so a multichannel dataset needs one position
+	 *          per channel to be drawn.
+	 * @see #getPlanes(Dataset, SamplingDefinition)
+	 */
+	void fillOverlays(List<? extends Overlay> overlays, Dataset ds,
+		List<Position> planes, ChannelCollection channelData);
+
+	/**
+	 * Gets the position of every plane of a dataset, for use with
+	 * {@link #drawOverlays} and {@link #fillOverlays}.
+	 */
+	List<Position> getPlanes(Dataset ds);
+
+	/**
+	 * Gets the position of each plane of a dataset selected by the given
+	 * sampling definition, for use with {@link #drawOverlays} and
+	 * {@link #fillOverlays}. Axes which the definition does not constrain are
+	 * included in full; the X and Y axes are ignored.
+	 */
+	List<Position> getPlanes(Dataset ds, SamplingDefinition def);
+
 	/**
 	 * Returns the first display associated with an overlay
 	 */
@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.display;
+
+import java.util.concurrent.Future;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJService;
+
+/**
+ * Interface for services that maintain {@link ImagePyramid}s of
+ * {@link Dataset}s, for fast display at low zoom.
+ * <p>
+ * Pyramids are built in the background, and kept up to date as their datasets
+ * change: tiles touched by a {@link net.imagej.event.DatasetUpdatedEvent} are
+ * invalidated and rebuilt. An update which names no planes invalidates the
+ * whole pyramid, but only the planes on screen are rebuilt right away; the
+ * others are rebuilt once requested. A
+ * {@link net.imagej.display.event.PyramidUpdatedEvent} is published whenever a
+ * build finishes.
+ * </p>
+ */
+public interface PyramidService extends ImageJService {
+
+	/** Gets the pyramid of the given dataset, or null if it has none. */
+	ImagePyramid getPyramid(Dataset dataset);
+
+	/**
+	 * Creates a pyramid for the given dataset, replacing any existing one, and
+	 * starts building it in the background.
+	 */
+	ImagePyramid createPyramid(Dataset dataset, DownsampleMethod method);
+
+	/** Discards the pyramid of the given dataset, if any. */
+	void removePyramid(Dataset dataset);
+
+	/**
+	 * Rebuilds the stale tiles of the given pyramid in the background.
+	 * 
+	 * @return A future which completes once the pyramid is complete.
+	 */
+	Future<?> build(ImagePyramid pyramid);
+
+	/**
+	 * Rebuilds the stale tiles of the given planes in the background, along
+	 * with any other tiles already queued; see {@link ImagePyramid#request}.
+	 * 
+	 * @return A future which completes once no tiles are queued.
+	 */
+	Future<?> build(ImagePyramid pyramid, long... planes);
+
+}
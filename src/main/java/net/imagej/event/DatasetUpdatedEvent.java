@@ -47,11 +47,19 @@ public class DatasetUpdatedEvent extends DataUpdatedEvent {
 
 	private final Dataset dataset;
 	private final boolean metadataOnly;
+	private final long[] planes;
 
 	public DatasetUpdatedEvent(final Dataset dataset, boolean metadataOnly) {
+		this(dataset, metadataOnly, null);
+	}
+
+	public DatasetUpdatedEvent(final Dataset dataset, final boolean metadataOnly,
+		final long[] planes)
+	{
 		super(dataset);
 		this.dataset = dataset;
 		this.metadataOnly = metadataOnly;
+		this.planes = planes;
 	}
 
 	// -- ObjectEvent methods --
@@ -64,4 +72,12 @@ public class DatasetUpdatedEvent extends DataUpdatedEvent {
 	public boolean isMetaDataOnly() {
 		return metadataOnly;
 	}
+
+	/**
+	 * Gets the indices of the planes whose sample values changed, or null if
+	 * any plane may have changed.
+	 */
+	public long[] getPlanes() {
+		return planes;
+	}
 }
@@ -0,0 +1,239 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.event;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+
+import net.imagej.Data;
+import net.imagej.Dataset;
+
+import org.scijava.event.EventService;
+import org.scijava.event.SciJavaEvent;
+import org.scijava.object.event.ObjectEvent;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Default implementation of {@link EventCoalescingService}.
+ * <p>
+ * Held events live in a concurrent map keyed by {@link Data} object, so
+ * threads which modify different objects do not contend with one another.
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultEventCoalescingService extends AbstractService implements
+	EventCoalescingService
+{
+
+	@Parameter
+	private EventService eventService;
+
+	@Parameter(required = false)
+	private ThreadService threadService;
+
+	/** The held modification event of each object. */
+	private final ConcurrentHashMap<Data, DataModifiedEvent> pending =
+		new ConcurrentHashMap<>();
+
+	/** Number of open batches. */
+	private final AtomicInteger batchDepth = new AtomicInteger();
+
+	/** Whether a background flush is waiting for its window to pass. */
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	private final LongAdder published = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+
+	private volatile long window;
+
+	// -- EventCoalescingService methods --
+
+	@Override
+	public void publish(final SciJavaEvent event) {
+		if (isCoalescable(event) && isHolding()) {
+			final DataModifiedEvent modified = (DataModifiedEvent) event;
+			pending.merge(modified.getObject(), modified, this::merge);
+			scheduleFlush();
+			return;
+		}
+		if (event instanceof ObjectEvent) {
+			// NB: Release any held event first, to keep the object's events in order.
+			final Object o = ((ObjectEvent) event).getObject();
+			if (o instanceof Data) flush((Data) o);
+		}
+		if (event instanceof DataModifiedEvent) published.increment();
+		eventService.publish(event);
+	}
+
+	@Override
+	public void beginBatch() {
+		batchDepth.incrementAndGet();
+	}
+
+	@Override
+	public void endBatch() {
+		final int depth = batchDepth.decrementAndGet();
+		if (depth < 0) {
+			batchDepth.incrementAndGet();
+			throw new IllegalStateException("No batch in progress");
+		}
+		if (depth == 0) flush();
+	}
+
+	@Override
+	public void setWindow(final long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("Invalid window: " + millis);
+		}
+		if (millis > 0 && threadService == null) {
+			throw new IllegalStateException("No thread service available");
+		}
+		window = millis;
+		if (millis == 0 && batchDepth.get() == 0) flush();
+	}
+
+	@Override
+	public long getWindow() {
+		return window;
+	}
+
+	@Override
+	public void flush() {
+		for (final Data data : pending.keySet()) {
+			flush(data);
+		}
+	}
+
+	@Override
+	public long getPublishedCount() {
+		return published.sum();
+	}
+
+	@Override
+	public long getCoalescedCount() {
+		return coalesced.sum();
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		flush();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets whether the given event may be held and merged. Type and RGB changes
+	 * are never held: they extend {@link DatasetUpdatedEvent}, but their
+	 * subscribers rebuild on them, so merging them away would lose the rebuild.
+	 */
+	private boolean isCoalescable(final SciJavaEvent event) {
+		return event instanceof DataModifiedEvent &&
+			!(event instanceof DatasetTypeChangedEvent) &&
+			!(event instanceof DatasetRGBChangedEvent);
+	}
+
+	private boolean isHolding() {
+		return batchDepth.get() > 0 || window > 0;
+	}
+
+	/** Publishes the held event of the given object, if any. */
+	private void flush(final Data data) {
+		final DataModifiedEvent event = pending.remove(data);
+		if (event == null) return;
+		published.increment();
+		eventService.publish(event);
+	}
+
+	/** Starts a background flush, unless a batch will flush later anyway. */
+	private void scheduleFlush() {
+		final long delay = window;
+		if (delay == 0 || batchDepth.get() > 0) return;
+		if (!flushScheduled.compareAndSet(false, true)) return;
+		threadService.run(() -> {
+			try {
+				Thread.sleep(delay);
+			}
+			catch (final InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+			// NB: Clear the flag first, so later events schedule a new flush.
+			flushScheduled.set(false);
+			if (batchDepth.get() == 0) flush();
+		});
+	}
+
+	/** Merges a newly published event into the held one. */
+	private DataModifiedEvent merge(final DataModifiedEvent held,
+		final DataModifiedEvent event)
+	{
+		coalesced.increment();
+		if (event instanceof DataRestructuredEvent) return event;
+		if (held instanceof DataRestructuredEvent) return held;
+		if (held instanceof DatasetUpdatedEvent &&
+			event instanceof DatasetUpdatedEvent)
+		{
+			return merge((DatasetUpdatedEvent) held, (DatasetUpdatedEvent) event);
+		}
+		return event;
+	}
+
+	/** Merges two dataset updates into one covering both. */
+	private DatasetUpdatedEvent merge(final DatasetUpdatedEvent held,
+		final DatasetUpdatedEvent event)
+	{
+		if (event.isMetaDataOnly()) {
+			return held.isMetaDataOnly() ? event : held;
+		}
+		if (held.isMetaDataOnly()) return event;
+		final long[] planes = union(held.getPlanes(), event.getPlanes());
+		final Dataset dataset = event.getObject();
+		return new DatasetUpdatedEvent(dataset, false, planes);
+	}
+
+	/** Gets the sorted union of two plane lists; null means all planes. */
+	private long[] union(final long[] planes1, final long[] planes2) {
+		if (planes1 == null || planes2 == null) return null;
+		return LongStream.concat(Arrays.stream(planes1), Arrays.stream(planes2))
+			.sorted().distinct().toArray();
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.event;
+
+import net.imagej.Data;
+import net.imagej.ImageJService;
+
+import org.scijava.event.SciJavaEvent;
+
+/**
+ * Service for publishing events about {@link Data} objects, which can merge
+ * storms of {@link DataModifiedEvent}s into one event per object.
+ * <p>
+ * By default, every event is published immediately. While a batch is open
+ * (see {@link #beginBatch()}), or while a time window is set (see
+ * {@link #setWindow(long)}), modification events are held instead, and all
+ * pending modifications of the same object are merged:
+ * </p>
+ * <ul>
+ * <li>A {@link DataRestructuredEvent} wins over any {@link DataUpdatedEvent},
+ * since listeners rebuild everything in response to it.</li>
+ * <li>Two {@link DatasetUpdatedEvent}s merge into one which covers the planes
+ * of both, and which is metadata-only only if both were.</li>
+ * <li>Otherwise, the newer event replaces the older one.</li>
+ * </ul>
+ * <p>
+ * {@link DatasetTypeChangedEvent}s and {@link DatasetRGBChangedEvent}s are
+ * never held, since listeners rebuild their views in response to them. These,
+ * and any other event about an object, first release the held modification of
+ * that object, so listeners still see each object's events in order.
+ * </p>
+ * 
+ * @see net.imagej.AbstractData
+ */
+public interface EventCoalescingService extends ImageJService {
+
+	/** Publishes the given event, or merges it with a held one. */
+	void publish(SciJavaEvent event);
+
+	/**
+	 * Begins holding modification events until the matching call to
+	 * {@link #endBatch()}. Batches may be nested; events are released when the
+	 * outermost batch ends.
+	 */
+	void beginBatch();
+
+	/**
+	 * Ends a batch begun by {@link #beginBatch()}, publishing the held events
+	 * if it was the outermost one.
+	 * 
+	 * @throws IllegalStateException if no batch is open.
+	 */
+	void endBatch();
+
+	/** Runs the given code in a batch. */
+	default void batch(final Runnable runnable) {
+		beginBatch();
+		try {
+			runnable.run();
+		}
+		finally {
+			endBatch();
+		}
+	}
+
+	/**
+	 * Sets how long modification events are held, in milliseconds, before being
+	 * published from a background thread. A window of 0 (the default) publishes
+	 * events immediately, outside of batches.
+	 */
+	void setWindow(long millis);
+
+	/** Gets how long modification events are held, in milliseconds. */
+	long getWindow();
+
+	/** Publishes all held events immediately. */
+	void flush();
+
+	/** Gets the number of modification events published so far. */
+	long getPublishedCount();
+
+	/**
+	 * Gets the number of modification events which were merged into others,
+	 * rather than being published.
+	 */
+	long getCoalescedCount();
+
+}
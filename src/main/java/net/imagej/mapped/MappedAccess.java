@@ -0,0 +1,241 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.mapped;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.img.basictypeaccess.CharAccess;
+import net.imglib2.img.basictypeaccess.DoubleAccess;
+import net.imglib2.img.basictypeaccess.FloatAccess;
+import net.imglib2.img.basictypeaccess.IntAccess;
+import net.imglib2.img.basictypeaccess.LongAccess;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+
+/**
+ * Pixel storage of one cell of a {@link MappedCellImg}, reading and writing
+ * directly through a memory-mapped region of the image's file.
+ */
+abstract class MappedAccess {
+
+	protected final ByteBuffer buffer;
+
+	/** Whether the cell was written since it was last flushed. */
+	private boolean dirty;
+
+	public MappedAccess(final ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/** Creates an access of the given kind over the given buffer. */
+	public static MappedAccess create(final Kind kind, final ByteBuffer buffer) {
+		switch (kind) {
+			case BYTE:
+				return new Bytes(buffer);
+			case CHAR:
+				return new Chars(buffer);
+			case SHORT:
+				return new Shorts(buffer);
+			case INT:
+				return new Ints(buffer);
+			case LONG:
+				return new Longs(buffer);
+			case FLOAT:
+				return new Floats(buffer);
+			case DOUBLE:
+				return new Doubles(buffer);
+			default:
+				throw new IllegalArgumentException("Unsupported kind: " + kind);
+		}
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/** Writes any changes back to the file, if the cell is dirty. */
+	public void flush() {
+		if (!dirty) return;
+		dirty = false;
+		if (buffer instanceof MappedByteBuffer) ((MappedByteBuffer) buffer).force();
+	}
+
+	protected void markDirty() {
+		dirty = true;
+	}
+
+	// -- Helper classes --
+
+	/** The primitive type of the elements stored by an access. */
+	enum Kind {
+		BYTE(1), CHAR(2), SHORT(2), INT(4), LONG(8), FLOAT(4), DOUBLE(8);
+
+		private final int bytes;
+
+		private Kind(final int bytes) {
+			this.bytes = bytes;
+		}
+
+		/** Gets the number of bytes per element. */
+		public int bytes() {
+			return bytes;
+		}
+	}
+
+	private static class Bytes extends MappedAccess implements ByteAccess {
+
+		public Bytes(final ByteBuffer buffer) {
+			super(buffer);
+		}
+
+		@Override
+		public byte getValue(final int index) {
+			return buffer.get(index);
+		}
+
+		@Override
+		public void setValue(final int index, final byte value) {
+			markDirty();
+			buffer.put(index, value);
+		}
+	}
+
+	private static class Chars extends MappedAccess implements CharAccess {
+
+		public Chars(final ByteBuffer buffer) {
+			super(buffer);
+		}
+
+		@Override
+		public char getValue(final int index) {
+			return buffer.getChar(index << 1);
+		}
+
+		@Override
+		public void setValue(final int index, final char value) {
+			markDirty();
+			buffer.putChar(index << 1, value);
+		}
+	}
+
+	private static class Shorts extends MappedAccess implements ShortAccess {
+
+		public Shorts(final ByteBuffer buffer) {
+			super(buffer);
+		}
+
+		@Override
+		public short getValue(final int index) {
+			return buffer.getShort(index << 1);
+		}
+
+		@Override
+		public void setValue(final int index, final short value) {
+			markDirty();
+			buffer.putShort(index << 1, value);
+		}
+	}
+
+	private static class Ints extends MappedAccess implements IntAccess {
+
+		public Ints(final ByteBuffer buffer) {
+			super(buffer);
+		}
+
+		@Override
+		public int getValue(final int index) {
+			return buffer.getInt(index << 2);
+		}
+
+		@Override
+		public void setValue(final int index, final int value) {
+			markDirty();
+			buffer.putInt(index << 2, value);
+		}
+	}
+
+	private static class Longs extends MappedAccess implements LongAccess {
+
+		public Longs(final ByteBuffer buffer) {
+			super(buffer);
+		}
+
+		@Override
+		public long getValue(final int index) {
+			return buffer.getLong(index << 3);
+		}
+
+		@Override
+		public void setValue(final int index, final long value) {
+			markDirty();
+			buffer.putLong(index << 3, value);
+		}
+	}
+
+	private static class Floats extends MappedAccess implements FloatAccess {
+
+		public Floats(final ByteBuffer buffer) {
+			super(buffer);
+		}
+
+		@Override
+		public float getValue(final int index) {
+			return buffer.getFloat(index << 2);
+		}
+
+		@Override
+		public void setValue(final int index, final float value) {
+			markDirty();
+			buffer.putFloat(index << 2, value);
+		}
+	}
+
+	private static class Doubles extends MappedAccess implements DoubleAccess {
+
+		public Doubles(final ByteBuffer buffer) {
+			super(buffer);
+		}
+
+		@Override
+		public double getValue(final int index) {
+			return buffer.getDouble(index << 3);
+		}
+
+		@Override
+		public void setValue(final int index, final double value) {
+			markDirty();
+			buffer.putDouble(index << 3, value);
+		}
+	}
+
+}
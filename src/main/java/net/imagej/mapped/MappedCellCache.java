@@ -0,0 +1,187 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.mapped;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.imagej.mapped.MappedAccess.Kind;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Supplies the cells of a {@link MappedCellImg}, mapping each from the image's
+ * file on first use and keeping at most a fixed number of them resident. When
+ * more cells are needed, the least recently used cell is evicted, writing its
+ * changes back to the file first.
+ * <p>
+ * NB: An evicted cell still referenced elsewhere (e.g., by a cursor) remains
+ * valid, since its mapping stays in place until it is garbage collected. The
+ * same holds for cells obtained before the cache is {@link #close() closed}.
+ * </p>
+ */
+class MappedCellCache<A> implements LazyCellImg.Get<Cell<A>> {
+
+	private final FileChannel channel;
+	private final boolean writable;
+	private final CellGrid grid;
+	private final CellLayout layout;
+	private final Kind kind;
+	private final Fraction entitiesPerPixel;
+	private final ByteOrder order;
+	private final int maxResidentCells;
+
+	/** Resident cells by index, in access order. */
+	private final LinkedHashMap<Long, Cell<A>> resident;
+
+	public MappedCellCache(final FileChannel channel, final boolean writable,
+		final CellGrid grid, final CellLayout layout, final Kind kind,
+		final Fraction entitiesPerPixel, final ByteOrder order,
+		final int maxResidentCells)
+	{
+		this.channel = channel;
+		this.writable = writable;
+		this.grid = grid;
+		this.layout = layout;
+		this.kind = kind;
+		this.entitiesPerPixel = entitiesPerPixel;
+		this.order = order;
+		this.maxResidentCells = Math.max(1, maxResidentCells);
+		resident = new LinkedHashMap<Long, Cell<A>>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Long, Cell<A>> e) {
+				if (size() <= MappedCellCache.this.maxResidentCells) return false;
+				flush(e.getValue());
+				return true;
+			}
+		};
+	}
+
+	// -- MappedCellCache methods --
+
+	/** Gets the number of bytes in the file needed to store one full cell. */
+	public static long cellBytes(final CellGrid grid, final Kind kind,
+		final Fraction entitiesPerPixel)
+	{
+		long pixels = 1;
+		for (int d = 0; d < grid.numDimensions(); d++) {
+			pixels *= grid.cellDimension(d);
+		}
+		return entitiesPerPixel.mulCeil(pixels) * kind.bytes();
+	}
+
+	/** Gets the number of cells currently resident. */
+	public synchronized int getResidentCount() {
+		return resident.size();
+	}
+
+	/** Writes the changes of all resident cells back to the file. */
+	public synchronized void flush() {
+		for (final Cell<A> cell : resident.values()) {
+			flush(cell);
+		}
+	}
+
+	/**
+	 * Flushes and evicts all cells, and closes the file. No further cells can
+	 * be obtained; cells obtained before remain usable, and their mappings are
+	 * released when they are garbage collected.
+	 */
+	public synchronized void close() throws IOException {
+		final Iterator<Cell<A>> iter = resident.values().iterator();
+		while (iter.hasNext()) {
+			flush(iter.next());
+			iter.remove();
+		}
+		channel.close();
+	}
+
+	// -- Get methods --
+
+	@Override
+	public synchronized Cell<A> get(final long index) {
+		if (!channel.isOpen()) throw new IllegalStateException("Image is closed");
+		Cell<A> cell = resident.get(index);
+		if (cell == null) {
+			cell = load(index);
+			resident.put(index, cell);
+		}
+		return cell;
+	}
+
+	// -- Helper methods --
+
+	@SuppressWarnings("unchecked")
+	private Cell<A> load(final long index) {
+		final int numDims = grid.numDimensions();
+		final long[] cellMin = new long[numDims];
+		final int[] cellDims = new int[numDims];
+		grid.getCellDimensions(index, cellMin, cellDims);
+		long pixels = 1;
+		for (final int dim : cellDims) {
+			pixels *= dim;
+		}
+		final long size = entitiesPerPixel.mulCeil(pixels) * kind.bytes();
+		final long offset;
+		if (layout == CellLayout.RAW) {
+			offset = IntervalIndexer.positionToIndex(cellMin, grid
+				.getImgDimensions()) * kind.bytes();
+		}
+		else offset = index * cellBytes(grid, kind, entitiesPerPixel);
+		try {
+			final MappedByteBuffer buffer = channel.map(writable
+				? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+				offset, size);
+			buffer.order(order);
+			return new Cell<>(cellDims, cellMin, (A) MappedAccess.create(kind,
+				buffer));
+		}
+		catch (final IOException exc) {
+			throw new UncheckedIOException("Cannot map cell " + index, exc);
+		}
+	}
+
+	private void flush(final Cell<A> cell) {
+		((MappedAccess) cell.getData()).flush();
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.mapped;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.Fraction;
+
+/**
+ * A cell image whose cells are memory-mapped from a file, so that images far
+ * larger than the Java heap can be used like any other {@link Img}.
+ * <p>
+ * Only a bounded number of cells are kept mapped at a time (see
+ * {@link MappedCellImgFactory}); others are mapped again on demand. Changes
+ * are written to the file by the operating system, and are forced to disk
+ * when a dirty cell is evicted, on {@link #flush()} and on {@link #close()}.
+ * Closing an image also closes its file and, for images created by a
+ * {@link MappedCellImgFactory}, deletes it.
+ * </p>
+ */
+public class MappedCellImg<T extends NativeType<T>, A> extends
+	LazyCellImg<T, A>
+{
+
+	private final MappedCellImgFactory<T> factory;
+	private final MappedCellCache<A> cache;
+	private final Path file;
+
+	/** Whether the file is private to the image, and deleted on close. */
+	private final boolean temporary;
+
+	/**
+	 * Creates an image whose type is linked later, by its factory, backed by a
+	 * temporary file.
+	 */
+	MappedCellImg(final MappedCellImgFactory<T> factory, final CellGrid grid,
+		final Fraction entitiesPerPixel, final MappedCellCache<A> cache,
+		final Path file)
+	{
+		super(grid, entitiesPerPixel, cache);
+		this.factory = factory;
+		this.cache = cache;
+		this.file = file;
+		temporary = true;
+	}
+
+	/** Creates an image linked to the given type, backed by an existing file. */
+	MappedCellImg(final MappedCellImgFactory<T> factory, final CellGrid grid,
+		final T type, final MappedCellCache<A> cache, final Path file)
+	{
+		super(grid, type, cache);
+		this.factory = factory;
+		this.cache = cache;
+		this.file = file;
+		temporary = false;
+	}
+
+	// -- MappedCellImg methods --
+
+	/** Gets the file backing the image. */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets whether the image's file is a temporary one, deleted when the image
+	 * is closed.
+	 */
+	public boolean isTemporary() {
+		return temporary;
+	}
+
+	/** Gets the number of cells currently mapped into memory. */
+	public int getResidentCellCount() {
+		return cache.getResidentCount();
+	}
+
+	/** Forces all changes to resident cells out to the file. */
+	public void flush() {
+		cache.flush();
+	}
+
+	/**
+	 * Flushes all changes and closes the file, deleting it if it is
+	 * {@link #isTemporary() temporary}. Cursors and accesses obtained before
+	 * remain usable for the cells they already hold, whose mappings are
+	 * released when garbage collected; reaching any other cell throws
+	 * {@link IllegalStateException}.
+	 */
+	public void close() throws IOException {
+		cache.close();
+		if (!temporary) return;
+		try {
+			Files.deleteIfExists(file);
+		}
+		catch (final IOException exc) {
+			// NB: Some platforms cannot delete a file which is still mapped. It was
+			// marked for deletion on exit when it was created.
+		}
+	}
+
+	// -- Img methods --
+
+	@Override
+	public MappedCellImgFactory<T> factory() {
+		return factory;
+	}
+
+	@Override
+	public Img<T> copy() {
+		final Img<T> copy = factory.create(this, firstElement());
+		// NB: Images with equal dimensions from the same factory share a cell
+		// grid, and hence an iteration order.
+		final Cursor<T> in = cursor();
+		final Cursor<T> out = copy.cursor();
+		while (in.hasNext()) {
+			out.next().set(in.next());
+		}
+		return copy;
+	}
+
+}
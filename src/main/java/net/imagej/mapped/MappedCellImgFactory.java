@@ -0,0 +1,356 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.mapped;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import net.imagej.mapped.MappedAccess.Kind;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.NativeImg;
+import net.imglib2.img.NativeImgFactory;
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.img.basictypeaccess.CharAccess;
+import net.imglib2.img.basictypeaccess.DoubleAccess;
+import net.imglib2.img.basictypeaccess.FloatAccess;
+import net.imglib2.img.basictypeaccess.IntAccess;
+import net.imglib2.img.basictypeaccess.LongAccess;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.GenericByteType;
+import net.imglib2.type.numeric.integer.GenericIntType;
+import net.imglib2.type.numeric.integer.GenericLongType;
+import net.imglib2.type.numeric.integer.GenericShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Fraction;
+
+/**
+ * Factory for {@link MappedCellImg}s.
+ * <p>
+ * New images are backed by temporary files in a given directory (by default,
+ * the system's temporary directory), which are deleted when the image is
+ * {@link MappedCellImg#close() closed}, or failing that when the JVM exits.
+ * Existing raw files can be opened with {@link #open}.
+ * </p>
+ * <p>
+ * Cells span whole rows of an image, and whole planes (etc.) where they fit
+ * within the factory's cell size ({@link #DEFAULT_CELL_BYTES} by default). The number of cells mapped at a time is
+ * bounded so that their total size stays within the factory's cache size, but
+ * is always at least {@link #MIN_RESIDENT_CELLS}.
+ * </p>
+ */
+public class MappedCellImgFactory<T extends NativeType<T>> extends
+	NativeImgFactory<T>
+{
+
+	/** Default bound on the total size of the mapped cells of an image. */
+	public static final long DEFAULT_CACHE_BYTES = 1L << 30;
+
+	/** Default maximum size of a cell, unless a single row is larger. */
+	public static final int DEFAULT_CELL_BYTES = 1 << 26;
+
+	/** Minimum number of cells kept mapped at a time. */
+	public static final int MIN_RESIDENT_CELLS = 4;
+
+	private final Path directory;
+	private final long cacheBytes;
+	private final int cellBytes;
+
+	/** Creates a factory using the system's temporary directory. */
+	public MappedCellImgFactory() {
+		this(null, DEFAULT_CACHE_BYTES);
+	}
+
+	/**
+	 * @param directory Directory for the files of new images, or null for the
+	 *          system's temporary directory.
+	 * @param cacheBytes Bound on the total size of the cells of an image which
+	 *          are mapped at any one time.
+	 */
+	public MappedCellImgFactory(final Path directory, final long cacheBytes) {
+		this(directory, cacheBytes, DEFAULT_CELL_BYTES);
+	}
+
+	/**
+	 * @param directory Directory for the files of new images, or null for the
+	 *          system's temporary directory.
+	 * @param cacheBytes Bound on the total size of the cells of an image which
+	 *          are mapped at any one time.
+	 * @param cellBytes Maximum size of a cell, unless a single row is larger.
+	 */
+	public MappedCellImgFactory(final Path directory, final long cacheBytes,
+		final int cellBytes)
+	{
+		if (cellBytes <= 0) {
+			throw new IllegalArgumentException("Invalid cell size: " + cellBytes);
+		}
+		this.directory = directory;
+		this.cacheBytes = cacheBytes;
+		this.cellBytes = cellBytes;
+	}
+
+	// -- MappedCellImgFactory methods --
+
+	/**
+	 * Opens an existing raw file as an image. Pixels are read in flat order (X
+	 * fastest), starting at the beginning of the file.
+	 * 
+	 * @param file The file to open.
+	 * @param dims The dimensions of the image.
+	 * @param type The pixel type; must be stored in whole bytes per pixel.
+	 * @param order The byte order of the file.
+	 * @param writable Whether changes to the image should be written to the
+	 *          file. If false, modifying the image throws
+	 *          {@link java.nio.ReadOnlyBufferException}.
+	 * @throws IOException If the file cannot be opened, or is too small.
+	 */
+	public MappedCellImg<T, ?> open(final Path file, final long[] dims,
+		final T type, final ByteOrder order, final boolean writable)
+		throws IOException
+	{
+		final Kind kind = kind(type);
+		final Fraction entitiesPerPixel = type.getEntitiesPerPixel();
+		if (kind == null || entitiesPerPixel.getRatio() != 1) {
+			throw new IllegalArgumentException("Unsupported type for raw files: " +
+				type.getClass().getName());
+		}
+		final CellGrid grid =
+			new CellGrid(dims, cellDimensions(dims, entitiesPerPixel, kind));
+		long size = kind.bytes();
+		for (final long dim : dims) {
+			size *= dim;
+		}
+		final FileChannel channel = writable ? FileChannel.open(file,
+			StandardOpenOption.READ, StandardOpenOption.WRITE) : FileChannel.open(
+				file, StandardOpenOption.READ);
+		if (channel.size() < size) {
+			channel.close();
+			throw new IOException("File " + file + " has " + channel.size() +
+				" bytes; expected " + size);
+		}
+		final MappedCellCache<?> cache =
+			new MappedCellCache<>(channel, writable, grid, CellLayout.RAW, kind,
+				entitiesPerPixel, order, residentCells(grid, kind, entitiesPerPixel));
+		return create(grid, type, cache, file);
+	}
+
+	// -- NativeImgFactory methods --
+
+	@Override
+	public NativeImg<T, ? extends ByteAccess> createByteInstance(
+		final long[] dims, final Fraction entitiesPerPixel)
+	{
+		return create(dims, entitiesPerPixel, Kind.BYTE);
+	}
+
+	@Override
+	public NativeImg<T, ? extends CharAccess> createCharInstance(
+		final long[] dims, final Fraction entitiesPerPixel)
+	{
+		return create(dims, entitiesPerPixel, Kind.CHAR);
+	}
+
+	@Override
+	public NativeImg<T, ? extends ShortAccess> createShortInstance(
+		final long[] dims, final Fraction entitiesPerPixel)
+	{
+		return create(dims, entitiesPerPixel, Kind.SHORT);
+	}
+
+	@Override
+	public NativeImg<T, ? extends IntAccess> createIntInstance(
+		final long[] dims, final Fraction entitiesPerPixel)
+	{
+		return create(dims, entitiesPerPixel, Kind.INT);
+	}
+
+	@Override
+	public NativeImg<T, ? extends LongAccess> createLongInstance(
+		final long[] dims, final Fraction entitiesPerPixel)
+	{
+		return create(dims, entitiesPerPixel, Kind.LONG);
+	}
+
+	@Override
+	public NativeImg<T, ? extends FloatAccess> createFloatInstance(
+		final long[] dims, final Fraction entitiesPerPixel)
+	{
+		return create(dims, entitiesPerPixel, Kind.FLOAT);
+	}
+
+	@Override
+	public NativeImg<T, ? extends DoubleAccess> createDoubleInstance(
+		final long[] dims, final Fraction entitiesPerPixel)
+	{
+		return create(dims, entitiesPerPixel, Kind.DOUBLE);
+	}
+
+	// -- ImgFactory methods --
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	public <S> ImgFactory<S> imgFactory(final S type)
+		throws IncompatibleTypeException
+	{
+		if (!(type instanceof NativeType)) {
+			throw new IncompatibleTypeException(this, type.getClass()
+				.getCanonicalName() + " does not implement NativeType.");
+		}
+		return new MappedCellImgFactory(directory, cacheBytes, cellBytes);
+	}
+
+	// -- Helper methods --
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private <A> MappedCellImg<T, A> create(final long[] dims,
+		final Fraction entitiesPerPixel, final Kind kind)
+	{
+		final CellGrid grid =
+			new CellGrid(dims, cellDimensions(dims, entitiesPerPixel, kind));
+		final long size = MappedCellCache.cellBytes(grid, kind, entitiesPerPixel) *
+			cellCount(grid);
+		try {
+			final Path file = directory == null ? Files.createTempFile("imagej-",
+				".cells") : Files.createTempFile(directory, "imagej-", ".cells");
+			file.toFile().deleteOnExit();
+			final FileChannel channel;
+			try {
+				try (final RandomAccessFile raf = new RandomAccessFile(file.toFile(),
+					"rw"))
+				{
+					// NB: Extending the file leaves it sparse where supported.
+					raf.setLength(size);
+				}
+				channel = FileChannel.open(file, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			}
+			catch (final IOException exc) {
+				Files.deleteIfExists(file);
+				throw exc;
+			}
+			final MappedCellCache<A> cache = new MappedCellCache<>(channel, true,
+				grid, CellLayout.CHUNKED, kind, entitiesPerPixel, ByteOrder
+					.nativeOrder(), residentCells(grid, kind, entitiesPerPixel));
+			return new MappedCellImg(this, grid, entitiesPerPixel, cache, file);
+		}
+		catch (final IOException exc) {
+			throw new UncheckedIOException("Cannot create image file", exc);
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private MappedCellImg<T, ?> create(final CellGrid grid, final T type,
+		final MappedCellCache<?> cache, final Path file)
+	{
+		return new MappedCellImg(this, grid, type, cache, file);
+	}
+
+	/**
+	 * Chooses cell dimensions: whole rows, then whole planes (etc.), as long as
+	 * a cell stays within the cell size. The cells are thus contiguous runs of
+	 * pixels, as {@link CellLayout#RAW} requires.
+	 * 
+	 * @throws IllegalArgumentException If a single row does not fit in one
+	 *           mapping, which is limited to {@link Integer#MAX_VALUE} bytes.
+	 */
+	private int[] cellDimensions(final long[] dims,
+		final Fraction entitiesPerPixel, final Kind kind)
+	{
+		final long rowBytes = dims.length == 0 ? 0 : entitiesPerPixel.mulCeil(
+			dims[0]) * kind.bytes();
+		if (rowBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Rows of " + dims[0] +
+				" pixels take " + rowBytes + " bytes; at most " + Integer.MAX_VALUE +
+				" bytes can be mapped at once");
+		}
+		final double bytesPerPixel = entitiesPerPixel.getRatio() * kind.bytes();
+		final long maxPixels = Math.min(Integer.MAX_VALUE,
+			(long) (cellBytes / bytesPerPixel));
+		final int[] cellDims = new int[dims.length];
+		long pixels = 1;
+		for (int d = 0; d < dims.length; d++) {
+			if (d == 0 || pixels * dims[d] <= maxPixels) {
+				cellDims[d] = (int) Math.min(dims[d], Integer.MAX_VALUE);
+			}
+			else {
+				cellDims[d] = (int) Math.max(1, Math.min(dims[d], maxPixels / pixels));
+				for (int e = d + 1; e < dims.length; e++) {
+					cellDims[e] = 1;
+				}
+				break;
+			}
+			pixels *= cellDims[d];
+		}
+		return cellDims;
+	}
+
+	private int residentCells(final CellGrid grid, final Kind kind,
+		final Fraction entitiesPerPixel)
+	{
+		final long cellBytes =
+			MappedCellCache.cellBytes(grid, kind, entitiesPerPixel);
+		return (int) Math.max(MIN_RESIDENT_CELLS, Math.min(Integer.MAX_VALUE,
+			cacheBytes / cellBytes));
+	}
+
+	private static long cellCount(final CellGrid grid) {
+		long count = 1;
+		for (int d = 0; d < grid.numDimensions(); d++) {
+			count *= grid.gridDimension(d);
+		}
+		return count;
+	}
+
+	/** Gets the kind of storage used by the given type, or null if unknown. */
+	private static Kind kind(final NativeType<?> type) {
+		if (type instanceof GenericByteType) return Kind.BYTE;
+		if (type instanceof GenericShortType) return Kind.SHORT;
+		if (type instanceof GenericIntType || type instanceof ARGBType) {
+			return Kind.INT;
+		}
+		if (type instanceof GenericLongType) return Kind.LONG;
+		if (type instanceof FloatType) return Kind.FLOAT;
+		if (type instanceof DoubleType) return Kind.DOUBLE;
+		return null;
+	}
+
+}
@@ -0,0 +1,479 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.minmax;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imagej.util.StorageBlocks;
+import net.imagej.util.StorageBlocks.Block;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.Type;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.scijava.Priority;
+import org.scijava.app.StatusService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.thread.ThreadService;
+
+/**
+ * {@link MinMaxMethod} which scans the primitive arrays backing
+ * {@link net.imglib2.img.array.ArrayImg},
+ * {@link net.imglib2.img.planar.PlanarImg} and
+ * {@link net.imglib2.img.cell.CellImg} storage directly, with no per-pixel
+ * cursor or type object calls. Planes, cells and large arrays are divided into
+ * blocks which are distributed across the {@link ThreadService}'s threads.
+ * <p>
+ * Images with any other kind of storage (views, list images, etc.) or pixel
+ * type are delegated to the {@link DefaultMinMaxMethod}. NaN values of
+ * floating point images are ignored.
+ * </p>
+ */
+@Plugin(type = MinMaxMethod.class, priority = Priority.HIGH_PRIORITY)
+public class NativeMinMaxMethod<T extends Type<T> & Comparable<T>> extends
+	AbstractMinMaxMethod<T>
+{
+
+	// -- Constants --
+
+	/** Minimum number of elements per block of work. */
+	private static final int MIN_BLOCK_LENGTH = 1 << 16;
+
+	/** Number of blocks per thread to aim for, to balance the load. */
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	private static final int MAX_UPDATES = 100;
+
+	// -- Fields --
+
+	@Parameter
+	private ThreadService threadService;
+
+	@Parameter(required = false)
+	private StatusService statusService;
+
+	private IterableInterval<T> image;
+	private T min;
+	private T max;
+
+	private String errorMessage = "";
+	private int numThreads;
+	private long processingTime;
+
+	// Last reported percentage
+	private int reported;
+
+	// -- MinMaxMethod API --
+
+	@Override
+	public void initialize(final Img<T> img, final T min, final T max) {
+		initialize((IterableInterval<T>) img, min, max);
+	}
+
+	@Override
+	public void initialize(final IterableInterval<T> interval, final T min,
+		final T max)
+	{
+		image = interval;
+
+		this.min = min;
+		this.max = max;
+		init();
+	}
+
+	@Override
+	public void initialize(final RandomAccessibleInterval<T> interval,
+		final T min, final T max)
+	{
+		initialize(Views.iterable(interval), min, max);
+	}
+
+	@Override
+	public void initialize(final Img<T> img) {
+		initialize((IterableInterval<T>) img);
+	}
+
+	@Override
+	public void initialize(final IterableInterval<T> interval) {
+		image = interval;
+
+		min = image.firstElement().createVariable();
+		max = min.copy();
+		init();
+	}
+
+	@Override
+	public void initialize(final RandomAccessibleInterval<T> interval) {
+		initialize(Views.iterable(interval));
+	}
+
+	@Override
+	public T getMin() {
+		return min;
+	}
+
+	@Override
+	public T getMax() {
+		return max;
+	}
+
+	@Override
+	public boolean process() {
+		initializeCheck();
+		final long startTime = System.currentTimeMillis();
+
+		final List<Block> blocks = blocks();
+		if (blocks == null) processCursors();
+		else processBlocks(blocks);
+
+		processingTime = System.currentTimeMillis() - startTime;
+
+		if (statusService != null) statusService.showStatus("Computing min/max complete.");
+
+		return true;
+	}
+
+	@Override
+	public boolean checkInput() {
+		if (errorMessage.length() > 0) {
+			return false;
+		}
+		else if (image == null) {
+			errorMessage = "NativeMinMaxMethod: [IterableInterval<T> image] is null.";
+			return false;
+		}
+		else return true;
+	}
+
+	@Override
+	public long getProcessingTime() {
+		return processingTime;
+	}
+
+	@Override
+	public void setNumThreads() {
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	@Override
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	// -- Helper methods --
+
+	private void init() {
+		setNumThreads();
+		initialized = true;
+	}
+
+	/**
+	 * Gets the primitive storage blocks of the image, or null if the image must
+	 * be processed by the cursor-based fallback.
+	 */
+	private List<Block> blocks() {
+		if (!(image.firstElement() instanceof RealType)) return null;
+		final long threads = Math.max(1, numThreads);
+		final long length = image.size() / (threads * BLOCKS_PER_THREAD);
+		final int maxLength =
+			(int) Math.min(Integer.MAX_VALUE, Math.max(MIN_BLOCK_LENGTH, length));
+		return StorageBlocks.blocks(image, maxLength);
+	}
+
+	/** Scans the given blocks in parallel, then merges the partial results. */
+	private void processBlocks(final List<Block> blocks) {
+		final boolean unsigned = StorageBlocks.isUnsigned(image.firstElement());
+		final long size = image.size();
+		final AtomicInteger nextBlock = new AtomicInteger();
+		final AtomicLong done = new AtomicLong();
+		reported = -1;
+		report(0, size);
+
+		final BlockScanner scanner =
+			new BlockScanner(blocks, nextBlock, done, size, unsigned);
+
+		final int taskCount = Math.max(1, Math.min(numThreads, blocks.size()));
+		final Extrema result;
+		if (taskCount == 1) {
+			result = scanner.call();
+		}
+		else {
+			final List<Future<Extrema>> futures = new ArrayList<>(taskCount);
+			for (int t = 0; t < taskCount; t++) {
+				futures.add(threadService.run(scanner));
+			}
+			result = new Extrema();
+			try {
+				for (final Future<Extrema> future : futures) {
+					result.merge(future.get());
+				}
+			}
+			catch (final InterruptedException | ExecutionException exc) {
+				throw new RuntimeException(exc);
+			}
+		}
+
+		if (!result.found) {
+			// NB: Only NaNs were encountered.
+			min.set(image.firstElement());
+			max.set(image.firstElement());
+		}
+		else if (result.integer) {
+			((IntegerType<?>) min).setInteger(result.lmin);
+			((IntegerType<?>) max).setInteger(result.lmax);
+		}
+		else {
+			((RealType<?>) min).setReal(result.dmin);
+			((RealType<?>) max).setReal(result.dmax);
+		}
+	}
+
+	/** Handles unsupported storage using the {@link DefaultMinMaxMethod}. */
+	private void processCursors() {
+		final DefaultMinMaxMethod<T> fallback = new DefaultMinMaxMethod<>();
+		context().inject(fallback);
+		fallback.initialize(image);
+		fallback.setNumThreads(numThreads);
+		fallback.process();
+		min.set(fallback.getMin());
+		max.set(fallback.getMax());
+	}
+
+	/** Reports the current progress. */
+	private void report(final long done, final long size) {
+		if (statusService == null) return; // nothing to report to
+		final int percentWork =
+			size == 0 ? MAX_UPDATES : (int) (done * MAX_UPDATES / size);
+		if (percentWork <= reported) return;
+		synchronized (this) {
+			// NB: check twice in case another thread has already reported the
+			// status.
+			if (percentWork > reported) {
+				reported = percentWork;
+				statusService.showStatus(percentWork, MAX_UPDATES,
+					"Computing min/max...");
+			}
+		}
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * Scans blocks until none remain, pulling them from a shared counter so that
+	 * faster threads pick up more of the work.
+	 */
+	private class BlockScanner implements Callable<Extrema> {
+
+		private final List<Block> blocks;
+		private final AtomicInteger nextBlock;
+		private final AtomicLong done;
+		private final long size;
+		private final boolean unsigned;
+
+		public BlockScanner(final List<Block> blocks, final AtomicInteger nextBlock,
+			final AtomicLong done, final long size, final boolean unsigned)
+		{
+			this.blocks = blocks;
+			this.nextBlock = nextBlock;
+			this.done = done;
+			this.size = size;
+			this.unsigned = unsigned;
+		}
+
+		@Override
+		public Extrema call() {
+			final Extrema extrema = new Extrema();
+			int b;
+			while ((b = nextBlock.getAndIncrement()) < blocks.size()) {
+				final Block block = blocks.get(b);
+				extrema.scan(block, unsigned);
+				report(done.addAndGet(block.getLength()), size);
+			}
+			return extrema;
+		}
+	}
+
+	/**
+	 * Running extrema of one or more blocks. Integer storage is tracked with
+	 * {@code long}s to avoid losing precision on 64-bit data.
+	 */
+	private static class Extrema {
+
+		private boolean found;
+		private boolean integer;
+		private long lmin = Long.MAX_VALUE;
+		private long lmax = Long.MIN_VALUE;
+		private double dmin = Double.POSITIVE_INFINITY;
+		private double dmax = Double.NEGATIVE_INFINITY;
+
+		public void scan(final Block block, final boolean unsigned) {
+			final Object array = block.getArray();
+			final int start = block.getOffset();
+			final int end = start + block.getLength();
+			if (end == start) return;
+			if (array instanceof float[]) {
+				scan((float[]) array, start, end);
+				return;
+			}
+			if (array instanceof double[]) {
+				scan((double[]) array, start, end);
+				return;
+			}
+			long lo = lmin, hi = lmax;
+			if (array instanceof byte[]) {
+				final byte[] a = (byte[]) array;
+				if (unsigned) {
+					for (int i = start; i < end; i++) {
+						final int v = a[i] & 0xff;
+						if (v < lo) lo = v;
+						if (v > hi) hi = v;
+					}
+				}
+				else {
+					for (int i = start; i < end; i++) {
+						final byte v = a[i];
+						if (v < lo) lo = v;
+						if (v > hi) hi = v;
+					}
+				}
+			}
+			else if (array instanceof short[]) {
+				final short[] a = (short[]) array;
+				if (unsigned) {
+					for (int i = start; i < end; i++) {
+						final int v = a[i] & 0xffff;
+						if (v < lo) lo = v;
+						if (v > hi) hi = v;
+					}
+				}
+				else {
+					for (int i = start; i < end; i++) {
+						final short v = a[i];
+						if (v < lo) lo = v;
+						if (v > hi) hi = v;
+					}
+				}
+			}
+			else if (array instanceof int[]) {
+				final int[] a = (int[]) array;
+				if (unsigned) {
+					for (int i = start; i < end; i++) {
+						final long v = a[i] & 0xffffffffL;
+						if (v < lo) lo = v;
+						if (v > hi) hi = v;
+					}
+				}
+				else {
+					for (int i = start; i < end; i++) {
+						final int v = a[i];
+						if (v < lo) lo = v;
+						if (v > hi) hi = v;
+					}
+				}
+			}
+			else if (array instanceof long[]) {
+				final long[] a = (long[]) array;
+				for (int i = start; i < end; i++) {
+					final long v = a[i];
+					if (v < lo) lo = v;
+					if (v > hi) hi = v;
+				}
+			}
+			else {
+				throw new IllegalArgumentException("Unsupported storage: " +
+					array.getClass().getName());
+			}
+			lmin = lo;
+			lmax = hi;
+			integer = true;
+			found = true;
+		}
+
+		private void scan(final float[] a, final int start, final int end) {
+			double lo = dmin, hi = dmax;
+			for (int i = start; i < end; i++) {
+				final float v = a[i];
+				// NB: Comparisons involving NaN are always false.
+				if (v < lo) lo = v;
+				if (v > hi) hi = v;
+			}
+			update(lo, hi);
+		}
+
+		private void scan(final double[] a, final int start, final int end) {
+			double lo = dmin, hi = dmax;
+			for (int i = start; i < end; i++) {
+				final double v = a[i];
+				// NB: Comparisons involving NaN are always false.
+				if (v < lo) lo = v;
+				if (v > hi) hi = v;
+			}
+			update(lo, hi);
+		}
+
+		private void update(final double lo, final double hi) {
+			dmin = lo;
+			dmax = hi;
+			if (lo <= hi) found = true;
+		}
+
+		public void merge(final Extrema other) {
+			if (!other.found) return;
+			found = true;
+			integer = other.integer;
+			lmin = Math.min(lmin, other.lmin);
+			lmax = Math.max(lmax, other.lmax);
+			dmin = Math.min(dmin, other.dmin);
+			dmax = Math.max(dmax, other.dmax);
+		}
+	}
+}
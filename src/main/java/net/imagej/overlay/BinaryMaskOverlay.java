@@ -32,29 +32,17 @@
 package net.imagej.overlay;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
-import java.util.Arrays;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 
 import net.imagej.axis.Axes;
 import net.imagej.axis.DefaultLinearAxis;
-import net.imglib2.Cursor;
-import net.imglib2.IterableInterval;
-import net.imglib2.RandomAccess;
-import net.imglib2.RandomAccessible;
 import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImg;
-import net.imglib2.img.array.ArrayImgs;
-import net.imglib2.img.basictypeaccess.array.LongArray;
 import net.imglib2.roi.BinaryMaskRegionOfInterest;
 import net.imglib2.type.logic.BitType;
-import net.imglib2.view.Views;
 
 import org.scijava.Context;
 
@@ -70,6 +58,9 @@ public class BinaryMaskOverlay<U extends BitType, V extends Img<U>> extends Abst
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/** Marks the run-length mask format in serialized overlays. */
+	private static final int RLE_VERSION = -1;
+
 	//private BinaryMaskRegionOfInterest<? extends BitType, ? extends Img<BitType>> roi;
 
 	/*
@@ -98,64 +89,47 @@ public class BinaryMaskOverlay<U extends BitType, V extends Img<U>> extends Abst
 		//this.roi = roi;
 	}
 
+	/**
+	 * Creates an overlay whose mask is the given run-length mask, positioned at
+	 * the minimum of the mask's interval.
+	 */
+	public static BinaryMaskOverlay<BitType, Img<BitType>> create(
+		final Context context, final RunLengthMask mask)
+	{
+		final BinaryMaskRegionOfInterest<BitType, Img<BitType>> roi =
+			new BinaryMaskRegionOfInterest<>(mask.toImg());
+		final double[] origin = new double[mask.numDimensions()];
+		mask.realMin(origin);
+		roi.move(origin);
+		return new BinaryMaskOverlay<>(context, roi);
+	}
+
+	/**
+	 * Gets the mask as runs of set pixels, positioned at the mask's origin
+	 * (rounded to the nearest pixel).
+	 */
+	public RunLengthMask getRunLengthMask() {
+		final BinaryMaskRegionOfInterest<U, V> theRoi = getRegionOfInterest();
+		final double[] origin = theRoi.getOrigin();
+		final long[] offset = new long[origin.length];
+		for (int i = 0; i < origin.length; i++) {
+			offset[i] = Math.round(origin[i]);
+		}
+		return RunLengthMask.of(theRoi.getImg()).translate(offset);
+	}
+
 	@Override
 	public void writeExternal(final ObjectOutput out) throws IOException {
 		super.writeExternal(out);
 		final BinaryMaskRegionOfInterest<U,V> theRoi = getRegionOfInterest();
-		final RandomAccessible<BitType> ra = constantImg(theRoi.numDimensions());
-		final IterableInterval<BitType> ii = theRoi.getIterableIntervalOverROI(ra);
-		final Cursor<BitType> c = ii.localizingCursor();
-
-		out.writeInt(theRoi.numDimensions());
-		for (int i = 0; i < theRoi.numDimensions(); i++) {
-			out.writeLong(ii.dimension(i));
-		}
-		double[] maskOrigin = theRoi.getOrigin();
+		// NB: a negative version distinguishes this format from the legacy one,
+		// which starts with the (positive) number of dimensions
+		out.writeInt(RLE_VERSION);
+		final double[] maskOrigin = theRoi.getOrigin();
+		out.writeInt(maskOrigin.length);
 		for (int i = 0; i < maskOrigin.length; i++)
 			out.writeDouble(maskOrigin[i]);
-		/*
-		 * This is a run-length encoding of the binary mask. The method is similar to PNG.
-		 */
-		final ByteArrayOutputStream s = new ByteArrayOutputStream();
-		final DataOutputStream ds =
-			new DataOutputStream(new DeflaterOutputStream(s));
-		final long initial_position[] = new long[theRoi.numDimensions()];
-		final long next_position[] = new long[theRoi.numDimensions()];
-		Arrays.fill(initial_position, Long.MIN_VALUE);
-		long run = 0;
-		while (c.hasNext()) {
-			c.next();
-			next_position[0] = initial_position[0] + run;
-			for (int i = 0; i < theRoi.numDimensions(); i++) {
-				if (next_position[i] != c.getLongPosition(i)) {
-					if (run > 0) {
-						ds.writeLong(run);
-						for (int j = 0; j < theRoi.numDimensions(); j++) {
-							ds.writeLong(initial_position[j]);
-						}
-					}
-					run = 0;
-					c.localize(initial_position);
-					c.localize(next_position);
-					break;
-				}
-			}
-			run++;
-		}
-		if (run > 0) {
-			ds.writeLong(run);
-			for (int j = 0; j < theRoi.numDimensions(); j++) {
-				ds.writeLong(initial_position[j]);
-			}
-		}
-		/*
-		 * The end is signaled by a run of length 0
-		 */
-		ds.writeLong(0);
-		ds.close();
-		final byte[] buffer = s.toByteArray();
-		out.writeInt(buffer.length);
-		out.write(buffer);
+		RunLengthMask.of(theRoi.getImg()).write(out);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -164,36 +138,22 @@ public class BinaryMaskOverlay<U extends BitType, V extends Img<U>> extends Abst
 		ClassNotFoundException
 	{
 		super.readExternal(in);
-		final int nDimensions = in.readInt();
-		final long[] dimensions = new long[nDimensions];
-		for (int i = 0; i < nDimensions; i++) {
-			dimensions[i] = in.readLong();
-		}
-		double[] maskOrigin = new double[nDimensions];
-		for (int i = 0; i < nDimensions; i++) {
-			maskOrigin[i] = in.readDouble();
-		}
-		final ArrayImg<BitType, LongArray> img = ArrayImgs.bits(dimensions);
-		img.setLinkedType(new BitType(img));
-		final RandomAccess<BitType> ra = img.randomAccess();
-		final byte[] buffer = new byte[in.readInt()];
-		in.read(buffer);
-		final ByteArrayInputStream s = new ByteArrayInputStream(buffer);
-		final DataInputStream ds = new DataInputStream(new InflaterInputStream(s));
-		final long position[] = new long[nDimensions];
-		while (true) {
-			final long run = ds.readLong();
-			if (run == 0) break;
-			for (int i = 0; i < nDimensions; i++) {
-				position[i] = ds.readLong();
-			}
-			for (int i = 0; i < run; i++) {
-				ra.setPosition(position);
-				position[0]++;
-				ra.get().set(true);
+		final int header = in.readInt();
+		final RunLengthMask mask;
+		final double[] maskOrigin;
+		if (header == RLE_VERSION) {
+			maskOrigin = new double[in.readInt()];
+			for (int i = 0; i < maskOrigin.length; i++) {
+				maskOrigin[i] = in.readDouble();
 			}
+			mask = RunLengthMask.read(in);
+		}
+		else if (header > 0) {
+			maskOrigin = new double[header];
+			mask = readLegacy(in, header, maskOrigin);
 		}
-		setRegionOfInterest(new BinaryMaskRegionOfInterest<>((V)img));
+		else throw new IOException("Unsupported mask format: " + header);
+		setRegionOfInterest(new BinaryMaskRegionOfInterest<>((V) mask.toImg()));
 		getRegionOfInterest().move(maskOrigin);
 	}
 
@@ -224,13 +184,36 @@ public class BinaryMaskOverlay<U extends BitType, V extends Img<U>> extends Abst
 
 	// -- Helper methods --
 
-	private RandomAccessible<BitType> constantImg(final int numDims) {
-		final long[] dims = new long[numDims];
-		Arrays.fill(dims, 1);
-		final ArrayImg<BitType, LongArray> bitImg = ArrayImgs.bits(dims);
-		bitImg.setLinkedType(new BitType(bitImg));
-		bitImg.cursor().next().set(true);
-		return Views.extendBorder(bitImg);
+	/**
+	 * Reads the deflated format written by earlier versions, in which each run
+	 * is a length followed by the position of its first pixel.
+	 */
+	private RunLengthMask readLegacy(final ObjectInput in, final int nDimensions,
+		final double[] maskOrigin) throws IOException
+	{
+		final long[] min = new long[nDimensions];
+		final long[] max = new long[nDimensions];
+		for (int i = 0; i < nDimensions; i++) {
+			max[i] = in.readLong() - 1;
+		}
+		for (int i = 0; i < nDimensions; i++) {
+			maskOrigin[i] = in.readDouble();
+		}
+		final byte[] buffer = new byte[in.readInt()];
+		in.readFully(buffer);
+		final ByteArrayInputStream s = new ByteArrayInputStream(buffer);
+		final DataInputStream ds = new DataInputStream(new InflaterInputStream(s));
+		final RunLengthMask.Builder builder = new RunLengthMask.Builder(min, max);
+		final long position[] = new long[nDimensions];
+		while (true) {
+			final long run = ds.readLong();
+			if (run == 0) break;
+			for (int i = 0; i < nDimensions; i++) {
+				position[i] = ds.readLong();
+			}
+			builder.add(position, run);
+		}
+		return builder.build();
 	}
 
 }
@@ -0,0 +1,528 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.overlay;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.imglib2.AbstractInterval;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.view.Views;
+
+/**
+ * A binary mask over an N-dimensional interval, stored as runs of set pixels.
+ * <p>
+ * Pixels are numbered in flat iteration order over the interval (dimension 0
+ * varying fastest), and the mask holds the sorted, disjoint runs of set pixels
+ * as half-open ranges of those indices. Memory is proportional to the number
+ * of runs rather than to the size of the interval, and union, intersection and
+ * difference work run by run. Masks are created with {@link #of}, a
+ * {@link Builder} or {@link #read}, and are immutable.
+ * </p>
+ * <p>
+ * The serialized form stores each run as the gap since the previous run and
+ * its length, as variable-length integers, so sparse masks take a few bytes
+ * per run.
+ * </p>
+ */
+public final class RunLengthMask extends AbstractInterval {
+
+	/** Start (inclusive) and end (exclusive) flat index of each run. */
+	private final long[] runs;
+
+	private RunLengthMask(final long[] min, final long[] max,
+		final long[] runs)
+	{
+		super(min, max);
+		this.runs = runs;
+	}
+
+	// -- RunLengthMask methods --
+
+	/** Creates a mask of the set pixels of the given image. */
+	public static RunLengthMask of(
+		final RandomAccessibleInterval<? extends BooleanType<?>> img)
+	{
+		if (img instanceof ArrayImg) {
+			final Object access = ((ArrayImg<?, ?>) img).update(null);
+			if (access instanceof LongArray &&
+				((ArrayImg<?, ?>) img).firstElement() instanceof BitType)
+			{
+				return ofWords(img, ((LongArray) access).getCurrentStorageArray());
+			}
+		}
+		final Builder builder = new Builder(img);
+		final Cursor<? extends BooleanType<?>> cursor = Views.flatIterable(img)
+			.cursor();
+		long index = 0, start = -1;
+		while (cursor.hasNext()) {
+			final boolean on = cursor.next().get();
+			if (on && start < 0) start = index;
+			else if (!on && start >= 0) {
+				builder.add(start, index);
+				start = -1;
+			}
+			index++;
+		}
+		if (start >= 0) builder.add(start, index);
+		return builder.build();
+	}
+
+	/** Gets whether the mask has no set pixels. */
+	public boolean isEmpty() {
+		return runs.length == 0;
+	}
+
+	/** Gets the number of runs of set pixels. */
+	public int getRunCount() {
+		return runs.length / 2;
+	}
+
+	/** Gets the number of set pixels. */
+	public long getPixelCount() {
+		long count = 0;
+		for (int r = 0; r < runs.length; r += 2) {
+			count += runs[r + 1] - runs[r];
+		}
+		return count;
+	}
+
+	/** Gets whether the pixel at the given position is set. */
+	public boolean contains(final long... position) {
+		long index = 0, stride = 1;
+		for (int d = 0; d < n; d++) {
+			if (position[d] < min[d] || position[d] > max[d]) return false;
+			index += (position[d] - min[d]) * stride;
+			stride *= dimension(d);
+		}
+		int lo = 0, hi = getRunCount() - 1;
+		while (lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (index < runs[2 * mid]) hi = mid - 1;
+			else if (index >= runs[2 * mid + 1]) lo = mid + 1;
+			else return true;
+		}
+		return false;
+	}
+
+	/** Passes every run to the given consumer, in order. */
+	public void forEach(final RunConsumer consumer) {
+		for (int r = 0; r < runs.length; r += 2) {
+			consumer.accept(runs[r], runs[r + 1]);
+		}
+	}
+
+	/** Gets the same mask, moved by the given offset. */
+	public RunLengthMask translate(final long... offset) {
+		final long[] newMin = new long[n], newMax = new long[n];
+		for (int d = 0; d < n; d++) {
+			newMin[d] = min[d] + offset[d];
+			newMax[d] = max[d] + offset[d];
+		}
+		return new RunLengthMask(newMin, newMax, runs);
+	}
+
+	/**
+	 * Gets the pixels set in this mask or the given one, over the bounding box
+	 * of both intervals.
+	 */
+	public RunLengthMask union(final RunLengthMask other) {
+		checkDimensions(other);
+		final long[] newMin = new long[n], newMax = new long[n];
+		for (int d = 0; d < n; d++) {
+			newMin[d] = Math.min(min[d], other.min[d]);
+			newMax[d] = Math.max(max[d], other.max[d]);
+		}
+		final long[] a = reshape(newMin, newMax);
+		final long[] b = other.reshape(newMin, newMax);
+		final Builder builder = new Builder(newMin, newMax);
+		int i = 0, j = 0;
+		while (i < a.length || j < b.length) {
+			if (j == b.length || i < a.length && a[i] <= b[j]) {
+				builder.add(a[i], a[i + 1]);
+				i += 2;
+			}
+			else {
+				builder.add(b[j], b[j + 1]);
+				j += 2;
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Gets the pixels set in both this mask and the given one, over the
+	 * intersection of both intervals. If the intervals do not overlap, the
+	 * result is an empty mask over this interval.
+	 */
+	public RunLengthMask intersect(final RunLengthMask other) {
+		checkDimensions(other);
+		final long[] newMin = new long[n], newMax = new long[n];
+		for (int d = 0; d < n; d++) {
+			newMin[d] = Math.max(min[d], other.min[d]);
+			newMax[d] = Math.min(max[d], other.max[d]);
+			if (newMin[d] > newMax[d]) return new Builder(this).build();
+		}
+		final long[] a = reshape(newMin, newMax);
+		final long[] b = other.reshape(newMin, newMax);
+		final Builder builder = new Builder(newMin, newMax);
+		int i = 0, j = 0;
+		while (i < a.length && j < b.length) {
+			final long start = Math.max(a[i], b[j]);
+			final long end = Math.min(a[i + 1], b[j + 1]);
+			if (start < end) builder.add(start, end);
+			if (a[i + 1] < b[j + 1]) i += 2;
+			else j += 2;
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Gets the pixels set in this mask but not in the given one, over this
+	 * interval.
+	 */
+	public RunLengthMask subtract(final RunLengthMask other) {
+		checkDimensions(other);
+		final long[] b = other.reshape(min, max);
+		final Builder builder = new Builder(this);
+		int j = 0;
+		for (int i = 0; i < runs.length; i += 2) {
+			long start = runs[i];
+			final long end = runs[i + 1];
+			while (j < b.length && b[j + 1] <= start) j += 2;
+			for (int k = j; k < b.length && b[k] < end; k += 2) {
+				if (b[k] > start) builder.add(start, b[k]);
+				start = Math.max(start, b[k + 1]);
+			}
+			if (start < end) builder.add(start, end);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Creates a bit image of this mask's dimensions, with the set pixels filled
+	 * in a word at a time. The image is zero-based, i.e. pixel (0, ..., 0) of
+	 * the image corresponds to the minimum of this mask's interval.
+	 */
+	public ArrayImg<BitType, LongArray> toImg() {
+		final long[] dims = new long[n];
+		dimensions(dims);
+		final ArrayImg<BitType, LongArray> img = ArrayImgs.bits(dims);
+		img.setLinkedType(new BitType(img));
+		final long[] words = img.update(null).getCurrentStorageArray();
+		for (int r = 0; r < runs.length; r += 2) {
+			setBits(words, runs[r], runs[r + 1]);
+		}
+		return img;
+	}
+
+	/** Writes the mask in a compact form which {@link #read} understands. */
+	public void write(final DataOutput out) throws IOException {
+		writeVarLong(out, n);
+		for (int d = 0; d < n; d++) {
+			// NB: zigzag encoding keeps small negative minima short
+			writeVarLong(out, min[d] << 1 ^ min[d] >> 63);
+			writeVarLong(out, dimension(d));
+		}
+		writeVarLong(out, getRunCount());
+		long previous = 0;
+		for (int r = 0; r < runs.length; r += 2) {
+			writeVarLong(out, runs[r] - previous);
+			writeVarLong(out, runs[r + 1] - runs[r]);
+			previous = runs[r + 1];
+		}
+	}
+
+	/** Reads a mask written by {@link #write}. */
+	public static RunLengthMask read(final DataInput in) throws IOException {
+		final int numDims = (int) readVarLong(in);
+		final long[] min = new long[numDims], max = new long[numDims];
+		for (int d = 0; d < numDims; d++) {
+			final long zigzag = readVarLong(in);
+			min[d] = zigzag >>> 1 ^ -(zigzag & 1);
+			max[d] = min[d] + readVarLong(in) - 1;
+		}
+		final Builder builder = new Builder(min, max);
+		final long count = readVarLong(in);
+		long previous = 0;
+		for (long r = 0; r < count; r++) {
+			final long start = previous + readVarLong(in);
+			previous = start + readVarLong(in);
+			builder.add(start, previous);
+		}
+		return builder.build();
+	}
+
+	// -- Object methods --
+
+	@Override
+	public boolean equals(final Object o) {
+		if (!(o instanceof RunLengthMask)) return false;
+		final RunLengthMask mask = (RunLengthMask) o;
+		return Arrays.equals(min, mask.min) && Arrays.equals(max, mask.max) &&
+			Arrays.equals(runs, mask.runs);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(min) + Arrays.hashCode(runs);
+	}
+
+	@Override
+	public String toString() {
+		return "RunLengthMask[min=" + Arrays.toString(min) + ", max=" + Arrays
+			.toString(max) + ", runs=" + getRunCount() + "]";
+	}
+
+	// -- Helper methods --
+
+	private static RunLengthMask ofWords(final Interval interval,
+		final long[] words)
+	{
+		final Builder builder = new Builder(interval);
+		final long size = builder.size;
+		long start = -1;
+		for (int i = 0; i < words.length; i++) {
+			final long base = (long) i << 6;
+			long w = words[i];
+			if (base + 64 > size) w &= (1L << (size - base)) - 1;
+			// find where the word toggles between unset and set bits
+			int b = 0;
+			while (b < 64) {
+				final long toggles = (start < 0 ? w : ~w) & -1L << b;
+				if (toggles == 0) break;
+				b = Long.numberOfTrailingZeros(toggles);
+				if (start < 0) start = base + b;
+				else {
+					builder.add(start, base + b);
+					start = -1;
+				}
+			}
+		}
+		if (start >= 0) builder.add(start, size);
+		return builder.build();
+	}
+
+	/** Sets bits start (inclusive) to end (exclusive). */
+	private static void setBits(final long[] words, final long start,
+		final long end)
+	{
+		final int first = (int) (start >>> 6), last = (int) ((end - 1) >>> 6);
+		final long firstMask = -1L << start;
+		final long lastMask = -1L >>> -end;
+		if (first == last) {
+			words[first] |= firstMask & lastMask;
+			return;
+		}
+		words[first] |= firstMask;
+		Arrays.fill(words, first + 1, last, -1L);
+		words[last] |= lastMask;
+	}
+
+	/**
+	 * Gets the runs of this mask re-indexed over the given interval, dropping
+	 * the pixels which fall outside it.
+	 */
+	private long[] reshape(final long[] newMin, final long[] newMax) {
+		if (Arrays.equals(min, newMin) && Arrays.equals(max, newMax)) return runs;
+		final Builder builder = new Builder(newMin, newMax);
+		final long width = dimension(0);
+		final long[] pos = new long[n];
+		for (int r = 0; r < runs.length; r += 2) {
+			long index = runs[r];
+			final long end = runs[r + 1];
+			while (index < end) {
+				// split the run into its pieces along dimension 0
+				long rest = index;
+				for (int d = 0; d < n; d++) {
+					pos[d] = min[d] + rest % dimension(d);
+					rest /= dimension(d);
+				}
+				final long pieceEnd = Math.min(end, index - (pos[0] - min[0]) +
+					width);
+				final long x0 = Math.max(pos[0], newMin[0]);
+				final long x1 = Math.min(pos[0] + pieceEnd - index - 1, newMax[0]);
+				index = pieceEnd;
+				if (x0 > x1) continue;
+				long newIndex = 0, stride = 1;
+				boolean inside = true;
+				for (int d = 0; d < n; d++) {
+					final long p = d == 0 ? x0 : pos[d];
+					if (p < newMin[d] || p > newMax[d]) {
+						inside = false;
+						break;
+					}
+					newIndex += (p - newMin[d]) * stride;
+					stride *= newMax[d] - newMin[d] + 1;
+				}
+				if (inside) builder.add(newIndex, newIndex + x1 - x0 + 1);
+			}
+		}
+		return builder.build().runs;
+	}
+
+	private void checkDimensions(final RunLengthMask other) {
+		if (other.n != n) {
+			throw new IllegalArgumentException("Dimensionality mismatch: " + n +
+				" != " + other.n);
+		}
+	}
+
+	private static void writeVarLong(final DataOutput out, long value)
+		throws IOException
+	{
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(final DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final byte b = in.readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	// -- Helper classes --
+
+	/** Receives the runs of a mask. */
+	@FunctionalInterface
+	public interface RunConsumer {
+
+		/** Receives the run of flat indices from start (inclusive) to end. */
+		void accept(long start, long end);
+	}
+
+	/**
+	 * Assembles a {@link RunLengthMask}. Runs are given as flat indices over the
+	 * mask's interval and must be added in order of their start; overlapping and
+	 * adjacent runs are merged.
+	 */
+	public static class Builder {
+
+		private final long[] min, max;
+		private final long size;
+		private long[] runs = new long[32];
+		private int count;
+
+		/** Creates a builder for a mask over the given interval. */
+		public Builder(final Interval interval) {
+			this(min(interval), max(interval));
+		}
+
+		/** Creates a builder for a mask from min to max (inclusive). */
+		public Builder(final long[] min, final long[] max) {
+			this.min = min.clone();
+			this.max = max.clone();
+			long s = 1;
+			for (int d = 0; d < min.length; d++) {
+				if (max[d] < min[d]) {
+					throw new IllegalArgumentException("Invalid interval: " + Arrays
+						.toString(min) + " - " + Arrays.toString(max));
+				}
+				s *= max[d] - min[d] + 1;
+			}
+			size = s;
+		}
+
+		/** Adds the run of flat indices from start (inclusive) to end. */
+		public Builder add(final long start, final long end) {
+			if (start < 0 || end > size || start >= end) {
+				throw new IllegalArgumentException("Invalid run: " + start + "-" +
+					end);
+			}
+			if (count > 0) {
+				if (start < runs[count - 2]) {
+					throw new IllegalArgumentException("Run out of order: " + start);
+				}
+				if (start <= runs[count - 1]) {
+					runs[count - 1] = Math.max(end, runs[count - 1]);
+					return this;
+				}
+			}
+			if (count == runs.length) runs = Arrays.copyOf(runs, 2 * count);
+			runs[count++] = start;
+			runs[count++] = end;
+			return this;
+		}
+
+		/**
+		 * Adds the run of the given length along dimension 0, starting at the
+		 * given position.
+		 */
+		public Builder add(final long[] position, final long length) {
+			long index = 0, stride = 1;
+			for (int d = 0; d < min.length; d++) {
+				if (position[d] < min[d] || position[d] > max[d]) {
+					throw new IllegalArgumentException("Position out of bounds: " +
+						Arrays.toString(position));
+				}
+				index += (position[d] - min[d]) * stride;
+				stride *= max[d] - min[d] + 1;
+			}
+			return add(index, index + length);
+		}
+
+		private static long[] min(final Interval interval) {
+			final long[] min = new long[interval.numDimensions()];
+			interval.min(min);
+			return min;
+		}
+
+		private static long[] max(final Interval interval) {
+			final long[] max = new long[interval.numDimensions()];
+			interval.max(max);
+			return max;
+		}
+
+		/** Creates the mask from the runs added so far. */
+		public RunLengthMask build() {
+			return new RunLengthMask(min.clone(), max.clone(), Arrays.copyOf(runs,
+				count));
+		}
+	}
+
+}
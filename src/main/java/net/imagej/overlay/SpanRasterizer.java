@@ -0,0 +1,274 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.overlay;
+
+import java.util.Arrays;
+
+import net.imglib2.Cursor;
+import net.imglib2.RealLocalizable;
+import net.imglib2.img.Img;
+import net.imglib2.roi.BinaryMaskRegionOfInterest;
+import net.imglib2.roi.EllipseRegionOfInterest;
+import net.imglib2.roi.PolygonRegionOfInterest;
+import net.imglib2.roi.RectangleRegionOfInterest;
+import net.imglib2.roi.RegionOfInterest;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.view.Views;
+
+/**
+ * Converts {@link Overlay}s into {@link Spans}.
+ * <p>
+ * A pixel belongs to the rasterized region when the overlay's
+ * {@link RegionOfInterest} contains the pixel's integer coordinates, exactly
+ * as when sampling the region with {@code Views.raster}. Rectangles, ellipses,
+ * polygons and binary masks are not sampled pixel by pixel, though: their
+ * spans are computed from the shape's geometry, and only the pixels at either
+ * end of each span are checked against the region, to settle rounding at the
+ * boundary. Other regions are sampled at every pixel of their bounding box.
+ * </p>
+ * <p>
+ * The rasterizer does not modify the region, so several overlays may be
+ * rasterized in parallel.
+ * </p>
+ */
+public final class SpanRasterizer {
+
+	/** Tolerance for deciding that a polygon vertex lies on a row. */
+	private static final double EPSILON = 1e-9;
+
+	private SpanRasterizer() {
+		// NB: Prevent instantiation of utility class.
+	}
+
+	// -- Utility methods --
+
+	/** Rasterizes the region of the given overlay. */
+	public static Spans rasterize(final Overlay overlay) {
+		return rasterize(overlay.getRegionOfInterest());
+	}
+
+	/**
+	 * Rasterizes the given region. A region with more than two dimensions is
+	 * projected onto its first two.
+	 */
+	public static Spans rasterize(final RegionOfInterest region) {
+		if (region == null || region.numDimensions() < 2) return Spans.EMPTY;
+		if (region.numDimensions() > 2) return sample(region);
+		if (region instanceof RectangleRegionOfInterest) {
+			return rectangle((RectangleRegionOfInterest) region);
+		}
+		if (region instanceof EllipseRegionOfInterest) {
+			return ellipse((EllipseRegionOfInterest) region);
+		}
+		if (region instanceof PolygonRegionOfInterest) {
+			return polygon((PolygonRegionOfInterest) region);
+		}
+		if (region instanceof BinaryMaskRegionOfInterest) {
+			return mask((BinaryMaskRegionOfInterest<?, ?>) region);
+		}
+		return sample(region);
+	}
+
+	// -- Helper methods --
+
+	private static Spans rectangle(final RectangleRegionOfInterest region) {
+		final Bounds b = new Bounds(region);
+		final long start = (long) Math.ceil(region.getOrigin(0));
+		final long end = (long) Math.floor(region.getOrigin(0) + region
+			.getExtent(0));
+		for (long y = b.minY; y <= b.maxY; y++) {
+			b.refine(y, start, end);
+		}
+		return b.builder.build();
+	}
+
+	private static Spans ellipse(final EllipseRegionOfInterest region) {
+		final Bounds b = new Bounds(region);
+		final double cx = region.getOrigin(0), cy = region.getOrigin(1);
+		final double rx = region.getRadius(0), ry = region.getRadius(1);
+		for (long y = b.minY; y <= b.maxY; y++) {
+			final double t = (y - cy) / ry;
+			if (t * t > 1 + EPSILON) continue;
+			final double half = rx * Math.sqrt(Math.max(0, 1 - t * t));
+			b.refine(y, (long) Math.floor(cx - half), (long) Math.ceil(cx + half));
+		}
+		return b.builder.build();
+	}
+
+	private static Spans polygon(final PolygonRegionOfInterest region) {
+		final Bounds b = new Bounds(region);
+		final int n = region.getVertexCount();
+		if (n < 3) return sample(region);
+		final double[] vx = new double[n], vy = new double[n];
+		for (int i = 0; i < n; i++) {
+			final RealLocalizable vertex = region.getVertex(i);
+			vx[i] = vertex.getDoublePosition(0);
+			vy[i] = vertex.getDoublePosition(1);
+		}
+		final double[] crossings = new double[n];
+		for (long y = b.minY; y <= b.maxY; y++) {
+			int count = 0;
+			boolean onVertex = false;
+			for (int i = 0, j = n - 1; i < n; j = i++) {
+				if (Math.abs(vy[i] - y) < EPSILON) onVertex = true;
+				if ((vy[i] <= y) == (vy[j] <= y)) continue;
+				crossings[count++] = vx[j] + (y - vy[j]) * (vx[i] - vx[j]) /
+					(vy[i] - vy[j]);
+			}
+			if (onVertex) {
+				// NB: Rows through a vertex may touch the region at single points.
+				b.sampleRow(y);
+				continue;
+			}
+			Arrays.sort(crossings, 0, count);
+			for (int c = 0; c + 1 < count; c += 2) {
+				b.refine(y, (long) Math.floor(crossings[c]), (long) Math.ceil(
+					crossings[c + 1]));
+			}
+		}
+		return b.builder.build();
+	}
+
+	private static Spans mask(final BinaryMaskRegionOfInterest<?, ?> region) {
+		final Bounds b = new Bounds(region);
+		final Img<? extends BitType> img = region.getImg();
+		final double[] origin = region.getOrigin();
+		final long ox = Math.round(origin[0]), oy = Math.round(origin[1]);
+		final long width = img.dimension(0);
+		final Cursor<? extends BitType> cursor = Views.flatIterable(img).cursor();
+		long x = 0, y = 0, runStart = -1;
+		while (cursor.hasNext()) {
+			final boolean on = cursor.next().get();
+			if (on && runStart < 0) runStart = x;
+			if (!on && runStart >= 0) {
+				b.refine(oy + y, ox + runStart, ox + x - 1);
+				runStart = -1;
+			}
+			if (++x == width) {
+				if (runStart >= 0) b.refine(oy + y, ox + runStart, ox + x - 1);
+				runStart = -1;
+				x = 0;
+				y++;
+			}
+		}
+		return b.builder.build();
+	}
+
+	/** Tests every pixel of the region's bounding box. */
+	private static Spans sample(final RegionOfInterest region) {
+		final Bounds b = new Bounds(region);
+		for (long y = b.minY; y <= b.maxY; y++) {
+			b.sampleRow(y);
+		}
+		return b.builder.build();
+	}
+
+	// -- Helper classes --
+
+	/** The pixel bounding box of a region, with helpers to find its spans. */
+	private static class Bounds {
+
+		private final RegionOfInterest region;
+		private final long minX, minY, maxX, maxY;
+		private final long[] min, max;
+		private final double[] pos;
+		private final Spans.Builder builder = new Spans.Builder();
+
+		public Bounds(final RegionOfInterest region) {
+			this.region = region;
+			final int n = region.numDimensions();
+			min = new long[n];
+			max = new long[n];
+			for (int d = 0; d < n; d++) {
+				min[d] = (long) Math.floor(region.realMin(d));
+				max[d] = (long) Math.ceil(region.realMax(d));
+			}
+			minX = min[0];
+			minY = min[1];
+			maxX = max[0];
+			maxY = max[1];
+			pos = new double[n];
+		}
+
+		/**
+		 * Adds the span of row y which overlaps the candidate span from start to
+		 * end, after moving each end of the candidate onto the region's
+		 * boundary.
+		 */
+		public void refine(final long y, final long start, final long end) {
+			long s = Math.max(start, minX), e = Math.min(end, maxX);
+			while (s <= e && !inside(s, y)) s++;
+			while (e >= s && !inside(e, y)) e--;
+			if (s > e) return;
+			while (s > minX && inside(s - 1, y)) s--;
+			while (e < maxX && inside(e + 1, y)) e++;
+			builder.add(y, s, e);
+		}
+
+		/** Adds the spans of row y, testing every pixel. */
+		public void sampleRow(final long y) {
+			long runStart = 0;
+			boolean in = false;
+			for (long x = minX; x <= maxX; x++) {
+				final boolean inside = inside(x, y);
+				if (inside && !in) runStart = x;
+				if (!inside && in) builder.add(y, runStart, x - 1);
+				in = inside;
+			}
+			if (in) builder.add(y, runStart, maxX);
+		}
+
+		/**
+		 * Tests the given pixel. With more than two dimensions, tests whether any
+		 * pixel projecting onto it lies in the region.
+		 */
+		private boolean inside(final long x, final long y) {
+			pos[0] = x;
+			pos[1] = y;
+			if (pos.length == 2) return region.contains(pos);
+			final long[] p = min.clone();
+			while (true) {
+				for (int d = 2; d < pos.length; d++) {
+					pos[d] = p[d];
+				}
+				if (region.contains(pos)) return true;
+				int d = 2;
+				while (d < p.length && ++p[d] > max[d]) {
+					p[d] = min[d];
+					d++;
+				}
+				if (d == p.length) return false;
+			}
+		}
+	}
+
+}
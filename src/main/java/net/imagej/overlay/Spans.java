@@ -0,0 +1,318 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.overlay;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A rasterized two-dimensional region, stored as horizontal runs of pixels.
+ * <p>
+ * Each row holds a sorted list of disjoint spans, each given by its first and
+ * last column (inclusive). Drawing a region span by span lets the caller
+ * write each run of pixels in one go, rather than testing and positioning
+ * for every pixel. Spans are created by {@link SpanRasterizer} or a
+ * {@link Builder}, and are immutable.
+ * </p>
+ */
+public final class Spans {
+
+	/** Spans of an empty region. */
+	public static final Spans EMPTY = new Builder().build();
+
+	/** Row of the first entry in {@link #rowOffsets}. */
+	private final long minRow;
+
+	/** Index of the first span of each row, plus the total span count. */
+	private final int[] rowOffsets;
+
+	/** First and last column of each span, interleaved. */
+	private final long[] bounds;
+
+	private Spans(final long minRow, final int[] rowOffsets,
+		final long[] bounds)
+	{
+		this.minRow = minRow;
+		this.rowOffsets = rowOffsets;
+		this.bounds = bounds;
+	}
+
+	// -- Spans methods --
+
+	/** Gets whether the region contains no pixels. */
+	public boolean isEmpty() {
+		return getSpanCount() == 0;
+	}
+
+	/** Gets the first row of the region. */
+	public long getMinRow() {
+		return minRow;
+	}
+
+	/** Gets the last row of the region. */
+	public long getMaxRow() {
+		return minRow + getRowCount() - 1;
+	}
+
+	/** Gets the number of rows from the first to the last row of the region. */
+	public int getRowCount() {
+		return rowOffsets.length - 1;
+	}
+
+	/** Gets the total number of spans. */
+	public int getSpanCount() {
+		return rowOffsets[rowOffsets.length - 1];
+	}
+
+	/** Gets the total number of pixels in the region. */
+	public long getPixelCount() {
+		long count = 0;
+		for (int s = 0; s < getSpanCount(); s++) {
+			count += bounds[2 * s + 1] - bounds[2 * s] + 1;
+		}
+		return count;
+	}
+
+	/** Gets whether the given pixel lies within the region. */
+	public boolean contains(final long x, final long y) {
+		if (y < minRow || y > getMaxRow()) return false;
+		final int row = (int) (y - minRow);
+		int lo = rowOffsets[row], hi = rowOffsets[row + 1] - 1;
+		while (lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (x < bounds[2 * mid]) hi = mid - 1;
+			else if (x > bounds[2 * mid + 1]) lo = mid + 1;
+			else return true;
+		}
+		return false;
+	}
+
+	/** Passes every span to the given consumer, in row order. */
+	public void forEach(final SpanConsumer consumer) {
+		for (int row = 0; row < getRowCount(); row++) {
+			for (int s = rowOffsets[row]; s < rowOffsets[row + 1]; s++) {
+				consumer.accept(minRow + row, bounds[2 * s], bounds[2 * s + 1]);
+			}
+		}
+	}
+
+	/** Gets the union of the given regions. */
+	public static Spans union(final Collection<Spans> regions) {
+		int total = 0;
+		for (final Spans spans : regions) {
+			total += spans.getSpanCount();
+		}
+		// NB: Sort all spans by row, then by start.
+		final long[][] all = new long[total][];
+		int i = 0;
+		for (final Spans spans : regions) {
+			for (int row = 0; row < spans.getRowCount(); row++) {
+				for (int s = spans.rowOffsets[row]; s < spans.rowOffsets[row + 1]; s++)
+				{
+					all[i++] = new long[] { spans.minRow + row, spans.bounds[2 * s],
+						spans.bounds[2 * s + 1] };
+				}
+			}
+		}
+		Arrays.sort(all, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long
+			.compare(a[1], b[1]));
+		final Builder builder = new Builder();
+		for (final long[] span : all) {
+			builder.add(span[0], span[1], span[2]);
+		}
+		return builder.build();
+	}
+
+	/** Gets the part of the region which lies within the given bounds. */
+	public Spans clip(final long minX, final long minY, final long maxX,
+		final long maxY)
+	{
+		final Builder builder = new Builder();
+		forEach((row, start, end) -> {
+			if (row < minY || row > maxY) return;
+			final long s = Math.max(start, minX), e = Math.min(end, maxX);
+			if (s <= e) builder.add(row, s, e);
+		});
+		return builder.build();
+	}
+
+	/**
+	 * Gets the outline of the region: those pixels with at least one of their
+	 * four neighbors outside the region.
+	 */
+	public Spans outline() {
+		final Builder builder = new Builder();
+		final long[] none = new long[0];
+		for (int row = 0; row < getRowCount(); row++) {
+			final long[] above = row > 0 ? row(row - 1) : none;
+			final long[] below = row < getRowCount() - 1 ? row(row + 1) : none;
+			// pixels covered above and below are interior, unless at a span's end
+			final long[] interior = intersect(above, below);
+			final long y = minRow + row;
+			for (int s = rowOffsets[row]; s < rowOffsets[row + 1]; s++) {
+				final long start = bounds[2 * s], end = bounds[2 * s + 1];
+				builder.add(y, start, start);
+				long x = start + 1;
+				for (int i = 0; i < interior.length && x < end; i += 2) {
+					if (interior[i + 1] < x) continue;
+					if (interior[i] > x) builder.add(y, x, Math.min(interior[i], end) - 1);
+					x = interior[i + 1] + 1;
+				}
+				if (x < end) builder.add(y, x, end - 1);
+				builder.add(y, end, end);
+			}
+		}
+		return builder.build();
+	}
+
+	// -- Object methods --
+
+	@Override
+	public boolean equals(final Object o) {
+		if (!(o instanceof Spans)) return false;
+		final Spans spans = (Spans) o;
+		if (isEmpty() || spans.isEmpty()) return isEmpty() && spans.isEmpty();
+		return minRow == spans.minRow &&
+			Arrays.equals(rowOffsets, spans.rowOffsets) &&
+			Arrays.equals(bounds, spans.bounds);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Long.hashCode(minRow) + Arrays.hashCode(bounds);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("Spans[");
+		forEach((row, start, end) -> {
+			if (sb.length() > 6) sb.append(", ");
+			sb.append(row).append(':').append(start).append('-').append(end);
+		});
+		return sb.append(']').toString();
+	}
+
+	// -- Helper methods --
+
+	/** Gets the bounds of the spans in the given row. */
+	private long[] row(final int row) {
+		return Arrays.copyOfRange(bounds, 2 * rowOffsets[row],
+			2 * rowOffsets[row + 1]);
+	}
+
+	/** Intersects two sorted lists of disjoint spans. */
+	private static long[] intersect(final long[] a, final long[] b) {
+		final long[] result = new long[a.length + b.length];
+		int n = 0, i = 0, j = 0;
+		while (i < a.length && j < b.length) {
+			final long start = Math.max(a[i], b[j]);
+			final long end = Math.min(a[i + 1], b[j + 1]);
+			if (start <= end) {
+				result[n++] = start;
+				result[n++] = end;
+			}
+			if (a[i + 1] < b[j + 1]) i += 2;
+			else j += 2;
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	// -- Helper classes --
+
+	/** Receives the spans of a region. */
+	@FunctionalInterface
+	public interface SpanConsumer {
+
+		/** Receives the span from column start to end (inclusive) of a row. */
+		void accept(long row, long start, long end);
+	}
+
+	/**
+	 * Assembles {@link Spans}. Spans must be added in order of row, and within
+	 * a row in order of column; overlapping and adjacent spans are merged.
+	 */
+	public static class Builder {
+
+		private long[] rows = new long[16];
+		private long[] bounds = new long[32];
+		private int count;
+
+		/** Adds the span from column start to end (inclusive) of a row. */
+		public Builder add(final long row, final long start, final long end) {
+			if (start > end) {
+				throw new IllegalArgumentException("Invalid span: " + start + "-" +
+					end);
+			}
+			if (count > 0) {
+				final long lastRow = rows[count - 1];
+				if (row < lastRow || row == lastRow && start < bounds[2 * count -
+					2])
+				{
+					throw new IllegalArgumentException("Span out of order: " + row +
+						":" + start);
+				}
+				if (row == lastRow && start <= bounds[2 * count - 1] + 1) {
+					bounds[2 * count - 1] = Math.max(end, bounds[2 * count - 1]);
+					return this;
+				}
+			}
+			if (count == rows.length) {
+				rows = Arrays.copyOf(rows, 2 * count);
+				bounds = Arrays.copyOf(bounds, 4 * count);
+			}
+			rows[count] = row;
+			bounds[2 * count] = start;
+			bounds[2 * count + 1] = end;
+			count++;
+			return this;
+		}
+
+		/** Creates the spans added so far. */
+		public Spans build() {
+			if (count == 0) return new Spans(0, new int[1], new long[0]);
+			final long minRow = rows[0];
+			final long rowCount = rows[count - 1] - minRow + 1;
+			if (rowCount >= Integer.MAX_VALUE) {
+				throw new IllegalStateException("Too many rows: " + rowCount);
+			}
+			final int[] offsets = new int[(int) rowCount + 1];
+			for (int s = 0; s < count; s++) {
+				offsets[(int) (rows[s] - minRow) + 1]++;
+			}
+			for (int r = 0; r < rowCount; r++) {
+				offsets[r + 1] += offsets[r];
+			}
+			return new Spans(minRow, offsets, Arrays.copyOf(bounds, 2 * count));
+		}
+	}
+
+}
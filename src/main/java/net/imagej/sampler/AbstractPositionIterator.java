@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.sampler;
+
+import java.util.function.Consumer;
+
+/**
+ * Abstract base class for {@link PositionIterator}s over a box of axis
+ * indices, with axis 0 varying fastest. Each axis index is mapped to a
+ * coordinate by the subclass. Positions are computed arithmetically from
+ * their linear index, so iterators can jump and split in constant time.
+ */
+abstract class AbstractPositionIterator implements PositionIterator {
+
+	// -- instance variables --
+
+	private final long[] sizes;
+	private final long[] indexes;
+	private final long[] currPos;
+
+	/** Linear index of the next position. */
+	private long index;
+
+	/** Linear index just past the last position. */
+	private final long end;
+
+	/** Linear index of the position held in currPos, or -1 if none. */
+	private long current;
+
+	// -- constructor --
+
+	/**
+	 * Creates an iterator over the given range of linear indices.
+	 * 
+	 * @param sizes The number of indices along each axis.
+	 * @param from The linear index of the first position.
+	 * @param to The linear index just past the last position.
+	 */
+	AbstractPositionIterator(final long[] sizes, final long from,
+		final long to)
+	{
+		this.sizes = sizes;
+		indexes = new long[sizes.length];
+		currPos = new long[sizes.length];
+		index = from;
+		end = to;
+		current = -1;
+	}
+
+	// -- AbstractPositionIterator methods --
+
+	/** Gets the coordinate of the given index along the given axis. */
+	protected abstract long coordinate(int axis, long axisIndex);
+
+	/** Creates an iterator of the same kind over another range. */
+	protected abstract AbstractPositionIterator create(long from, long to);
+
+	/** Gets the total number of positions of a box with the given sizes. */
+	protected static long count(final long[] sizes) {
+		long count = 1;
+		for (final long size : sizes) {
+			count *= size;
+		}
+		return count;
+	}
+
+	// -- PositionIterator methods --
+
+	/** Returns true if the iterator has a next position. */
+	@Override
+	public boolean hasNext() {
+		return index < end;
+	}
+
+	/** Returns the next position. The array is reused by later calls. */
+	@Override
+	public long[] next() {
+		if (index >= end) {
+			throw new IllegalArgumentException("Can't position iterator beyond end");
+		}
+		if (current >= 0 && current == index - 1) increment();
+		else seek(index);
+		current = index++;
+		return currPos;
+	}
+
+	@Override
+	public void next(final long[] position) {
+		System.arraycopy(next(), 0, position, 0, currPos.length);
+	}
+
+	@Override
+	public void jumpFwd(final long steps) {
+		index = Math.min(end, index + steps);
+	}
+
+	// -- Spliterator methods --
+
+	@Override
+	public boolean tryAdvance(final Consumer<? super long[]> action) {
+		if (!hasNext()) return false;
+		action.accept(next());
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(final Consumer<? super long[]> action) {
+		while (hasNext()) {
+			action.accept(next());
+		}
+	}
+
+	@Override
+	public PositionIterator trySplit() {
+		final long mid = index + (end - index) / 2;
+		if (mid <= index) return null;
+		final AbstractPositionIterator prefix = create(index, mid);
+		index = mid;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return end - index;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | SIZED | SUBSIZED | NONNULL;
+	}
+
+	// -- private helpers --
+
+	/** Moves to the position with the given linear index. */
+	private void seek(final long linearIndex) {
+		long rem = linearIndex;
+		for (int i = 0; i < sizes.length; i++) {
+			indexes[i] = rem % sizes[i];
+			rem /= sizes[i];
+			currPos[i] = coordinate(i, indexes[i]);
+		}
+	}
+
+	/** Moves to the position after the current one. */
+	private void increment() {
+		for (int i = 0; i < sizes.length; i++) {
+			if (++indexes[i] < sizes[i]) {
+				currPos[i] = coordinate(i, indexes[i]);
+				return;
+			}
+			indexes[i] = 0;
+			currPos[i] = coordinate(i, 0);
+		}
+	}
+}
@@ -31,8 +31,11 @@
 
 package net.imagej.sampler;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -44,6 +47,11 @@ import net.imagej.display.ImageDisplay;
  * An AxisSubrange defines a set of position indices using various constructors.
  * A set of position indices might look like this: 1, 3, 6, 7, 8, 25, 44. These
  * indices are used to iterate over a subset of an image.
+ * <p>
+ * The indices are stored as a sequence of arithmetic progressions (start,
+ * step, count), so a range of any length takes constant memory and each index
+ * is computed on demand.
+ * </p>
  * 
  * @author Barry DeZonia
  */
@@ -52,13 +60,14 @@ public class AxisSubrange {
 	// -- instance variables --
 
 	private String err;
-	private final List<Long> indices;
+	private final List<Segment> segments;
+	private long size;
 
 	// -- private base constructor --
 
 	private AxisSubrange() {
 		this.err = null;
-		this.indices = new ArrayList<>();
+		this.segments = new ArrayList<>();
 	}
 
 	// -- public interface --
@@ -67,8 +76,54 @@ public class AxisSubrange {
 		return err;
 	}
 
+	/**
+	 * Gets the indices of the subrange, in order. The list is a view computing
+	 * each index on demand.
+	 * 
+	 * @throws IllegalStateException if there are more than
+	 *           {@link Integer#MAX_VALUE} indices; use {@link #getIndexCount()}
+	 *           and {@link #getIndex(long)} instead.
+	 */
 	public List<Long> getIndices() {
-		return Collections.unmodifiableList(indices);
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("AxisSubrange: too many indices for a " +
+				"list: " + size);
+		}
+		return new AbstractList<Long>() {
+
+			@Override
+			public Long get(final int i) {
+				if (i < 0 || i >= size) throw new IndexOutOfBoundsException("" + i);
+				return getIndex(i);
+			}
+
+			@Override
+			public int size() {
+				return (int) size;
+			}
+		};
+	}
+
+	/** Gets the number of indices in the subrange. */
+	public long getIndexCount() {
+		return size;
+	}
+
+	/**
+	 * Gets the index at the given position of the subrange.
+	 * 
+	 * @param i The position, from 0 to {@link #getIndexCount()} - 1.
+	 */
+	public long getIndex(final long i) {
+		// binary search for the segment containing position i
+		int lo = 0, hi = segments.size() - 1;
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (segments.get(mid).offset <= i) lo = mid;
+			else hi = mid - 1;
+		}
+		final Segment segment = segments.get(lo);
+		return segment.start + (i - segment.offset) * segment.step;
 	}
 
 	// -- public constructors --
@@ -80,7 +135,7 @@ public class AxisSubrange {
 	 */
 	public AxisSubrange(final long pos) {
 		this();
-		indices.add(pos);
+		append(pos, 1, 1);
 	}
 
 	/**
@@ -94,16 +149,7 @@ public class AxisSubrange {
 	public AxisSubrange(final long pos1, final long pos2) {
 		this();
 		final long numElements = Math.max(pos1, pos2) - Math.min(pos1, pos2) + 1;
-		if (numElements > Integer.MAX_VALUE) {
-			err = "AxisSubrange: the number of axis elements cannot exceed " + Integer.MAX_VALUE;
-			return;
-		}
-		int by;
-		if (pos1 <= pos2) by = 1;
-		else by = -1;
-		for (long l = pos1; (by > 0) ? l <= pos2: l >= pos2; l += by) {
-			indices.add(l);
-		}
+		append(pos1, pos1 <= pos2 ? 1 : -1, numElements);
 	}
 
 	/**
@@ -121,15 +167,9 @@ public class AxisSubrange {
 			err = "AxisSubrange: increment by must not be 0";
 			return;
 		}
-		final long numElements =
-				(Math.max(pos1, pos2) - Math.min(pos1, pos2) + 1) / Math.abs(by);
-		if (numElements > Integer.MAX_VALUE) {
-			err = "AxisSubrange: the number of axis elements cannot exceed " + Integer.MAX_VALUE;
-			return;
-		}
-		for (long l = pos1; (by > 0) ? l <= pos2 : l >= pos2; l += by) {
-			indices.add(l);
-		}
+		// NB: a step away from pos2 yields no positions
+		if ((by > 0) ? pos1 > pos2 : pos1 < pos2) return;
+		append(pos1, by, (pos2 - pos1) / by + 1);
 	}
 
 	/**
@@ -191,6 +231,7 @@ public class AxisSubrange {
 		for (int i = 0; i < terms.length; i++) {
 			terms[i] = terms[i].trim();
 		}
+		final List<Segment> parts = new ArrayList<>();
 		for (final String term : terms) {
 			final Long num = number(term);
 			final Range numDashNum = numberDashNumber(term);
@@ -256,12 +297,92 @@ public class AxisSubrange {
 				err = "AxisSubrange: could not parse definition: " + description;
 			}
 			if (err != null) return;
-			for (final long l : subrange.getIndices()) { // invalid warning here
-				if (indices.contains(l)) continue;
-				indices.add(l);
+			parts.addAll(subrange.segments);
+		}
+		union(parts);
+	}
+
+	/**
+	 * Sets this subrange to the sorted union of the given segments. Disjoint
+	 * segments are kept as they are; overlapping ones are expanded, merged and
+	 * re-encoded.
+	 */
+	private void union(final List<Segment> parts) {
+		// make every segment ascending
+		final List<Segment> ascending = new ArrayList<>(parts.size());
+		for (final Segment part : parts) {
+			if (part.step > 0) ascending.add(part);
+			else ascending.add(new Segment(part.last(), -part.step, part.count));
+		}
+		Collections.sort(ascending, new Comparator<Segment>() {
+
+			@Override
+			public int compare(final Segment s1, final Segment s2) {
+				return Long.compare(s1.start, s2.start);
+			}
+		});
+
+		boolean disjoint = true;
+		long total = 0;
+		for (int i = 0; i < ascending.size(); i++) {
+			if (i > 0 && ascending.get(i - 1).last() >= ascending.get(i).start) {
+				disjoint = false;
+			}
+			total += ascending.get(i).count;
+		}
+		if (disjoint) {
+			for (final Segment segment : ascending) {
+				append(segment.start, segment.step, segment.count);
+			}
+			return;
+		}
+
+		if (total > Integer.MAX_VALUE) {
+			err = "AxisSubrange: the number of overlapping axis elements cannot " +
+				"exceed " + Integer.MAX_VALUE;
+			return;
+		}
+		final long[] values = new long[(int) total];
+		int n = 0;
+		for (final Segment segment : ascending) {
+			for (long i = 0; i < segment.count; i++) {
+				values[n++] = segment.start + i * segment.step;
+			}
+		}
+		Arrays.sort(values);
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0 && values[i] == values[i - 1]) continue;
+			append(values[i], 1, 1);
+		}
+	}
+
+	/**
+	 * Appends an arithmetic progression of indices, extending the last segment
+	 * when the progression continues it.
+	 */
+	private void append(final long start, final long step, final long count) {
+		if (count <= 0) return;
+		if (!segments.isEmpty()) {
+			final Segment last = segments.get(segments.size() - 1);
+			final long gap = start - last.last();
+			if (last.count == 1 && gap != 0 && (count == 1 || gap == step)) {
+				last.step = gap;
+				last.count += count;
+				size += count;
+				return;
+			}
+			if (last.count > 1 && gap == last.step && (count == 1 ||
+				step == last.step))
+			{
+				last.count += count;
+				size += count;
+				return;
 			}
 		}
-		Collections.sort(indices);
+		final Segment segment = new Segment(start, step, count);
+		segment.offset = size;
+		segments.add(segment);
+		size += count;
 	}
 
 	/**
@@ -301,6 +422,27 @@ public class AxisSubrange {
 		return new Range(start, end, by);
 	}
 
+	/** An arithmetic progression of indices. */
+	private static class Segment {
+
+		private final long start;
+		private long step;
+		private long count;
+
+		/** Position of the segment's first index within the subrange. */
+		private long offset;
+
+		private Segment(final long start, final long step, final long count) {
+			this.start = start;
+			this.step = step;
+			this.count = count;
+		}
+
+		private long last() {
+			return start + (count - 1) * step;
+		}
+	}
+
 	private class Range {
 		private final long start;
 		private final long end;
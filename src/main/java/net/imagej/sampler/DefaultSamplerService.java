@@ -33,6 +33,9 @@ package net.imagej.sampler;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.imagej.Dataset;
 import net.imagej.DatasetService;
@@ -45,6 +48,9 @@ import net.imagej.display.ImageDisplay;
 import net.imagej.display.ImageDisplayService;
 import net.imagej.display.OverlayService;
 import net.imagej.overlay.Overlay;
+import net.imagej.util.BulkCopier;
+import net.imagej.util.StorageBlocks;
+import net.imagej.util.StorageBlocks.Block;
 import net.imglib2.RandomAccess;
 import net.imglib2.display.ColorTable;
 import net.imglib2.type.numeric.RealType;
@@ -55,6 +61,7 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.service.AbstractService;
 import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
 import org.scijava.util.RealRect;
 
 //TODO
@@ -65,15 +72,8 @@ import org.scijava.util.RealRect;
 //5) test the contains(num) code works
 //TODO - multiple places I'm relying on a Display's axes rather than a
 //Dataset's axes. See if there are problems with this
-//TODO - the iterators work with Lists which can only hold 2 gig or fewer
-//elements. Thus data cannot be copied > 2 gig per dimension.
-//TODO:
-//-- for speed eliminate reliance on Longs. Make primitive arrays.
-//-- make a EnormousList that can store more than 2 gig of longs
+//TODO - output planes are still limited to 2 gig elements per dimension.
 //In other plugins replace RestructureUtils calls with methods from here
-//Note when user specifies 1-1000 I am storing them all consecutively (i.e.
-// 1,2,3,4,5...1000. For small amounts this is fine but might want something
-// more sophisticated for large dimensional ranges.
 
 /**
  * Default implementation of {@link SamplerService}.
@@ -99,6 +99,9 @@ public class DefaultSamplerService extends AbstractService implements
 	@Parameter
 	private ImageDisplayService imgDispService;
 
+	@Parameter
+	private ThreadService threadService;
+
 	// -- public interface --
 
 	@Override
@@ -214,40 +217,34 @@ public class DefaultSamplerService extends AbstractService implements
 	private void copyData(final SamplingDefinition def,
 		final ImageDisplay outputImage)
 	{
-		final PositionIterator iter1 = new SparsePositionIterator(def);
-		final PositionIterator iter2 = new DensePositionIterator(def);
 		// TODO - remove evil casts
 		final Dataset input = (Dataset) def.getDisplay().getActiveView().getData();
 		final Dataset output = (Dataset) outputImage.getActiveView().getData();
-		final long[] inputDims = Intervals.dimensionsAsLongArray(input);
-		final long[] outputDims = Intervals.dimensionsAsLongArray(output);
-		final RandomAccess<? extends RealType<?>> inputAccessor =
-			input.getImgPlus().randomAccess();
-		final RandomAccess<? extends RealType<?>> outputAccessor =
-			output.getImgPlus().randomAccess();
-		while (iter1.hasNext() && iter2.hasNext()) {
-
-			// determine data positions within datasets
-			final long[] inputPos = iter1.next();
-			final long[] outputPos = iter2.next();
-			inputAccessor.setPosition(inputPos);
-			outputAccessor.setPosition(outputPos);
-
-			// copy value
-			final double value = inputAccessor.get().getRealDouble();
-			outputAccessor.get().setReal(value);
-
-			// TODO - notice there is a lot of inefficiency following here.
-			// We are setting color tables once per pixel in image and do a lot of
-			// calculation to figure out what table. This should be done once per
-			// plane.
-			
-			// keep dataset color tables in sync
-			final int inputPlaneNumber = planeNum(inputDims, inputPos);
-			final ColorTable lut = input.getColorTable(inputPlaneNumber);
-			final int outputPlaneNumber = planeNum(outputDims, outputPos);
-			output.setColorTable(lut, outputPlaneNumber);
+
+		// copy the output planes in parallel
+		final PlaneSampler sampler = new PlaneSampler(def, input, output);
+		final int taskCount =
+			(int) Math.min(sampler.planeCount, Runtime.getRuntime()
+				.availableProcessors());
+		if (taskCount <= 1) sampler.run();
+		else {
+			final List<Future<?>> futures = new ArrayList<>(taskCount);
+			for (int t = 0; t < taskCount; t++) {
+				futures.add(threadService.run(sampler));
+			}
+			try {
+				for (final Future<?> future : futures) {
+					future.get();
+				}
+			}
+			catch (final InterruptedException | ExecutionException exc) {
+				throw new RuntimeException(exc);
+			}
 		}
+
+		// NB: the samples were written behind the dataset's back
+		output.update();
+
 		// TODO - enable this code
 		// List<Overlay> overlays = overlayService.getOverlays(def.getDisplay());
 		// attachOverlays(def.getDisplay(), outputImage, overlays);
@@ -276,7 +273,7 @@ public class DefaultSamplerService extends AbstractService implements
 	}
 
 	/** Calculates a plane number from a position within a dimensional space. */
-	private int planeNum(final long[] dims, final long[] pos) {
+	private static int planeNum(final long[] dims, final long[] pos) {
 		int plane = 0;
 		int inc = 1;
 		// TODO - assumes X & Y are 1st two dims
@@ -315,7 +312,7 @@ public class DefaultSamplerService extends AbstractService implements
 		final DatasetView outView = imgDispService.getActiveDatasetView(output);
 		final List<ColorTable> inputColorTables = inView.getColorTables();
 		final int inputChanAxis = input.dimensionIndex(Axes.CHANNEL); 
-		final List<List<Long>> inputRanges = def.getInputRanges();
+		final List<AxisSubrange> inputRanges = def.getInputSubranges();
 		for (int i = 0; i < inputColorTables.size(); i++) {
 			int outIndex = outputColorTableNumber(inputRanges, i, inputChanAxis);
 			if (outIndex >= 0) {
@@ -344,16 +341,16 @@ public class DefaultSamplerService extends AbstractService implements
 	}
 	
 	private int outputColorTableNumber(
-		List<List<Long>> inputRanges, int inputChannel, int inputChanAxis)
+		List<AxisSubrange> inputRanges, int inputChannel, int inputChanAxis)
 	{
 		if (inputChanAxis < 0) {
 			if (inputChannel == 0) return 0;
 			return -1;
 		}
-		List<Long> channelRanges = inputRanges.get(inputChanAxis);
-		for (int pos = 0; pos < channelRanges.size(); pos++) {
-			if (channelRanges.get(pos) == inputChannel)
-				return pos;
+		AxisSubrange channelRange = inputRanges.get(inputChanAxis);
+		for (long pos = 0; pos < channelRange.getIndexCount(); pos++) {
+			if (channelRange.getIndex(pos) == inputChannel)
+				return (int) pos;
 		}
 		return -1;
 	}
@@ -411,7 +408,7 @@ public class DefaultSamplerService extends AbstractService implements
 		final DatasetView inView = imgDispService.getActiveDatasetView(input);
 		final DatasetView outView = imgDispService.getActiveDatasetView(output);
 		final int inputChanAxis = input.dimensionIndex(Axes.CHANNEL);
-		final List<List<Long>> inputRanges = def.getInputRanges();
+		final List<AxisSubrange> inputRanges = def.getInputSubranges();
 		for (int i = 0; i < inView.getChannelCount(); i++) {
 			int outIndex = outputColorTableNumber(inputRanges, i, inputChanAxis);
 			if (outIndex >= 0) {
@@ -421,4 +418,169 @@ public class DefaultSamplerService extends AbstractService implements
 			}
 		}
 	}
+
+	// -- Helper classes --
+
+	/**
+	 * Copies the planes of a sampling's output, one at a time, until none are
+	 * left. When the output plane is a subset of a single input plane, each row
+	 * is copied as runs of consecutive X positions directly between the
+	 * primitive storage of the two datasets.
+	 */
+	private static class PlaneSampler implements Runnable {
+
+		private final Dataset input, output;
+		private final AxisSubrange[] subranges;
+		private final long[] inputDims, outputDims;
+
+		/** Output dimension of each input dimension, or -1 if collapsed. */
+		private final int[] outputDim;
+
+		/** Input dimension of each output dimension. */
+		private final int[] inputDim;
+
+		private final int width, height;
+		private final long planeCount;
+
+		/** Consecutive X runs, as (output X, input X, length) triples. */
+		private final long[] xRuns;
+
+		private final AtomicLong nextPlane = new AtomicLong();
+
+		public PlaneSampler(final SamplingDefinition def, final Dataset input,
+			final Dataset output)
+		{
+			this.input = input;
+			this.output = output;
+			subranges = def.getInputSubranges().toArray(new AxisSubrange[0]);
+			inputDims = Intervals.dimensionsAsLongArray(input);
+			outputDims = Intervals.dimensionsAsLongArray(output);
+			outputDim = new int[inputDims.length];
+			inputDim = new int[outputDims.length];
+			int d = 0;
+			for (int i = 0; i < inputDims.length; i++) {
+				if (subranges[i].getIndexCount() > 1) {
+					outputDim[i] = d;
+					inputDim[d++] = i;
+				}
+				else outputDim[i] = -1;
+			}
+			width = outputDims.length > 0 ? (int) outputDims[0] : 1;
+			height = outputDims.length > 1 ? (int) outputDims[1] : 1;
+			long count = 1;
+			for (int k = 2; k < outputDims.length; k++) {
+				count *= outputDims[k];
+			}
+			planeCount = count;
+			xRuns = planeAligned() ? xRuns(subranges[0]) : null;
+		}
+
+		@Override
+		public void run() {
+			final RandomAccess<? extends RealType<?>> inputAccessor =
+				input.getImgPlus().randomAccess();
+			final RandomAccess<? extends RealType<?>> outputAccessor =
+				output.getImgPlus().randomAccess();
+			final long[] inputPos = new long[inputDims.length];
+			final long[] outputPos = new long[outputDims.length];
+			long p;
+			while ((p = nextPlane.getAndIncrement()) < planeCount) {
+				// determine the plane's origin within each dataset
+				long index = p;
+				for (int k = 2; k < outputDims.length; k++) {
+					outputPos[k] = index % outputDims[k];
+					index /= outputDims[k];
+				}
+				for (int i = 0; i < inputDims.length; i++) {
+					final int k = outputDim[i];
+					inputPos[i] = subranges[i].getIndex(k < 2 ? 0 : outputPos[k]);
+				}
+
+				// keep dataset color tables in sync, once per plane
+				final int inputPlaneNumber = planeNum(inputDims, inputPos);
+				final ColorTable lut = input.getColorTable(inputPlaneNumber);
+				output.setColorTable(lut, (int) p);
+
+				if (!copyRows(inputPos, inputPlaneNumber, p)) {
+					copySamples(inputPos, outputPos, inputAccessor, outputAccessor);
+				}
+			}
+		}
+
+		/**
+		 * Gets whether each output plane lies within a single input XY plane,
+		 * with output X and Y being input X and Y.
+		 */
+		private boolean planeAligned() {
+			if (inputDims.length < 2 || outputDim[0] != 0) return false;
+			return outputDim[1] == 1 || outputDims.length == 1;
+		}
+
+		/** Copies a plane row by row between primitive storage, if possible. */
+		private boolean copyRows(final long[] inputPos, final long inputPlane,
+			final long outputPlane)
+		{
+			if (xRuns == null) return false;
+			final List<Block> in = StorageBlocks.planeBlocks(input, inputPlane);
+			if (in == null) return false;
+			final List<Block> out = StorageBlocks.planeBlocks(output, outputPlane);
+			if (out == null) return false;
+			final RealType<?> inType = input.getType();
+			final RealType<?> outType = output.getType();
+			for (int r = 0; r < height; r++) {
+				final long inRow = (outputDim[1] == 1 ? subranges[1].getIndex(r)
+					: inputPos[1]) *
+					inputDims[0];
+				final long outRow = (long) r * width;
+				for (int i = 0; i < xRuns.length; i += 3) {
+					BulkCopier.copy(in, inType, inRow + xRuns[i + 1], out, outType,
+						outRow + xRuns[i], xRuns[i + 2]);
+				}
+			}
+			return true;
+		}
+
+		/** Copies a plane sample by sample. */
+		private void copySamples(final long[] inputPos, final long[] outputPos,
+			final RandomAccess<? extends RealType<?>> inputAccessor,
+			final RandomAccess<? extends RealType<?>> outputAccessor)
+		{
+			for (int r = 0; r < height; r++) {
+				if (outputPos.length > 1) {
+					outputPos[1] = r;
+					inputPos[inputDim[1]] = subranges[inputDim[1]].getIndex(r);
+				}
+				for (int c = 0; c < width; c++) {
+					if (outputPos.length > 0) {
+						outputPos[0] = c;
+						inputPos[inputDim[0]] = subranges[inputDim[0]].getIndex(c);
+					}
+					inputAccessor.setPosition(inputPos);
+					outputAccessor.setPosition(outputPos);
+					final double value = inputAccessor.get().getRealDouble();
+					outputAccessor.get().setReal(value);
+				}
+			}
+		}
+
+		/** Splits input X positions into runs of consecutive values. */
+		private static long[] xRuns(final AxisSubrange xs) {
+			final List<Long> runs = new ArrayList<>();
+			final long count = xs.getIndexCount();
+			long start = 0;
+			for (long i = 1; i <= count; i++) {
+				if (i < count && xs.getIndex(i) == xs.getIndex(i - 1) + 1) continue;
+				runs.add(start);
+				runs.add(xs.getIndex(start));
+				runs.add(i - start);
+				start = i;
+			}
+			final long[] result = new long[runs.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = runs.get(i);
+			}
+			return result;
+		}
+	}
+
 }
@@ -38,67 +38,42 @@ package net.imagej.sampler;
  * 
  * @author Barry DeZonia
  */
-class DensePositionIterator implements PositionIterator {
+class DensePositionIterator extends AbstractPositionIterator {
 
 	// -- instance variables --
 
-	private final int[] maxIndexes;
-	private final int[] indexes;
-	private final long[] currPos;
+	private final long[] dims;
 
-	// -- constructor --
+	// -- constructors --
 
 	/**
 	 * Creates a DensePositionIterator from a SamplingDefinition. The space to be
 	 * iterated is the output space of a sampling.
 	 */
 	DensePositionIterator(final SamplingDefinition def) {
-		maxIndexes = calcMaxes(def);
-		currPos = new long[maxIndexes.length];
-		for (int i = 0; i < currPos.length; i++)
-			currPos[i] = 0;
-		indexes = new int[maxIndexes.length];
-		indexes[0] = -1;
+		this(def.getOutputDims());
 	}
 
-	// -- public interface --
+	DensePositionIterator(final long... dims) {
+		this(dims, 0, count(dims));
+	}
 
-	/** Returns true if the iterator has a next position in the output space. */
-	@Override
-	public boolean hasNext() {
-		for (int i = 0; i < currPos.length; i++) {
-			if (indexes[i] < maxIndexes[i]) return true;
-		}
-		return false;
+	private DensePositionIterator(final long[] dims, final long from,
+		final long to)
+	{
+		super(dims, from, to);
+		this.dims = dims;
 	}
 
-	/** Returns the next position of the output space. */
+	// -- AbstractPositionIterator methods --
+
 	@Override
-	public long[] next() {
-		for (int i = 0; i < indexes.length; i++) {
-			final int nextPos = indexes[i] + 1;
-			if (nextPos <= maxIndexes[i]) {
-				indexes[i] = nextPos;
-				currPos[i] = nextPos;
-				return currPos;
-			}
-			indexes[i] = 0;
-			currPos[i] = 0;
-		}
-		throw new IllegalArgumentException("Can't position iterator beyond end");
+	protected long coordinate(final int axis, final long axisIndex) {
+		return axisIndex;
 	}
 
-	// -- private helpers --
-
-	/** Determines the maximum values that each axis can take. */
-	private int[] calcMaxes(final SamplingDefinition def) {
-		final long[] dims = def.getOutputDims();
-		final int[] mx = new int[dims.length];
-		for (int i = 0; i < dims.length; i++) {
-			if (dims[i] > Integer.MAX_VALUE) throw new IllegalArgumentException(
-				"Can only iterate <= 2 gig per dimension");
-			mx[i] = (int) (dims[i] - 1);
-		}
-		return mx;
+	@Override
+	protected AbstractPositionIterator create(final long from, final long to) {
+		return new DensePositionIterator(dims, from, to);
 	}
 }
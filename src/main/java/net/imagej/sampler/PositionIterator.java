@@ -31,15 +31,33 @@
 
 package net.imagej.sampler;
 
+import java.util.Spliterator;
+
 /**
  * A simple iteration interface for pulling long[] positions out of a region of
  * n-dim space. Has package level sharing and access.
+ * <p>
+ * A PositionIterator is also a {@link Spliterator}, so a region can be split
+ * into disjoint parts for parallel consumers, e.g. via
+ * {@link java.util.stream.StreamSupport#stream(Spliterator, boolean)}. The
+ * position arrays handed out are reused by the iterator; consumers must copy
+ * them to keep them.
+ * </p>
  * 
  * @author Barry DeZonia
  */
-interface PositionIterator {
+interface PositionIterator extends Spliterator<long[]> {
 
 	boolean hasNext();
 
 	long[] next();
+
+	/** Moves to the next position, storing it in the given array. */
+	void next(long[] position);
+
+	/** Skips the given number of positions. */
+	void jumpFwd(long steps);
+
+	@Override
+	PositionIterator trySplit();
 }
@@ -107,6 +107,11 @@ public class SamplingDefinition {
 	 * For example, if the sampling definition has two axes defined as "1-4" and
 	 * "1-3" calling this routine would return something like this: [[1,2,3,4] ,
 	 * [1,2,3]]
+	 * </p>
+	 * 
+	 * @throws IllegalStateException if any axis has more than
+	 *           {@link Integer#MAX_VALUE} values; use {@link #getInputSubranges()}
+	 *           instead.
 	 */
 	public List<List<Long>> getInputRanges() {
 		final List<List<Long>> axesDefs = new ArrayList<>();
@@ -119,21 +124,36 @@ public class SamplingDefinition {
 		return Collections.unmodifiableList(axesDefs);
 	}
 
+	/**
+	 * Returns the {@link AxisSubrange} of each input axis, in the order of the
+	 * input axes. Unlike {@link #getInputRanges()}, this does not enumerate the
+	 * axis values.
+	 */
+	public List<AxisSubrange> getInputSubranges() {
+		final List<AxisSubrange> subranges = new ArrayList<>();
+		for (int i = 0; i < display.numDimensions(); i++) {
+			subranges.add(axisSubranges.get(display.axis(i).type()));
+		}
+		return Collections.unmodifiableList(subranges);
+	}
+
 	/**
 	 * Returns the set of {@link AxisType}s that will be present in the output
 	 * data. Those input axes whose size is 1 are automatically collapsed.
 	 */
 	public AxisType[] getOutputAxes() {
 		final AxisType[] inputAxes = getInputAxes();
-		final List<List<Long>> inputRanges = getInputRanges();
+		final List<AxisSubrange> inputRanges = getInputSubranges();
 		int dimCount = 0;
 		for (int i = 0; i < inputRanges.size(); i++) {
-			if (inputRanges.get(i).size() > 1) dimCount++;
+			if (inputRanges.get(i).getIndexCount() > 1) dimCount++;
 		}
 		final AxisType[] outputAxes = new AxisType[dimCount];
 		int d = 0;
 		for (int i = 0; i < inputRanges.size(); i++) {
-			if (inputRanges.get(i).size() > 1) outputAxes[d++] = inputAxes[i];
+			if (inputRanges.get(i).getIndexCount() > 1) {
+				outputAxes[d++] = inputAxes[i];
+			}
 		}
 		return outputAxes;
 	}
@@ -144,15 +164,17 @@ public class SamplingDefinition {
 	 */
 	public CalibratedAxis[] getOutputCalibratedAxes() {
 		final CalibratedAxis[] inputAxes = getInputCalibratedAxes();
-		final List<List<Long>> inputRanges = getInputRanges();
+		final List<AxisSubrange> inputRanges = getInputSubranges();
 		int dimCount = 0;
 		for (int i = 0; i < inputRanges.size(); i++) {
-			if (inputRanges.get(i).size() > 1) dimCount++;
+			if (inputRanges.get(i).getIndexCount() > 1) dimCount++;
 		}
 		final CalibratedAxis[] outputAxes = new CalibratedAxis[dimCount];
 		int d = 0;
 		for (int i = 0; i < inputRanges.size(); i++) {
-			if (inputRanges.get(i).size() > 1) outputAxes[d++] = inputAxes[i].copy();
+			if (inputRanges.get(i).getIndexCount() > 1) {
+				outputAxes[d++] = inputAxes[i].copy();
+			}
 		}
 		return outputAxes;
 	}
@@ -162,15 +184,15 @@ public class SamplingDefinition {
 	 * dimensions whose size is 1 are automatically collapsed.
 	 */
 	public long[] getOutputDims() {
-		final List<List<Long>> inputRanges = getInputRanges();
+		final List<AxisSubrange> inputRanges = getInputSubranges();
 		int dimCount = 0;
 		for (int i = 0; i < inputRanges.size(); i++) {
-			if (inputRanges.get(i).size() > 1) dimCount++;
+			if (inputRanges.get(i).getIndexCount() > 1) dimCount++;
 		}
 		final long[] outputDims = new long[dimCount];
 		int d = 0;
 		for (int i = 0; i < inputRanges.size(); i++) {
-			final int dimSize = inputRanges.get(i).size();
+			final long dimSize = inputRanges.get(i).getIndexCount();
 			if (dimSize > 1) outputDims[d++] = dimSize;
 		}
 		return outputDims;
@@ -216,15 +238,17 @@ public class SamplingDefinition {
 			err = "Undefined axis " + axis + " for display " + display.getName();
 			return false;
 		}
-		final List<Long> indices = subrange.getIndices();
+		// NB: Only the ends are needed; a huge subrange cannot be listed.
+		final long first = subrange.getIndex(0);
+		final long last = subrange.getIndex(subrange.getIndexCount() - 1);
 		double dimension = data.realMax(axisIndex) - data.realMin(axisIndex);
-		if (indices.get(0) > dimension) {
+		if (first > dimension) {
 			err =
 				"Axis range fully beyond dimensions of display " + display.getName() +
 					" for axis " + axis;
 			return false;
 		}
-		if (indices.get(indices.size() - 1) > dimension) {
+		if (last > dimension) {
 			err =
 				"Axis range partially beyond dimensions of display " +
 					display.getName() + " for axis " + axis;
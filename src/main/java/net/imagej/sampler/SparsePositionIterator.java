@@ -40,68 +40,57 @@ import java.util.List;
  * 
  * @author Barry DeZonia
  */
-class SparsePositionIterator implements PositionIterator {
+class SparsePositionIterator extends AbstractPositionIterator {
 
 	// -- instance variables --
 
-	private final int[] maxIndexes;
-	private final int[] indexes;
-	private final List<List<Long>> actualValues;
-	private final long[] currPos;
+	private final AxisSubrange[] subranges;
 
-	// -- constructor --
+	// -- constructors --
 
 	/**
 	 * Creates a SparsePositionIterator from a SamplingDefinition. The space to be
 	 * iterated is the input space of a sampling. It may not be contiguous.
 	 */
 	SparsePositionIterator(final SamplingDefinition def) {
-		actualValues = def.getInputRanges();
-		maxIndexes = calcMaxes(def);
-		currPos = new long[maxIndexes.length];
-		for (int i = 0; i < currPos.length; i++)
-			currPos[i] = actualValues.get(i).get(0);
-		indexes = new int[maxIndexes.length];
-		indexes[0] = -1;
+		this(subranges(def.getInputSubranges()));
 	}
 
-	// -- public interface --
+	SparsePositionIterator(final AxisSubrange... subranges) {
+		this(subranges, sizes(subranges), 0, count(sizes(subranges)));
+	}
+
+	private SparsePositionIterator(final AxisSubrange[] subranges,
+		final long[] sizes, final long from, final long to)
+	{
+		super(sizes, from, to);
+		this.subranges = subranges;
+	}
+
+	// -- AbstractPositionIterator methods --
 
-	/** Returns true if the iterator has a next position in the input space. */
 	@Override
-	public boolean hasNext() {
-		for (int i = 0; i < currPos.length; i++) {
-			if (indexes[i] < maxIndexes[i]) return true;
-		}
-		return false;
+	protected long coordinate(final int axis, final long axisIndex) {
+		return subranges[axis].getIndex(axisIndex);
 	}
 
-	/** Returns the next position of the input space. */
 	@Override
-	public long[] next() {
-		for (int i = 0; i < indexes.length; i++) {
-			final int nextPos = indexes[i] + 1;
-			if (nextPos <= maxIndexes[i]) {
-				indexes[i] = nextPos;
-				currPos[i] = actualValues.get(i).get(nextPos);
-				return currPos;
-			}
-			indexes[i] = 0;
-			currPos[i] = actualValues.get(i).get(0);
-		}
-		throw new IllegalArgumentException("Can't position iterator beyond end");
+	protected AbstractPositionIterator create(final long from, final long to) {
+		return new SparsePositionIterator(subranges, sizes(subranges), from, to);
 	}
 
 	// -- private helpers --
 
-	/** Determines the maximum values that each axis can take. */
-	private int[] calcMaxes(
-		@SuppressWarnings("unused") final SamplingDefinition def)
-	{
-		final int[] mx = new int[actualValues.size()];
-		for (int i = 0; i < mx.length; i++) {
-			mx[i] = actualValues.get(i).size() - 1;
+	private static AxisSubrange[] subranges(final List<AxisSubrange> list) {
+		return list.toArray(new AxisSubrange[list.size()]);
+	}
+
+	/** Determines the number of values that each axis can take. */
+	private static long[] sizes(final AxisSubrange[] subranges) {
+		final long[] sizes = new long[subranges.length];
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = subranges[i].getIndexCount();
 		}
-		return mx;
+		return sizes;
 	}
 }
@@ -32,8 +32,14 @@
 package net.imagej.table;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.function.IntPredicate;
 
+import org.scijava.util.PrimitiveArray;
 import org.scijava.util.SizableArrayList;
 
 /**
@@ -52,6 +58,18 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 	/** Number of rows in the table. */
 	private int rowCount;
 
+	/**
+	 * Index of the first column with each header. Lazily built, and discarded
+	 * whenever the columns are rearranged.
+	 */
+	private HashMap<String, Integer> columnIndex;
+
+	/**
+	 * Index of the first row with each header. Lazily built, and kept up to
+	 * date by row mutations which do not shift other rows.
+	 */
+	private HashMap<String, Integer> rowIndex;
+
 	/** Creates an empty table. */
 	public AbstractTable() {
 		this(0, 0);
@@ -215,6 +233,13 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 	@Override
 	public void setRowCount(final int rowCount) {
 		checkRowCount(rowCount);
+		if (rowCount < rowHeaders.size()) {
+			// discard headers of the removed rows
+			for (int r = rowCount; r < rowHeaders.size(); r++) {
+				unindexRow(r, rowHeaders.get(r));
+			}
+			rowHeaders.setSize(rowCount);
+		}
 		this.rowCount = rowCount;
 		scaleColumns();
 	}
@@ -231,16 +256,12 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 
 	@Override
 	public void appendRows(final int count) {
-		for (int c = 0; c < count; c++) {
-			appendRow();
-		}
+		insertRows(getRowCount(), count);
 	}
 
 	@Override
 	public void appendRows(final String... headers) {
-		for (final String header : headers) {
-			appendRow(header);
-		}
+		insertRows(getRowCount(), headers);
 	}
 
 	@Override
@@ -257,40 +278,28 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 	@Override
 	public void insertRows(final int row, final int count) {
 		checkRow(row, 0);
+		checkRowCount(count);
 		final int oldRowCount = getRowCount();
-		final int newRowCount = oldRowCount + count;
+		final int tail = oldRowCount - row;
+		// NB: Appended rows have no headers yet, so only shifts spoil the index.
+		if (tail > 0) rowIndex = null;
 
 		// expand rows list
-		setRowCount(newRowCount);
+		setRowCount(oldRowCount + count);
 
-		// copy data after the inserted range into the new position
-		// NB: This loop goes backwards to prevent the same row from being copied
-		// over and over again.
-		for (int oldR = oldRowCount - 1; oldR >= row; oldR--) {
-			final int newR = oldR + count;
-			for (int c = 0; c < getColumnCount(); c++) {
-				set(c, newR, get(c, oldR));
-			}
-		}
-
-		// copy row headers after the inserted range into the new position
-		// NB: This loop goes backwards for performance.
-		// It ensures that rowHeaders is resized at most once.
-		for (int oldR = oldRowCount - 1; oldR >= row; oldR--) {
-			final int newR = oldR + count;
-			setRowHeader(newR, getRowHeader(oldR));
-		}
+		for (int c = 0; c < getColumnCount(); c++) {
+			// move data after the inserted range into the new position
+			if (tail > 0) moveRows((Column<?>) get(c), row, row + count, tail);
 
-		// insert new blank row data
-		for (int r = 0; r < count; r++) {
-			for (int c = 0; c < getColumnCount(); c++) {
-				set(c, row + r, null);
+			// insert new blank row data
+			for (int r = row; r < row + count; r++) {
+				set(c, r, null);
 			}
 		}
 
 		// insert new blank row headers
-		for (int r = 0; r < count; r++) {
-			setRowHeader(row + r, null);
+		if (row < rowHeaders.size()) {
+			rowHeaders.addAll(row, Collections.nCopies(count, (String) null));
 		}
 	}
 
@@ -312,7 +321,7 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 
 	@Override
 	public void removeRow(final String header) {
-		final int row = getColumnIndex(header);
+		final int row = getRowIndex(header);
 		if (row < 0) {
 			throw new IndexOutOfBoundsException("No such row: " + header);
 		}
@@ -324,24 +333,80 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 		checkRow(row, count);
 		final int oldRowCount = getRowCount();
 		final int newRowCount = oldRowCount - count;
-		// copy data after the deleted range into the new position
-		for (int oldR = row+count; oldR < oldRowCount; oldR++) {
-			final int newR = oldR - count;
-			setRowHeader(newR, getRowHeader(oldR));
+		final int tail = oldRowCount - row - count;
+		// NB: Trailing rows are dropped from the index by setRowCount.
+		if (tail > 0) {
+			rowIndex = null;
+			// move data after the deleted range into the new position
 			for (int c = 0; c < getColumnCount(); c++) {
-				set(c, newR, get(c, oldR));
+				moveRows((Column<?>) get(c), row + count, row, tail);
+				release(get(c), newRowCount, oldRowCount);
+			}
+			if (row < rowHeaders.size()) {
+				rowHeaders.subList(row, Math.min(row + count, rowHeaders.size()))
+					.clear();
 			}
 		}
 		setRowCount(newRowCount);
-		// trim row headers list, if needed
-		if (rowHeaders.size() > newRowCount) rowHeaders.setSize(newRowCount);
 	}
 
 	@Override
 	public void removeRows(final String... headers) {
+		final BitSet rows = new BitSet();
 		for (final String header : headers) {
-			removeRow(header);
+			// NB: A repeated header refers to successive rows with that header.
+			int row = getRowIndex(header);
+			while (row >= 0 && rows.get(row)) {
+				row = nextRowIndex(header, row + 1);
+			}
+			if (row < 0) {
+				throw new IndexOutOfBoundsException("No such row: " + header);
+			}
+			rows.set(row);
 		}
+		removeRows(rows);
+	}
+
+	@Override
+	public void removeRows(final BitSet rows) {
+		final BitSet keep = new BitSet(getRowCount());
+		keep.set(0, getRowCount());
+		keep.andNot(rows);
+		retainRows(keep);
+	}
+
+	@Override
+	public void removeRowsIf(final IntPredicate filter) {
+		final BitSet keep = new BitSet(getRowCount());
+		for (int r = 0; r < getRowCount(); r++) {
+			if (!filter.test(r)) keep.set(r);
+		}
+		retainRows(keep);
+	}
+
+	@Override
+	public void retainRows(final BitSet rows) {
+		final int oldRowCount = getRowCount();
+		final int newRowCount = rows.get(0, oldRowCount).cardinality();
+		if (newRowCount == oldRowCount) return;
+
+		// compact each column in a single pass
+		for (int c = 0; c < getColumnCount(); c++) {
+			compactRows((Column<?>) get(c), rows, oldRowCount);
+			release(get(c), newRowCount, oldRowCount);
+		}
+
+		// compact the row headers
+		int dest = 0;
+		for (int r = rows.nextSetBit(0); r >= 0 && r < rowHeaders.size(); r =
+			rows.nextSetBit(r + 1))
+		{
+			rowHeaders.set(dest++, rowHeaders.get(r));
+		}
+		if (dest < rowHeaders.size()) rowHeaders.setSize(dest);
+
+		rowIndex = null;
+		setRowCount(newRowCount);
 	}
 
 	@Override
@@ -357,14 +422,44 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 
 	@Override
 	public void setColumnHeader(final int col, final String header) {
-		get(col).setHeader(header);
+		final C column = get(col);
+		final String oldHeader = column.getHeader();
+		column.setHeader(header);
+		if (columnIndex == null || equal(oldHeader, header)) return;
+		if (oldHeader != null && Integer.valueOf(col).equals(columnIndex.get(
+			oldHeader)))
+		{
+			// a later column may have the old header; easiest to start over
+			columnIndex = null;
+		}
+		else index(columnIndex, header, col);
 	}
 
 	@Override
 	public int getColumnIndex(final String header) {
+		if (header != null) {
+			if (columnIndex == null) {
+				columnIndex = new HashMap<>();
+				for (int c = getColumnCount() - 1; c >= 0; c--) {
+					final String h = getColumnHeader(c);
+					if (h != null) columnIndex.put(h, c);
+				}
+			}
+			final Integer col = columnIndex.get(header);
+			if (col != null && col < getColumnCount() && header.equals(
+				getColumnHeader(col)))
+			{
+				return col;
+			}
+		}
+		// NB: Headers can also be changed on the columns themselves, bypassing
+		// the index, so a miss is confirmed by scanning.
 		for (int c = 0; c < getColumnCount(); c++) {
 			final String h = getColumnHeader(c);
-			if (equal(h, header)) return c;
+			if (equal(h, header)) {
+				if (header != null) columnIndex = null;
+				return c;
+			}
 		}
 		return -1;
 	}
@@ -384,16 +479,32 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 			rowHeaders.setSize(row + 1);
 		}
 		// update the row header value, where applicable
-		rowHeaders.set(row, header);
+		final String oldHeader = rowHeaders.set(row, header);
+		if (rowIndex == null || equal(oldHeader, header)) return;
+		if (unindexRow(row, oldHeader)) {
+			// a later row may have the old header; easiest to start over
+			rowIndex = null;
+		}
+		else index(rowIndex, header, row);
 	}
 
 	@Override
 	public int getRowIndex(final String header) {
-		for (int r = 0; r < getRowCount(); r++) {
-			final String h = getRowHeader(r);
-			if (equal(h, header)) return r;
+		if (header == null) {
+			for (int r = 0; r < getRowCount(); r++) {
+				if (getRowHeader(r) == null) return r;
+			}
+			return -1;
 		}
-		return -1;
+		if (rowIndex == null) {
+			rowIndex = new HashMap<>();
+			for (int r = rowHeaders.size() - 1; r >= 0; r--) {
+				final String h = rowHeaders.get(r);
+				if (h != null) rowIndex.put(h, r);
+			}
+		}
+		final Integer row = rowIndex.get(header);
+		return row == null ? -1 : row;
 	}
 
 	@Override
@@ -427,13 +538,16 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 	@Override
 	public boolean add(final C column) {
 		if (column.size() > rowCount) rowCount = column.size();
+		columnIndex = null;
+		final boolean changed = super.add(column);
 		scaleColumns();
-		return super.add(column);
+		return changed;
 	}
 
 	@Override
 	public void add(final int col, final C column) {
 		super.add(col, column);
+		columnIndex = null;
 		if (column.size() > rowCount) rowCount = column.size();
 		scaleColumns();
 	}
@@ -443,8 +557,10 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 		for (final C column : c) {
 			if (column.size() > rowCount) rowCount = column.size();
 		}
+		columnIndex = null;
+		final boolean changed = super.addAll(c);
 		scaleColumns();
-		return super.addAll(c);
+		return changed;
 	}
 
 	@Override
@@ -452,8 +568,42 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 		for (final C column : c) {
 			if (column.size() > rowCount) rowCount = column.size();
 		}
+		columnIndex = null;
+		final boolean changed = super.addAll(col, c);
 		scaleColumns();
-		return super.addAll(col, c);
+		return changed;
+	}
+
+	@Override
+	public C set(final int col, final C column) {
+		columnIndex = null;
+		return super.set(col, column);
+	}
+
+	@Override
+	public C remove(final int col) {
+		columnIndex = null;
+		return super.remove(col);
+	}
+
+	@Override
+	public boolean remove(final Object column) {
+		columnIndex = null;
+		return super.remove(column);
+	}
+
+	@Override
+	public void clear() {
+		columnIndex = null;
+		super.clear();
+	}
+
+	// -- Sizable methods --
+
+	@Override
+	public void setSize(final int size) {
+		columnIndex = null;
+		super.setSize(size);
 	}
 
 	// -- Internal methods --
@@ -473,6 +623,67 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 		}
 	}
 
+	/**
+	 * Gets the position of the first row at or after the given one with the
+	 * given header, or -1 if there is none.
+	 */
+	private int nextRowIndex(final String header, final int row) {
+		for (int r = row; r < getRowCount(); r++) {
+			if (equal(getRowHeader(r), header)) return r;
+		}
+		return -1;
+	}
+
+	/**
+	 * Moves a block of values within the given column. Columns backed by an
+	 * array are moved with a single {@link System#arraycopy}.
+	 */
+	private <U> void moveRows(final Column<U> column, final int from,
+		final int to, final int count)
+	{
+		if (column instanceof PrimitiveArray) {
+			final Object array = ((PrimitiveArray<?, ?>) column).getArray();
+			System.arraycopy(array, from, array, to, count);
+		}
+		else if (to < from) {
+			for (int r = 0; r < count; r++) {
+				column.set(to + r, column.get(from + r));
+			}
+		}
+		else {
+			for (int r = count - 1; r >= 0; r--) {
+				column.set(to + r, column.get(from + r));
+			}
+		}
+	}
+
+	/**
+	 * Moves the values of the rows whose bits are set to the front of the given
+	 * column, preserving their order. Runs of consecutive rows are moved with a
+	 * single {@link System#arraycopy} when the column is backed by an array.
+	 */
+	private <U> void compactRows(final Column<U> column, final BitSet rows,
+		final int rowCount)
+	{
+		int dest = 0;
+		for (int start = rows.nextSetBit(0); start >= 0 && start < rowCount;) {
+			final int end = Math.min(rows.nextClearBit(start), rowCount);
+			if (start != dest) moveRows(column, start, dest, end - start);
+			dest += end - start;
+			start = rows.nextSetBit(end);
+		}
+	}
+
+	/**
+	 * Clears references left behind in the given range of an object column
+	 * which is about to shrink, so that they can be garbage collected.
+	 */
+	private void release(final Column<?> column, final int from, final int to) {
+		if (!(column instanceof PrimitiveArray)) return;
+		final Object array = ((PrimitiveArray<?, ?>) column).getArray();
+		if (array instanceof Object[]) Arrays.fill((Object[]) array, from, to, null);
+	}
+
 	/** Throws an exception if the given row or column is out of bounds. */
 	private void check(final int col, final int row) {
 		checkCol(col, 1);
@@ -518,6 +729,31 @@ public abstract class AbstractTable<C extends Column<? extends T>, T> extends
 		throw new IllegalArgumentException("Invalid " + name + " count: " + count);
 	}
 
+	/**
+	 * Records the given header in an index, unless an earlier position already
+	 * has it.
+	 */
+	private void index(final HashMap<String, Integer> index,
+		final String header, final int position)
+	{
+		if (header == null) return;
+		final Integer existing = index.get(header);
+		if (existing == null || existing > position) index.put(header, position);
+	}
+
+	/**
+	 * Removes the given row header from the row index, if it is indexed at the
+	 * given row.
+	 *
+	 * @return true iff the header was removed.
+	 */
+	private boolean unindexRow(final int row, final String header) {
+		if (rowIndex == null || header == null) return false;
+		if (!Integer.valueOf(row).equals(rowIndex.get(header))) return false;
+		rowIndex.remove(header);
+		return true;
+	}
+
 	/**
 	 * Gets the column index corresponding to the given header, throwing an
 	 * exception if no such column exists.
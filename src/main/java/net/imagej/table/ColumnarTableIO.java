@@ -0,0 +1,677 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes {@link Table}s of primitive values in a columnar binary
+ * format.
+ * <p>
+ * Each column is stored as a run of blocks of {@link #BLOCK_ROWS} values,
+ * optionally compressed with a {@link Codec}, and an index describing the
+ * columns and the location of every block is written after the data. Reading
+ * a file parses only that index: the data are memory-mapped, and each block is
+ * decoded the first time one of its values is accessed. Opening even a very
+ * tall table is therefore quick, and reading a subset of the columns does not
+ * touch the others at all.
+ * </p>
+ * <p>
+ * Column values are stored little-endian. Columns of {@link Boolean}s are
+ * stored as one byte per value. Columns of non-primitive types cannot be
+ * written.
+ * </p>
+ */
+public class ColumnarTableIO {
+
+	/** Compression applied to the blocks of a column. */
+	public enum Codec {
+
+		/** Blocks are stored as raw values, and read without copying. */
+		NONE,
+
+		/**
+		 * Blocks are compressed with {@link Deflater}; blocks which do not shrink
+		 * are stored raw instead.
+		 */
+		DEFLATE
+	}
+
+	/** Number of values in each block of a column. */
+	public static final int BLOCK_ROWS = 1 << 16;
+
+	/** Leading and trailing magic number: "IJTB". */
+	private static final int MAGIC = 0x494a5442;
+
+	private static final int VERSION = 1;
+
+	/** Maximum size of a single memory-mapped region. */
+	private static final long SEGMENT_BYTES = 1L << 30;
+
+	/** Size of the trailer: index offset followed by the magic number. */
+	private static final int TRAILER_BYTES = 12;
+
+	/** Supported column types, indexed by their type code. */
+	private static final Class<?>[] TYPES = { Boolean.class, Byte.class,
+		Character.class, Short.class, Integer.class, Long.class, Float.class,
+		Double.class };
+
+	/** Number of bytes per value for each type code. */
+	private static final int[] WIDTHS = { 1, 1, 2, 2, 4, 8, 4, 8 };
+
+	private static final int BOOL = 0, BYTE = 1, CHAR = 2, SHORT = 3, INT = 4,
+			LONG = 5, FLOAT = 6, DOUBLE = 7;
+
+	// -- ColumnarTableIO methods --
+
+	/** Writes the given table to a file, without compression. */
+	public void write(final Table<?, ?> table, final File file)
+		throws IOException
+	{
+		write(table, file, Codec.NONE);
+	}
+
+	/**
+	 * Writes the given table to a file, compressing each block with the given
+	 * codec.
+	 *
+	 * @throws IllegalArgumentException if a column does not hold primitive
+	 *           values.
+	 */
+	public void write(final Table<?, ?> table, final File file,
+		final Codec codec) throws IOException
+	{
+		final int colCount = table.getColumnCount();
+		final int rowCount = table.getRowCount();
+		final int blockCount = (rowCount + BLOCK_ROWS - 1) / BLOCK_ROWS;
+		final int[] types = new int[colCount];
+		for (int c = 0; c < colCount; c++) {
+			types[c] = typeCode(table.get(c).getType());
+		}
+
+		final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+		final DataOutputStream index = new DataOutputStream(indexBytes);
+		index.writeInt(rowCount);
+		index.writeInt(BLOCK_ROWS);
+		index.writeInt(colCount);
+
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			final ByteBuffer start = ByteBuffer.allocate(8);
+			start.putInt(MAGIC).putInt(VERSION).flip();
+			writeFully(channel, start);
+
+			final Deflater deflater = codec == Codec.DEFLATE ? new Deflater() : null;
+			try {
+				for (int c = 0; c < colCount; c++) {
+					final Column<?> column = table.get(c);
+					writeString(index, column.getHeader());
+					index.writeByte(types[c]);
+					for (int b = 0; b < blockCount; b++) {
+						final int first = b * BLOCK_ROWS;
+						final int count = Math.min(BLOCK_ROWS, rowCount - first);
+						ByteBuffer block = encode(column, types[c], first, count);
+						Codec blockCodec = Codec.NONE;
+						if (deflater != null) {
+							final ByteBuffer deflated = deflate(deflater, block);
+							if (deflated.remaining() < block.remaining()) {
+								block = deflated;
+								blockCodec = Codec.DEFLATE;
+							}
+						}
+						index.writeLong(channel.position());
+						index.writeInt(block.remaining());
+						index.writeByte(blockCodec.ordinal());
+						writeFully(channel, block);
+					}
+				}
+			}
+			finally {
+				if (deflater != null) deflater.end();
+			}
+
+			// row headers, if any
+			boolean rowHeaders = false;
+			for (int r = 0; r < rowCount && !rowHeaders; r++) {
+				rowHeaders = table.getRowHeader(r) != null;
+			}
+			index.writeBoolean(rowHeaders);
+			if (rowHeaders) {
+				for (int r = 0; r < rowCount; r++) {
+					writeString(index, table.getRowHeader(r));
+				}
+			}
+
+			final long indexOffset = channel.position();
+			index.flush();
+			writeFully(channel, ByteBuffer.wrap(indexBytes.toByteArray()));
+			final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+			trailer.putLong(indexOffset).putInt(MAGIC).flip();
+			writeFully(channel, trailer);
+		}
+	}
+
+	/**
+	 * Opens all columns of a table file. The returned table's columns are
+	 * read-only views of the memory-mapped file; their values can be read but
+	 * not changed, and rows cannot be added or removed.
+	 */
+	public GenericTable read(final File file) throws IOException {
+		return read(file, (String[]) null);
+	}
+
+	/**
+	 * Opens the columns with the given headers from a table file, in the given
+	 * order, without mapping the data of the other columns.
+	 *
+	 * @throws IllegalArgumentException if a requested column does not exist.
+	 * @see #read(File)
+	 */
+	public GenericTable read(final File file, final String... headers)
+		throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.READ))
+		{
+			final long size = channel.size();
+			if (size < 8 + TRAILER_BYTES) throw notATable(file);
+			final ByteBuffer trailer = map(channel, size - TRAILER_BYTES,
+				TRAILER_BYTES);
+			final long indexOffset = trailer.getLong();
+			if (trailer.getInt() != MAGIC || indexOffset < 8 ||
+				indexOffset > size - TRAILER_BYTES)
+			{
+				throw notATable(file);
+			}
+			final ByteBuffer start = map(channel, 0, 8);
+			if (start.getInt() != MAGIC) throw notATable(file);
+			final int version = start.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported table version: " + version);
+			}
+
+			final ByteBuffer index = map(channel, indexOffset, size - TRAILER_BYTES -
+				indexOffset);
+			final int rowCount = index.getInt();
+			final int blockRows = index.getInt();
+			final int colCount = index.getInt();
+			final int blockCount = rowCount == 0 ? 0 : (rowCount + blockRows - 1) /
+				blockRows;
+			final ArrayList<ColumnIndex> columns = new ArrayList<>(colCount);
+			for (int c = 0; c < colCount; c++) {
+				final ColumnIndex column = new ColumnIndex(readString(index), index
+					.get(), blockCount);
+				for (int b = 0; b < blockCount; b++) {
+					column.offsets[b] = index.getLong();
+					column.lengths[b] = index.getInt();
+					column.codecs[b] = index.get();
+				}
+				columns.add(column);
+			}
+			final String[] rowHeaders = index.get() != 0 ? new String[rowCount]
+				: null;
+			if (rowHeaders != null) {
+				for (int r = 0; r < rowCount; r++) {
+					rowHeaders[r] = readString(index);
+				}
+			}
+
+			final List<ColumnIndex> selected = headers == null ? columns
+				: select(columns, headers);
+			final DefaultGenericTable table = new DefaultGenericTable(0, rowCount);
+			for (final ColumnIndex column : selected) {
+				table.add(column.open(channel, rowCount, blockRows));
+			}
+			if (rowHeaders != null) {
+				for (int r = 0; r < rowCount; r++) {
+					if (rowHeaders[r] != null) table.setRowHeader(r, rowHeaders[r]);
+				}
+			}
+			return table;
+		}
+	}
+
+	/**
+	 * Reads a table file into a {@link ResultsTable}, converting all values to
+	 * {@code double}s. Unlike {@link #read(File)}, this copies the data onto
+	 * the heap, so the resulting table can be modified.
+	 */
+	public ResultsTable readResults(final File file) throws IOException {
+		final GenericTable source = read(file);
+		final int rowCount = source.getRowCount();
+		final DefaultResultsTable results = new DefaultResultsTable();
+		for (final Column<?> column : source) {
+			final MappedColumn<?> mapped = (MappedColumn<?>) column;
+			final double[] values = new double[rowCount];
+			mapped.copy(values);
+			final DoubleColumn copy = new DoubleColumn(mapped.getHeader());
+			copy.fill(values);
+			results.add(copy);
+		}
+		results.setRowCount(rowCount);
+		for (int r = 0; r < rowCount; r++) {
+			final String header = source.getRowHeader(r);
+			if (header != null) results.setRowHeader(r, header);
+		}
+		return results;
+	}
+
+	// -- Helper methods --
+
+	private static int typeCode(final Class<?> type) {
+		for (int t = 0; t < TYPES.length; t++) {
+			if (TYPES[t] == type) return t;
+		}
+		throw new IllegalArgumentException("Unsupported column type: " + type);
+	}
+
+	/** Packs a block of column values into a new little-endian buffer. */
+	private static ByteBuffer encode(final Column<?> column, final int type,
+		final int first, final int count)
+	{
+		final ByteBuffer block = ByteBuffer.allocate(count * WIDTHS[type]).order(
+			ByteOrder.LITTLE_ENDIAN);
+		final Object array = column instanceof PrimitiveColumn ? //
+			((PrimitiveColumn<?, ?>) column).getArray() : null;
+		if (array instanceof double[]) {
+			block.asDoubleBuffer().put((double[]) array, first, count);
+		}
+		else if (array instanceof float[]) {
+			block.asFloatBuffer().put((float[]) array, first, count);
+		}
+		else if (array instanceof long[]) {
+			block.asLongBuffer().put((long[]) array, first, count);
+		}
+		else if (array instanceof int[]) {
+			block.asIntBuffer().put((int[]) array, first, count);
+		}
+		else if (array instanceof short[]) {
+			block.asShortBuffer().put((short[]) array, first, count);
+		}
+		else if (array instanceof char[]) {
+			block.asCharBuffer().put((char[]) array, first, count);
+		}
+		else if (array instanceof byte[]) {
+			block.put((byte[]) array, first, count);
+		}
+		else {
+			for (int i = 0; i < count; i++) {
+				put(block, type, column.get(first + i));
+			}
+		}
+		block.rewind();
+		return block;
+	}
+
+	private static void put(final ByteBuffer block, final int type,
+		final Object value)
+	{
+		switch (type) {
+			case BOOL:
+				block.put((byte) (Boolean.TRUE.equals(value) ? 1 : 0));
+				break;
+			case CHAR:
+				block.putChar(value == null ? '\0' : (Character) value);
+				break;
+			default:
+				final Number n = value == null ? 0 : (Number) value;
+				switch (type) {
+					case BYTE:
+						block.put(n.byteValue());
+						break;
+					case SHORT:
+						block.putShort(n.shortValue());
+						break;
+					case INT:
+						block.putInt(n.intValue());
+						break;
+					case LONG:
+						block.putLong(n.longValue());
+						break;
+					case FLOAT:
+						block.putFloat(n.floatValue());
+						break;
+					default:
+						block.putDouble(n.doubleValue());
+				}
+		}
+	}
+
+	private static ByteBuffer deflate(final Deflater deflater,
+		final ByteBuffer block)
+	{
+		deflater.reset();
+		deflater.setInput(block.array(), block.arrayOffset(), block.remaining());
+		deflater.finish();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(block
+			.remaining() / 2);
+		final byte[] buf = new byte[8192];
+		while (!deflater.finished()) {
+			out.write(buf, 0, deflater.deflate(buf));
+		}
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	private static ByteBuffer inflate(final ByteBuffer stored, final int length)
+	{
+		final byte[] in = new byte[stored.remaining()];
+		stored.duplicate().get(in);
+		final byte[] out = new byte[length];
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(in);
+			int n = 0;
+			while (n < length && !inflater.finished()) {
+				n += inflater.inflate(out, n, length - n);
+			}
+			if (n != length) throw new IllegalStateException("Truncated block");
+		}
+		catch (final DataFormatException exc) {
+			throw new IllegalStateException("Corrupt block", exc);
+		}
+		finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(out);
+	}
+
+	private static void writeFully(final FileChannel channel,
+		final ByteBuffer buf) throws IOException
+	{
+		while (buf.hasRemaining()) channel.write(buf);
+	}
+
+	private static void writeString(final DataOutputStream out, final String s)
+		throws IOException
+	{
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final ByteBuffer in) {
+		final int length = in.getInt();
+		if (length < 0) return null;
+		final byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static ByteBuffer map(final FileChannel channel, final long offset,
+		final long length) throws IOException
+	{
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	private static List<ColumnIndex> select(final List<ColumnIndex> columns,
+		final String[] headers)
+	{
+		final ArrayList<ColumnIndex> selected = new ArrayList<>(headers.length);
+		for (final String header : headers) {
+			ColumnIndex match = null;
+			for (final ColumnIndex column : columns) {
+				if (header.equals(column.header)) {
+					match = column;
+					break;
+				}
+			}
+			if (match == null) {
+				throw new IllegalArgumentException("No such column: " + header);
+			}
+			selected.add(match);
+		}
+		return selected;
+	}
+
+	private static IOException notATable(final File file) {
+		return new IOException("Not a columnar table file: " + file);
+	}
+
+	// -- Helper classes --
+
+	/** Location of a column's blocks within a table file. */
+	private static class ColumnIndex {
+
+		private final String header;
+		private final int type;
+		private final long[] offsets;
+		private final int[] lengths;
+		private final byte[] codecs;
+
+		public ColumnIndex(final String header, final int type,
+			final int blockCount)
+		{
+			if (type < 0 || type >= TYPES.length) {
+				throw new IllegalArgumentException("Invalid column type: " + type);
+			}
+			this.header = header;
+			this.type = type;
+			offsets = new long[blockCount];
+			lengths = new int[blockCount];
+			codecs = new byte[blockCount];
+		}
+
+		/**
+		 * Maps the column's blocks. Consecutive blocks share a mapped region of
+		 * up to {@link #SEGMENT_BYTES} bytes, so that even tall columns need only
+		 * a few mappings.
+		 */
+		public MappedColumn<?> open(final FileChannel channel, final int rowCount,
+			final int blockRows) throws IOException
+		{
+			final ByteBuffer[] stored = new ByteBuffer[offsets.length];
+			int first = 0;
+			while (first < offsets.length) {
+				final long start = offsets[first];
+				int last = first;
+				while (last + 1 < offsets.length && offsets[last + 1] +
+					lengths[last + 1] - start <= SEGMENT_BYTES)
+				{
+					last++;
+				}
+				final ByteBuffer segment = map(channel, start, offsets[last] +
+					lengths[last] - start);
+				for (int b = first; b <= last; b++) {
+					segment.limit((int) (offsets[b] - start) + lengths[b]);
+					segment.position((int) (offsets[b] - start));
+					stored[b] = segment.slice();
+				}
+				first = last + 1;
+			}
+			return new MappedColumn<>(TYPES[type], header, type, rowCount,
+				blockRows, stored, codecs);
+		}
+	}
+
+	/** Read-only column backed by the blocks of a table file. */
+	private static class MappedColumn<T> extends AbstractList<T> implements
+		Column<T>
+	{
+
+		private final Class<T> boxedType;
+		private final int type;
+		private final int rowCount;
+		private final int blockRows;
+		private final ByteBuffer[] stored;
+		private final byte[] codecs;
+
+		/** Decoded blocks, populated on first access. */
+		private final ByteBuffer[] blocks;
+
+		private String header;
+
+		@SuppressWarnings("unchecked")
+		public MappedColumn(final Class<?> boxedType, final String header,
+			final int type, final int rowCount, final int blockRows,
+			final ByteBuffer[] stored, final byte[] codecs)
+		{
+			this.boxedType = (Class<T>) boxedType;
+			this.header = header;
+			this.type = type;
+			this.rowCount = rowCount;
+			this.blockRows = blockRows;
+			this.stored = stored;
+			this.codecs = codecs;
+			blocks = new ByteBuffer[stored.length];
+		}
+
+		/** Copies all values of the column into the given array. */
+		public void copy(final double[] values) {
+			for (int b = 0; b < blocks.length; b++) {
+				final ByteBuffer block = block(b);
+				final int first = b * blockRows;
+				final int count = Math.min(blockRows, rowCount - first);
+				if (type == DOUBLE) {
+					block.asDoubleBuffer().get(values, first, count);
+				}
+				else {
+					for (int i = 0; i < count; i++) {
+						values[first + i] = doubleValue(get(first + i));
+					}
+				}
+			}
+		}
+
+		// -- Column methods --
+
+		@Override
+		public String getHeader() {
+			return header;
+		}
+
+		@Override
+		public void setHeader(final String header) {
+			this.header = header;
+		}
+
+		@Override
+		public Class<T> getType() {
+			return boxedType;
+		}
+
+		// -- List methods --
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T get(final int index) {
+			if (index < 0 || index >= rowCount) {
+				throw new IndexOutOfBoundsException("Invalid index: " + index);
+			}
+			final ByteBuffer block = block(index / blockRows);
+			final int pos = (index % blockRows) * WIDTHS[type];
+			final Object value;
+			switch (type) {
+				case BOOL:
+					value = block.get(pos) != 0;
+					break;
+				case BYTE:
+					value = block.get(pos);
+					break;
+				case CHAR:
+					value = block.getChar(pos);
+					break;
+				case SHORT:
+					value = block.getShort(pos);
+					break;
+				case INT:
+					value = block.getInt(pos);
+					break;
+				case LONG:
+					value = block.getLong(pos);
+					break;
+				case FLOAT:
+					value = block.getFloat(pos);
+					break;
+				default:
+					value = block.getDouble(pos);
+			}
+			return (T) value;
+		}
+
+		@Override
+		public int size() {
+			return rowCount;
+		}
+
+		// -- Sizable methods --
+
+		@Override
+		public void setSize(final int size) {
+			if (size != rowCount) {
+				throw new UnsupportedOperationException("Read-only column");
+			}
+		}
+
+		// -- Helper methods --
+
+		private ByteBuffer block(final int b) {
+			ByteBuffer block = blocks[b];
+			if (block == null) {
+				final int count = Math.min(blockRows, rowCount - b * blockRows);
+				block = codecs[b] == Codec.DEFLATE.ordinal() ? //
+					inflate(stored[b], count * WIDTHS[type]) : stored[b].duplicate();
+				block.order(ByteOrder.LITTLE_ENDIAN);
+				blocks[b] = block;
+			}
+			// NB: Only absolute reads and views are used, so sharing is safe.
+			return block;
+		}
+
+		private static double doubleValue(final Object value) {
+			if (value instanceof Boolean) return (Boolean) value ? 1 : 0;
+			if (value instanceof Character) return (Character) value;
+			return ((Number) value).doubleValue();
+		}
+
+	}
+
+}
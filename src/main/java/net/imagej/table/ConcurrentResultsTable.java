@@ -0,0 +1,327 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A table of double-precision values to which many threads can append rows
+ * at once.
+ * <p>
+ * The columns are fixed when the table is created. Rows are stored in
+ * segments of {@link #SEGMENT_SIZE} rows, so the table grows without copying
+ * what has already been written. A writer reserves a range of rows with a
+ * single atomic increment and fills it in without holding any lock. Each
+ * worker should append through its own {@link RowWriter}, which buffers rows
+ * and reserves them in batches, so that the workers rarely touch shared state
+ * at all.
+ * </p>
+ * <p>
+ * Rows become visible to readers in the order in which they were reserved,
+ * and only once every row before them is complete; {@link #getRowCount()},
+ * {@link #getValue(int, int)} and {@link #snapshot()} therefore always see a
+ * consistent prefix of the table.
+ * </p>
+ */
+public class ConcurrentResultsTable {
+
+	/** Base-2 logarithm of the number of rows per segment. */
+	public static final int SEGMENT_SHIFT = 12;
+
+	/** Number of rows per segment. */
+	public static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	/** Number of rows a {@link RowWriter} buffers by default. */
+	public static final int DEFAULT_BUFFER_ROWS = 256;
+
+	/** The column headers. */
+	private final String[] headers;
+
+	/** Number of rows reserved by writers. */
+	private final AtomicInteger reserved = new AtomicInteger();
+
+	/** Number of complete rows; rows below this are visible to readers. */
+	private final AtomicInteger published = new AtomicInteger();
+
+	/** The segments, indexed as [segment][column][row]. */
+	private volatile AtomicReferenceArray<double[][]> segments =
+		new AtomicReferenceArray<>(16);
+
+	/** Creates an empty table with the given column headers. */
+	public ConcurrentResultsTable(final String... headers) {
+		if (headers.length == 0) {
+			throw new IllegalArgumentException("No columns given");
+		}
+		this.headers = headers.clone();
+	}
+
+	// -- ConcurrentResultsTable methods --
+
+	/** Gets the number of columns in the table. */
+	public int getColumnCount() {
+		return headers.length;
+	}
+
+	/** Gets the header of the given column. */
+	public String getColumnHeader(final int col) {
+		return headers[col];
+	}
+
+	/** Gets the index of the column with the given header, or -1 if none. */
+	public int getColumnIndex(final String header) {
+		for (int c = 0; c < headers.length; c++) {
+			if (headers[c].equals(header)) return c;
+		}
+		return -1;
+	}
+
+	/** Gets the number of rows which are visible to readers. */
+	public int getRowCount() {
+		return published.get();
+	}
+
+	/** Gets the value of the given table cell. */
+	public double getValue(final int col, final int row) {
+		if (row < 0 || row >= published.get()) {
+			throw new IndexOutOfBoundsException("Invalid row: " + row);
+		}
+		return segments.get(row >>> SEGMENT_SHIFT)[col][row & SEGMENT_MASK];
+	}
+
+	/**
+	 * Appends a single row, with one value per column. This reserves the row
+	 * directly; workers appending many rows should use a {@link RowWriter}.
+	 */
+	public void appendRow(final double... values) {
+		checkWidth(values);
+		append(values, 1);
+	}
+
+	/** Creates a writer which buffers {@link #DEFAULT_BUFFER_ROWS} rows. */
+	public RowWriter writer() {
+		return writer(DEFAULT_BUFFER_ROWS);
+	}
+
+	/** Creates a writer which buffers the given number of rows. */
+	public RowWriter writer(final int bufferRows) {
+		if (bufferRows <= 0) {
+			throw new IllegalArgumentException("Invalid buffer size: " +
+				bufferRows);
+		}
+		return new RowWriter(bufferRows);
+	}
+
+	/**
+	 * Copies the rows which are currently visible into a new
+	 * {@link ResultsTable}. Appending may continue while the copy is made.
+	 */
+	public ResultsTable snapshot() {
+		final int rows = published.get();
+		final AtomicReferenceArray<double[][]> dir = segments;
+		final DefaultResultsTable table = new DefaultResultsTable();
+		for (int c = 0; c < headers.length; c++) {
+			final double[] values = new double[rows];
+			for (int r = 0; r < rows; r += SEGMENT_SIZE) {
+				final int n = Math.min(SEGMENT_SIZE, rows - r);
+				System.arraycopy(dir.get(r >>> SEGMENT_SHIFT)[c], 0, values, r, n);
+			}
+			final DoubleColumn column = new DoubleColumn(headers[c]);
+			column.setArray(values);
+			column.setSize(rows);
+			table.add(column);
+		}
+		return table;
+	}
+
+	// -- Helper methods --
+
+	private void checkWidth(final double[] values) {
+		if (values.length != headers.length) {
+			throw new IllegalArgumentException("Expected " + headers.length +
+				" values but got " + values.length);
+		}
+	}
+
+	/**
+	 * Reserves, writes and publishes rows from a row-major buffer. Rows which
+	 * cannot be written are still published, filled with NaN, since writers
+	 * which reserved later rows wait for them.
+	 */
+	private void append(final double[] buffer, final int count) {
+		final int start = reserve(count);
+		boolean written = false;
+		try {
+			write(buffer, start, count);
+			written = true;
+		}
+		finally {
+			try {
+				if (!written) abandon(start, count);
+			}
+			finally {
+				publish(start, count);
+			}
+		}
+	}
+
+	/** Reserves the given number of rows, returning the first. */
+	private int reserve(final int count) {
+		final int start = reserved.getAndAdd(count);
+		if (start < 0 || start > Integer.MAX_VALUE - count) {
+			throw new IllegalStateException("Too many rows");
+		}
+		return start;
+	}
+
+	/** Copies rows from a row-major buffer into the reserved segments. */
+	private void write(final double[] buffer, final int start, final int count) {
+		final int cols = headers.length;
+		int i = 0;
+		while (i < count) {
+			final int row = start + i;
+			final double[][] segment = segment(row >>> SEGMENT_SHIFT);
+			final int offset = row & SEGMENT_MASK;
+			final int n = Math.min(count - i, SEGMENT_SIZE - offset);
+			for (int c = 0; c < cols; c++) {
+				final double[] column = segment[c];
+				for (int r = 0, b = i * cols + c; r < n; r++, b += cols) {
+					column[offset + r] = buffer[b];
+				}
+			}
+			i += n;
+		}
+	}
+
+	/** Fills reserved rows with NaN, marking them as missing. */
+	private void abandon(final int start, final int count) {
+		final int cols = headers.length;
+		int i = 0;
+		while (i < count) {
+			final int row = start + i;
+			final double[][] segment = segment(row >>> SEGMENT_SHIFT);
+			final int offset = row & SEGMENT_MASK;
+			final int n = Math.min(count - i, SEGMENT_SIZE - offset);
+			for (int c = 0; c < cols; c++) {
+				Arrays.fill(segment[c], offset, offset + n, Double.NaN);
+			}
+			i += n;
+		}
+	}
+
+	/**
+	 * Makes the given rows visible, once all rows before them are. Writers only
+	 * wait here for others which reserved earlier and are still copying.
+	 */
+	private void publish(final int start, final int count) {
+		while (published.get() != start) {
+			Thread.yield();
+		}
+		published.set(start + count);
+	}
+
+	/** Gets the segment with the given index, allocating it if needed. */
+	private double[][] segment(final int index) {
+		final AtomicReferenceArray<double[][]> dir = segments;
+		if (index < dir.length()) {
+			final double[][] segment = dir.get(index);
+			if (segment != null) return segment;
+		}
+		// NB: Only happens once per segment.
+		synchronized (this) {
+			AtomicReferenceArray<double[][]> current = segments;
+			if (index >= current.length()) {
+				final int length = Math.max(index + 1, 2 * current.length());
+				final AtomicReferenceArray<double[][]> grown =
+					new AtomicReferenceArray<>(length);
+				for (int s = 0; s < current.length(); s++) {
+					grown.set(s, current.get(s));
+				}
+				segments = current = grown;
+			}
+			double[][] segment = current.get(index);
+			if (segment == null) {
+				segment = new double[headers.length][SEGMENT_SIZE];
+				current.set(index, segment);
+			}
+			return segment;
+		}
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * Buffers rows appended by one thread, and adds them to the table in
+	 * batches. A writer must not be shared between threads. Buffered rows are
+	 * not visible until the writer is flushed, which happens automatically
+	 * when the buffer fills and when the writer is closed.
+	 */
+	public class RowWriter implements AutoCloseable {
+
+		private final int capacity;
+		private final double[] buffer;
+		private int rows;
+
+		private RowWriter(final int capacity) {
+			this.capacity = capacity;
+			buffer = new double[capacity * headers.length];
+		}
+
+		/** Appends a row, with one value per column. */
+		public void appendRow(final double... values) {
+			checkWidth(values);
+			System.arraycopy(values, 0, buffer, rows * headers.length,
+				headers.length);
+			if (++rows == capacity) flush();
+		}
+
+		/** Adds the buffered rows to the table. */
+		public void flush() {
+			if (rows == 0) return;
+			try {
+				append(buffer, rows);
+			}
+			finally {
+				rows = 0;
+			}
+		}
+
+		@Override
+		public void close() {
+			flush();
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Off-heap implementation of {@link Column} for {@code boolean} primitives.
+ *
+ * @see OffHeapColumn
+ */
+public class OffHeapBoolColumn extends OffHeapColumn<Boolean> {
+
+	public OffHeapBoolColumn() {
+		this(null);
+	}
+
+	public OffHeapBoolColumn(final String header) {
+		this(header, null);
+	}
+
+	/**
+	 * Creates a column whose values are memory-mapped from the given read-write
+	 * file.
+	 */
+	public OffHeapBoolColumn(final String header, final FileChannel channel) {
+		super(header, 1, channel);
+	}
+
+	// -- OffHeapBoolColumn methods --
+
+	/** Gets the value at the given row. */
+	public boolean getValue(final int index) {
+		return chunk(index).get(offset(index)) != 0;
+	}
+
+	/** Sets the value at the given row, returning the old value. */
+	public boolean setValue(final int index, final boolean value) {
+		final boolean oldValue = getValue(index);
+		chunk(index).put(offset(index), (byte) (value ? 1 : 0));
+		return oldValue;
+	}
+
+	// -- Column methods --
+
+	@Override
+	public Class<Boolean> getType() {
+		return Boolean.class;
+	}
+
+	// -- List methods --
+
+	@Override
+	public Boolean get(final int index) {
+		return getValue(index);
+	}
+
+	@Override
+	public Boolean set(final int index, final Boolean element) {
+		return setValue(index, element != null && element);
+	}
+
+}
@@ -0,0 +1,309 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+
+/**
+ * Abstract superclass for {@link Column} implementations which store their
+ * values outside the Java heap.
+ * <p>
+ * Values are kept in fixed-size chunks of {@link #CHUNK_SIZE} elements, each
+ * backed by a direct {@link ByteBuffer} or, if the column was given a
+ * {@link FileChannel}, by a memory-mapped segment of that file. Growing the
+ * column appends chunks rather than reallocating and copying the existing
+ * values, and the storage does not count against the heap, so very tall
+ * tables do not burden the garbage collector.
+ * </p>
+ *
+ * @param <T> The type of data stored in the column.
+ */
+public abstract class OffHeapColumn<T> extends AbstractList<T> implements
+	Column<T>, Closeable
+{
+
+	/** Base-2 logarithm of the number of elements per chunk. */
+	public static final int CHUNK_SHIFT = 16;
+
+	/** Number of elements per chunk. */
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/** Number of bytes used to store each element. */
+	private final int elementBytes;
+
+	/** File backing the chunks, or null for direct buffers. */
+	private final FileChannel channel;
+
+	/** The chunks holding the column's values. */
+	private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+
+	/** The column header. */
+	private String header;
+
+	/** Number of elements in the column. */
+	private int size;
+
+	/**
+	 * Creates a column of elements with the given byte width.
+	 *
+	 * @param header The column header.
+	 * @param elementBytes Number of bytes used to store each element.
+	 * @param channel Read-write file in which to map the column's chunks, or
+	 *          null to allocate direct buffers instead.
+	 */
+	protected OffHeapColumn(final String header, final int elementBytes,
+		final FileChannel channel)
+	{
+		this.header = header;
+		this.elementBytes = elementBytes;
+		this.channel = channel;
+	}
+
+	// -- OffHeapColumn methods --
+
+	/** Gets whether the column is backed by a memory-mapped file. */
+	public boolean isMapped() {
+		return channel != null;
+	}
+
+	/** Gets the number of elements which fit in the allocated chunks. */
+	public int capacity() {
+		return chunks.size() << CHUNK_SHIFT;
+	}
+
+	/**
+	 * Inserts a block of default values at the given position, shifting the
+	 * subsequent elements up.
+	 */
+	public void insert(final int index, final int count) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Invalid index: " + index);
+		}
+		if (count < 0) throw new IllegalArgumentException("Negative count");
+		final int oldSize = size;
+		setSize(oldSize + count);
+		move(index, index + count, oldSize - index);
+		zero(index, index + count);
+	}
+
+	/**
+	 * Removes a block of elements at the given position, shifting the
+	 * subsequent elements down.
+	 */
+	public void delete(final int index, final int count) {
+		if (index < 0 || count < 0 || index + count > size) {
+			throw new IndexOutOfBoundsException("Invalid range: " + index + "+" +
+				count);
+		}
+		move(index + count, index, size - index - count);
+		setSize(size - count);
+	}
+
+	// -- Column methods --
+
+	@Override
+	public String getHeader() {
+		return header;
+	}
+
+	@Override
+	public void setHeader(final String header) {
+		this.header = header;
+	}
+
+	// -- List methods --
+
+	@Override
+	public void add(final int index, final T value) {
+		insert(index, 1);
+		set(index, value);
+	}
+
+	@Override
+	public T remove(final int index) {
+		final T value = get(index);
+		delete(index, 1);
+		return value;
+	}
+
+	@Override
+	public void clear() {
+		setSize(0);
+	}
+
+	// -- Sizable methods --
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void setSize(final int size) {
+		if (size < 0) throw new IllegalArgumentException("Negative size");
+		final int chunkCount = (int) (((long) size + CHUNK_MASK) >>> CHUNK_SHIFT);
+		while (chunks.size() < chunkCount) {
+			chunks.add(allocate(chunks.size()));
+		}
+		if (size > this.size) {
+			// NB: Chunks are reused after shrinking, so stale values must go.
+			zero(this.size, size);
+		}
+		else {
+			// release chunks which are no longer needed
+			while (chunks.size() > chunkCount) {
+				chunks.remove(chunks.size() - 1);
+			}
+		}
+		this.size = size;
+	}
+
+	// -- Closeable methods --
+
+	/**
+	 * Releases the column's storage and, if it is memory-mapped, closes the
+	 * backing file. The column is empty afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		chunks.clear();
+		size = 0;
+		if (channel != null) channel.close();
+	}
+
+	// -- Internal methods --
+
+	/** Gets the chunk containing the given element. */
+	protected ByteBuffer chunk(final int index) {
+		checkBounds(index);
+		return chunks.get(index >>> CHUNK_SHIFT);
+	}
+
+	/** Gets the byte offset of the given element within its chunk. */
+	protected int offset(final int index) {
+		return (index & CHUNK_MASK) * elementBytes;
+	}
+
+	protected void checkBounds(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Invalid index: " + index);
+		}
+	}
+
+	// -- Helper methods --
+
+	private ByteBuffer allocate(final int chunkIndex) {
+		final int chunkBytes = CHUNK_SIZE * elementBytes;
+		if (channel == null) {
+			return ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder
+				.nativeOrder());
+		}
+		try {
+			return channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkIndex *
+				chunkBytes, chunkBytes).order(ByteOrder.nativeOrder());
+		}
+		catch (final IOException exc) {
+			throw new UncheckedIOException("Cannot map column chunk " + chunkIndex,
+				exc);
+		}
+	}
+
+	/** Zeroes the elements in the range [start, end). */
+	private void zero(final int start, final int end) {
+		int index = start;
+		while (index < end) {
+			final ByteBuffer chunk = chunks.get(index >>> CHUNK_SHIFT);
+			final int count = Math.min(end - index, CHUNK_SIZE - (index &
+				CHUNK_MASK));
+			final int limit = offset(index) + count * elementBytes;
+			int b = offset(index);
+			for (; b + 8 <= limit; b += 8) chunk.putLong(b, 0);
+			for (; b < limit; b++) chunk.put(b, (byte) 0);
+			index += count;
+		}
+	}
+
+	/**
+	 * Copies a block of elements, handling overlapping ranges. The block is
+	 * moved in pieces which lie within one chunk at both ends, each copied in
+	 * bulk. Pieces are taken from the far end when moving up, so that no piece
+	 * overwrites the source of a later one.
+	 */
+	private void move(final int src, final int dst, final int count) {
+		if (count <= 0 || src == dst) return;
+		final boolean up = dst > src;
+		byte[] scratch = null;
+		int done = 0;
+		while (done < count) {
+			final int remaining = count - done;
+			final int s, d, n;
+			if (up) {
+				final int srcEnd = src + remaining, dstEnd = dst + remaining;
+				n = Math.min(remaining, Math.min(((srcEnd - 1) & CHUNK_MASK) + 1,
+					((dstEnd - 1) & CHUNK_MASK) + 1));
+				s = srcEnd - n;
+				d = dstEnd - n;
+			}
+			else {
+				s = src + done;
+				d = dst + done;
+				n = Math.min(remaining, Math.min(CHUNK_SIZE - (s & CHUNK_MASK),
+					CHUNK_SIZE - (d & CHUNK_MASK)));
+			}
+			final ByteBuffer in = chunks.get(s >>> CHUNK_SHIFT).duplicate();
+			final ByteBuffer out = chunks.get(d >>> CHUNK_SHIFT).duplicate();
+			final int bytes = n * elementBytes;
+			in.limit(offset(s) + bytes).position(offset(s));
+			out.position(offset(d));
+			if ((s >>> CHUNK_SHIFT) == (d >>> CHUNK_SHIFT) && Math.abs(s - d) < n) {
+				// NB: Overlapping ranges of one buffer; copy through the heap.
+				if (scratch == null) {
+					scratch = new byte[Math.min(count, CHUNK_SIZE) * elementBytes];
+				}
+				in.get(scratch, 0, bytes);
+				out.put(scratch, 0, bytes);
+			}
+			else out.put(in);
+			done += n;
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Off-heap implementation of {@link Column} for {@code float} primitives.
+ *
+ * @see OffHeapColumn
+ */
+public class OffHeapFloatColumn extends OffHeapColumn<Float> {
+
+	public OffHeapFloatColumn() {
+		this(null);
+	}
+
+	public OffHeapFloatColumn(final String header) {
+		this(header, null);
+	}
+
+	/**
+	 * Creates a column whose values are memory-mapped from the given read-write
+	 * file.
+	 */
+	public OffHeapFloatColumn(final String header, final FileChannel channel) {
+		super(header, 4, channel);
+	}
+
+	// -- OffHeapFloatColumn methods --
+
+	/** Gets the value at the given row. */
+	public float getValue(final int index) {
+		return chunk(index).getFloat(offset(index));
+	}
+
+	/** Sets the value at the given row, returning the old value. */
+	public float setValue(final int index, final float value) {
+		final float oldValue = getValue(index);
+		chunk(index).putFloat(offset(index), value);
+		return oldValue;
+	}
+
+	// -- Column methods --
+
+	@Override
+	public Class<Float> getType() {
+		return Float.class;
+	}
+
+	// -- List methods --
+
+	@Override
+	public Float get(final int index) {
+		return getValue(index);
+	}
+
+	@Override
+	public Float set(final int index, final Float element) {
+		return setValue(index, element == null ? 0 : element);
+	}
+
+}
@@ -33,18 +33,40 @@ package net.imagej.table;
 
 import java.util.Iterator;
 
+import net.imglib2.AbstractCursorInt;
+import net.imglib2.AbstractLocalizable;
 import net.imglib2.Cursor;
+import net.imglib2.FlatIterationOrder;
 import net.imglib2.Interval;
-import net.imglib2.IterableRealInterval;
+import net.imglib2.Localizable;
 import net.imglib2.Positionable;
 import net.imglib2.RandomAccess;
 import net.imglib2.RealPositionable;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.DoubleAccess;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
 import net.imglib2.type.numeric.real.DoubleType;
 
 /**
  * Expresses a {@link ResultsTable} as an {@link Img}.
+ * <p>
+ * Dimension 0 is the column and dimension 1 the row. Samples are read and
+ * written directly in the arrays of the table's {@link DoubleColumn}s, much as
+ * a {@link net.imglib2.img.planar.PlanarImg} accesses its planes: cursors and
+ * random accesses switch between column arrays as they move along dimension
+ * 0. Cursors iterate in {@link FlatIterationOrder}.
+ * </p>
+ * <p>
+ * Each cursor and random access captures the column arrays when it is
+ * created, so it must not be used after columns or rows are added to or
+ * removed from the table. For algorithms which work one column at a time,
+ * {@link #getColumnImg(int)} wraps a single column array as an
+ * {@link ArrayImg}.
+ * </p>
  * 
  * @author Curtis Rueden
  */
@@ -56,18 +78,27 @@ public class ResultsImg implements Img<DoubleType> {
 		this.table = table;
 	}
 
+	// -- ResultsImg methods --
+
+	/**
+	 * Wraps the array of the given column as a one-dimensional image, without
+	 * copying. The image is valid until rows are added to or removed from the
+	 * table.
+	 */
+	public ArrayImg<DoubleType, DoubleArray> getColumnImg(final int col) {
+		return ArrayImgs.doubles(table.get(col).getArray(), dim1());
+	}
+
 	// -- RandomAccessible methods --
 
 	@Override
 	public RandomAccess<DoubleType> randomAccess() {
-		// TODO
-		throw new UnsupportedOperationException("Unimplemented");
+		return new ResultsRandomAccess();
 	}
 
 	@Override
 	public RandomAccess<DoubleType> randomAccess(final Interval interval) {
-		// TODO
-		throw new UnsupportedOperationException("Unimplemented");
+		return randomAccess();
 	}
 
 	// -- EuclideanSpace methods --
@@ -111,8 +142,8 @@ public class ResultsImg implements Img<DoubleType> {
 
 	@Override
 	public void max(final Positionable max) {
-		max.setPosition(0, max0());
-		max.setPosition(0, max1());
+		max.setPosition(max0(), 0);
+		max.setPosition(max1(), 1);
 	}
 
 	// -- RealInterval methods --
@@ -139,8 +170,8 @@ public class ResultsImg implements Img<DoubleType> {
 
 	@Override
 	public void realMax(final double[] max) {
-		max[0] = table.getColumnCount();
-		max[1] = table.getRowCount();
+		max[0] = max0();
+		max[1] = max1();
 	}
 
 	@Override
@@ -167,14 +198,13 @@ public class ResultsImg implements Img<DoubleType> {
 
 	@Override
 	public Cursor<DoubleType> cursor() {
-		// TODO
-		throw new UnsupportedOperationException("Unimplemented");
+		return new ResultsCursor();
 	}
 
 	@Override
 	public Cursor<DoubleType> localizingCursor() {
-		// TODO
-		throw new UnsupportedOperationException("Unimplemented");
+		// NB: The cursor always knows its position.
+		return cursor();
 	}
 
 	@Override
@@ -184,35 +214,40 @@ public class ResultsImg implements Img<DoubleType> {
 
 	@Override
 	public DoubleType firstElement() {
-		return new DoubleType(table.get(0, 0));
+		return cursor().next();
 	}
 
 	@Override
 	public Object iterationOrder() {
-		// TODO
-		throw new UnsupportedOperationException("Unimplemented");
+		return new FlatIterationOrder(this);
 	}
 
 	// -- Iterable methods --
 
 	@Override
 	public Iterator<DoubleType> iterator() {
-		// TODO
-		throw new UnsupportedOperationException("Unimplemented");
+		return cursor();
 	}
 
 	// -- Img methods --
 
 	@Override
 	public ImgFactory<DoubleType> factory() {
-		// TODO
-		throw new UnsupportedOperationException("Unimplemented");
+		return new ArrayImgFactory<>();
 	}
 
+	/** Copies the table's values into a new table, and wraps that. */
 	@Override
 	public Img<DoubleType> copy() {
-		// TODO
-		throw new UnsupportedOperationException("Unimplemented");
+		final DefaultResultsTable copy = new DefaultResultsTable();
+		for (int c = 0; c < dim0(); c++) {
+			final DoubleColumn column = new DoubleColumn(table.getColumnHeader(c));
+			column.fill(table.get(c).copyArray());
+			column.setSize(dim1());
+			copy.add(column);
+		}
+		copy.setRowCount(dim1());
+		return new ResultsImg(copy);
 	}
 
 	// -- Helper methods --
@@ -233,4 +268,247 @@ public class ResultsImg implements Img<DoubleType> {
 		return dim1() - 1;
 	}
 
+	/** Wraps the current array of each column. */
+	private DoubleArray[] columns() {
+		final DoubleArray[] columns = new DoubleArray[dim0()];
+		for (int c = 0; c < columns.length; c++) {
+			columns[c] = new DoubleArray(table.get(c).getArray());
+		}
+		return columns;
+	}
+
+	// -- Helper classes --
+
+	/** A {@link DoubleType} which can be moved between column arrays. */
+	private static class ColumnType extends DoubleType {
+
+		public ColumnType(final DoubleAccess access) {
+			super(access);
+		}
+
+		public void setAccess(final DoubleAccess access) {
+			dataAccess = access;
+		}
+
+		@Override
+		public ColumnType duplicateTypeOnSameNativeImg() {
+			final ColumnType t = new ColumnType(dataAccess);
+			t.updateIndex(getIndex());
+			return t;
+		}
+	}
+
+	/** Flat-order cursor over the column arrays. */
+	private class ResultsCursor extends AbstractCursorInt<DoubleType> {
+
+		private final DoubleArray[] columns;
+		private final int rows;
+		private final ColumnType type;
+
+		/** Position of the cursor; column -1 before the first element. */
+		private int x, y;
+
+		public ResultsCursor() {
+			super(2);
+			columns = columns();
+			rows = dim1();
+			type = new ColumnType(null);
+			reset();
+		}
+
+		private ResultsCursor(final ResultsCursor cursor) {
+			super(2);
+			columns = cursor.columns;
+			rows = cursor.rows;
+			type = new ColumnType(null);
+			x = cursor.x;
+			y = cursor.y;
+			update();
+		}
+
+		@Override
+		public DoubleType get() {
+			return type;
+		}
+
+		@Override
+		public void fwd() {
+			if (++x == columns.length) {
+				x = 0;
+				type.updateIndex(++y);
+			}
+			type.setAccess(columns[x]);
+		}
+
+		@Override
+		public void jumpFwd(final long steps) {
+			final long index = (long) y * columns.length + x + steps;
+			x = (int) (index % columns.length);
+			y = (int) (index / columns.length);
+			update();
+		}
+
+		@Override
+		public void reset() {
+			x = -1;
+			y = 0;
+			type.updateIndex(0);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (rows == 0 || columns.length == 0) return false;
+			return x < columns.length - 1 || y < rows - 1;
+		}
+
+		@Override
+		public void localize(final int[] position) {
+			position[0] = x;
+			position[1] = y;
+		}
+
+		@Override
+		public int getIntPosition(final int d) {
+			return d == 0 ? x : y;
+		}
+
+		@Override
+		public ResultsCursor copy() {
+			return new ResultsCursor(this);
+		}
+
+		@Override
+		public ResultsCursor copyCursor() {
+			return copy();
+		}
+
+		private void update() {
+			if (x >= 0 && x < columns.length) type.setAccess(columns[x]);
+			type.updateIndex(y);
+		}
+	}
+
+	/** Random access to the column arrays. */
+	private class ResultsRandomAccess extends AbstractLocalizable implements
+		RandomAccess<DoubleType>
+	{
+
+		private final DoubleArray[] columns;
+		private final ColumnType type;
+
+		public ResultsRandomAccess() {
+			super(2);
+			columns = columns();
+			type = new ColumnType(columns.length > 0 ? columns[0] : null);
+		}
+
+		private ResultsRandomAccess(final ResultsRandomAccess access) {
+			super(2);
+			columns = access.columns;
+			type = new ColumnType(null);
+			position[0] = access.position[0];
+			position[1] = access.position[1];
+			updateColumn();
+			type.updateIndex((int) position[1]);
+		}
+
+		@Override
+		public DoubleType get() {
+			return type;
+		}
+
+		@Override
+		public void fwd(final int d) {
+			++position[d];
+			update(d);
+		}
+
+		@Override
+		public void bck(final int d) {
+			--position[d];
+			update(d);
+		}
+
+		@Override
+		public void move(final int distance, final int d) {
+			position[d] += distance;
+			update(d);
+		}
+
+		@Override
+		public void move(final long distance, final int d) {
+			position[d] += distance;
+			update(d);
+		}
+
+		@Override
+		public void move(final Localizable localizable) {
+			move(localizable.getLongPosition(0), 0);
+			move(localizable.getLongPosition(1), 1);
+		}
+
+		@Override
+		public void move(final int[] distance) {
+			move(distance[0], 0);
+			move(distance[1], 1);
+		}
+
+		@Override
+		public void move(final long[] distance) {
+			move(distance[0], 0);
+			move(distance[1], 1);
+		}
+
+		@Override
+		public void setPosition(final Localizable localizable) {
+			setPosition(localizable.getLongPosition(0), 0);
+			setPosition(localizable.getLongPosition(1), 1);
+		}
+
+		@Override
+		public void setPosition(final int[] pos) {
+			setPosition(pos[0], 0);
+			setPosition(pos[1], 1);
+		}
+
+		@Override
+		public void setPosition(final long[] pos) {
+			setPosition(pos[0], 0);
+			setPosition(pos[1], 1);
+		}
+
+		@Override
+		public void setPosition(final int pos, final int d) {
+			position[d] = pos;
+			update(d);
+		}
+
+		@Override
+		public void setPosition(final long pos, final int d) {
+			position[d] = pos;
+			update(d);
+		}
+
+		@Override
+		public ResultsRandomAccess copy() {
+			return new ResultsRandomAccess(this);
+		}
+
+		@Override
+		public ResultsRandomAccess copyRandomAccess() {
+			return copy();
+		}
+
+		private void update(final int d) {
+			if (d == 0) updateColumn();
+			else type.updateIndex((int) position[1]);
+		}
+
+		private void updateColumn() {
+			// NB: Positions may pass out of bounds while moving.
+			final long x = position[0];
+			if (x >= 0 && x < columns.length) type.setAccess(columns[(int) x]);
+		}
+	}
+
 }
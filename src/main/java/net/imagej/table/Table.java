@@ -31,10 +31,12 @@
 
 package net.imagej.table;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.function.IntPredicate;
 
 /**
  * A table of values.
@@ -193,6 +195,62 @@ public interface Table<C extends Column<? extends T>, T> extends List<C> {
 	/** Removes the first rows with the given headers from the table. */
 	void removeRows(String... headers);
 
+	/**
+	 * Removes the rows whose bits are set in the given set from the table.
+	 * <p>
+	 * By default, each run of consecutive rows is removed with
+	 * {@link #removeRows(int, int)}, starting from the last one.
+	 * </p>
+	 */
+	default void removeRows(final BitSet rows) {
+		int end = rows.previousSetBit(getRowCount() - 1);
+		while (end >= 0) {
+			final int start = rows.previousClearBit(end) + 1;
+			removeRows(start, end - start + 1);
+			end = rows.previousSetBit(start - 1);
+		}
+	}
+
+	/**
+	 * Removes every row for which the given predicate, applied to the row's
+	 * position, returns true. The predicate sees the table as it was before
+	 * any rows were removed.
+	 */
+	default void removeRowsIf(final IntPredicate filter) {
+		final BitSet rows = new BitSet(getRowCount());
+		for (int r = 0; r < getRowCount(); r++) {
+			if (filter.test(r)) rows.set(r);
+		}
+		removeRows(rows);
+	}
+
+	/**
+	 * Removes every row whose bit is not set in the given set from the table.
+	 * The remaining rows keep their relative order.
+	 */
+	default void retainRows(final BitSet rows) {
+		final BitSet remove = new BitSet(getRowCount());
+		remove.set(0, getRowCount());
+		remove.andNot(rows);
+		removeRows(remove);
+	}
+
+	/**
+	 * Removes every row except those at the given positions from the table.
+	 * The remaining rows keep their relative order, regardless of the order in
+	 * which they are given.
+	 */
+	default void retainRows(final int... rows) {
+		final BitSet keep = new BitSet(getRowCount());
+		for (final int row : rows) {
+			if (row < 0 || row >= getRowCount()) {
+				throw new IndexOutOfBoundsException("Invalid row: " + row);
+			}
+			keep.set(row);
+		}
+		retainRows(keep);
+	}
+
 	/** Sets the number of columns and rows in the table. */
 	void setDimensions(int colCount, int rowCount);
 
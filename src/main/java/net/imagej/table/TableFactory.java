@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Creates {@link Column}s and {@link Table}s using a chosen kind of storage.
+ * <p>
+ * With {@link Storage#HEAP}, columns of primitive values are the usual
+ * array-backed implementations such as {@link DoubleColumn}. With
+ * {@link Storage#DIRECT} and {@link Storage#MAPPED}, they are
+ * {@link OffHeapColumn}s instead, which keep their values in direct buffers or
+ * in memory-mapped temporary files (deleted when the JVM exits), respectively.
+ * Columns of other types are always {@link DefaultColumn}s.
+ * </p>
+ */
+public class TableFactory {
+
+	/** Kinds of storage for columns of primitive values. */
+	public enum Storage {
+
+		/** Arrays on the Java heap. */
+		HEAP,
+
+		/** Direct buffers outside the Java heap. */
+		DIRECT,
+
+		/** Memory-mapped temporary files. */
+		MAPPED
+	}
+
+	private final Storage storage;
+
+	/** Directory for the files of mapped columns, or null for the default. */
+	private final Path directory;
+
+	/** Creates a factory for heap-backed tables. */
+	public TableFactory() {
+		this(Storage.HEAP);
+	}
+
+	public TableFactory(final Storage storage) {
+		this(storage, null);
+	}
+
+	/**
+	 * Creates a factory with the given storage, placing the files of
+	 * {@link Storage#MAPPED} columns in the given directory (or the system's
+	 * temporary directory if null).
+	 */
+	public TableFactory(final Storage storage, final Path directory) {
+		if (storage == null) throw new NullPointerException("storage");
+		this.storage = storage;
+		this.directory = directory;
+	}
+
+	// -- TableFactory methods --
+
+	public Storage getStorage() {
+		return storage;
+	}
+
+	/** Creates an empty column of the given element type. */
+	@SuppressWarnings("unchecked")
+	public <T> Column<T> createColumn(final Class<T> type, final String header) {
+		if (storage == Storage.HEAP) {
+			if (type == Boolean.class) return (Column<T>) new BoolColumn(header);
+			if (type == Byte.class) return (Column<T>) new ByteColumn(header);
+			if (type == Character.class) return (Column<T>) new CharColumn(header);
+			if (type == Double.class) return (Column<T>) new DoubleColumn(header);
+			if (type == Float.class) return (Column<T>) new FloatColumn(header);
+			if (type == Integer.class) return (Column<T>) new IntColumn(header);
+			if (type == Long.class) return (Column<T>) new LongColumn(header);
+			if (type == Short.class) return (Column<T>) new ShortColumn(header);
+			return new DefaultColumn<>(type, header);
+		}
+		if (type == Boolean.class) {
+			return (Column<T>) new OffHeapBoolColumn(header, channel());
+		}
+		if (type == Byte.class) {
+			return (Column<T>) new OffHeapByteColumn(header, channel());
+		}
+		if (type == Character.class) {
+			return (Column<T>) new OffHeapCharColumn(header, channel());
+		}
+		if (type == Double.class) {
+			return (Column<T>) new OffHeapDoubleColumn(header, channel());
+		}
+		if (type == Float.class) {
+			return (Column<T>) new OffHeapFloatColumn(header, channel());
+		}
+		if (type == Integer.class) {
+			return (Column<T>) new OffHeapIntColumn(header, channel());
+		}
+		if (type == Long.class) {
+			return (Column<T>) new OffHeapLongColumn(header, channel());
+		}
+		if (type == Short.class) {
+			return (Column<T>) new OffHeapShortColumn(header, channel());
+		}
+		return new DefaultColumn<>(type, header);
+	}
+
+	/** Creates an empty table whose columns hold the given element type. */
+	public <T> Table<Column<T>, T> createTable(final Class<T> type) {
+		return createTable(type, 0, 0);
+	}
+
+	/**
+	 * Creates a table with the given column and row dimensions, whose columns
+	 * hold the given element type.
+	 */
+	public <T> Table<Column<T>, T> createTable(final Class<T> type,
+		final int columnCount, final int rowCount)
+	{
+		return new FactoryTable<>(this, type, columnCount, rowCount);
+	}
+
+	// -- Helper methods --
+
+	/** Opens a new temporary file for a mapped column, or null if not mapped. */
+	private FileChannel channel() {
+		if (storage != Storage.MAPPED) return null;
+		try {
+			final Path file = directory == null ? Files.createTempFile("imagej-",
+				".column") : Files.createTempFile(directory, "imagej-", ".column");
+			file.toFile().deleteOnExit();
+			return FileChannel.open(file, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		}
+		catch (final IOException exc) {
+			throw new UncheckedIOException("Cannot create column file", exc);
+		}
+	}
+
+	// -- Helper classes --
+
+	/** A table whose columns are created by a {@link TableFactory}. */
+	private static class FactoryTable<T> extends AbstractTable<Column<T>, T> {
+
+		private final TableFactory factory;
+		private final Class<T> type;
+
+		public FactoryTable(final TableFactory factory, final Class<T> type,
+			final int columnCount, final int rowCount)
+		{
+			// NB: Columns cannot be created until the fields are assigned.
+			super();
+			this.factory = factory;
+			this.type = type;
+			setRowCount(rowCount);
+			setColumnCount(columnCount);
+		}
+
+		@Override
+		protected Column<T> createColumn(final String header) {
+			return factory.createColumn(type, header);
+		}
+
+	}
+
+}
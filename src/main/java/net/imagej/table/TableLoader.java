@@ -32,21 +32,24 @@
 package net.imagej.table;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.io.StreamTokenizer;
 import java.net.URL;
 
+import org.scijava.thread.ThreadService;
+
 // note: adapted from Wayne Rasband's IJ1 TextReader class
 
 /**
  * Loads a text file containing comma separated values into a
  * {@link ResultsTable}.
+ * <p>
+ * Fields are separated by runs of whitespace, commas and other punctuation,
+ * and every line must have the same number of fields. If no value of the
+ * first line is a number, that line is taken as the column headers. The text
+ * is parsed in a single streaming pass by a {@link TextTableReader}.
+ * </p>
  * 
  * @author Barry DeZonia
  * @author Wayne Rasband
@@ -55,48 +58,37 @@ public class TableLoader {
 
 	// -- instance variables --
 
-	private int rows, cols;
+	private final TextTableReader reader;
+
+	public TableLoader() {
+		this(null);
+	}
+
+	/**
+	 * @param threadService Service used to parse large files in parallel, or
+	 *          null to parse on the calling thread.
+	 */
+	public TableLoader(final ThreadService threadService) {
+		reader = new TextTableReader(TextTableReader.Dialect.LEGACY,
+			threadService);
+	}
 
 	// -- private legacy text file support methods --
 
 	/**
-	 * Loads the values of a table stored in a text file as a ResultsTable. Given
-	 * BufferedInputStream must be marked to hold entire contents in buffer. This
-	 * method rewinds the buggered stream so it can read it twice.
+	 * Loads the values of a table stored in a text file as a ResultsTable. The
+	 * stream is read to its end in a single pass, so it need not be marked, and
+	 * is not closed.
 	 * 
 	 * @param str The BufferedInputStream containing the data of the text table
-	 * @return A ResultsTable containing the values (and headers)
+	 * @return A ResultsTable containing the values (and headers), or null if the
+	 *         stream holds no values
 	 * @throws IOException
 	 */
 	public ResultsTable valuesFromTextFile(BufferedInputStream str)
 		throws IOException
 	{
-		countRowsAndCols(str);
-		if (rows == 0) return null;
-		ResultsTable values = new DefaultResultsTable(cols, rows);
-		str.reset();
-		read(str, values);
-		int firstRowNaNCount = 0;
-		for (int i = 0; i < cols; i++) {
-			if (Double.isNaN(values.getValue(i, 0))) firstRowNaNCount++;
-		}
-		if (firstRowNaNCount == cols) { // assume first row is header
-			// throw away first row of non-values
-			rows--;
-			ResultsTable oldValues = values;
-			values = new DefaultResultsTable(cols, rows);
-			for (int c = 0; c < cols; c++) {
-				String colHeader = oldValues.getColumnHeader(c);
-				values.setColumnHeader(c, colHeader);
-			}
-			for (int row = 0; row < rows; row++) {
-				for (int col = 0; col < cols; col++) {
-					double val = oldValues.getValue(col, row + 1);
-					values.setValue(col, row, val);
-				}
-			}
-		}
-		return values;
+		return reader.readResults(str);
 	}
 
 	/**
@@ -119,10 +111,7 @@ public class TableLoader {
 	 * @throws IOException
 	 */
 	public ResultsTable valuesFromTextFile(File file) throws IOException {
-		FileInputStream fstr = new FileInputStream(file);
-		BufferedInputStream stream = new BufferedInputStream(fstr);
-		stream.mark((int) file.length());
-		return valuesFromTextFile(stream);
+		return reader.readResults(file);
 	}
 
 	/**
@@ -133,76 +122,9 @@ public class TableLoader {
 	 * @throws IOException
 	 */
 	public ResultsTable valuesFromTextFile(URL url) throws IOException {
-		InputStream istr = url.openStream();
-		BufferedInputStream stream = new BufferedInputStream(istr);
-		stream.mark(8000000); // about 8 megabytes: FIXME HACK
-		return valuesFromTextFile(stream);
-	}
-
-	// -- private helpers -
-
-	private void countRowsAndCols(InputStream str) throws IOException {
-		Reader r = new BufferedReader(new InputStreamReader(str));
-		StreamTokenizer tok = new StreamTokenizer(r);
-		tok.resetSyntax();
-		tok.wordChars(43, 43);
-		tok.wordChars(45, 126);
-		tok.whitespaceChars(0, 42);
-		tok.whitespaceChars(44, 44);
-		tok.whitespaceChars(127, 255);
-		tok.eolIsSignificant(true);
-
-		int words = 0, wordsPrevLine = 0;
-		while (tok.nextToken() != StreamTokenizer.TT_EOF) {
-			switch (tok.ttype) {
-				case StreamTokenizer.TT_EOL:
-					rows++;
-					if (words == 0) rows--; // ignore empty lines
-					if (rows == 1 && words > 0) cols = words;
-					if (rows > 1 && words != 0 && words != wordsPrevLine) {
-						throw new IOException("Line " + rows +
-							" is not the same length as the first line.");
-					}
-					if (words != 0) wordsPrevLine = words;
-					words = 0;
-					break;
-				case StreamTokenizer.TT_WORD:
-					// System.out.println("read word " + tok.sval);
-					words++;
-					break;
-			}
+		try (final InputStream istr = url.openStream()) {
+			return valuesFromTextFile(new BufferedInputStream(istr));
 		}
-		if (words == cols) rows++; // last line does not end with EOL
 	}
 
-	private void read(InputStream str, ResultsTable values) throws IOException {
-		Reader r = new BufferedReader(new InputStreamReader(str));
-		StreamTokenizer tok = new StreamTokenizer(r);
-		tok.resetSyntax();
-		tok.wordChars(43, 43);
-		tok.wordChars(45, 126);
-		tok.whitespaceChars(0, 42);
-		tok.whitespaceChars(44, 44);
-		tok.whitespaceChars(127, 255);
-
-		int row = 0, col = 0;
-		while (tok.nextToken() != StreamTokenizer.TT_EOF) {
-			if (tok.ttype == StreamTokenizer.TT_WORD) {
-				double value;
-				try {
-					value = Double.parseDouble(tok.sval);
-				}
-				catch (NumberFormatException e) {
-					value = Double.NaN;
-					if (row == 0) values.setColumnHeader(col, tok.sval);
-				}
-				values.setValue(col, row, value);
-				col++;
-				if (col == cols) {
-					row++;
-					col = 0;
-				}
-			}
-		}
-	}
 }
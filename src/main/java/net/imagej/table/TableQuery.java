@@ -0,0 +1,552 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.DoublePredicate;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * Column-oriented summary statistics over a {@link Table}.
+ * <p>
+ * A query optionally filters the rows by the values of numeric columns,
+ * optionally groups them by the values of a key column, and computes
+ * {@link Aggregate}s of numeric columns for each group. Numeric columns are
+ * read straight from the arrays of {@link PrimitiveColumn}s where possible,
+ * without boxing, and the rows are split into ranges which are processed in
+ * parallel when a {@link ThreadService} is given.
+ * </p>
+ * <p>
+ * For example, the following computes the mean and standard deviation of the
+ * area of each labelled region larger than 10:
+ * </p>
+ *
+ * <pre>
+ * GenericTable summary = new TableQuery(table, threadService) //
+ * 	.where("Area", area -&gt; area &gt; 10) //
+ * 	.groupBy("Label") //
+ * 	.aggregate("Area", Aggregate.MEAN, Aggregate.STD) //
+ * 	.execute();
+ * </pre>
+ * <p>
+ * The result has one row per group, in order of first appearance, with the
+ * group keys in its first column (if grouped) and one column per aggregate,
+ * headed {@code mean(Area)} and so on. {@code NaN} values are ignored by all
+ * aggregates.
+ * </p>
+ */
+public class TableQuery {
+
+	/** A statistic computed over the values of a column. */
+	public static final class Aggregate {
+
+		/** Number of (non-NaN) values. */
+		public static final Aggregate COUNT = new Aggregate("count", -1);
+
+		public static final Aggregate SUM = new Aggregate("sum", -2);
+
+		public static final Aggregate MEAN = new Aggregate("mean", -3);
+
+		/** Sample standard deviation. */
+		public static final Aggregate STD = new Aggregate("std", -4);
+
+		public static final Aggregate MIN = new Aggregate("min", -5);
+
+		public static final Aggregate MAX = new Aggregate("max", -6);
+
+		public static final Aggregate MEDIAN = new Aggregate("median", 0.5);
+
+		private final String name;
+
+		/** Quantile to compute, or a negative code for other statistics. */
+		private final double quantile;
+
+		private Aggregate(final String name, final double quantile) {
+			this.name = name;
+			this.quantile = quantile;
+		}
+
+		/**
+		 * Gets the aggregate computing the given quantile, interpolating linearly
+		 * between the closest ranks.
+		 *
+		 * @param p The quantile, between 0 and 1.
+		 */
+		public static Aggregate quantile(final double p) {
+			if (!(p >= 0 && p <= 1)) {
+				throw new IllegalArgumentException("Invalid quantile: " + p);
+			}
+			final double percent = 100 * p;
+			return new Aggregate("p" + (percent == (long) percent ? Long.toString(
+				(long) percent) : Double.toString(percent)), p);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+
+		private boolean isQuantile() {
+			return quantile >= 0;
+		}
+	}
+
+	/** Minimum number of rows processed by each task. */
+	private static final int MIN_ROWS_PER_TASK = 1 << 14;
+
+	private final Table<?, ?> table;
+	private final ThreadService threadService;
+
+	private final List<Filter> filters = new ArrayList<>();
+	private final List<Output> outputs = new ArrayList<>();
+	private Column<?> groupColumn;
+
+	public TableQuery(final Table<?, ?> table) {
+		this(table, null);
+	}
+
+	/**
+	 * @param table The table to query.
+	 * @param threadService Service used to process rows in parallel, or null to
+	 *          process them on the calling thread.
+	 */
+	public TableQuery(final Table<?, ?> table,
+		final ThreadService threadService)
+	{
+		this.table = table;
+		this.threadService = threadService;
+	}
+
+	// -- TableQuery methods --
+
+	/**
+	 * Restricts the query to rows where the given numeric column's value
+	 * satisfies the given predicate. Multiple filters must all be satisfied.
+	 */
+	public TableQuery where(final String column,
+		final DoublePredicate predicate)
+	{
+		filters.add(new Filter(column(column), predicate));
+		return this;
+	}
+
+	/** Groups the rows by the values of the given column. */
+	public TableQuery groupBy(final String column) {
+		groupColumn = column(column);
+		return this;
+	}
+
+	/** Adds the given aggregates of a numeric column to the result. */
+	public TableQuery aggregate(final String column,
+		final Aggregate... aggregates)
+	{
+		final Column<?> c = column(column);
+		for (final Aggregate aggregate : aggregates) {
+			outputs.add(new Output(c, aggregate));
+		}
+		return this;
+	}
+
+	/**
+	 * Runs the query.
+	 *
+	 * @return A new table with one row per group.
+	 * @throws IllegalArgumentException if a filtered or aggregated column does
+	 *           not hold numbers.
+	 */
+	public GenericTable execute() {
+		final int[] rows = selectRows();
+		final int n = rows == null ? table.getRowCount() : rows.length;
+
+		// assign each selected row to a group
+		final List<Object> keys = new ArrayList<>();
+		final int[] groups = groupColumn == null ? null : new int[n];
+		if (groupColumn != null) {
+			final HashMap<Object, Integer> ids = new HashMap<>();
+			for (int i = 0; i < n; i++) {
+				final Object key = groupColumn.get(rows == null ? i : rows[i]);
+				Integer id = ids.get(key);
+				if (id == null) {
+					id = keys.size();
+					ids.put(key, id);
+					keys.add(key);
+				}
+				groups[i] = id;
+			}
+		}
+		final int groupCount = groupColumn == null ? 1 : keys.size();
+
+		final DefaultGenericTable result = new DefaultGenericTable(0, groupCount);
+		if (groupColumn != null) result.add(keyColumn(groupColumn, keys));
+
+		// compute the aggregates of each column once
+		final HashMap<Column<?>, Moments> moments = new HashMap<>();
+		final HashMap<Column<?>, double[][]> sorted = new HashMap<>();
+		for (final Output output : outputs) {
+			final double[] values = doubles(output.column);
+			final double[] stats = new double[groupCount];
+			if (output.aggregate.isQuantile()) {
+				double[][] groupValues = sorted.get(output.column);
+				if (groupValues == null) {
+					groupValues = sortedGroups(values, rows, n, groups, groupCount);
+					sorted.put(output.column, groupValues);
+				}
+				for (int g = 0; g < groupCount; g++) {
+					stats[g] = quantile(groupValues[g], output.aggregate.quantile);
+				}
+			}
+			else {
+				Moments m = moments.get(output.column);
+				if (m == null) {
+					m = moments(values, rows, n, groups, groupCount);
+					moments.put(output.column, m);
+				}
+				for (int g = 0; g < groupCount; g++) {
+					stats[g] = m.get(g, output.aggregate);
+				}
+			}
+			final DoubleColumn column = new DoubleColumn(output.aggregate.getName() +
+				"(" + output.column.getHeader() + ")");
+			column.fill(stats);
+			result.add(column);
+		}
+		return result;
+	}
+
+	// -- Helper methods --
+
+	private Column<?> column(final String header) {
+		final int index = table.getColumnIndex(header);
+		if (index < 0) {
+			throw new IllegalArgumentException("No such column: " + header);
+		}
+		return table.get(index);
+	}
+
+	/** Gets the rows passing all filters, or null if there are no filters. */
+	private int[] selectRows() {
+		if (filters.isEmpty()) return null;
+		final double[][] values = new double[filters.size()][];
+		final DoublePredicate[] predicates = new DoublePredicate[filters.size()];
+		for (int f = 0; f < values.length; f++) {
+			values[f] = doubles(filters.get(f).column);
+			predicates[f] = filters.get(f).predicate;
+		}
+		final List<int[]> selected = run(table.getRowCount(), (from, to) -> {
+			final int[] rows = new int[to - from];
+			int count = 0;
+			for (int r = from; r < to; r++) {
+				boolean pass = true;
+				for (int f = 0; f < values.length && pass; f++) {
+					pass = predicates[f].test(values[f][r]);
+				}
+				if (pass) rows[count++] = r;
+			}
+			return Arrays.copyOf(rows, count);
+		});
+		int total = 0;
+		for (final int[] rows : selected) {
+			total += rows.length;
+		}
+		final int[] rows = new int[total];
+		int offset = 0;
+		for (final int[] part : selected) {
+			System.arraycopy(part, 0, rows, offset, part.length);
+			offset += part.length;
+		}
+		return rows;
+	}
+
+	/** Computes the moments of each group, merging those of each row range. */
+	private Moments moments(final double[] values, final int[] rows,
+		final int n, final int[] groups, final int groupCount)
+	{
+		final List<Moments> parts = run(n, (from, to) -> {
+			final Moments m = new Moments(groupCount);
+			for (int i = from; i < to; i++) {
+				m.add(groups == null ? 0 : groups[i], values[rows == null ? i
+					: rows[i]]);
+			}
+			return m;
+		});
+		final Moments total = parts.get(0);
+		for (int p = 1; p < parts.size(); p++) {
+			total.merge(parts.get(p));
+		}
+		return total;
+	}
+
+	/** Gathers the non-NaN values of each group, in ascending order. */
+	private double[][] sortedGroups(final double[] values, final int[] rows,
+		final int n, final int[] groups, final int groupCount)
+	{
+		final int[] counts = new int[groupCount];
+		for (int i = 0; i < n; i++) {
+			if (!Double.isNaN(values[rows == null ? i : rows[i]])) {
+				counts[groups == null ? 0 : groups[i]]++;
+			}
+		}
+		final double[][] groupValues = new double[groupCount][];
+		for (int g = 0; g < groupCount; g++) {
+			groupValues[g] = new double[counts[g]];
+		}
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < n; i++) {
+			final double v = values[rows == null ? i : rows[i]];
+			if (Double.isNaN(v)) continue;
+			final int g = groups == null ? 0 : groups[i];
+			groupValues[g][counts[g]++] = v;
+		}
+		// sort the groups in parallel ranges
+		run(groupCount, 1, (from, to) -> {
+			for (int g = from; g < to; g++) {
+				Arrays.sort(groupValues[g]);
+			}
+			return null;
+		});
+		return groupValues;
+	}
+
+	/** Gets the quantile of sorted values, interpolating between ranks. */
+	private static double quantile(final double[] sorted, final double p) {
+		if (sorted.length == 0) return Double.NaN;
+		final double rank = p * (sorted.length - 1);
+		final int lo = (int) Math.floor(rank);
+		final int hi = Math.min(lo + 1, sorted.length - 1);
+		return sorted[lo] + (rank - lo) * (sorted[hi] - sorted[lo]);
+	}
+
+	/**
+	 * Gets the values of a numeric column as {@code double}s. The array of a
+	 * {@link DoubleColumn} is used directly, and may be longer than the table.
+	 */
+	private double[] doubles(final Column<?> column) {
+		final int size = table.getRowCount();
+		final Object array = column instanceof PrimitiveColumn ? //
+			((PrimitiveColumn<?, ?>) column).getArray() : null;
+		if (array instanceof double[]) return (double[]) array;
+		final double[] values = new double[size];
+		if (array instanceof float[]) {
+			final float[] a = (float[]) array;
+			for (int i = 0; i < size; i++) values[i] = a[i];
+		}
+		else if (array instanceof long[]) {
+			final long[] a = (long[]) array;
+			for (int i = 0; i < size; i++) values[i] = a[i];
+		}
+		else if (array instanceof int[]) {
+			final int[] a = (int[]) array;
+			for (int i = 0; i < size; i++) values[i] = a[i];
+		}
+		else if (array instanceof short[]) {
+			final short[] a = (short[]) array;
+			for (int i = 0; i < size; i++) values[i] = a[i];
+		}
+		else if (array instanceof byte[]) {
+			final byte[] a = (byte[]) array;
+			for (int i = 0; i < size; i++) values[i] = a[i];
+		}
+		else if (array instanceof boolean[]) {
+			final boolean[] a = (boolean[]) array;
+			for (int i = 0; i < size; i++) values[i] = a[i] ? 1 : 0;
+		}
+		else {
+			for (int i = 0; i < size; i++) {
+				final Object value = column.get(i);
+				if (value == null) values[i] = Double.NaN;
+				else if (value instanceof Number) {
+					values[i] = ((Number) value).doubleValue();
+				}
+				else if (value instanceof Boolean) values[i] = (Boolean) value ? 1 : 0;
+				else {
+					throw new IllegalArgumentException("Column " + column.getHeader() +
+						" is not numeric");
+				}
+			}
+		}
+		return values;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> Column<K> keyColumn(final Column<K> source,
+		final List<Object> keys)
+	{
+		final DefaultColumn<K> column = new DefaultColumn<>(source.getType(),
+			source.getHeader());
+		for (final Object key : keys) {
+			column.add((K) key);
+		}
+		return column;
+	}
+
+	private <R> List<R> run(final int n, final RangeTask<R> task) {
+		return run(n, MIN_ROWS_PER_TASK, task);
+	}
+
+	/**
+	 * Splits [0, n) into contiguous ranges, at most one per thread, and runs
+	 * the task on each.
+	 *
+	 * @return The result for each range, in order.
+	 */
+	private <R> List<R> run(final int n, final int minPerTask,
+		final RangeTask<R> task)
+	{
+		final int threads = threadService == null ? 1 : Runtime.getRuntime()
+			.availableProcessors();
+		final int taskCount = Math.max(1, Math.min(threads, n / minPerTask));
+		final List<R> results = new ArrayList<>(taskCount);
+		if (taskCount == 1) {
+			results.add(task.run(0, n));
+			return results;
+		}
+		final List<Future<R>> futures = new ArrayList<>(taskCount);
+		for (int t = 0; t < taskCount; t++) {
+			final int from = (int) ((long) n * t / taskCount);
+			final int to = (int) ((long) n * (t + 1) / taskCount);
+			futures.add(threadService.run(() -> task.run(from, to)));
+		}
+		try {
+			for (final Future<R> future : futures) {
+				results.add(future.get());
+			}
+		}
+		catch (final InterruptedException | ExecutionException exc) {
+			throw new RuntimeException(exc);
+		}
+		return results;
+	}
+
+	// -- Helper classes --
+
+	/** Computation over a range of indices. */
+	private interface RangeTask<R> {
+
+		R run(int from, int to);
+	}
+
+	private static class Filter {
+
+		private final Column<?> column;
+		private final DoublePredicate predicate;
+
+		public Filter(final Column<?> column, final DoublePredicate predicate) {
+			this.column = column;
+			this.predicate = predicate;
+		}
+	}
+
+	private static class Output {
+
+		private final Column<?> column;
+		private final Aggregate aggregate;
+
+		public Output(final Column<?> column, final Aggregate aggregate) {
+			this.column = column;
+			this.aggregate = aggregate;
+		}
+	}
+
+	/**
+	 * Count, sum, mean, sum of squared deviations, minimum and maximum of the
+	 * values in each group. Means and deviations are updated incrementally
+	 * (Welford), and ranges are combined pairwise (Chan et al.), which keeps
+	 * the variance accurate for large counts.
+	 */
+	private static class Moments {
+
+		private final long[] count;
+		private final double[] sum, mean, m2, min, max;
+
+		public Moments(final int groupCount) {
+			count = new long[groupCount];
+			sum = new double[groupCount];
+			mean = new double[groupCount];
+			m2 = new double[groupCount];
+			min = new double[groupCount];
+			max = new double[groupCount];
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		}
+
+		public void add(final int g, final double v) {
+			if (Double.isNaN(v)) return;
+			final long n = ++count[g];
+			sum[g] += v;
+			final double delta = v - mean[g];
+			mean[g] += delta / n;
+			m2[g] += delta * (v - mean[g]);
+			if (v < min[g]) min[g] = v;
+			if (v > max[g]) max[g] = v;
+		}
+
+		public void merge(final Moments other) {
+			for (int g = 0; g < count.length; g++) {
+				final long nb = other.count[g];
+				if (nb == 0) continue;
+				final long na = count[g];
+				final long n = na + nb;
+				final double delta = other.mean[g] - mean[g];
+				mean[g] += delta * nb / n;
+				m2[g] += other.m2[g] + delta * delta * na * nb / n;
+				count[g] = n;
+				sum[g] += other.sum[g];
+				min[g] = Math.min(min[g], other.min[g]);
+				max[g] = Math.max(max[g], other.max[g]);
+			}
+		}
+
+		public double get(final int g, final Aggregate aggregate) {
+			final long n = count[g];
+			if (aggregate == Aggregate.COUNT) return n;
+			if (aggregate == Aggregate.SUM) return sum[g];
+			if (n == 0) return Double.NaN;
+			if (aggregate == Aggregate.MEAN) return mean[g];
+			if (aggregate == Aggregate.STD) {
+				return n > 1 ? Math.sqrt(m2[g] / (n - 1)) : Double.NaN;
+			}
+			if (aggregate == Aggregate.MIN) return min[g];
+			return max[g];
+		}
+	}
+
+}
@@ -0,0 +1,676 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * Streaming reader for tables stored as delimited text, such as CSV and TSV
+ * files.
+ * <p>
+ * The input is read once, in blocks which end at line boundaries. Each block
+ * is parsed straight from its bytes into growing primitive columns, in
+ * parallel when a {@link ThreadService} is given, and the blocks are then
+ * appended in order. Only a bounded number of blocks is in flight at a time,
+ * so streams of any length can be read without marking or buffering them.
+ * </p>
+ * <p>
+ * The type of each column is inferred from its cells: columns whose non-empty
+ * cells are all numbers become {@link DoubleColumn}s, columns with any other
+ * text become {@link String} columns, and columns with no values at all become
+ * {@link GenericColumn}s of nulls. If no cell of the first row holds a number,
+ * that row is taken as the column headers.
+ * </p>
+ */
+public class TextTableReader {
+
+	/** Ways of separating the fields of a line. */
+	public enum Dialect {
+
+		/**
+		 * Comma-separated values; fields may be enclosed in double quotes, with
+		 * {@code ""} denoting a literal quote.
+		 */
+		CSV,
+
+		/** Tab-separated values. */
+		TSV,
+
+		/**
+		 * Fields separated by runs of whitespace, commas and the punctuation
+		 * {@code !"#$%&'()*}, as in ImageJ 1.x's text tables.
+		 */
+		LEGACY
+	}
+
+	/** Approximate number of bytes parsed by each task. */
+	public static final int BLOCK_SIZE = 1 << 22;
+
+	/** Number of blocks parsed ahead of the merge, per thread. */
+	private static final int BLOCKS_PER_THREAD = 2;
+
+	/** Bit pattern of the NaN marking an empty cell in a column's values. */
+	private static final long EMPTY_BITS = 0x7ff8000000000001L;
+
+	private static final double EMPTY = Double.longBitsToDouble(EMPTY_BITS);
+
+	/** Exactly representable powers of ten. */
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private final Dialect dialect;
+	private final ThreadService threadService;
+
+	/** Creates a single-threaded CSV reader. */
+	public TextTableReader() {
+		this(Dialect.CSV, null);
+	}
+
+	/**
+	 * @param dialect How the fields of each line are separated.
+	 * @param threadService Service used to parse in parallel, or null to parse
+	 *          on the calling thread.
+	 */
+	public TextTableReader(final Dialect dialect,
+		final ThreadService threadService)
+	{
+		this.dialect = dialect;
+		this.threadService = threadService;
+	}
+
+	// -- TextTableReader methods --
+
+	public Dialect getDialect() {
+		return dialect;
+	}
+
+	/** Reads a table from the given file. */
+	public GenericTable read(final File file) throws IOException {
+		try (final InputStream in = new FileInputStream(file)) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * Reads a table from the given stream, up to its end. The stream is not
+	 * closed.
+	 */
+	public GenericTable read(final InputStream in) throws IOException {
+		return parse(in, false).toTable();
+	}
+
+	/** Reads a table of {@code double} values from the given file. */
+	public ResultsTable readResults(final File file) throws IOException {
+		try (final InputStream in = new FileInputStream(file)) {
+			return readResults(in);
+		}
+	}
+
+	/**
+	 * Reads a table of {@code double} values from the given stream, up to its
+	 * end. The stream is not closed.
+	 * <p>
+	 * Cells which do not hold numbers are read as {@link Double#NaN}, and text
+	 * in the first row becomes the header of its column even when the row
+	 * also has numbers. With the {@link Dialect#LEGACY} dialect, all lines must
+	 * have the same number of fields; empty lines are ignored.
+	 * </p>
+	 *
+	 * @return The table, or null if the stream has no fields at all.
+	 * @throws IOException if a line has the wrong number of fields, or the
+	 *           stream cannot be read.
+	 */
+	public ResultsTable readResults(final InputStream in) throws IOException {
+		return parse(in, dialect == Dialect.LEGACY).toResults();
+	}
+
+	// -- Helper methods --
+
+	private Merger parse(final InputStream in, final boolean strict)
+		throws IOException
+	{
+		final Merger merger = new Merger(strict);
+		final int threads = threadService == null ? 1 : Runtime.getRuntime()
+			.availableProcessors();
+		final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+		try {
+			byte[] carry = new byte[0];
+			while (true) {
+				final byte[] block = new byte[Math.max(BLOCK_SIZE, 2 *
+					carry.length)];
+				System.arraycopy(carry, 0, block, 0, carry.length);
+				final int length = fill(in, block, carry.length);
+				final boolean done = length < block.length;
+				// NB: Each task gets whole lines; the tail is carried over.
+				final int end = done ? length : lastLineEnd(block, length) + 1;
+				if (end > 0 || done) {
+					final Parser task = new Parser(block, 0, end);
+					if (threads == 1) merger.merge(task.call());
+					else {
+						while (pending.size() >= threads * BLOCKS_PER_THREAD) {
+							merger.merge(pending.remove().get());
+						}
+						pending.add(threadService.run(task));
+					}
+				}
+				if (done) break;
+				// NB: The block may still be parsing, so the tail is copied out.
+				carry = Arrays.copyOfRange(block, end, length);
+			}
+			while (!pending.isEmpty()) {
+				merger.merge(pending.remove().get());
+			}
+		}
+		catch (final InterruptedException | ExecutionException exc) {
+			throw new RuntimeException(exc);
+		}
+		finally {
+			for (final Future<Chunk> future : pending) {
+				future.cancel(true);
+			}
+		}
+		return merger;
+	}
+
+	/** Reads until the buffer is full or the stream ends. */
+	private static int fill(final InputStream in, final byte[] buf,
+		final int offset) throws IOException
+	{
+		int length = offset;
+		while (length < buf.length) {
+			final int n = in.read(buf, length, buf.length - length);
+			if (n < 0) break;
+			length += n;
+		}
+		return length;
+	}
+
+	/** Gets the index of the last line terminator, or -1 if there is none. */
+	private int lastLineEnd(final byte[] buf, final int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			if (isLineEnd(buf[i])) return i;
+		}
+		return -1;
+	}
+
+	private boolean isLineEnd(final byte b) {
+		return b == '\n' || b == '\r' && dialect == Dialect.LEGACY;
+	}
+
+	private boolean isSeparator(final byte b) {
+		switch (dialect) {
+			case CSV:
+				return b == ',';
+			case TSV:
+				return b == '\t';
+			default:
+				// NB: Matches the whitespace characters of IJ1's TextReader.
+				final int c = b & 0xff;
+				return c <= 42 || c == 44 || c >= 127;
+		}
+	}
+
+	private boolean isBlank(final byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	private static boolean isNumberStart(final byte b) {
+		return b >= '0' && b <= '9' || b == '-' || b == '+' || b == '.' ||
+			b == 'N' || b == 'I';
+	}
+
+	private static String format(final double value) {
+		if (value == (long) value) return Long.toString((long) value);
+		return Double.toString(value);
+	}
+
+	// -- Helper classes --
+
+	/** Values of one column, as numbers, text or empty cells. */
+	private static class ColumnBuilder {
+
+		private double[] values;
+
+		/** Text of each cell which is not a number; null until needed. */
+		private String[] texts;
+
+		private int size;
+		private int numbers;
+		private int strings;
+
+		public ColumnBuilder(final int capacity) {
+			values = new double[Math.max(16, capacity)];
+		}
+
+		public void addNumber(final double value) {
+			ensureCapacity(size + 1);
+			values[size++] = value;
+			numbers++;
+		}
+
+		public void addText(final String text) {
+			ensureCapacity(size + 1);
+			if (texts == null) texts = new String[values.length];
+			texts[size] = text;
+			values[size++] = Double.NaN;
+			strings++;
+		}
+
+		/** Adds empty cells until the column has the given size. */
+		public void pad(final int newSize) {
+			if (newSize <= size) return;
+			ensureCapacity(newSize);
+			Arrays.fill(values, size, newSize, EMPTY);
+			size = newSize;
+		}
+
+		public boolean isNumber(final int index) {
+			return !isText(index) && Double.doubleToRawLongBits(
+				values[index]) != EMPTY_BITS;
+		}
+
+		public boolean isText(final int index) {
+			return texts != null && texts[index] != null;
+		}
+
+		public String text(final int index) {
+			return texts == null ? null : texts[index];
+		}
+
+		/** Appends the cells of another column, starting at the given index. */
+		public void append(final ColumnBuilder other, final int from) {
+			final int count = other.size - from;
+			if (count <= 0) return;
+			ensureCapacity(size + count);
+			System.arraycopy(other.values, from, values, size, count);
+			if (other.texts != null) {
+				if (texts == null) texts = new String[values.length];
+				System.arraycopy(other.texts, from, texts, size, count);
+			}
+			size += count;
+			numbers += other.numbers;
+			strings += other.strings;
+			for (int i = 0; i < from; i++) {
+				if (other.isText(i)) strings--;
+				else if (other.isNumber(i)) numbers--;
+			}
+		}
+
+		public Column<?> toColumn(final String header) {
+			if (strings > 0) {
+				final String[] array = new String[size];
+				for (int i = 0; i < size; i++) {
+					if (isText(i)) array[i] = texts[i];
+					else if (isNumber(i)) array[i] = format(values[i]);
+				}
+				final DefaultColumn<String> column = new DefaultColumn<>(String.class,
+					header);
+				column.setArray(array);
+				column.setSize(size);
+				return column;
+			}
+			if (numbers > 0) return toDoubleColumn(header);
+			final GenericColumn column = new GenericColumn(header);
+			column.setSize(size);
+			return column;
+		}
+
+		public DoubleColumn toDoubleColumn(final String header) {
+			final DoubleColumn column = new DoubleColumn(header);
+			column.setArray(values);
+			column.setSize(size);
+			return column;
+		}
+
+		private void ensureCapacity(final int capacity) {
+			if (capacity <= values.length) return;
+			final int newLength = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(
+				capacity, values.length + (values.length >> 1)));
+			values = Arrays.copyOf(values, newLength);
+			if (texts != null) texts = Arrays.copyOf(texts, newLength);
+		}
+	}
+
+	/** The rows parsed from one block of the input. */
+	private static class Chunk {
+
+		private final ArrayList<ColumnBuilder> columns = new ArrayList<>();
+
+		/** Number of (non-empty) lines. */
+		private int rows;
+
+		/** Number of fields on the first line. */
+		private int firstWidth;
+
+		/** Index of the first line whose width differs, or -1 if none. */
+		private int mismatchRow = -1;
+
+		public ColumnBuilder column(final int index) {
+			while (columns.size() <= index) {
+				final ColumnBuilder column = new ColumnBuilder(rows + 1);
+				column.pad(rows);
+				columns.add(column);
+			}
+			return columns.get(index);
+		}
+
+		public void endRow(final int width) {
+			rows++;
+			for (final ColumnBuilder column : columns) {
+				column.pad(rows);
+			}
+			if (rows == 1) firstWidth = width;
+			else if (width != firstWidth && mismatchRow < 0) mismatchRow = rows - 1;
+		}
+	}
+
+	/** Parses one block of whole lines. */
+	private class Parser implements Callable<Chunk> {
+
+		private final byte[] buf;
+		private final int from, to;
+		private final Chunk chunk = new Chunk();
+
+		public Parser(final byte[] buf, final int from, final int to) {
+			this.buf = buf;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public Chunk call() {
+			int start = from;
+			while (start < to) {
+				int end = start;
+				while (end < to && !isLineEnd(buf[end])) end++;
+				parseLine(start, end);
+				start = end + 1;
+			}
+			return chunk;
+		}
+
+		private void parseLine(final int start, final int end) {
+			int width = 0;
+			if (dialect == Dialect.LEGACY) {
+				// runs of separators delimit fields
+				int p = start;
+				while (true) {
+					while (p < end && isSeparator(buf[p])) p++;
+					if (p >= end) break;
+					final int s = p;
+					while (p < end && !isSeparator(buf[p])) p++;
+					addField(width++, s, p);
+				}
+			}
+			else {
+				int last = end;
+				while (last > start && isBlank(buf[last - 1])) last--;
+				if (last == start) return; // ignore blank lines
+				int p = start;
+				while (true) {
+					while (p < last && isBlank(buf[p]) && !isSeparator(buf[p])) p++;
+					if (dialect == Dialect.CSV && p < last && buf[p] == '"') {
+						p = addQuotedField(width++, p + 1, last);
+						while (p < last && !isSeparator(buf[p])) p++;
+					}
+					else {
+						final int s = p;
+						while (p < last && !isSeparator(buf[p])) p++;
+						int e = p;
+						while (e > s && isBlank(buf[e - 1])) e--;
+						addField(width++, s, e);
+					}
+					if (p >= last) break;
+					p++; // skip the separator
+				}
+			}
+			if (width > 0) chunk.endRow(width);
+		}
+
+		/** Adds the field starting after an opening quote; returns its end. */
+		private int addQuotedField(final int column, final int start,
+			final int end)
+		{
+			boolean escaped = false;
+			int p = start;
+			while (p < end) {
+				if (buf[p] == '"') {
+					if (p + 1 < end && buf[p + 1] == '"') {
+						escaped = true;
+						p += 2;
+						continue;
+					}
+					break;
+				}
+				p++;
+			}
+			if (escaped) {
+				final String text = new String(buf, start, p - start,
+					StandardCharsets.UTF_8).replace("\"\"", "\"");
+				chunk.column(column).addText(text);
+			}
+			else addField(column, start, p);
+			return p < end ? p + 1 : p;
+		}
+
+		private void addField(final int column, final int start, final int end) {
+			final ColumnBuilder builder = chunk.column(column);
+			if (start == end) {
+				builder.pad(builder.size + 1);
+				return;
+			}
+			final double value = parseNumber(start, end);
+			if (Double.doubleToRawLongBits(value) == EMPTY_BITS) {
+				builder.addText(new String(buf, start, end - start,
+					StandardCharsets.UTF_8));
+			}
+			else builder.addNumber(value);
+		}
+
+		/**
+		 * Parses a number directly from the bytes of a field. Plain decimals
+		 * with up to 15 significant digits and small exponents are computed
+		 * exactly here; anything else goes through
+		 * {@link Double#parseDouble(String)}.
+		 *
+		 * @return The number, or {@link #EMPTY} if the field is not a number.
+		 */
+		private double parseNumber(final int start, final int end) {
+			if (!isNumberStart(buf[start])) return EMPTY;
+			int p = start;
+			final boolean negative = buf[p] == '-';
+			if (negative || buf[p] == '+') p++;
+			long mantissa = 0;
+			int digits = 0, exponent = 0;
+			boolean any = false;
+			while (p < end && buf[p] >= '0' && buf[p] <= '9') {
+				any = true;
+				if (digits < 18) {
+					mantissa = 10 * mantissa + buf[p] - '0';
+					if (mantissa != 0) digits++;
+				}
+				else exponent++;
+				p++;
+			}
+			if (p < end && buf[p] == '.') {
+				p++;
+				while (p < end && buf[p] >= '0' && buf[p] <= '9') {
+					any = true;
+					if (digits < 18) {
+						mantissa = 10 * mantissa + buf[p] - '0';
+						if (mantissa != 0) digits++;
+						exponent--;
+					}
+					p++;
+				}
+			}
+			if (any && p < end && (buf[p] == 'e' || buf[p] == 'E')) {
+				p++;
+				final boolean negativeExponent = p < end && buf[p] == '-';
+				if (p < end && (buf[p] == '-' || buf[p] == '+')) p++;
+				int e = 0;
+				boolean anyExponent = false;
+				while (p < end && buf[p] >= '0' && buf[p] <= '9' && e < 10000) {
+					anyExponent = true;
+					e = 10 * e + buf[p++] - '0';
+				}
+				if (!anyExponent) any = false;
+				exponent += negativeExponent ? -e : e;
+			}
+			if (any && p == end && digits <= 15 && exponent >= -22 &&
+				exponent <= 22)
+			{
+				final double value = exponent < 0 ? mantissa /
+					POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+				return negative ? -value : value;
+			}
+			try {
+				return Double.parseDouble(new String(buf, start, end - start,
+					StandardCharsets.ISO_8859_1));
+			}
+			catch (final NumberFormatException exc) {
+				return EMPTY;
+			}
+		}
+	}
+
+	/** Appends parsed chunks, in order, into the columns of the table. */
+	private static class Merger {
+
+		private final boolean strict;
+		private final ArrayList<ColumnBuilder> columns = new ArrayList<>();
+
+		/** Whether the first line has been seen. */
+		private boolean started;
+
+		/** Number of fields on the first line. */
+		private int width;
+
+		/** Whether the first line holds the column headers. */
+		private boolean headerRow;
+
+		/** Text of each cell in the first line. */
+		private String[] firstRowTexts = new String[0];
+
+		/** Number of lines merged so far. */
+		private int lines;
+
+		/** Number of table rows merged so far. */
+		private int rowCount;
+
+		public Merger(final boolean strict) {
+			this.strict = strict;
+		}
+
+		public void merge(final Chunk chunk) throws IOException {
+			if (chunk.rows == 0) return;
+			if (!started) {
+				started = true;
+				width = chunk.firstWidth;
+				firstRowTexts = new String[chunk.columns.size()];
+				headerRow = true;
+				for (int c = 0; c < chunk.columns.size(); c++) {
+					final ColumnBuilder column = chunk.columns.get(c);
+					firstRowTexts[c] = column.text(0);
+					if (column.isNumber(0) && !Double.isNaN(column.values[0])) {
+						headerRow = false;
+					}
+				}
+			}
+			if (strict) {
+				final int mismatch = chunk.firstWidth != width ? 0 : chunk.mismatchRow;
+				if (mismatch >= 0) {
+					throw new IOException("Line " + (lines + mismatch + 1) +
+						" is not the same length as the first line.");
+				}
+			}
+			final int skip = lines == 0 && headerRow ? 1 : 0;
+			final int newRowCount = rowCount + chunk.rows - skip;
+			for (int c = 0; c < Math.max(columns.size(), chunk.columns
+				.size()); c++)
+			{
+				if (c == columns.size()) {
+					final ColumnBuilder column = new ColumnBuilder(newRowCount);
+					column.pad(rowCount);
+					columns.add(column);
+				}
+				final ColumnBuilder column = columns.get(c);
+				if (c < chunk.columns.size()) {
+					column.append(chunk.columns.get(c), skip);
+				}
+				column.pad(newRowCount);
+			}
+			lines += chunk.rows;
+			rowCount = newRowCount;
+		}
+
+		public GenericTable toTable() {
+			final DefaultGenericTable table = new DefaultGenericTable(0, rowCount);
+			for (int c = 0; c < columns.size(); c++) {
+				table.add(columns.get(c).toColumn(headerRow ? header(c) : null));
+			}
+			return table;
+		}
+
+		public ResultsTable toResults() {
+			if (lines == 0) return null;
+			final DefaultResultsTable table = new DefaultResultsTable(0, rowCount);
+			for (int c = 0; c < columns.size(); c++) {
+				table.add(columns.get(c).toDoubleColumn(header(c)));
+			}
+			return table;
+		}
+
+		private String header(final int c) {
+			return c < firstRowTexts.length ? firstRowTexts[c] : null;
+		}
+	}
+
+}
@@ -0,0 +1,347 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imagej.util.StorageBlocks.Block;
+import net.imglib2.Interval;
+import net.imglib2.IterableInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * Copies sample values between images at the level of their primitive storage
+ * arrays.
+ * <p>
+ * Both images must be backed by storage understood by {@link StorageBlocks}
+ * and have the same dimensions, but their storage layouts may differ (e.g.,
+ * planar to cell). Runs of equal type are copied with
+ * {@link System#arraycopy}; otherwise each value is converted exactly as
+ * {@link RealType#setReal(double)} would. The work is split into plane
+ * segments which are copied in parallel.
+ * </p>
+ */
+public final class BulkCopier {
+
+	/** Smallest number of elements worth copying in a separate task. */
+	private static final int MIN_SEGMENT_LENGTH = 1 << 18;
+
+	/** Number of segments per thread, to balance the load. */
+	private static final int SEGMENTS_PER_THREAD = 4;
+
+	/** Number of values converted at a time. */
+	private static final int BUFFER_LENGTH = 4096;
+
+	private BulkCopier() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Gets whether the given image's storage can be copied by this class.
+	 * 
+	 * @param image The image to check; {@link net.imagej.Dataset} and
+	 *          {@link net.imagej.ImgPlus} wrappers are
+	 *          {@link StorageBlocks#unwrap unwrapped}.
+	 */
+	public static boolean isSupported(final Object image) {
+		final Object img = StorageBlocks.unwrap(image);
+		if (!(img instanceof IterableInterval)) return false;
+		if (((IterableInterval<?>) img).size() == 0) return false;
+		return StorageBlocks.planeBlocks(img, 0) != null;
+	}
+
+	/**
+	 * Copies all sample values of one image into another.
+	 * 
+	 * @param input The image to copy from.
+	 * @param output The image to copy into; must have the same dimensions as
+	 *          the input.
+	 * @param threadService Service used to copy in parallel, or null to copy on
+	 *          the calling thread.
+	 * @return true if the values were copied, or false if either image is not
+	 *         {@link #isSupported supported}, in which case nothing is copied.
+	 */
+	public static boolean copy(final Interval input, final Interval output,
+		final ThreadService threadService)
+	{
+		if (!Intervals.equalDimensions(input, output)) return false;
+		if (!isSupported(input) || !isSupported(output)) return false;
+		final Object in = StorageBlocks.unwrap(input);
+		final Object out = StorageBlocks.unwrap(output);
+
+		long planeSize = input.dimension(0);
+		if (input.numDimensions() > 1) planeSize *= input.dimension(1);
+		final long planeCount = Intervals.numElements(input) / planeSize;
+		final int threads = threadService == null ? 1 : Runtime.getRuntime()
+			.availableProcessors();
+		final long segmentLength = Math.min(planeSize, Math.max(
+			MIN_SEGMENT_LENGTH, Intervals.numElements(input) / (threads *
+				SEGMENTS_PER_THREAD)));
+		final long segmentsPerPlane = (planeSize + segmentLength - 1) /
+			segmentLength;
+		final long segmentCount = planeCount * segmentsPerPlane;
+
+		final SegmentCopier copier = new SegmentCopier(in, out, planeSize,
+			segmentLength, segmentsPerPlane, segmentCount, new AtomicLong());
+		final int taskCount = (int) Math.max(1, Math.min(threads, segmentCount));
+		if (taskCount == 1) {
+			copier.run();
+			return true;
+		}
+		final List<Future<?>> futures = new ArrayList<>(taskCount);
+		for (int t = 0; t < taskCount; t++) {
+			futures.add(threadService.run(copier));
+		}
+		try {
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		}
+		catch (final InterruptedException | ExecutionException exc) {
+			throw new RuntimeException(exc);
+		}
+		return true;
+	}
+
+	/**
+	 * Copies a run of elements between two sequences of storage blocks, such
+	 * as those of two {@link StorageBlocks#planeBlocks planes}.
+	 * 
+	 * @param in The blocks to copy from, in order.
+	 * @param inType The type of the input elements.
+	 * @param inFrom Position of the first element to copy within the input
+	 *          sequence.
+	 * @param out The blocks to copy into, in order.
+	 * @param outType The type of the output elements.
+	 * @param outFrom Position of the first element to write within the output
+	 *          sequence.
+	 * @param length Number of elements to copy.
+	 */
+	public static void copy(final List<Block> in, final RealType<?> inType,
+		final long inFrom, final List<Block> out, final RealType<?> outType,
+		final long outFrom, final long length)
+	{
+		final double[] buffer = inType.getClass() == outType.getClass() ? null
+			: new double[(int) Math.min(BUFFER_LENGTH, length)];
+		copyRange(in, inType, inFrom, out, outType, outFrom, length, buffer);
+	}
+
+	// -- Helper methods --
+
+	/** Copies a run of elements between two sequences of blocks. */
+	private static void copyRange(final List<Block> in, final RealType<?> inType,
+		final long inFrom, final List<Block> out, final RealType<?> outType,
+		final long outFrom, final long length, final double[] buffer)
+	{
+		if (length == 0) return;
+		final boolean sameType = inType.getClass() == outType.getClass();
+		final boolean unsigned = StorageBlocks.isUnsigned(inType);
+		int i = 0, o = 0;
+		long inStart = 0, outStart = 0;
+		while (inStart + in.get(i).getLength() <= inFrom) {
+			inStart += in.get(i++).getLength();
+		}
+		while (outStart + out.get(o).getLength() <= outFrom) {
+			outStart += out.get(o++).getLength();
+		}
+		long done = 0;
+		while (done < length) {
+			final Block a = in.get(i), b = out.get(o);
+			final int aPos = (int) (inFrom + done - inStart);
+			final int bPos = (int) (outFrom + done - outStart);
+			final int n = (int) Math.min(length - done, Math.min(a.getLength() -
+				aPos, b.getLength() - bPos));
+			if (sameType) {
+				System.arraycopy(a.getArray(), a.getOffset() + aPos, b.getArray(), b
+					.getOffset() + bPos, n);
+			}
+			else {
+				for (int k = 0; k < n; k += buffer.length) {
+					final int count = Math.min(buffer.length, n - k);
+					read(a.getArray(), a.getOffset() + aPos + k, unsigned, buffer, count);
+					write(buffer, count, b.getArray(), b.getOffset() + bPos + k,
+						outType);
+				}
+			}
+			done += n;
+			if (aPos + n == a.getLength()) inStart += in.get(i++).getLength();
+			if (bPos + n == b.getLength()) outStart += out.get(o++).getLength();
+		}
+	}
+
+	/** Reads values from primitive storage, as {@link RealType#getRealDouble}. */
+	private static void read(final Object array, final int offset,
+		final boolean unsigned, final double[] values, final int count)
+	{
+		if (array instanceof byte[]) {
+			final byte[] a = (byte[]) array;
+			if (unsigned) for (int i = 0; i < count; i++)
+				values[i] = a[offset + i] & 0xff;
+			else for (int i = 0; i < count; i++)
+				values[i] = a[offset + i];
+		}
+		else if (array instanceof short[]) {
+			final short[] a = (short[]) array;
+			if (unsigned) for (int i = 0; i < count; i++)
+				values[i] = a[offset + i] & 0xffff;
+			else for (int i = 0; i < count; i++)
+				values[i] = a[offset + i];
+		}
+		else if (array instanceof int[]) {
+			final int[] a = (int[]) array;
+			if (unsigned) for (int i = 0; i < count; i++)
+				values[i] = a[offset + i] & 0xffffffffL;
+			else for (int i = 0; i < count; i++)
+				values[i] = a[offset + i];
+		}
+		else if (array instanceof long[]) {
+			final long[] a = (long[]) array;
+			for (int i = 0; i < count; i++)
+				values[i] = a[offset + i];
+		}
+		else if (array instanceof float[]) {
+			final float[] a = (float[]) array;
+			for (int i = 0; i < count; i++)
+				values[i] = a[offset + i];
+		}
+		else {
+			final double[] a = (double[]) array;
+			System.arraycopy(a, offset, values, 0, count);
+		}
+	}
+
+	/** Writes values to primitive storage, as {@link RealType#setReal}. */
+	private static void write(final double[] values, final int count,
+		final Object array, final int offset, final RealType<?> type)
+	{
+		if (type instanceof FloatType) {
+			final float[] a = (float[]) array;
+			for (int i = 0; i < count; i++)
+				a[offset + i] = (float) values[i];
+		}
+		else if (type instanceof DoubleType) {
+			System.arraycopy(values, 0, array, offset, count);
+		}
+		else if (type instanceof ByteType || type instanceof UnsignedByteType) {
+			final byte[] a = (byte[]) array;
+			for (int i = 0; i < count; i++)
+				a[offset + i] = (byte) Util.round(values[i]);
+		}
+		else if (type instanceof ShortType || type instanceof UnsignedShortType) {
+			final short[] a = (short[]) array;
+			for (int i = 0; i < count; i++)
+				a[offset + i] = (short) Util.round(values[i]);
+		}
+		else if (type instanceof IntType || type instanceof UnsignedIntType) {
+			final int[] a = (int[]) array;
+			for (int i = 0; i < count; i++)
+				a[offset + i] = (int) Util.round(values[i]);
+		}
+		else if (type instanceof LongType) {
+			final long[] a = (long[]) array;
+			for (int i = 0; i < count; i++)
+				a[offset + i] = Util.round(values[i]);
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported type: " + type
+				.getClass().getName());
+		}
+	}
+
+	// -- Helper classes --
+
+	/** Copies plane segments until there are none left. */
+	private static class SegmentCopier implements Runnable {
+
+		private final Object in, out;
+		private final long planeSize, segmentLength, segmentsPerPlane,
+				segmentCount;
+		private final AtomicLong nextSegment;
+
+		public SegmentCopier(final Object in, final Object out,
+			final long planeSize, final long segmentLength,
+			final long segmentsPerPlane, final long segmentCount,
+			final AtomicLong nextSegment)
+		{
+			this.in = in;
+			this.out = out;
+			this.planeSize = planeSize;
+			this.segmentLength = segmentLength;
+			this.segmentsPerPlane = segmentsPerPlane;
+			this.segmentCount = segmentCount;
+			this.nextSegment = nextSegment;
+		}
+
+		@Override
+		public void run() {
+			final RealType<?> inType = firstElement(in);
+			final RealType<?> outType = firstElement(out);
+			final double[] buffer = new double[BUFFER_LENGTH];
+			long plane = -1;
+			List<Block> inBlocks = null, outBlocks = null;
+			long s;
+			while ((s = nextSegment.getAndIncrement()) < segmentCount) {
+				if (s / segmentsPerPlane != plane) {
+					plane = s / segmentsPerPlane;
+					inBlocks = StorageBlocks.planeBlocks(in, plane);
+					outBlocks = StorageBlocks.planeBlocks(out, plane);
+				}
+				final long from = (s % segmentsPerPlane) * segmentLength;
+				final long to = Math.min(planeSize, from + segmentLength);
+				copyRange(inBlocks, inType, from, outBlocks, outType, from, to - from,
+					buffer);
+			}
+		}
+
+		private static RealType<?> firstElement(final Object img) {
+			return (RealType<?>) ((IterableInterval<?>) img).firstElement();
+		}
+	}
+
+}
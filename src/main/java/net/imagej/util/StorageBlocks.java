@@ -0,0 +1,340 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.Dataset;
+import net.imagej.ImgPlus;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Utility methods for working directly with the primitive arrays backing
+ * {@link ArrayImg}, {@link PlanarImg} and {@link CellImg} storage.
+ * <p>
+ * Algorithms which can operate on raw {@code byte[]}, {@code short[]},
+ * {@code float[]} (etc.) arrays avoid the per-pixel overhead of cursors and
+ * type objects. The {@link Block}s returned by {@link #blocks} are independent
+ * of one another, and hence suitable for processing in parallel.
+ * </p>
+ */
+public final class StorageBlocks {
+
+	private StorageBlocks() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Strips away any {@link Dataset} and {@link ImgPlus} wrappers, returning
+	 * the underlying image.
+	 */
+	public static Object unwrap(final Object image) {
+		Object img = image;
+		while (true) {
+			if (img instanceof Dataset) img = ((Dataset) img).getImgPlus();
+			else if (img instanceof ImgPlus) img = ((ImgPlus<?>) img).getImg();
+			else return img;
+		}
+	}
+
+	/**
+	 * Gets whether pixels of the given type are stored one per element of a
+	 * primitive array, such that each array element can be interpreted without
+	 * the help of a type object. Only the exact classes of the core ImgLib2 real
+	 * types qualify; subclasses are not trusted to share their storage layout.
+	 */
+	public static boolean isSupportedType(final Object type) {
+		if (type == null) return false;
+		final Class<?> c = type.getClass();
+		return c == ByteType.class || c == UnsignedByteType.class ||
+			c == ShortType.class || c == UnsignedShortType.class ||
+			c == IntType.class || c == UnsignedIntType.class ||
+			c == LongType.class || c == FloatType.class || c == DoubleType.class;
+	}
+
+	/**
+	 * Gets whether the given type interprets its primitive storage as unsigned.
+	 */
+	public static boolean isUnsigned(final Object type) {
+		return type instanceof UnsignedByteType ||
+			type instanceof UnsignedShortType || type instanceof UnsignedIntType;
+	}
+
+	/**
+	 * Gets the primitive storage of the given image as a list of blocks.
+	 * <p>
+	 * An {@link ArrayImg} yields a single block, a {@link PlanarImg} one block
+	 * per plane (in plane order) and a {@link CellImg} one block per cell (in
+	 * cell grid order). Blocks longer than {@code maxLength} are split into
+	 * consecutive pieces of at most {@code maxLength} elements, each of which
+	 * retains the {@link Block#getIndex() index} of its storage array.
+	 * </p>
+	 * 
+	 * @param image The image whose storage is desired; {@link Dataset} and
+	 *          {@link ImgPlus} wrappers are {@link #unwrap unwrapped}.
+	 * @param maxLength Maximum number of elements per block.
+	 * @return The list of blocks, or null if the image's storage or pixel type
+	 *         is not supported (see {@link #isSupportedType(Object)}).
+	 */
+	public static List<Block> blocks(final Object image, final int maxLength) {
+		if (maxLength <= 0) {
+			throw new IllegalArgumentException("Invalid block length: " + maxLength);
+		}
+		final Object img = unwrap(image);
+		final List<Block> blocks = new ArrayList<>();
+		if (img instanceof ArrayImg) {
+			final ArrayImg<?, ?> arrayImg = (ArrayImg<?, ?>) img;
+			if (!isSupportedType(arrayImg.firstElement())) return null;
+			final Object array = storageArray(arrayImg.update(null));
+			if (array == null || arrayImg.size() > Integer.MAX_VALUE) return null;
+			split(blocks, 0, array, (int) arrayImg.size(), maxLength);
+		}
+		else if (img instanceof PlanarImg) {
+			final PlanarImg<?, ?> planarImg = (PlanarImg<?, ?>) img;
+			if (!isSupportedType(planarImg.firstElement())) return null;
+			final int planeSize = (int) (planarImg.size() / planarImg.numSlices());
+			for (int p = 0; p < planarImg.numSlices(); p++) {
+				final Object array = storageArray(planarImg.getPlane(p));
+				if (array == null) return null;
+				split(blocks, p, array, planeSize, maxLength);
+			}
+		}
+		else if (img instanceof CellImg) {
+			final CellImg<?, ?> cellImg = (CellImg<?, ?>) img;
+			if (!isSupportedType(cellImg.firstElement())) return null;
+			int index = 0;
+			for (final Cell<?> cell : cellImg.getCells()) {
+				final Object array = storageArray(cell.getData());
+				if (array == null) return null;
+				split(blocks, index++, array, (int) cell.size(), maxLength);
+			}
+		}
+		else return null;
+		return blocks;
+	}
+
+	/**
+	 * Gets the primitive storage of one XY plane of the given image, in flat
+	 * iteration order. Planes are numbered as by {@link net.imagej.Position}
+	 * over the non-XY dimensions.
+	 * <p>
+	 * A plane of an {@link ArrayImg} or {@link PlanarImg} is a single block. A
+	 * plane of a {@link CellImg} consists of one block per cell if the cells
+	 * span the full width of the image, and of one block per row segment of
+	 * each cell otherwise. Blocks are indexed by their position within the
+	 * plane.
+	 * </p>
+	 * 
+	 * @param image The image whose plane is desired; {@link Dataset} and
+	 *          {@link ImgPlus} wrappers are {@link #unwrap unwrapped}.
+	 * @param planeIndex The index of the plane.
+	 * @return The plane's blocks, or null if the plane is not backed by
+	 *         supported storage.
+	 */
+	public static List<Block> planeBlocks(final Object image,
+		final long planeIndex)
+	{
+		final Object img = unwrap(image);
+		final List<Block> blocks = new ArrayList<>(1);
+		if (img instanceof ArrayImg) {
+			final ArrayImg<?, ?> arrayImg = (ArrayImg<?, ?>) img;
+			if (!isSupportedType(arrayImg.firstElement())) return null;
+			final Object array = storageArray(arrayImg.update(null));
+			if (array == null) return null;
+			final long planeSize = planeSize(arrayImg);
+			checkPlaneIndex(planeIndex, arrayImg.size() / planeSize);
+			blocks.add(new Block(0, array, (int) (planeIndex * planeSize),
+				(int) planeSize));
+		}
+		else if (img instanceof PlanarImg) {
+			final PlanarImg<?, ?> planarImg = (PlanarImg<?, ?>) img;
+			if (!isSupportedType(planarImg.firstElement())) return null;
+			checkPlaneIndex(planeIndex, planarImg.numSlices());
+			final Object array = storageArray(planarImg.getPlane((int) planeIndex));
+			if (array == null) return null;
+			blocks.add(new Block(0, array, 0, (int) planeSize(planarImg)));
+		}
+		else if (img instanceof CellImg) {
+			final CellImg<?, ?> cellImg = (CellImg<?, ?>) img;
+			if (!isSupportedType(cellImg.firstElement())) return null;
+			return cellPlaneBlocks(cellImg, planeIndex);
+		}
+		else return null;
+		return blocks;
+	}
+
+	// -- Helper methods --
+
+	private static List<Block> cellPlaneBlocks(final CellImg<?, ?> img,
+		final long planeIndex)
+	{
+		final int numDims = img.numDimensions();
+		final long[] pos = new long[numDims];
+		long index = planeIndex;
+		for (int d = 2; d < numDims; d++) {
+			pos[d] = index % img.dimension(d);
+			index /= img.dimension(d);
+		}
+		if (planeIndex < 0 || index > 0) {
+			throw new IndexOutOfBoundsException("Invalid plane index: " +
+				planeIndex);
+		}
+		final CellGrid grid = img.getCellGrid();
+		final long height = numDims > 1 ? img.dimension(1) : 1;
+		final int cellWidth = grid.cellDimension(0);
+		final int cellHeight = numDims > 1 ? grid.cellDimension(1) : 1;
+		final RandomAccess<? extends Cell<?>> cells = img.getCells().randomAccess();
+		final long[] cellPos = new long[numDims];
+		for (int d = 2; d < numDims; d++) {
+			cellPos[d] = pos[d] / grid.cellDimension(d);
+		}
+		final List<Block> blocks = new ArrayList<>();
+		final boolean fullWidth = grid.gridDimension(0) == 1;
+		long y = 0;
+		while (y < height) {
+			if (numDims > 1) {
+				pos[1] = y;
+				cellPos[1] = y / grid.cellDimension(1);
+			}
+			// NB: Rows of a cell spanning the image width are contiguous.
+			final long rows = fullWidth ? Math.min(height - y, cellHeight - y %
+				cellHeight) : 1;
+			for (long x = 0; x < img.dimension(0); x += cellWidth) {
+				pos[0] = x;
+				cellPos[0] = x / cellWidth;
+				cells.setPosition(cellPos);
+				final Cell<?> cell = cells.get();
+				final Object array = storageArray(cell.getData());
+				if (array == null) return null;
+				final int length = cell.dimension(0) * (int) rows;
+				blocks.add(new Block(blocks.size(), array, cell
+					.globalPositionToIndex(pos), length));
+			}
+			y += rows;
+		}
+		return blocks;
+	}
+
+	/** Gets the number of elements in one XY plane of the given interval. */
+	private static long planeSize(final Interval interval) {
+		long size = interval.dimension(0);
+		if (interval.numDimensions() > 1) size *= interval.dimension(1);
+		return size;
+	}
+
+	private static void checkPlaneIndex(final long planeIndex,
+		final long planeCount)
+	{
+		if (planeIndex < 0 || planeIndex >= planeCount) {
+			throw new IndexOutOfBoundsException("Invalid plane index: " +
+				planeIndex);
+		}
+	}
+
+	private static Object storageArray(final Object access) {
+		if (!(access instanceof ArrayDataAccess)) return null;
+		return ((ArrayDataAccess<?>) access).getCurrentStorageArray();
+	}
+
+	private static void split(final List<Block> blocks, final int index,
+		final Object array, final int length, final int maxLength)
+	{
+		for (int offset = 0; offset < length; offset += maxLength) {
+			final int count = Math.min(maxLength, length - offset);
+			blocks.add(new Block(index, array, offset, count));
+		}
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * A contiguous run of elements within one of an image's primitive storage
+	 * arrays.
+	 */
+	public static final class Block {
+
+		private final int index;
+		private final Object array;
+		private final int offset;
+		private final int length;
+
+		public Block(final int index, final Object array, final int offset,
+			final int length)
+		{
+			this.index = index;
+			this.array = array;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * Gets the index of the storage array (i.e., plane or cell number) from
+		 * which this block was taken.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/** Gets the primitive storage array (e.g., a {@code short[]}). */
+		public Object getArray() {
+			return array;
+		}
+
+		/** Gets the array offset of the first element of the block. */
+		public int getOffset() {
+			return offset;
+		}
+
+		/** Gets the number of elements in the block. */
+		public int getLength() {
+			return length;
+		}
+	}
+
+}
@@ -0,0 +1,294 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.overlay.Spans;
+import net.imagej.render.RenderingService;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Tests {@link FloodFiller}.
+ */
+public class FloodFillerTest {
+
+	private static final int W = 37, H = 23, D = 5;
+	private static final double FILL = 9;
+
+	private Context context;
+	private final Random random = new Random(0xf100d);
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, RenderingService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testFill2D() {
+		for (final boolean planar : new boolean[] { true, false }) {
+			for (int iter = 0; iter < 10; iter++) {
+				for (final boolean diagonal : new boolean[] { false, true }) {
+					final double tolerance = iter % 2;
+					final Dataset ds = createDataset(planar);
+					final int[][][][] before = values(ds);
+					final long[] position = new long[4];
+					position[2] = random.nextInt(D);
+					final int u0 = random.nextInt(W), v0 = random.nextInt(H);
+					final FloodFiller filler = new FloodFiller(tool(ds, position));
+					final boolean changed = diagonal ? filler.fill8(u0, v0, position,
+						tolerance) : filler.fill4(u0, v0, position, tolerance);
+					assertTrue(changed);
+					final boolean[][][] expected = expected(before, u0, v0,
+						(int) position[2], -1, diagonal, tolerance);
+					assertFilled(before, values(ds), expected);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFill3D() {
+		for (final boolean planar : new boolean[] { true, false }) {
+			for (int iter = 0; iter < 10; iter++) {
+				for (final boolean diagonal : new boolean[] { false, true }) {
+					final double tolerance = iter % 2;
+					final Dataset ds = createDataset(planar);
+					final int[][][][] before = values(ds);
+					final long[] position = new long[4];
+					position[2] = random.nextInt(D);
+					final int u0 = random.nextInt(W), v0 = random.nextInt(H);
+					final DrawingTool tool = tool(ds, new long[4]);
+					final FloodFiller filler = new FloodFiller(tool);
+					if (diagonal) filler.fill26(u0, v0, position, 2, tolerance);
+					else filler.fill6(u0, v0, position, 2, tolerance);
+					final boolean[][][] expected = expected(before, u0, v0,
+						(int) position[2], 2, diagonal, tolerance);
+					assertFilled(before, values(ds), expected);
+
+					// the drawing position is restored afterwards
+					final long[] after = new long[4];
+					tool.getPosition(after);
+					assertEquals(0, after[2]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSelect() {
+		final Dataset ds = createDataset(true);
+		final int[][][][] before = values(ds);
+		final long[] position = { 0, 0, 3, 0 };
+		final FloodFiller filler = new FloodFiller(tool(ds, position));
+		final Spans spans = filler.select(4, 7, position, true, 0);
+		final boolean[][][] expected = expected(before, 4, 7, 3, -1, true, 0);
+		for (int v = 0; v < H; v++) {
+			for (int u = 0; u < W; u++) {
+				assertEquals(expected[3][v][u], spans.contains(u, v));
+			}
+		}
+		// nothing was drawn
+		assertTrue(Arrays.deepEquals(before, values(ds)));
+	}
+
+	@Test
+	public void testReuse() {
+		// NB: Volume and plane fills need visited masks of different sizes.
+		final Dataset ds = createDataset(true);
+		final long[] position = new long[4];
+		final FloodFiller filler = new FloodFiller(tool(ds, new long[4]));
+		for (int iter = 0; iter < 6; iter++) {
+			position[2] = random.nextInt(D);
+			final int u0 = random.nextInt(W), v0 = random.nextInt(H);
+			final int[][][][] before = values(ds);
+			if (filler.fill6(u0, v0, position, 2, 0)) {
+				assertFilled(before, values(ds), expected(before, u0, v0,
+					(int) position[2], 2, false, 0));
+			}
+			else assertTrue(Arrays.deepEquals(before, values(ds)));
+
+			final int[][][][] after = values(ds);
+			final int u1 = random.nextInt(W), v1 = random.nextInt(H);
+			final Spans spans = filler.select(u1, v1, position, false, 0);
+			final boolean[][][] expected = expected(after, u1, v1,
+				(int) position[2], -1, false, 0);
+			for (int v = 0; v < H; v++) {
+				for (int u = 0; u < W; u++) {
+					assertEquals(expected[(int) position[2]][v][u], spans.contains(u,
+						v));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDegenerate() {
+		final Dataset ds = createDataset(true);
+		final long[] position = new long[4];
+		final DrawingTool tool = tool(ds, position);
+		final int[][][][] before = values(ds);
+		tool.setChannels(new ChannelCollection(Arrays.asList(
+			(double) before[0][0][0][0], (double) before[1][0][0][0])));
+		assertFalse(new FloodFiller(tool).fill4(0, 0, position));
+		assertFalse(new FloodFiller(tool).fill4(-1, 0, position));
+	}
+
+	// -- Helper methods --
+
+	/** Creates an X, Y, Z, Channel dataset of noise with two channels. */
+	private Dataset createDataset(final boolean planar) {
+		final long[] dims = { W, H, D, 2 };
+		final Img<UnsignedByteType> img = planar ? PlanarImgs.unsignedBytes(dims)
+			: new CellImgFactory<UnsignedByteType>(4).create(dims,
+				new UnsignedByteType());
+		final AxisType[] axes = { Axes.X, Axes.Y, Axes.Z, Axes.CHANNEL };
+		final Dataset ds = context.service(DatasetService.class).create(
+			new ImgPlus<>(img, "noise", axes));
+		final RandomAccess<? extends RealType<?>> access = ds.getImgPlus()
+			.randomAccess();
+		for (int z = 0; z < D; z++) {
+			for (int y = 0; y < H; y++) {
+				for (int x = 0; x < W; x++) {
+					access.setPosition(new long[] { x, y, z, 0 });
+					access.get().setReal(random.nextInt(3) == 0 ? random.nextInt(3) : 0);
+					access.setPosition(1, 3);
+					access.get().setReal(random.nextInt(8) == 0 ? 1 : 0);
+				}
+			}
+		}
+		return ds;
+	}
+
+	private DrawingTool tool(final Dataset ds, final long[] position) {
+		final DrawingTool tool = new DrawingTool(ds, context.service(
+			RenderingService.class));
+		tool.setUAxis(0);
+		tool.setVAxis(1);
+		tool.setPosition(position);
+		tool.setChannels(new ChannelCollection(Arrays.asList(FILL, FILL)));
+		return tool;
+	}
+
+	/** Gets the dataset's values, indexed by channel, z, y and x. */
+	private int[][][][] values(final Dataset ds) {
+		final int[][][][] values = new int[2][D][H][W];
+		final RandomAccess<? extends RealType<?>> access = ds.getImgPlus()
+			.randomAccess();
+		for (int c = 0; c < 2; c++) {
+			for (int z = 0; z < D; z++) {
+				for (int y = 0; y < H; y++) {
+					for (int x = 0; x < W; x++) {
+						access.setPosition(new long[] { x, y, z, c });
+						values[c][z][y][x] = (int) access.get().getRealDouble();
+					}
+				}
+			}
+		}
+		return values;
+	}
+
+	/** Finds the pixels a fill should cover, one pixel at a time. */
+	private boolean[][][] expected(final int[][][][] values, final int u0,
+		final int v0, final int w0, final int wAxis, final boolean diagonal,
+		final double tolerance)
+	{
+		final boolean[][][] region = new boolean[D][H][W];
+		final ArrayDeque<int[]> queue = new ArrayDeque<>();
+		queue.add(new int[] { u0, v0, w0 });
+		region[w0][v0][u0] = true;
+		final int reach = wAxis < 0 ? 0 : 1;
+		while (!queue.isEmpty()) {
+			final int[] p = queue.poll();
+			for (int dw = -reach; dw <= reach; dw++) {
+				for (int dv = -1; dv <= 1; dv++) {
+					for (int du = -1; du <= 1; du++) {
+						final int steps = Math.abs(du) + Math.abs(dv) + Math.abs(dw);
+						if (steps == 0 || !diagonal && steps > 1) continue;
+						final int u = p[0] + du, v = p[1] + dv, w = p[2] + dw;
+						if (u < 0 || u >= W || v < 0 || v >= H || w < 0 || w >= D) continue;
+						if (region[w][v][u]) continue;
+						boolean near = true;
+						for (int c = 0; c < 2; c++) {
+							near &= Math.abs(values[c][w][v][u] -
+								values[c][w0][v0][u0]) <= tolerance;
+						}
+						if (!near) continue;
+						region[w][v][u] = true;
+						queue.add(new int[] { u, v, w });
+					}
+				}
+			}
+		}
+		return region;
+	}
+
+	private void assertFilled(final int[][][][] before, final int[][][][] after,
+		final boolean[][][] region)
+	{
+		for (int c = 0; c < 2; c++) {
+			for (int z = 0; z < D; z++) {
+				for (int y = 0; y < H; y++) {
+					for (int x = 0; x < W; x++) {
+						final int expected = region[z][y][x] ? (int) FILL
+							: before[c][z][y][x];
+						assertEquals(expected, after[c][z][y][x]);
+					}
+				}
+			}
+		}
+	}
+
+}
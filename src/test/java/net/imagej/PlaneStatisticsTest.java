@@ -0,0 +1,198 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.event.DatasetUpdatedEvent;
+import net.imagej.render.RenderingService;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+
+/**
+ * Tests {@link PlaneStatistics} and {@link PlaneStatisticsCache}.
+ */
+public class PlaneStatisticsTest {
+
+	private Context context;
+	private DatasetService datasetService;
+	private DatasetUpdatedEvent lastEvent;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, RenderingService.class);
+		datasetService = context.service(DatasetService.class);
+		context.service(EventService.class).subscribe(this);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testStorageKinds() {
+		final long[] dims = { 5, 4, 3, 2 };
+		assertPlaneStatistics(ArrayImgs.floats(dims));
+		assertPlaneStatistics(PlanarImgs.floats(dims));
+		assertPlaneStatistics(new CellImgFactory<FloatType>(3).create(dims,
+			new FloatType()));
+	}
+
+	@Test
+	public void testUnsigned() {
+		final Img<UnsignedByteType> img = ArrayImgs.unsignedBytes(new byte[] {
+			(byte) 200, (byte) 255, 10, 10 }, 2, 1, 2);
+		final PlaneStatistics stats = PlaneStatistics.compute(img, 0);
+		assertEquals(200, stats.getMin(), 0);
+		assertEquals(255, stats.getMax(), 0);
+		assertEquals(227.5, stats.getMean(), 0);
+		assertEquals(27.5, stats.getStdDev(), 1e-9);
+		assertEquals(10, PlaneStatistics.compute(img, 1).getMax(), 0);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testInvalidPlane() {
+		PlaneStatistics.compute(ArrayImgs.floats(2, 2, 3), 3);
+	}
+
+	@Test
+	public void testCacheInvalidation() {
+		final Dataset ds = datasetService.create(new ImgPlus<>(PlanarImgs.floats(
+			2, 2, 3)));
+		final PlaneStatistics stats = ds.getPlaneStatistics(1);
+		assertSame(stats, ds.getPlaneStatistics(1));
+		assertEquals(0, stats.getMax(), 0);
+
+		// replacing a plane invalidates only that plane
+		final PlaneStatistics stats0 = ds.getPlaneStatistics(0);
+		ds.setPlane(1, new float[] { 1, 2, 3, 4 });
+		assertEquals(4, ds.getPlaneStatistics(1).getMax(), 0);
+		assertSame(stats0, ds.getPlaneStatistics(0));
+
+		// updating planes invalidates them and reports them to listeners
+		final float[] plane2 = (float[]) ds.getPlane(2);
+		ds.getPlaneStatistics(2);
+		plane2[0] = 7;
+		ds.updatePlanes(2);
+		assertEquals(7, ds.getPlaneStatistics(2).getMax(), 0);
+		assertSame(stats0, ds.getPlaneStatistics(0));
+		assertArrayEquals(new long[] { 2 }, lastEvent.getPlanes());
+
+		// a full update invalidates everything
+		plane2[1] = 9;
+		ds.update();
+		assertEquals(9, ds.getPlaneStatistics(2).getMax(), 0);
+		assertFalse(stats0 == ds.getPlaneStatistics(0));
+		assertNull(lastEvent.getPlanes());
+	}
+
+	@Test
+	public void testDrawingToolUpdatesDrawnPlanes() {
+		// X, Y, channel, Z
+		final AxisType[] axes = { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z };
+		final Dataset ds = datasetService.create(new ImgPlus<>(ArrayImgs.floats(
+			4, 4, 2, 3), "test", axes));
+		final DrawingTool tool = new DrawingTool(ds, context.service(
+			RenderingService.class));
+		tool.setChannels(new ChannelCollection(Arrays.asList(5.0, 6.0)));
+		tool.setPosition(new long[] { 0, 0, 0, 2 });
+		tool.drawPixel(1, 1);
+		tool.drawPixel(2, 2);
+		tool.update();
+
+		final long[] planes = lastEvent.getPlanes();
+		Arrays.sort(planes);
+		assertArrayEquals(new long[] { 4, 5 }, planes);
+		assertEquals(5, ds.getPlaneStatistics(4).getMax(), 0);
+		assertEquals(6, ds.getPlaneStatistics(5).getMax(), 0);
+		assertEquals(0, ds.getPlaneStatistics(0).getMax(), 0);
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	public void onEvent(final DatasetUpdatedEvent event) {
+		lastEvent = event;
+	}
+
+	// -- Helper methods --
+
+	/** Fills an image with distinct values and checks each plane. */
+	private <T extends RealType<T>> void assertPlaneStatistics(
+		final Img<T> img)
+	{
+		final long planeSize = img.dimension(0) * img.dimension(1);
+		final Cursor<T> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			final long plane = cursor.getLongPosition(2) + img.dimension(2) * cursor
+				.getLongPosition(3);
+			final long offset = cursor.getLongPosition(0) + img.dimension(0) * cursor
+				.getLongPosition(1);
+			cursor.get().setReal(1000 * plane + offset);
+		}
+		final long planeCount = img.size() / planeSize;
+		for (long p = 0; p < planeCount; p++) {
+			final PlaneStatistics stats = PlaneStatistics.compute(img, p);
+			assertEquals(p, stats.getPlaneIndex());
+			assertEquals(planeSize, stats.getCount());
+			assertEquals(1000 * p, stats.getMin(), 0);
+			assertEquals(1000 * p + planeSize - 1, stats.getMax(), 0);
+			assertEquals(1000 * p + (planeSize - 1) / 2.0, stats.getMean(), 1e-9);
+			assertTrue(stats.getStdDev() > 0);
+		}
+	}
+
+}
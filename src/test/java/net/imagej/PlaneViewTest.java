@@ -0,0 +1,175 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link PlaneView}.
+ */
+public class PlaneViewTest {
+
+	private static final long[] DIMS = { 7, 5, 3, 2 };
+
+	@Test
+	public void testPlanar() {
+		final Img<FloatType> img = fill(PlanarImgs.floats(DIMS));
+		final PlaneView view = PlaneView.wrap(img, 4);
+		assertFalse(view.isCopy());
+		assertTrue(view.isArray());
+		assertEquals(1, view.getChunkCount());
+		assertArrayEquals(expected(4), (float[]) view.toArray(), 0);
+	}
+
+	@Test
+	public void testArray() {
+		final ArrayImg<FloatType, FloatArray> img = fill(ArrayImgs.floats(DIMS));
+		final PlaneView view = PlaneView.wrap(img, 4);
+		assertFalse(view.isCopy());
+		assertFalse(view.isArray());
+		assertSame(img.update(null).getCurrentStorageArray(), view
+			.getChunkArray(0));
+		assertEquals(4 * 35, view.getChunkOffset(0));
+		assertArrayEquals(expected(4), (float[]) view.toArray(), 0);
+
+		// the buffer shares the image's storage
+		final FloatBuffer buffer = (FloatBuffer) view.getBuffer(0);
+		assertEquals(35, buffer.capacity());
+		assertEquals(4000, buffer.get(0), 0);
+		buffer.put(1, -1);
+		final RandomAccess<FloatType> access = img.randomAccess();
+		access.setPosition(new long[] { 1, 0, 1, 1 });
+		assertEquals(-1, access.get().get(), 0);
+	}
+
+	@Test
+	public void testCells() {
+		// cells spanning the image width, and cells tiling each plane
+		for (final int cellSize : new int[] { 7, 3 }) {
+			final Img<FloatType> img = fill(new CellImgFactory<FloatType>(cellSize)
+				.create(DIMS, new FloatType()));
+			for (int p = 0; p < 6; p++) {
+				final PlaneView view = PlaneView.wrap(img, p);
+				assertFalse(view.isCopy());
+				assertEquals(35, view.size());
+				assertArrayEquals(expected(p), (float[]) view.toArray(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testCopy() {
+		final RandomAccessibleInterval<FloatType> img = Views.interval(fill(
+			ArrayImgs.floats(DIMS)), new long[4], new long[] { 6, 4, 2, 1 });
+		assertNull(PlaneView.wrap(img, 5));
+		final PlaneView view = PlaneView.create(img, 5);
+		assertTrue(view.isCopy());
+		assertArrayEquals(expected(5), (float[]) view.toArray(), 0);
+	}
+
+	@Test
+	public void testUnsigned() {
+		final Img<UnsignedShortType> img = ArrayImgs.unsignedShorts(new short[] {
+			1, (short) 65535 }, 2, 1);
+		final PlaneView view = PlaneView.wrap(img, 0);
+		assertTrue(view.isUnsigned());
+		assertTrue(view.isArray());
+		assertEquals(65535, ((ShortBuffer) view.getBuffer(0)).get(1) & 0xffff);
+	}
+
+	@Test
+	public void testUnsupportedType() {
+		assertNull(PlaneView.create(ArrayImgs.bits(4, 4), 0));
+		assertNull(PlaneView.create(Views.interval(ArrayImgs.bits(4, 4),
+			new long[2], new long[] { 3, 3 }), 0));
+	}
+
+	@Test
+	public void testDatasetGetPlane() {
+		final Img<FloatType> img = fill(new CellImgFactory<FloatType>(3).create(
+			DIMS, new FloatType()));
+		final Dataset ds = new DefaultDataset(null, new ImgPlus<>(img));
+		assertArrayEquals(expected(3), (float[]) ds.getPlane(3), 0);
+		assertFalse(ds.getPlaneView(3).isCopy());
+	}
+
+	// -- Helper methods --
+
+	/** Sets each sample to 1000 * plane index + offset within the plane. */
+	private static <T extends RealType<T>, I extends Img<T>> I fill(
+		final I img)
+	{
+		final Cursor<T> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			final long plane = cursor.getLongPosition(2) + DIMS[2] * cursor
+				.getLongPosition(3);
+			final long offset = cursor.getLongPosition(0) + DIMS[0] * cursor
+				.getLongPosition(1);
+			cursor.get().setReal(1000 * plane + offset);
+		}
+		return img;
+	}
+
+	private static float[] expected(final int plane) {
+		final float[] values = new float[(int) (DIMS[0] * DIMS[1])];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = 1000 * plane + i;
+		}
+		return values;
+	}
+
+}
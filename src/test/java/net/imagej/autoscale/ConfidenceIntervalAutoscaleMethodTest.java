@@ -34,8 +34,10 @@ package net.imagej.autoscale;
 import static org.junit.Assert.assertEquals;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.planar.PlanarImgs;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.real.FloatType;
 
 import org.junit.Test;
 import org.scijava.Context;
@@ -61,6 +63,29 @@ public class ConfidenceIntervalAutoscaleMethodTest {
 		assertEquals(97, range.getMax(), 0);
 	}
 
+	@Test
+	public void testTailsAndErrorBound() {
+		AutoscaleService service = context.getService(AutoscaleService.class);
+		ConfidenceIntervalAutoscaleMethod method =
+			(ConfidenceIntervalAutoscaleMethod) service.getAutoscaleMethod(
+				"Confidence Interval");
+		Img<FloatType> img = PlanarImgs.floats(1000, 100, 3);
+		int i = 0;
+		for (FloatType f : img)
+			f.set(i++ % 100000 / 1000f);
+		method.setTailProportions(0.1, 0.2);
+		method.setErrorBound(0.01);
+		try {
+			DataRange range = method.getRange(img);
+			assertEquals(10, range.getMin(), 1);
+			assertEquals(80, range.getMax(), 1);
+		}
+		finally {
+			method.setTailProportions(0.025, 0.025);
+			method.setErrorBound(0.001);
+		}
+	}
+
 	private Img<RealType> getImg() {
 		Img<ByteType> img = ArrayImgs.bytes(100);
 		byte i = 0;
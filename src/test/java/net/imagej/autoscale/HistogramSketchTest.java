@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.autoscale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link HistogramSketch}.
+ */
+public class HistogramSketchTest {
+
+	@Test
+	public void testSmallIntegersAreExact() {
+		final HistogramSketch sketch = new HistogramSketch(300);
+		for (int i = 255; i >= 0; i--) {
+			sketch.add(i);
+		}
+		assertEquals(256, sketch.getCount());
+		assertEquals(0, sketch.getMin(), 0);
+		assertEquals(255, sketch.getMax(), 0);
+		assertEquals(1, sketch.getBinWidth(), 0);
+		for (int rank = 0; rank < 256; rank++) {
+			assertEquals(rank, sketch.getBinStart(rank), 0);
+		}
+	}
+
+	@Test
+	public void testIgnoresNonFiniteValues() {
+		final HistogramSketch sketch = new HistogramSketch(10);
+		sketch.add(Double.NaN);
+		assertEquals(0, sketch.getCount());
+		assertTrue(Double.isNaN(sketch.getMin()));
+		sketch.add(-3.5);
+		sketch.add(Double.POSITIVE_INFINITY);
+		sketch.add(Double.NEGATIVE_INFINITY);
+		assertEquals(1, sketch.getCount());
+		assertEquals(-3.5, sketch.quantile(0.5), 0);
+	}
+
+	@Test
+	public void testErrorBound() {
+		final double error = 0.001;
+		final Random r = new Random(0xdeadbeef);
+		final double[] values = new double[100000];
+		final HistogramSketch sketch = HistogramSketch.forError(error);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = 1e6 * r.nextGaussian() - 2e5;
+			sketch.add(values[i]);
+		}
+		Arrays.sort(values);
+		final double range = values[values.length - 1] - values[0];
+		assertTrue(sketch.getBinWidth() <= error * range);
+		for (final double q : new double[] { 0, 0.01, 0.025, 0.5, 0.975, 1 }) {
+			final int rank = Math.min(values.length - 1, (int) (q * values.length));
+			assertEquals(values[rank], sketch.quantile(q), error * range);
+		}
+	}
+
+	@Test
+	public void testMerge() {
+		final Random r = new Random(42);
+		final HistogramSketch whole = new HistogramSketch(500);
+		final HistogramSketch[] parts = new HistogramSketch[4];
+		for (int p = 0; p < parts.length; p++) {
+			parts[p] = new HistogramSketch(500);
+		}
+		for (int i = 0; i < 40000; i++) {
+			// NB: Give each part a different scale.
+			final int p = i % parts.length;
+			final double v = r.nextDouble() * Math.pow(10, p);
+			whole.add(v);
+			parts[p].add(v);
+		}
+		final HistogramSketch merged = new HistogramSketch(500);
+		for (final HistogramSketch part : parts) {
+			merged.merge(part);
+		}
+		assertEquals(whole.getCount(), merged.getCount());
+		assertEquals(whole.getMin(), merged.getMin(), 0);
+		assertEquals(whole.getMax(), merged.getMax(), 0);
+		assertEquals(whole.getBinWidth(), merged.getBinWidth(), 0);
+		for (long rank = 0; rank < whole.getCount(); rank += 997) {
+			assertEquals(whole.getBinStart(rank), merged.getBinStart(rank), 0);
+		}
+	}
+}
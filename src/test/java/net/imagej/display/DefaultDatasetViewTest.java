@@ -0,0 +1,192 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.display;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutionException;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.event.EventCoalescingService;
+import net.imglib2.Cursor;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.display.DisplayService;
+import org.scijava.util.IntRect;
+import org.scijava.util.RealCoords;
+
+/**
+ * Tests {@link DefaultDatasetView}.
+ */
+public class DefaultDatasetViewTest {
+
+	private static final int WIDTH = 400, HEIGHT = 300;
+
+	private Context context;
+	private ImageDisplay display;
+	private DatasetView view;
+
+	@Before
+	public void setUp() {
+		context = new Context();
+		final DatasetService datasetService =
+			context.service(DatasetService.class);
+		final AxisType[] axes = { Axes.X, Axes.Y };
+		final Dataset dataset = datasetService.create(new long[] { WIDTH,
+			HEIGHT }, "ramp", axes, 8, false, false);
+		final Cursor<? extends RealType<?>> cursor =
+			dataset.getImgPlus().localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().setReal((cursor.getLongPosition(0) + 3 * cursor
+				.getLongPosition(1)) % 256);
+		}
+		// NB: A nearest-neighbor pyramid renders the same pixels as subsampling.
+		final PyramidService pyramidService =
+			context.service(PyramidService.class);
+		try {
+			pyramidService.build(pyramidService.createPyramid(dataset,
+				DownsampleMethod.NEAREST)).get();
+		}
+		catch (final InterruptedException | ExecutionException exc) {
+			throw new RuntimeException(exc);
+		}
+		display = (ImageDisplay) context.service(DisplayService.class)
+			.createDisplay(dataset);
+		view = (DatasetView) display.getActiveView();
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testViewportRendering() {
+		final int[] full = view.getScreenImage().getData().clone();
+		assertEquals(WIDTH * HEIGHT, full.length);
+		assertNull(view.getViewport());
+
+		final ImageCanvas canvas = display.getCanvas();
+		canvas.setViewportSize(100, 80);
+		canvas.setZoomAndCenter(1, new RealCoords(200, 150));
+		view.setViewport(canvas);
+
+		// visible region, plus a margin of a quarter viewport on each side
+		assertEquals(1, view.getScreenScale());
+		assertRegion(125, 90, 150, 120, view.getScreenRegion());
+		assertScreen(full);
+
+		// a small pan stays within the rendered margin
+		final ARGBScreenImage screen = view.getScreenImage();
+		canvas.setPanCenter(new RealCoords(210, 155));
+		assertSame(screen, view.getScreenImage());
+		assertRegion(125, 90, 150, 120, view.getScreenRegion());
+
+		// a large pan renders a new region, clipped to the plane
+		canvas.setPanCenter(new RealCoords(380, 20));
+		assertRegion(305, 0, 95, 80, view.getScreenRegion());
+		assertScreen(full);
+		// NB: Regions of planar data are read straight from the planes.
+		assertTrue(view.getProjector() instanceof LookupCompositeXYProjector);
+
+		// zooming out renders from a subsampled version of the plane
+		canvas.setZoomAndCenter(0.25, new RealCoords(200, 150));
+		assertEquals(4, view.getScreenScale());
+		assertRegion(0, 0, WIDTH, HEIGHT, view.getScreenRegion());
+		assertEquals(WIDTH / 4, view.getScreenImage().dimension(0));
+		assertScreen(full);
+		assertTrue(view.getProjector() instanceof LookupCompositeXYProjector);
+
+		view.setViewport(null);
+		assertEquals(1, view.getScreenScale());
+		assertRegion(0, 0, WIDTH, HEIGHT, view.getScreenRegion());
+		assertEquals(WIDTH, view.getPreferredWidth());
+		assertScreen(full);
+	}
+
+	@Test
+	public void testTypeChangeInBatch() throws InterruptedException {
+		final Object projector = view.getProjector();
+		context.service(EventCoalescingService.class).batch(() -> {
+			view.getData().update();
+			view.getData().typeChange();
+			view.getData().update();
+		});
+		// NB: The view rebuilds, and so replaces its projector, on another thread.
+		for (int i = 0; i < 500 && view.getProjector() == projector; i++) {
+			Thread.sleep(10);
+		}
+		assertNotSame(projector, view.getProjector());
+	}
+
+	// -- Helper methods --
+
+	private void assertRegion(final int x, final int y, final int width,
+		final int height, final IntRect region)
+	{
+		assertEquals(x, region.x);
+		assertEquals(y, region.y);
+		assertEquals(width, region.width);
+		assertEquals(height, region.height);
+	}
+
+	/** Checks the screen image against the corresponding full-plane pixels. */
+	private void assertScreen(final int[] full) {
+		final ARGBScreenImage screen = view.getScreenImage();
+		final IntRect region = view.getScreenRegion();
+		final int scale = view.getScreenScale();
+		final int width = (int) screen.dimension(0);
+		final int height = (int) screen.dimension(1);
+		final int[] data = screen.getData();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final int dataX = region.x + x * scale;
+				final int dataY = region.y + y * scale;
+				assertEquals(full[dataY * WIDTH + dataX], data[y * width + x]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,390 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.display;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.imagej.ChannelCollection;
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.Position;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.event.DatasetUpdatedEvent;
+import net.imagej.overlay.Overlay;
+import net.imagej.overlay.RectangleOverlay;
+import net.imagej.sampler.AxisSubrange;
+import net.imagej.sampler.SamplingDefinition;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.display.DisplayService;
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import org.scijava.util.RealRect;
+
+/**
+ * Tests {@link DefaultOverlayService}.
+ */
+public class DefaultOverlayServiceTest {
+
+	private Context context;
+	private OverlayService overlayService;
+	private Dataset dataset;
+	private final List<DatasetUpdatedEvent> events = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		context = new Context();
+		overlayService = context.service(OverlayService.class);
+		// X, Y, Z, Time
+		final AxisType[] axes = { Axes.X, Axes.Y, Axes.Z, Axes.TIME };
+		dataset = context.service(DatasetService.class).create(new ImgPlus<>(
+			PlanarImgs.floats(8, 6, 3, 4), "test", axes));
+		context.service(EventService.class).subscribe(this);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testGetPlanes() {
+		final List<Position> planes = overlayService.getPlanes(dataset);
+		assertEquals(12, planes.size());
+		assertArrayEquals(new long[] { 0, 0 }, position(planes.get(0)));
+		assertArrayEquals(new long[] { 1, 0 }, position(planes.get(1)));
+		assertArrayEquals(new long[] { 2, 3 }, position(planes.get(11)));
+
+		final ImageDisplay display = (ImageDisplay) context.service(
+			DisplayService.class).createDisplay(dataset);
+		final SamplingDefinition def = SamplingDefinition.sampleAllPlanes(display);
+		def.constrain(Axes.TIME, new AxisSubrange(2));
+		final List<Position> timepoint = overlayService.getPlanes(dataset, def);
+		assertEquals(3, timepoint.size());
+		for (int z = 0; z < 3; z++) {
+			assertArrayEquals(new long[] { z, 2 }, position(timepoint.get(z)));
+		}
+	}
+
+	@Test
+	public void testFillOverlays() {
+		final RectangleOverlay r1 = new RectangleOverlay(context);
+		r1.setOrigin(1, 0);
+		r1.setOrigin(1, 1);
+		r1.setExtent(2, 0);
+		r1.setExtent(2, 1);
+		final RectangleOverlay r2 = new RectangleOverlay(context);
+		r2.setOrigin(5, 0);
+		r2.setOrigin(3, 1);
+		r2.setExtent(3, 0);
+		r2.setExtent(1, 1);
+
+		final List<Position> planes = overlayService.getPlanes(dataset);
+		final ChannelCollection channels = new ChannelCollection(Arrays.asList(
+			7.0));
+		events.clear();
+		overlayService.fillOverlays(Arrays.asList(r1, r2), dataset, planes,
+			channels);
+
+		final RandomAccess<? extends RealType<?>> access = dataset.getImgPlus()
+			.randomAccess();
+		for (int t = 0; t < 4; t++) {
+			for (int z = 0; z < 3; z++) {
+				access.setPosition(new long[] { 0, 0, z, t });
+				for (int y = 0; y < 6; y++) {
+					for (int x = 0; x < 8; x++) {
+						access.setPosition(x, 0);
+						access.setPosition(y, 1);
+						final boolean inside = x >= 1 && x < 3 && y >= 1 && y < 3 ||
+							x >= 5 && y == 3;
+						assertEquals(inside ? 7 : 0, access.get().getRealDouble(), 0);
+					}
+				}
+			}
+		}
+		assertEquals(1, events.size());
+	}
+
+	@Test
+	public void testFillOverlaysMultichannel() {
+		final AxisType[] axes = { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z };
+		final Dataset multi = context.service(DatasetService.class).create(
+			new ImgPlus<>(PlanarImgs.unsignedBytes(9, 7, 3, 2), "rgb", axes));
+		final Dataset bits = context.service(DatasetService.class).create(
+			new ImgPlus<>(PlanarImgs.bits(70, 7, 3, 2), "bits", axes));
+		final RectangleOverlay r = new RectangleOverlay(context);
+		r.setOrigin(2, 0);
+		r.setOrigin(1, 1);
+		r.setExtent(66, 0);
+		r.setExtent(4, 1);
+
+		overlayService.fillOverlays(Arrays.asList(r), multi, overlayService
+			.getPlanes(multi), new ChannelCollection(Arrays.asList(10.0, 20.0,
+				30.0)));
+		overlayService.fillOverlays(Arrays.asList(r), bits, overlayService
+			.getPlanes(bits), new ChannelCollection(Arrays.asList(1.0, 0.0, 1.0)));
+
+		for (final Dataset ds : Arrays.asList(multi, bits)) {
+			final double[] values = ds == multi ? new double[] { 10, 20, 30 }
+				: new double[] { 1, 0, 1 };
+			final RandomAccess<? extends RealType<?>> access = ds.getImgPlus()
+				.randomAccess();
+			for (int z = 0; z < 2; z++) {
+				for (int c = 0; c < 3; c++) {
+					for (int y = 0; y < ds.dimension(1); y++) {
+						for (int x = 0; x < ds.dimension(0); x++) {
+							access.setPosition(new long[] { x, y, c, z });
+							final boolean inside = x >= 2 && x < 68 && y >= 1 && y < 5;
+							assertEquals(inside ? values[c] : 0, access.get()
+								.getRealDouble(), 0);
+						}
+					}
+				}
+			}
+		}
+
+		// a position along the channel axis draws that channel only
+		final List<Position> channel1 = new ArrayList<>();
+		for (final Position plane : overlayService.getPlanes(multi)) {
+			if (plane.getLongPosition(0) == 1) channel1.add(plane);
+		}
+		r.setOrigin(0, 1);
+		r.setExtent(1, 1);
+		overlayService.fillOverlays(Arrays.asList(r), multi, channel1,
+			new ChannelCollection(Arrays.asList(50.0, 60.0, 70.0)));
+		final RandomAccess<? extends RealType<?>> access = multi.getImgPlus()
+			.randomAccess();
+		for (int z = 0; z < 2; z++) {
+			for (int c = 0; c < 3; c++) {
+				access.setPosition(new long[] { 3, 0, c, z });
+				assertEquals(c == 1 ? 60 : 0, access.get().getRealDouble(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testSpatialQueries() {
+		final ImageDisplay display = (ImageDisplay) context.service(
+			DisplayService.class).createDisplay(dataset);
+		final Random random = new Random(0xbeef);
+		final List<RectangleOverlay> rects = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			rects.add(rectangle(random.nextInt(1000), random.nextInt(1000), 1 +
+				random.nextInt(20), 1 + random.nextInt(20)));
+		}
+		overlayService.addOverlays(display, rects);
+
+		for (int q = 0; q < 50; q++) {
+			final double x = random.nextInt(1000), y = random.nextInt(1000);
+			final RealRect region = new RealRect(x, y, random.nextInt(100), random
+				.nextInt(100));
+			assertEquals(bruteForce(rects, region), overlayService.getOverlays(
+				display, region));
+			assertEquals(bruteForce(rects, new RealRect(x, y, 0, 0)), overlayService
+				.getOverlays(display, x, y));
+		}
+
+		// move an overlay and make sure the index follows it
+		final RectangleOverlay moved = rects.get(0);
+		moved.setOrigin(2000, 0);
+		moved.setOrigin(2000, 1);
+		moved.update();
+		assertEquals(Arrays.asList(moved), overlayService.getOverlays(display,
+			2005, 2005));
+
+		// remove an overlay
+		overlayService.removeOverlay(display, moved);
+		assertEquals(0, overlayService.getOverlays(display, 2005, 2005).size());
+	}
+
+	@Test
+	public void testViewsReplaced() {
+		final ImageDisplay display = (ImageDisplay) context.service(
+			DisplayService.class).createDisplay(dataset);
+		final RectangleOverlay r1 = rectangle(1, 1, 2, 2);
+		final RectangleOverlay r2 = rectangle(10, 10, 2, 2);
+		overlayService.addOverlays(display, Arrays.asList(r1));
+		assertEquals(Arrays.asList(r1), overlayService.getOverlays(display, 2, 2));
+
+		// swap views without the service, keeping the number of views
+		display.remove(view(display, r1));
+		display.display(r2);
+		assertEquals(0, overlayService.getOverlays(display, 2, 2).size());
+		assertEquals(Arrays.asList(r2), overlayService.getOverlays(display, 11,
+			11));
+	}
+
+	@Test
+	public void testHugeOverlay() {
+		final ImageDisplay display = (ImageDisplay) context.service(
+			DisplayService.class).createDisplay(dataset);
+		final RectangleOverlay small = rectangle(1, 1, 2, 2);
+		// NB: Spans the whole clamped grid, 2^32 cells along each axis.
+		final RectangleOverlay huge = rectangle(-1e15, -1e15, 2e15, 2e15);
+		overlayService.addOverlays(display, Arrays.asList(small, huge));
+		assertEquals(Arrays.asList(small, huge), overlayService.getOverlays(
+			display, 2, 2));
+		assertEquals(Arrays.asList(huge), overlayService.getOverlays(display, 1e14,
+			-1e14));
+	}
+
+	@Test
+	public void testMixedSizes() {
+		final ImageDisplay display = (ImageDisplay) context.service(
+			DisplayService.class).createDisplay(dataset);
+		final Random random = new Random(0xcafe);
+		final List<RectangleOverlay> rects = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			// extents from one pixel up to a million, so views land on many levels
+			final double w = Math.pow(10, 6 * random.nextDouble());
+			final double h = Math.pow(10, 6 * random.nextDouble());
+			rects.add(rectangle(random.nextInt(10000) - w / 2, random.nextInt(
+				10000) - h / 2, w, h));
+		}
+		overlayService.addOverlays(display, rects);
+
+		for (int q = 0; q < 50; q++) {
+			final double x = random.nextInt(10000), y = random.nextInt(10000);
+			final RealRect region = new RealRect(x, y, random.nextInt(1000), random
+				.nextInt(1000));
+			assertEquals(bruteForce(rects, region), overlayService.getOverlays(
+				display, region));
+			assertEquals(bruteForce(rects, new RealRect(x, y, 0, 0)), overlayService
+				.getOverlays(display, x, y));
+		}
+	}
+
+	@Test
+	public void testSelection() {
+		final ImageDisplay display = (ImageDisplay) context.service(
+			DisplayService.class).createDisplay(dataset);
+		final RectangleOverlay r1 = rectangle(1, 1, 2, 2);
+		final RectangleOverlay r2 = rectangle(4, 2, 3, 3);
+		overlayService.addOverlays(display, Arrays.asList(r1, r2));
+		assertNull(overlayService.getActiveOverlay(display));
+
+		// nothing selected: the whole display
+		assertRect(0, 0, 7, 5, overlayService.getSelectionBounds(display));
+
+		view(display, r2).setSelected(true);
+		assertSame(r2, overlayService.getActiveOverlay(display));
+		assertRect(4, 2, 3, 3, overlayService.getSelectionBounds(display));
+
+		view(display, r1).setSelected(true);
+		assertSame(r1, overlayService.getActiveOverlay(display));
+		assertRect(1, 1, 6, 4, overlayService.getSelectionBounds(display));
+
+		// shrink a selected overlay away from the combined bounds
+		r2.setExtent(1, 0);
+		r2.setExtent(1, 1);
+		r2.update();
+		assertRect(1, 1, 4, 2, overlayService.getSelectionBounds(display));
+
+		view(display, r1).setSelected(false);
+		assertSame(r2, overlayService.getActiveOverlay(display));
+		assertRect(4, 2, 1, 1, overlayService.getSelectionBounds(display));
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	public void onEvent(final DatasetUpdatedEvent event) {
+		events.add(event);
+	}
+
+	// -- Helper methods --
+
+	private RectangleOverlay rectangle(final double x, final double y,
+		final double w, final double h)
+	{
+		final RectangleOverlay r = new RectangleOverlay(context);
+		r.setOrigin(x, 0);
+		r.setOrigin(y, 1);
+		r.setExtent(w, 0);
+		r.setExtent(h, 1);
+		return r;
+	}
+
+	private List<Overlay> bruteForce(final List<? extends Overlay> overlays,
+		final RealRect region)
+	{
+		final List<Overlay> hits = new ArrayList<>();
+		for (final Overlay o : overlays) {
+			if (o.realMin(0) <= region.x + region.width && o.realMax(0) >=
+				region.x && o.realMin(1) <= region.y + region.height && o.realMax(
+					1) >= region.y)
+			{
+				hits.add(o);
+			}
+		}
+		return hits;
+	}
+
+	private DataView view(final ImageDisplay display, final Overlay overlay) {
+		for (final DataView view : display) {
+			if (view.getData() == overlay) return view;
+		}
+		return null;
+	}
+
+	private void assertRect(final double x, final double y, final double w,
+		final double h, final RealRect rect)
+	{
+		assertEquals(x, rect.x, 0);
+		assertEquals(y, rect.y, 0);
+		assertEquals(w, rect.width, 0);
+		assertEquals(h, rect.height, 0);
+	}
+
+	private long[] position(final Position position) {
+		final long[] pos = new long[position.numDimensions()];
+		position.localize(pos);
+		return pos;
+	}
+
+}
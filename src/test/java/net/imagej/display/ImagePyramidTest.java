@@ -0,0 +1,293 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.display;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.display.DisplayService;
+
+/**
+ * Tests {@link ImagePyramid} and {@link DefaultPyramidService}.
+ */
+public class ImagePyramidTest {
+
+	private Context context;
+	private Dataset dataset;
+
+	@Before
+	public void setUp() {
+		context = new Context();
+		final AxisType[] axes = { Axes.X, Axes.Y, Axes.Z };
+		dataset = context.service(DatasetService.class).create(new long[] { 5, 3,
+			2 }, "pyramid", axes, 16, false, false);
+		final Cursor<? extends RealType<?>> cursor =
+			dataset.getImgPlus().localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().setReal(value(cursor.getLongPosition(0), cursor
+				.getLongPosition(1), cursor.getLongPosition(2)));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testLevels() {
+		final ImagePyramid pyramid =
+			new ImagePyramid(dataset, DownsampleMethod.MEAN);
+		assertEquals(3, pyramid.getLevelCount());
+		assertSame(dataset.getImgPlus(), pyramid.getLevel(0));
+		assertDimensions(pyramid.getLevel(1), 3, 2, 2);
+		assertDimensions(pyramid.getLevel(2), 2, 1, 2);
+		assertDimensions(pyramid.getLevel(3), 1, 1, 2);
+		assertEquals(0, pyramid.getLevelForScale(1));
+		assertEquals(1, pyramid.getLevelForScale(3));
+		assertEquals(3, pyramid.getLevelForScale(64));
+
+		assertFalse(pyramid.isComplete());
+		pyramid.build();
+		assertTrue(pyramid.isComplete());
+
+		final Img<? extends RealType<?>> level1 = pyramid.getLevel(1);
+		// full 2x2 block
+		assertEquals(mean(value(0, 0, 1), value(1, 0, 1), value(0, 1, 1), value(
+			1, 1, 1)), get(level1, 0, 0, 1), 0);
+		// blocks clipped by the right and bottom edges
+		assertEquals(mean(value(4, 0, 0), value(4, 1, 0)), get(level1, 2, 0, 0),
+			0);
+		assertEquals(mean(value(2, 2, 0), value(3, 2, 0)), get(level1, 1, 1, 0),
+			0);
+	}
+
+	@Test
+	public void testMethods() {
+		final ImagePyramid max = new ImagePyramid(dataset, DownsampleMethod.MAX);
+		final ImagePyramid nearest =
+			new ImagePyramid(dataset, DownsampleMethod.NEAREST);
+		max.build();
+		nearest.build();
+		assertEquals(value(3, 2, 1), get(max.getLevel(1), 1, 1, 1), 0);
+		assertEquals(value(4, 2, 0), get(max.getLevel(3), 0, 0, 0), 0);
+		assertEquals(value(2, 2, 1), get(nearest.getLevel(1), 1, 1, 1), 0);
+		assertEquals(value(0, 0, 1), get(nearest.getLevel(3), 0, 0, 1), 0);
+	}
+
+	@Test
+	public void testInvalidate() {
+		final ImagePyramid pyramid =
+			new ImagePyramid(dataset, DownsampleMethod.MAX);
+		pyramid.build();
+
+		set(dataset.getImgPlus(), 0, 0, 1, 10000);
+		pyramid.invalidatePlanes(1);
+		assertFalse(pyramid.isComplete());
+		pyramid.build();
+		assertEquals(10000, get(pyramid.getLevel(1), 0, 0, 1), 0);
+		assertEquals(10000, get(pyramid.getLevel(3), 0, 0, 1), 0);
+		assertEquals(value(4, 2, 0), get(pyramid.getLevel(3), 0, 0, 0), 0);
+
+		pyramid.invalidate(0, 4, 2, 1, 1);
+		assertFalse(pyramid.isComplete());
+		pyramid.build();
+		assertTrue(pyramid.isComplete());
+	}
+
+	@Test
+	public void testLazyInvalidate() {
+		final ImagePyramid pyramid =
+			new ImagePyramid(dataset, DownsampleMethod.MAX);
+		pyramid.build();
+
+		set(dataset.getImgPlus(), 0, 0, 1, 10000);
+		pyramid.invalidate();
+		assertFalse(pyramid.isComplete());
+		assertFalse(pyramid.hasQueuedTiles());
+		assertTrue(pyramid.isDeferred(0));
+		// NB: A deferred plane is rebuilt as a whole once requested.
+		pyramid.invalidate(1, 0, 0, 1, 1);
+		assertFalse(pyramid.hasQueuedTiles());
+
+		assertTrue(pyramid.request(1));
+		assertFalse(pyramid.request(1));
+		pyramid.build();
+		assertTrue(pyramid.isComplete(1));
+		assertFalse(pyramid.isComplete(0, 1));
+		assertEquals(10000, get(pyramid.getLevel(1), 0, 0, 1), 0);
+
+		assertTrue(pyramid.request(0));
+		pyramid.build();
+		assertTrue(pyramid.isComplete());
+		assertFalse(pyramid.isDeferred(0));
+	}
+
+	@Test
+	public void testCellStorage() {
+		// NB: Cells split each plane, so these levels are built pixel by pixel.
+		final Img<UnsignedShortType> cells = new CellImgFactory<UnsignedShortType>(
+			2).create(new long[] { 5, 3, 2 }, new UnsignedShortType());
+		final Cursor<UnsignedShortType> cursor = cells.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().setReal(value(cursor.getLongPosition(0), cursor
+				.getLongPosition(1), cursor.getLongPosition(2)));
+		}
+		final Dataset cellDataset = context.service(DatasetService.class).create(
+			new ImgPlus<>(cells));
+		for (final DownsampleMethod method : DownsampleMethod.values()) {
+			final ImagePyramid planar = new ImagePyramid(dataset, method);
+			final ImagePyramid cell = new ImagePyramid(cellDataset, method);
+			planar.build();
+			cell.build();
+			for (int level = 1; level <= planar.getLevelCount(); level++) {
+				final Cursor<? extends RealType<?>> expected =
+					planar.getLevel(level).localizingCursor();
+				final RandomAccess<? extends RealType<?>> actual =
+					cell.getLevel(level).randomAccess();
+				while (expected.hasNext()) {
+					expected.fwd();
+					actual.setPosition(expected);
+					assertEquals(expected.get().getRealDouble(), actual.get()
+						.getRealDouble(), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testService() throws Exception {
+		final PyramidService pyramidService =
+			context.service(PyramidService.class);
+		assertNull(pyramidService.getPyramid(dataset));
+		final ImagePyramid pyramid =
+			pyramidService.createPyramid(dataset, DownsampleMethod.MAX);
+		assertSame(pyramid, pyramidService.getPyramid(dataset));
+		pyramidService.build(pyramid).get();
+		assertTrue(pyramid.isComplete());
+
+		// updating the dataset rebuilds the pyramid
+		set(dataset.getImgPlus(), 1, 1, 0, 20000);
+		dataset.update();
+		pyramidService.build(pyramid).get();
+		assertEquals(20000, get(pyramid.getLevel(1), 0, 0, 0), 0);
+
+		// with no plane on screen, a full update only rebuilds planes on request
+		set(dataset.getImgPlus(), 1, 1, 1, 30000);
+		dataset.update();
+		assertTrue(pyramid.isDeferred(1));
+		pyramidService.build(pyramid, 1).get();
+		assertTrue(pyramid.isComplete(1));
+		assertTrue(pyramid.isDeferred(0));
+		assertEquals(30000, get(pyramid.getLevel(1), 0, 0, 1), 0);
+
+		pyramidService.removePyramid(dataset);
+		assertNull(pyramidService.getPyramid(dataset));
+	}
+
+	@Test
+	public void testBestZoomLevel() throws Exception {
+		final ImageDisplay display = (ImageDisplay) context.service(
+			DisplayService.class).createDisplay(dataset);
+		final ImageCanvas canvas = display.getCanvas();
+		assertEquals(1 / 3d, canvas.getBestZoomLevel(1 / 3d), 0);
+
+		final PyramidService pyramidService =
+			context.service(PyramidService.class);
+		pyramidService.build(pyramidService.createPyramid(dataset,
+			DownsampleMethod.MEAN)).get();
+		assertEquals(1 / 4d, canvas.getBestZoomLevel(1 / 3d), 0);
+		assertEquals(1 / 2d, canvas.getBestZoomLevel(1 / 2d), 0);
+		assertEquals(1.5, canvas.getBestZoomLevel(1.5), 0);
+		// no pyramid level this deep
+		assertEquals(1 / 16d, canvas.getBestZoomLevel(1 / 16d), 0);
+	}
+
+	// -- Helper methods --
+
+	private static double value(final long x, final long y, final long z) {
+		return 100 * z + 10 * y + x;
+	}
+
+	private static double mean(final double... values) {
+		double sum = 0;
+		for (final double v : values) {
+			sum += v;
+		}
+		return Math.round(sum / values.length);
+	}
+
+	private static double get(final Img<? extends RealType<?>> img,
+		final long... pos)
+	{
+		final RandomAccess<? extends RealType<?>> access = img.randomAccess();
+		access.setPosition(pos);
+		return access.get().getRealDouble();
+	}
+
+	private static void set(final Img<? extends RealType<?>> img, final long x,
+		final long y, final long z, final double value)
+	{
+		final RandomAccess<? extends RealType<?>> access = img.randomAccess();
+		access.setPosition(new long[] { x, y, z });
+		access.get().setReal(value);
+	}
+
+	private static void assertDimensions(final Img<?> img, final long... dims) {
+		assertEquals(dims.length, img.numDimensions());
+		for (int d = 0; d < dims.length; d++) {
+			assertEquals(dims[d], img.dimension(d));
+		}
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.display;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.RealLUTConverter;
+import net.imglib2.display.ColorTable;
+import net.imglib2.display.projector.composite.CompositeXYProjector;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tests {@link LookupCompositeXYProjector}.
+ */
+public class LookupCompositeXYProjectorTest {
+
+	private static final ColorTable[] LUTS = { ColorTables.RED,
+		ColorTables.GREEN, ColorTables.BLUE };
+
+	@Test
+	public void testPlanarComposite() {
+		final Img<UnsignedByteType> img =
+			new PlanarImgFactory<UnsignedByteType>().create(new long[] { 13, 7, 3 },
+				new UnsignedByteType());
+		fill(img);
+		assertSameProjection(img, 2, true, 0, 255, null);
+		assertSameProjection(img, 2, false, 0, 255, null);
+	}
+
+	@Test
+	public void testSignedShortSingleChannel() {
+		final Img<ShortType> img =
+			new ArrayImgFactory<ShortType>().create(new long[] { 9, 11, 2 },
+				new ShortType());
+		fill(img);
+		assertSameProjection(img, -1, false, -1000, 1000, null);
+	}
+
+	@Test
+	public void testCellComposite() {
+		final Img<FloatType> img =
+			new CellImgFactory<FloatType>(4).create(new long[] { 10, 9, 3, 2 },
+				new FloatType());
+		fill(img);
+		assertSameProjection(img, 2, true, 0, 100, null);
+	}
+
+	@Test
+	public void testParallelRows() {
+		final Context context = new Context(ThreadService.class);
+		try {
+			final Img<UnsignedByteType> img =
+				new ArrayImgFactory<UnsignedByteType>().create(new long[] { 300, 500,
+					3 }, new UnsignedByteType());
+			fill(img);
+			assertSameProjection(img, 2, true, 10, 200, context
+				.getService(ThreadService.class));
+		}
+		finally {
+			context.dispose();
+		}
+	}
+
+	@Test
+	public void testPlanarRegion() {
+		final Img<UnsignedByteType> img =
+			new PlanarImgFactory<UnsignedByteType>().create(new long[] { 29, 17, 3 },
+				new UnsignedByteType());
+		fill(img);
+		assertSameProjection(img, 2, true, 0, 255, null, 3, 2, 1);
+		assertSameProjection(img, 2, true, 0, 255, null, 0, 0, 2);
+		assertSameProjection(img, 2, false, 0, 255, null, 5, 4, 3);
+	}
+
+	@Test
+	public void testCellRowsRegion() {
+		// NB: Each plane spans several cells, each holding whole rows.
+		final Img<ShortType> img =
+			new CellImgFactory<ShortType>(21, 4, 1).create(new long[] { 21, 15, 2 },
+				new ShortType());
+		fill(img);
+		assertSameProjection(img, -1, false, -1000, 1000, null, 0, 0, 1);
+		assertSameProjection(img, -1, false, -1000, 1000, null, 2, 3, 2);
+		assertSameProjection(img, -1, false, -1000, 1000, null, 1, 1, 5);
+	}
+
+	@Test
+	public void testCellRegion() {
+		// NB: A large step skips over whole cells within a row.
+		final Img<FloatType> img =
+			new CellImgFactory<FloatType>(4).create(new long[] { 23, 13, 3 },
+				new FloatType());
+		fill(img);
+		assertSameProjection(img, 2, true, 0, 100, null, 1, 2, 5);
+		assertSameProjection(img, 2, true, 0, 100, null, 6, 0, 3);
+	}
+
+	@Test
+	public void testParallelRegion() {
+		final Context context = new Context(ThreadService.class);
+		try {
+			final Img<FloatType> img =
+				new ArrayImgFactory<FloatType>().create(new long[] { 700, 900, 2 },
+					new FloatType());
+			fill(img);
+			assertSameProjection(img, 2, true, 0, 100, context
+				.getService(ThreadService.class), 50, 70, 2);
+		}
+		finally {
+			context.dispose();
+		}
+	}
+
+	// -- Helper methods --
+
+	private <T extends RealType<T>> void fill(final Img<T> img) {
+		final Random random = new Random(0xbeef);
+		for (final T t : img) {
+			t.setReal(t.getMinValue() + random.nextDouble() *
+				Math.min(t.getMaxValue() - t.getMinValue(), 1000));
+		}
+	}
+
+	private <T extends RealType<T>> void assertSameProjection(
+		final Img<T> img, final int dimIndex, final boolean composite,
+		final double min, final double max, final ThreadService threadService)
+	{
+		final int width = (int) img.dimension(0);
+		final int height = (int) img.dimension(1);
+		final ARGBScreenImage expected = new ARGBScreenImage(width, height);
+		final ARGBScreenImage actual = new ARGBScreenImage(width, height);
+		final CompositeXYProjector<T> reference =
+			new CompositeXYProjector<>(img, expected, converters(img, dimIndex, min,
+				max), dimIndex);
+		final LookupCompositeXYProjector<T> projector =
+			new LookupCompositeXYProjector<>(img, actual, converters(img, dimIndex,
+				min, max), dimIndex, threadService);
+		assertSameProjection(img, reference, projector, expected, actual,
+			composite);
+	}
+
+	/**
+	 * Compares projecting a region of the image, subsampled by the given step,
+	 * with projecting a subsampled view of it.
+	 */
+	private <T extends RealType<T>> void assertSameProjection(
+		final Img<T> img, final int dimIndex, final boolean composite,
+		final double min, final double max, final ThreadService threadService,
+		final long x0, final long y0, final int step)
+	{
+		final int width = (int) ((img.dimension(0) - x0 + step - 1) / step);
+		final int height = (int) ((img.dimension(1) - y0 + step - 1) / step);
+		final long[] offset = new long[img.numDimensions()];
+		final long[] dims = new long[img.numDimensions()];
+		final long[] steps = new long[img.numDimensions()];
+		img.dimensions(dims);
+		Arrays.fill(steps, 1);
+		offset[0] = x0;
+		offset[1] = y0;
+		dims[0] -= x0;
+		dims[1] -= y0;
+		steps[0] = steps[1] = step;
+		final RandomAccessibleInterval<T> view =
+			Views.subsample(Views.offsetInterval(img, offset, dims), steps);
+		final ARGBScreenImage expected = new ARGBScreenImage(width, height);
+		final ARGBScreenImage actual = new ARGBScreenImage(width, height);
+		final CompositeXYProjector<T> reference =
+			new CompositeXYProjector<>(view, expected, converters(img, dimIndex,
+				min, max), dimIndex);
+		final LookupCompositeXYProjector<T> projector =
+			new LookupCompositeXYProjector<>(img, actual, converters(img, dimIndex,
+				min, max), dimIndex, threadService, x0, y0, step);
+		assertSameProjection(img, reference, projector, expected, actual,
+			composite);
+	}
+
+	private <T extends RealType<T>> void assertSameProjection(final Img<T> img,
+		final CompositeXYProjector<T> reference,
+		final LookupCompositeXYProjector<T> projector,
+		final ARGBScreenImage expected, final ARGBScreenImage actual,
+		final boolean composite)
+	{
+		reference.setComposite(composite);
+		projector.setComposite(composite);
+		final long planes = img.numDimensions() > 3 ? img.dimension(3) : 1;
+		for (int p = 0; p < planes; p++) {
+			if (img.numDimensions() > 3) {
+				reference.setPosition(p, 3);
+				projector.setPosition(p, 3);
+			}
+			reference.map();
+			projector.map();
+			assertArrayEquals(expected.getData(), actual.getData());
+		}
+	}
+
+	private <T extends RealType<T>> ArrayList<Converter<T, ARGBType>>
+		converters(final Img<T> img, final int dimIndex, final double min,
+			final double max)
+	{
+		final int count = dimIndex < 0 ? 1 : (int) img.dimension(dimIndex);
+		final ArrayList<Converter<T, ARGBType>> converters = new ArrayList<>();
+		for (int c = 0; c < count; c++) {
+			converters.add(new RealLUTConverter<T>(min, max, LUTS[c % LUTS.length]));
+		}
+		return converters;
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.event;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imglib2.img.planar.PlanarImgs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tests {@link DefaultEventCoalescingService}.
+ */
+public class EventCoalescingServiceTest {
+
+	private Context context;
+	private EventCoalescingService coalescingService;
+	private Dataset dataset;
+	private final List<DataModifiedEvent> events = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, EventCoalescingService.class,
+			ThreadService.class);
+		coalescingService = context.service(EventCoalescingService.class);
+		dataset = context.service(DatasetService.class).create(new ImgPlus<>(
+			PlanarImgs.floats(2, 2, 5)));
+		context.service(EventService.class).subscribe(this);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testImmediate() {
+		dataset.update();
+		dataset.update();
+		assertEquals(2, events.size());
+		assertEquals(0, coalescingService.getCoalescedCount());
+	}
+
+	@Test
+	public void testBatch() {
+		final long published = coalescingService.getPublishedCount();
+		coalescingService.batch(() -> {
+			for (int i = 0; i < 1000; i++) {
+				dataset.update();
+			}
+			assertTrue(events.isEmpty());
+		});
+		assertEquals(1, events.size());
+		assertEquals(999, coalescingService.getCoalescedCount());
+		assertEquals(published + 1, coalescingService.getPublishedCount());
+	}
+
+	@Test
+	public void testPlanes() {
+		coalescingService.beginBatch();
+		dataset.updatePlanes(3);
+		coalescingService.beginBatch();
+		dataset.updatePlanes(1, 3);
+		coalescingService.endBatch();
+		assertTrue(events.isEmpty());
+		coalescingService.endBatch();
+		assertEquals(1, events.size());
+		assertArrayEquals(new long[] { 1, 3 }, ((DatasetUpdatedEvent) events.get(0))
+			.getPlanes());
+
+		// a full update covers all planes
+		coalescingService.batch(() -> {
+			dataset.updatePlanes(2);
+			dataset.update();
+			dataset.updatePlanes(4);
+		});
+		assertEquals(2, events.size());
+		final DatasetUpdatedEvent event = (DatasetUpdatedEvent) events.get(1);
+		assertNull(event.getPlanes());
+		assertFalse(event.isMetaDataOnly());
+	}
+
+	@Test
+	public void testRestructuredWins() {
+		coalescingService.batch(() -> {
+			dataset.update();
+			dataset.rebuild();
+			dataset.update();
+		});
+		assertEquals(1, events.size());
+		assertTrue(events.get(0) instanceof DatasetRestructuredEvent);
+		assertEquals(2, coalescingService.getCoalescedCount());
+	}
+
+	@Test
+	public void testTypeChangeNotCoalesced() {
+		coalescingService.batch(() -> {
+			dataset.updatePlanes(1);
+			dataset.typeChange();
+			assertEquals(2, events.size());
+			dataset.update();
+			dataset.typeChange();
+			assertEquals(4, events.size());
+		});
+		assertEquals(4, events.size());
+		assertArrayEquals(new long[] { 1 }, ((DatasetUpdatedEvent) events.get(0))
+			.getPlanes());
+		assertTrue(events.get(1) instanceof DatasetTypeChangedEvent);
+		assertFalse(events.get(2) instanceof DatasetTypeChangedEvent);
+		assertTrue(events.get(3) instanceof DatasetTypeChangedEvent);
+		assertEquals(0, coalescingService.getCoalescedCount());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testUnbalancedBatch() {
+		coalescingService.endBatch();
+	}
+
+	@Test
+	public void testWindow() throws InterruptedException {
+		coalescingService.setWindow(200);
+		for (int i = 0; i < 100; i++) {
+			dataset.update();
+		}
+		for (int i = 0; i < 500 && eventCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, eventCount());
+		coalescingService.setWindow(0);
+		dataset.update();
+		assertEquals(2, eventCount());
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	public void onEvent(final DataModifiedEvent event) {
+		synchronized (events) {
+			events.add(event);
+		}
+	}
+
+	// -- Helper methods --
+
+	private int eventCount() {
+		synchronized (events) {
+			return events.size();
+		}
+	}
+
+}
@@ -0,0 +1,223 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.mapped;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.NativeImg;
+import net.imglib2.img.basictypeaccess.CharAccess;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Fraction;
+
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Tests {@link MappedCellImg} and {@link MappedCellImgFactory}.
+ */
+public class MappedCellImgTest {
+
+	@Test
+	public void testCreate() {
+		final Img<FloatType> img = new MappedCellImgFactory<FloatType>().create(
+			new long[] { 7, 5, 3 }, new FloatType());
+		for (final Cursor<FloatType> c = img.localizingCursor(); c.hasNext();) {
+			c.fwd();
+			c.get().set(c.getIntPosition(0) + 10 * c.getIntPosition(1) + 100 * c
+				.getIntPosition(2));
+		}
+		final RandomAccess<FloatType> access = img.randomAccess();
+		access.setPosition(new long[] { 6, 4, 2 });
+		assertEquals(246, access.get().get(), 0);
+
+		final Img<FloatType> copy = img.copy();
+		final RandomAccess<FloatType> copyAccess = copy.randomAccess();
+		copyAccess.setPosition(new long[] { 3, 2, 1 });
+		assertEquals(123, copyAccess.get().get(), 0);
+	}
+
+	@Test
+	public void testEviction() {
+		// 2 KB planes as cells, and a cache holding only the minimum of 4 cells
+		final MappedCellImgFactory<UnsignedShortType> factory =
+			new MappedCellImgFactory<>(null, 4096, 2048);
+		final MappedCellImg<UnsignedShortType, ?> img =
+			(MappedCellImg<UnsignedShortType, ?>) factory.create(new long[] { 32,
+				32, 10 }, new UnsignedShortType());
+		assertEquals(10, img.getCellGrid().gridDimension(2));
+		int value = 0;
+		for (final UnsignedShortType t : img) {
+			t.set(value++ % 65536);
+		}
+		assertEquals(4, img.getResidentCellCount());
+		value = 0;
+		for (final UnsignedShortType t : img) {
+			assertEquals(value++ % 65536, t.get());
+		}
+	}
+
+	@Test
+	public void testCharInstance() throws IOException {
+		final NativeImg<UnsignedShortType, ? extends CharAccess> img =
+			new MappedCellImgFactory<UnsignedShortType>().createCharInstance(
+				new long[] { 6, 4 }, new Fraction());
+		final Cell<? extends CharAccess> cell =
+			((MappedCellImg<?, ? extends CharAccess>) img).getCells().randomAccess()
+				.get();
+		for (int i = 0; i < 24; i++) {
+			cell.getData().setValue(i, (char) ('\uff00' + i));
+		}
+		for (int i = 0; i < 24; i++) {
+			assertEquals('\uff00' + i, cell.getData().getValue(i));
+		}
+		((MappedCellImg<?, ?>) img).close();
+	}
+
+	@Test
+	public void testClose() throws IOException {
+		// 2 KB planes as cells, and a cache holding only the minimum of 4 cells
+		final MappedCellImgFactory<UnsignedShortType> factory =
+			new MappedCellImgFactory<>(null, 4096, 2048);
+		final MappedCellImg<UnsignedShortType, ?> img =
+			(MappedCellImg<UnsignedShortType, ?>) factory.create(new long[] { 32,
+				32, 10 }, new UnsignedShortType());
+		for (final UnsignedShortType t : img) {
+			t.set(1);
+		}
+		final Path file = img.getFile();
+		assertTrue(img.isTemporary());
+		assertTrue(Files.exists(file));
+		final RandomAccess<UnsignedShortType> held = img.randomAccess();
+		held.setPosition(new long[] { 3, 4, 5 });
+		assertEquals(1, held.get().get());
+
+		// temporary files are deleted on close, and no more cells are mapped
+		img.close();
+		assertFalse(Files.exists(file));
+		assertEquals(0, img.getResidentCellCount());
+
+		// a cell obtained before closing stays usable
+		held.get().set(2);
+		assertEquals(2, held.get().get());
+		try {
+			img.randomAccess().get();
+			fail("Closed image is still usable");
+		}
+		catch (final IllegalStateException exc) {
+			// NB: Expected.
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRowTooLarge() {
+		new MappedCellImgFactory<UnsignedShortType>().create(new long[] { 1L << 30,
+			2 }, new UnsignedShortType());
+	}
+
+	@Test
+	public void testOpenRaw() throws IOException {
+		final Path file = Files.createTempFile("mapped-", ".raw");
+		file.toFile().deleteOnExit();
+		final ByteBuffer bytes =
+			ByteBuffer.allocate(2 * 4 * 3 * 2).order(ByteOrder.BIG_ENDIAN);
+		for (short i = 0; i < 24; i++) {
+			bytes.putShort((short) (1000 + i));
+		}
+		Files.write(file, bytes.array());
+
+		final MappedCellImg<UnsignedShortType, ?> img =
+			new MappedCellImgFactory<UnsignedShortType>().open(file, new long[] { 4,
+				3, 2 }, new UnsignedShortType(), ByteOrder.BIG_ENDIAN, true);
+		assertFalse(img.isTemporary());
+		final RandomAccess<UnsignedShortType> access = img.randomAccess();
+		access.setPosition(new long[] { 1, 2, 1 });
+		assertEquals(1000 + 12 + 8 + 1, access.get().get());
+
+		// changes are written back to the file, which is kept
+		access.get().set(7);
+		img.close();
+		assertTrue(Files.exists(file));
+		final ByteBuffer written =
+			ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.BIG_ENDIAN);
+		assertEquals(7, written.getShort(2 * 21));
+	}
+
+	@Test
+	public void testVirtualDataset() {
+		final Context context = new Context(DatasetService.class);
+		try {
+			final AxisType[] axes = { Axes.X, Axes.Y, Axes.TIME };
+			final Dataset dataset = context.service(DatasetService.class).create(
+				new long[] { 16, 8, 4 }, "virtual", axes, 16, false, false, true);
+			assertTrue(dataset.getImgPlus().getImg() instanceof MappedCellImg);
+			assertTrue(dataset.getImgPlus().getImg() instanceof AbstractCellImg);
+			final Cursor<?> cursor = dataset.getImgPlus().cursor();
+			int count = 0;
+			while (cursor.hasNext()) {
+				cursor.fwd();
+				count++;
+			}
+			assertEquals(16 * 8 * 4, count);
+
+			// the file is deleted along with the dataset
+			final Path file =
+				((MappedCellImg<?, ?>) dataset.getImgPlus().getImg()).getFile();
+			assertTrue(Files.exists(file));
+			dataset.incrementReferences();
+			dataset.decrementReferences();
+			assertFalse(Files.exists(file));
+		}
+		finally {
+			context.dispose();
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.minmax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import net.imagej.ImgPlus;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.plugin.PluginService;
+
+/**
+ * Tests {@link NativeMinMaxMethod}.
+ */
+public class NativeMinMaxMethodTest {
+
+	private Context context;
+
+	@Before
+	public void setUp() {
+		context = new Context();
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testPriority() {
+		final List<MinMaxMethod> methods = context.service(PluginService.class)
+			.createInstancesOfType(MinMaxMethod.class);
+		assertTrue(methods.get(0) instanceof NativeMinMaxMethod);
+	}
+
+	@Test
+	public void testUnsignedArray() {
+		final byte[] data = new byte[300000];
+		data[1234] = (byte) 200;
+		data[298765] = 7;
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] == 0) data[i] = 50;
+		}
+		assertMinMax(ArrayImgs.unsignedBytes(data, 600, 500), 7, 200);
+	}
+
+	@Test
+	public void testPlanar() {
+		final Img<UnsignedShortType> img =
+			PlanarImgs.unsignedShorts(40, 30, 5, 3);
+		for (final UnsignedShortType t : img) t.set(1000);
+		final RandomAccess<UnsignedShortType> ra = img.randomAccess();
+		ra.get().set(65000);
+		ra.setPosition(new long[] { 39, 29, 4, 2 });
+		ra.get().set(3);
+		assertMinMax(img, 3, 65000);
+	}
+
+	@Test
+	public void testCellsWithNaN() {
+		final Img<FloatType> img =
+			new CellImgFactory<FloatType>(7).create(new long[] { 50, 33, 4 },
+				new FloatType());
+		int i = 0;
+		for (final FloatType t : img) t.set(i++ % 97 - 48.5f);
+		img.firstElement().set(Float.NaN);
+		assertMinMax(img, -48.5, 47.5);
+	}
+
+	@Test
+	public void testLongPrecision() {
+		final Img<LongType> img = ArrayImgs.longs(10);
+		img.firstElement().set(Long.MAX_VALUE);
+		final NativeMinMaxMethod<LongType> method = process(img);
+		assertEquals(Long.MAX_VALUE, method.getMax().get());
+		assertEquals(0, method.getMin().get());
+	}
+
+	@Test
+	public void testImgPlus() {
+		final Img<UnsignedByteType> img = ArrayImgs.unsignedBytes(20, 20);
+		int i = 0;
+		for (final UnsignedByteType t : img) t.set(i++ % 256);
+		assertMinMax(new ImgPlus<>(img), 0, 255);
+	}
+
+	@Test
+	public void testFallback() {
+		final Img<UnsignedByteType> img = ArrayImgs.unsignedBytes(20, 20);
+		int i = 0;
+		for (final UnsignedByteType t : img) t.set(i++);
+		// NB: Views are not backed directly by primitive arrays.
+		assertMinMax(Views.iterable(Views.interval(img, new long[] { 5, 5 },
+			new long[] { 9, 9 })), 105, 189);
+	}
+
+	// -- Helper methods --
+
+	private <T extends RealType<T>> void assertMinMax(
+		final IterableInterval<T> image, final double min, final double max)
+	{
+		final NativeMinMaxMethod<T> method = process(image);
+		assertEquals(min, method.getMin().getRealDouble(), 0);
+		assertEquals(max, method.getMax().getRealDouble(), 0);
+	}
+
+	private <T extends RealType<T>> NativeMinMaxMethod<T> process(
+		final IterableInterval<T> image)
+	{
+		final NativeMinMaxMethod<T> method = new NativeMinMaxMethod<>();
+		context.inject(method);
+		method.initialize(image);
+		assertTrue(method.checkInput());
+		assertTrue(method.process());
+		return method;
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.overlay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.roi.BinaryMaskRegionOfInterest;
+import net.imglib2.type.logic.BitType;
+
+import org.scijava.Context;
+
+/**
+ * Writes a binary mask as {@link BinaryMaskOverlay} did before it switched to
+ * the {@link RunLengthMask} format, for testing that such data still reads.
+ * The overlay's own fields are written by the shared superclass, so only the
+ * mask encoding differs: the mask's dimensions and origin, then the deflated
+ * runs of set pixels along X, each as its length and the image position of its
+ * first pixel, ending with a run of length 0.
+ */
+class LegacyBinaryMaskOverlay extends
+	AbstractROIOverlay<BinaryMaskRegionOfInterest<BitType, Img<BitType>>>
+{
+
+	private static final long serialVersionUID = 1L;
+
+	public LegacyBinaryMaskOverlay(final Context context,
+		final BinaryMaskRegionOfInterest<BitType, Img<BitType>> roi)
+	{
+		super(context, roi);
+	}
+
+	// -- Externalizable methods --
+
+	@Override
+	public void writeExternal(final ObjectOutput out) throws IOException {
+		super.writeExternal(out);
+		final BinaryMaskRegionOfInterest<BitType, Img<BitType>> theRoi =
+			getRegionOfInterest();
+		final Img<BitType> img = theRoi.getImg();
+		final Cursor<BitType> c = img.localizingCursor();
+
+		out.writeInt(theRoi.numDimensions());
+		for (int i = 0; i < theRoi.numDimensions(); i++) {
+			out.writeLong(img.dimension(i));
+		}
+		final double[] maskOrigin = theRoi.getOrigin();
+		for (int i = 0; i < maskOrigin.length; i++)
+			out.writeDouble(maskOrigin[i]);
+		final ByteArrayOutputStream s = new ByteArrayOutputStream();
+		final DataOutputStream ds =
+			new DataOutputStream(new DeflaterOutputStream(s));
+		final long initial_position[] = new long[theRoi.numDimensions()];
+		final long next_position[] = new long[theRoi.numDimensions()];
+		Arrays.fill(initial_position, Long.MIN_VALUE);
+		long run = 0;
+		while (c.hasNext()) {
+			if (!c.next().get()) continue;
+			next_position[0] = initial_position[0] + run;
+			for (int i = 0; i < theRoi.numDimensions(); i++) {
+				if (next_position[i] != c.getLongPosition(i)) {
+					if (run > 0) {
+						ds.writeLong(run);
+						for (int j = 0; j < theRoi.numDimensions(); j++) {
+							ds.writeLong(initial_position[j]);
+						}
+					}
+					run = 0;
+					c.localize(initial_position);
+					c.localize(next_position);
+					break;
+				}
+			}
+			run++;
+		}
+		if (run > 0) {
+			ds.writeLong(run);
+			for (int j = 0; j < theRoi.numDimensions(); j++) {
+				ds.writeLong(initial_position[j]);
+			}
+		}
+		// the end is signaled by a run of length 0
+		ds.writeLong(0);
+		ds.close();
+		final byte[] buffer = s.toByteArray();
+		out.writeInt(buffer.length);
+		out.write(buffer);
+	}
+
+	// -- Overlay methods --
+
+	@Override
+	public void move(final double[] deltas) {
+		getRegionOfInterest().move(deltas);
+	}
+
+}
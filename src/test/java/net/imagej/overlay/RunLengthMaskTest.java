@@ -0,0 +1,187 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.overlay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link RunLengthMask}.
+ */
+public class RunLengthMaskTest {
+
+	private final Random random = new Random(0xcafe);
+
+	@Test
+	public void testBuilder() {
+		final RunLengthMask mask = new RunLengthMask.Builder(new long[] { 2, 1 },
+			new long[] { 11, 3 }).add(0, 3).add(3, 5).add(new long[] { 4, 2 }, 2)
+				.add(25, 30).build();
+		assertEquals(3, mask.getRunCount());
+		assertEquals(12, mask.getPixelCount());
+		assertTrue(mask.contains(2, 1));
+		assertTrue(mask.contains(6, 1));
+		assertFalse(mask.contains(7, 1));
+		assertTrue(mask.contains(5, 2));
+		assertFalse(mask.contains(6, 2));
+		assertTrue(mask.contains(11, 3));
+		assertFalse(mask.contains(12, 3));
+		assertFalse(mask.contains(2, 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutOfOrder() {
+		new RunLengthMask.Builder(new long[] { 0 }, new long[] { 9 }).add(5, 6)
+			.add(2, 3);
+	}
+
+	@Test
+	public void testImgRoundTrip() {
+		for (int iter = 0; iter < 50; iter++) {
+			final ArrayImg<BitType, LongArray> img = randomImg(1 + random.nextInt(
+				100), 1 + random.nextInt(20), 0.05 + 0.9 * random.nextDouble());
+			final RunLengthMask mask = RunLengthMask.of(img);
+			assertMatches(img, mask, 0, 0);
+			assertImgsEqual(img, mask.toImg());
+
+			// the cursor path must agree with the word-scanning path
+			assertEquals(mask, RunLengthMask.of(Views.interval(img, img)));
+		}
+	}
+
+	@Test
+	public void testSerialization() throws IOException {
+		for (int iter = 0; iter < 20; iter++) {
+			final RunLengthMask mask = RunLengthMask.of(randomImg(1 + random
+				.nextInt(300), 1 + random.nextInt(30), random.nextDouble())).translate(
+					random.nextInt(100) - 50, random.nextInt(100) - 50);
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			mask.write(new DataOutputStream(bytes));
+			final RunLengthMask read = RunLengthMask.read(new DataInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())));
+			assertEquals(mask, read);
+		}
+
+		// a sparse mask takes a few bytes per run
+		final RunLengthMask sparse = new RunLengthMask.Builder(new long[] { 0,
+			0 }, new long[] { 4095, 4095 }).add(1000, 1010).add(3000000, 3000100)
+				.build();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		sparse.write(new DataOutputStream(bytes));
+		assertTrue(bytes.size() < 20);
+	}
+
+	@Test
+	public void testSetOperations() {
+		for (int iter = 0; iter < 50; iter++) {
+			final int ax = random.nextInt(10) - 5, ay = random.nextInt(10) - 5;
+			final int bx = random.nextInt(10) - 5, by = random.nextInt(10) - 5;
+			final ArrayImg<BitType, LongArray> a = randomImg(1 + random.nextInt(70),
+				1 + random.nextInt(12), random.nextDouble());
+			final ArrayImg<BitType, LongArray> b = randomImg(1 + random.nextInt(70),
+				1 + random.nextInt(12), random.nextDouble());
+			final RunLengthMask ma = RunLengthMask.of(a).translate(ax, ay);
+			final RunLengthMask mb = RunLengthMask.of(b).translate(bx, by);
+			final RunLengthMask union = ma.union(mb);
+			final RunLengthMask intersection = ma.intersect(mb);
+			final RunLengthMask difference = ma.subtract(mb);
+			for (long y = -6; y < 20; y++) {
+				for (long x = -6; x < 80; x++) {
+					final boolean inA = ma.contains(x, y), inB = mb.contains(x, y);
+					assertEquals(inA || inB, union.contains(x, y));
+					assertEquals(inA && inB, intersection.contains(x, y));
+					assertEquals(inA && !inB, difference.contains(x, y));
+				}
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	private ArrayImg<BitType, LongArray> randomImg(final long width,
+		final long height, final double density)
+	{
+		final ArrayImg<BitType, LongArray> img = ArrayImgs.bits(width, height);
+		final RandomAccess<BitType> ra = img.randomAccess();
+		boolean on = false;
+		for (long y = 0; y < height; y++) {
+			ra.setPosition(y, 1);
+			for (long x = 0; x < width; x++) {
+				// NB: flip occasionally, to produce runs of varied lengths
+				if (random.nextDouble() < 0.2) on = random.nextDouble() < density;
+				ra.setPosition(x, 0);
+				ra.get().set(on);
+			}
+		}
+		return img;
+	}
+
+	private void assertMatches(final ArrayImg<BitType, LongArray> img,
+		final RunLengthMask mask, final long ox, final long oy)
+	{
+		final Cursor<BitType> c = img.localizingCursor();
+		while (c.hasNext()) {
+			final boolean on = c.next().get();
+			assertEquals(on, mask.contains(c.getLongPosition(0) + ox, c
+				.getLongPosition(1) + oy));
+		}
+	}
+
+	private void assertImgsEqual(final ArrayImg<BitType, LongArray> expected,
+		final ArrayImg<BitType, LongArray> actual)
+	{
+		final Cursor<BitType> e = expected.cursor();
+		final Cursor<BitType> a = actual.cursor();
+		while (e.hasNext()) {
+			assertEquals(e.next().get(), a.next().get());
+		}
+	}
+
+}
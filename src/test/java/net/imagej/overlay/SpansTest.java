@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.overlay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Spans}.
+ */
+public class SpansTest {
+
+	@Test
+	public void testBuilder() {
+		final Spans spans = new Spans.Builder().add(3, 0, 2).add(3, 3, 5).add(3,
+			8, 9).add(5, -4, -1).build();
+		assertEquals(3, spans.getMinRow());
+		assertEquals(5, spans.getMaxRow());
+		assertEquals(3, spans.getSpanCount());
+		assertEquals(12, spans.getPixelCount());
+		assertEquals("Spans[3:0-5, 3:8-9, 5:-4--1]", spans.toString());
+
+		assertTrue(spans.contains(4, 3));
+		assertFalse(spans.contains(6, 3));
+		assertTrue(spans.contains(9, 3));
+		assertFalse(spans.contains(0, 4));
+		assertTrue(spans.contains(-4, 5));
+		assertFalse(spans.contains(0, 6));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutOfOrder() {
+		new Spans.Builder().add(3, 0, 2).add(2, 0, 2);
+	}
+
+	@Test
+	public void testEmpty() {
+		assertTrue(Spans.EMPTY.isEmpty());
+		assertEquals(0, Spans.EMPTY.getPixelCount());
+		assertFalse(Spans.EMPTY.contains(0, 0));
+		assertTrue(Spans.EMPTY.outline().isEmpty());
+	}
+
+	@Test
+	public void testClip() {
+		final Spans spans = rectangle(-2, -2, 3, 3);
+		assertEquals(rectangle(0, 0, 3, 3), spans.clip(0, 0, 10, 10));
+		assertTrue(spans.clip(4, 0, 10, 10).isEmpty());
+	}
+
+	@Test
+	public void testOutline() {
+		final Spans outline = rectangle(0, 0, 4, 3).outline();
+		final Spans expected = new Spans.Builder() //
+			.add(0, 0, 4) //
+			.add(1, 0, 0).add(1, 4, 4) //
+			.add(2, 0, 0).add(2, 4, 4) //
+			.add(3, 0, 4).build();
+		assertEquals(expected, outline);
+
+		// a notch exposes the pixels around it
+		final Spans notched = new Spans.Builder() //
+			.add(0, 0, 4) //
+			.add(1, 0, 4) //
+			.add(2, 0, 1).add(2, 3, 4) //
+			.add(3, 0, 4) //
+			.add(4, 0, 4).build();
+		final Spans expectedNotched = new Spans.Builder() //
+			.add(0, 0, 4) //
+			.add(1, 0, 0).add(1, 2, 2).add(1, 4, 4) //
+			.add(2, 0, 1).add(2, 3, 4) //
+			.add(3, 0, 0).add(3, 2, 2).add(3, 4, 4) //
+			.add(4, 0, 4).build();
+		assertEquals(expectedNotched, notched.outline());
+	}
+
+	// -- Helper methods --
+
+	private Spans rectangle(final long minX, final long minY, final long maxX,
+		final long maxY)
+	{
+		final Spans.Builder builder = new Spans.Builder();
+		for (long y = minY; y <= maxY; y++) {
+			builder.add(y, minX, maxX);
+		}
+		return builder.build();
+	}
+
+}
@@ -31,9 +31,14 @@
 
 package net.imagej.overlay;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Random;
 
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
@@ -135,6 +140,91 @@ public class TestBinaryMaskOverlay {
 	}
 	*/
 
+	@Test
+	public void testExternalRoundTrip() throws IOException,
+		ClassNotFoundException
+	{
+		final Context context = new Context(true);
+		final Random r = new Random(54321);
+		final boolean[][] imgArray = new boolean[40][30];
+		for (int i = 0; i < imgArray.length; i++) {
+			for (int j = 0; j < imgArray[i].length; j++) {
+				imgArray[i][j] = r.nextInt(4) == 0;
+			}
+		}
+		final BinaryMaskOverlay overlay = makeOverlay(context, imgArray);
+		overlay.move(new double[] { 3, -2 });
+
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(os);
+		overlay.writeExternal(out);
+		out.close();
+		final ObjectInputStream in =
+			new ObjectInputStream(new ByteArrayInputStream(os.toByteArray()));
+		// NB: an overlay cannot be constructed without a mask; see #1991
+		final BinaryMaskOverlay overlayOut =
+			makeOverlay(context, new boolean[][] { { false } });
+		overlayOut.readExternal(in);
+		assertEquals(0, in.available());
+
+		final RunLengthMask mask = overlayOut.getRunLengthMask();
+		assertEquals(overlay.getRunLengthMask(), mask);
+		for (int i = 0; i < imgArray.length; i++) {
+			for (int j = 0; j < imgArray[i].length; j++) {
+				assertEquals(imgArray[i][j], mask.contains(i + 3, j - 2));
+			}
+		}
+	}
+
+	@Test
+	public void testReadLegacyExternal() throws IOException,
+		ClassNotFoundException
+	{
+		final Context context = new Context(true);
+		final Random r = new Random(12345);
+		final boolean[][] imgArray = new boolean[20][15];
+		for (int i = 0; i < imgArray.length; i++) {
+			for (int j = 0; j < imgArray[i].length; j++) {
+				imgArray[i][j] = r.nextInt(3) == 0;
+			}
+		}
+		final LegacyBinaryMaskOverlay overlay =
+			new LegacyBinaryMaskOverlay(context, makeRoi(imgArray));
+		overlay.move(new double[] { 4, -1 });
+
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(os);
+		overlay.writeExternal(out);
+		out.close();
+
+		final ObjectInputStream in =
+			new ObjectInputStream(new ByteArrayInputStream(os.toByteArray()));
+		// NB: an overlay cannot be constructed without a mask; see #1991
+		final BinaryMaskOverlay overlayOut =
+			makeOverlay(context, new boolean[][] { { false } });
+		overlayOut.readExternal(in);
+		assertEquals(0, in.available());
+
+		final RunLengthMask mask = overlayOut.getRunLengthMask();
+		for (int i = 0; i < imgArray.length; i++) {
+			for (int j = 0; j < imgArray[i].length; j++) {
+				assertEquals(imgArray[i][j], mask.contains(i + 4, j - 1));
+			}
+		}
+		assertEquals(makeOverlay(context, imgArray).getRunLengthMask().translate(4,
+			-1), mask);
+	}
+
+	@Test
+	public void testCreate() {
+		final Context context = new Context(true);
+		final RunLengthMask mask = new RunLengthMask.Builder(new long[] { 5, 7 },
+			new long[] { 9, 9 }).add(2, 4).add(12, 15).build();
+		final BinaryMaskOverlay<BitType, Img<BitType>> overlay =
+			BinaryMaskOverlay.create(context, mask);
+		assertEquals(mask, overlay.getRunLengthMask());
+	}
+
 	@Test
 	public void testBinaryMaskOverlay() {
 		final Context context = new Context(true);
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.sampler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link AxisSubrange} and the {@link PositionIterator}s.
+ */
+public class AxisSubrangeTest {
+
+	@Test
+	public void testRanges() {
+		assertEquals(Arrays.asList(4L), new AxisSubrange(4).getIndices());
+		assertEquals(Arrays.asList(2L, 3L, 4L), new AxisSubrange(2, 4)
+			.getIndices());
+		assertEquals(Arrays.asList(4L, 3L, 2L), new AxisSubrange(4, 2)
+			.getIndices());
+		assertEquals(Arrays.asList(1L, 4L, 7L), new AxisSubrange(1, 8, 3)
+			.getIndices());
+		assertEquals(Arrays.asList(8L, 6L), new AxisSubrange(8, 5, -2)
+			.getIndices());
+		assertEquals(0, new AxisSubrange(8, 5, 2).getIndexCount());
+		assertNotNull(new AxisSubrange(1, 5, 0).getError());
+	}
+
+	@Test
+	public void testHugeRange() {
+		final AxisSubrange subrange = new AxisSubrange(0, 1L << 40);
+		assertNull(subrange.getError());
+		assertEquals((1L << 40) + 1, subrange.getIndexCount());
+		assertEquals(123456789012L, subrange.getIndex(123456789012L));
+	}
+
+	@Test
+	public void testSparseIterator() {
+		final PositionIterator iter = new SparsePositionIterator(new AxisSubrange(
+			3, 4), new AxisSubrange(7), new AxisSubrange(0, 4, 2));
+		final List<String> positions = collect(iter);
+		assertEquals(Arrays.asList("[3, 7, 0]", "[4, 7, 0]", "[3, 7, 2]",
+			"[4, 7, 2]", "[3, 7, 4]", "[4, 7, 4]"), positions);
+	}
+
+	@Test
+	public void testJumpFwd() {
+		final PositionIterator iter = new DensePositionIterator(3, 2);
+		iter.jumpFwd(4);
+		final long[] pos = new long[2];
+		iter.next(pos);
+		assertArrayEquals(new long[] { 1, 1 }, pos);
+		iter.next(pos);
+		assertArrayEquals(new long[] { 2, 1 }, pos);
+		assertFalse(iter.hasNext());
+	}
+
+	@Test
+	public void testSplit() {
+		final long[] dims = { 5, 3, 4 };
+		final List<String> expected = collect(new DensePositionIterator(dims));
+		assertEquals(60, expected.size());
+
+		final PositionIterator suffix = new DensePositionIterator(dims);
+		final PositionIterator prefix = suffix.trySplit();
+		assertEquals(30, prefix.estimateSize());
+		assertEquals(30, suffix.estimateSize());
+		final List<String> split = collect(prefix);
+		split.addAll(collect(suffix));
+		assertEquals(expected, split);
+
+		// parallel streams see every position exactly once, in order
+		final List<String> parallel = StreamSupport.stream(
+			new DensePositionIterator(dims), true).map(Arrays::toString).collect(
+				Collectors.toList());
+		assertEquals(expected, parallel);
+	}
+
+	// -- Helper methods --
+
+	private static List<String> collect(final PositionIterator iter) {
+		return StreamSupport.stream(iter, false).map(Arrays::toString).collect(
+			Collectors.toList());
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.sampler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Arrays;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.display.ImageDisplay;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.display.DisplayService;
+
+/**
+ * Tests {@link DefaultSamplerService}.
+ */
+public class DefaultSamplerServiceTest {
+
+	private Context context;
+	private SamplerService samplerService;
+	private ImageDisplay display;
+
+	@Before
+	public void setUp() {
+		context = new Context();
+		samplerService = context.service(SamplerService.class);
+		final DatasetService datasetService =
+			context.service(DatasetService.class);
+		final AxisType[] axes = { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z };
+		final Dataset dataset = datasetService.create(new long[] { 8, 6, 2, 5 },
+			"sample", axes, 16, false, false);
+		final Cursor<? extends RealType<?>> cursor =
+			dataset.getImgPlus().localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().setReal(value(cursor.getLongPosition(0), cursor
+				.getLongPosition(1), cursor.getLongPosition(2), cursor
+				.getLongPosition(3)));
+		}
+		display = (ImageDisplay) context.service(DisplayService.class)
+			.createDisplay(dataset);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testDuplicate() {
+		final Dataset output = output(samplerService.duplicate(display));
+		assertArrayEquals(new long[] { 8, 6, 2, 5 }, Intervals
+			.dimensionsAsLongArray(output));
+		final Cursor<? extends RealType<?>> cursor =
+			output.getImgPlus().localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			assertEquals(value(cursor.getLongPosition(0), cursor.getLongPosition(1),
+				cursor.getLongPosition(2), cursor.getLongPosition(3)), cursor.get()
+					.getRealDouble(), 0);
+		}
+	}
+
+	@Test
+	public void testSubranges() {
+		// a row-aligned run of X, sparse Z and a single channel
+		final SamplingDefinition def = SamplingDefinition.sampleAllPlanes(display);
+		def.constrain(Axes.X, new AxisSubrange(2, 6));
+		def.constrain(Axes.CHANNEL, new AxisSubrange(1));
+		def.constrain(Axes.Z, new AxisSubrange(0, 4, 2));
+		final Dataset output = output(samplerService.createSampledImage(def));
+		assertArrayEquals(new long[] { 5, 6, 3 }, Intervals.dimensionsAsLongArray(
+			output));
+		final RandomAccess<? extends RealType<?>> access =
+			output.getImgPlus().randomAccess();
+		for (int z = 0; z < 3; z++) {
+			for (int y = 0; y < 6; y++) {
+				for (int x = 0; x < 5; x++) {
+					access.setPosition(new long[] { x, y, z });
+					assertEquals(value(x + 2, y, 1, 2 * z), access.get()
+						.getRealDouble(), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSubrangeDefinitions() {
+		// disjoint terms are kept as they are, but sorted
+		final AxisSubrange disjoint = new AxisSubrange(display, Axes.X,
+			"6-8,1,3-4", true);
+		assertEquals(Arrays.asList(0L, 2L, 3L, 5L, 6L, 7L), disjoint
+			.getIndices());
+
+		// overlapping terms are merged
+		final AxisSubrange overlapping = new AxisSubrange(display, Axes.X,
+			"0-6-2,1-7-3,5", false);
+		assertEquals(Arrays.asList(0L, 1L, 2L, 4L, 5L, 6L, 7L), overlapping
+			.getIndices());
+
+		assertNotNull(new AxisSubrange(display, Axes.X, "3-9", false).getError());
+	}
+
+	@Test
+	public void testCollapsedX() {
+		// a single column: output Y and Z are not an input XY plane
+		final SamplingDefinition def = SamplingDefinition.sampleAllPlanes(display);
+		def.constrain(Axes.X, new AxisSubrange(3));
+		def.constrain(Axes.CHANNEL, new AxisSubrange(0));
+		final Dataset output = output(samplerService.createSampledImage(def));
+		assertArrayEquals(new long[] { 6, 5 }, Intervals.dimensionsAsLongArray(
+			output));
+		final RandomAccess<? extends RealType<?>> access =
+			output.getImgPlus().randomAccess();
+		for (int z = 0; z < 5; z++) {
+			for (int y = 0; y < 6; y++) {
+				access.setPosition(new long[] { y, z });
+				assertEquals(value(3, y, 0, z), access.get().getRealDouble(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testHugeConstraint() {
+		// NB: Too many indices to list; only the ends are checked.
+		final SamplingDefinition def = SamplingDefinition.sampleAllPlanes(display);
+		assertFalse(def.constrain(Axes.Z, new AxisSubrange(0, 1L << 32)));
+		assertNotNull(def.getError());
+		assertArrayEquals(new long[] { 8, 6, 2, 5 }, def.getOutputDims());
+	}
+
+	// -- Helper methods --
+
+	private static double value(final long x, final long y, final long c,
+		final long z)
+	{
+		return 1000 * z + 100 * c + 10 * y + x;
+	}
+
+	private static Dataset output(final ImageDisplay display) {
+		return (Dataset) display.getActiveView().getData();
+	}
+
+}
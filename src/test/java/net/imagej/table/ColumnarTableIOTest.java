@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link ColumnarTableIO}.
+ */
+public class ColumnarTableIOTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ColumnarTableIO io = new ColumnarTableIO();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		testRoundTrip(ColumnarTableIO.Codec.NONE);
+	}
+
+	@Test
+	public void testDeflate() throws IOException {
+		testRoundTrip(ColumnarTableIO.Codec.DEFLATE);
+	}
+
+	@Test
+	public void testSubset() throws IOException {
+		final File file = folder.newFile("subset.ijt");
+		io.write(createTable(10), file);
+		final GenericTable table = io.read(file, "C", "A");
+		assertEquals(2, table.getColumnCount());
+		assertEquals(10, table.getRowCount());
+		assertEquals("C", table.getColumnHeader(0));
+		assertEquals(value(2, 7), (Double) table.get(0, 7), 0);
+		assertEquals(value(0, 7), (Double) table.get(1, 7), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingColumn() throws IOException {
+		final File file = folder.newFile("missing.ijt");
+		io.write(createTable(1), file);
+		io.read(file, "Z");
+	}
+
+	@Test
+	public void testTypes() throws IOException {
+		final DefaultGenericTable table = new DefaultGenericTable();
+		final IntColumn ints = new IntColumn("ints");
+		ints.fill(new int[] { 1, -2, 3 });
+		final BoolColumn bools = new BoolColumn("bools");
+		bools.fill(new boolean[] { true, false, true });
+		final DefaultColumn<Character> chars = new DefaultColumn<>(
+			Character.class, "chars");
+		chars.add('a');
+		chars.add('b');
+		chars.add('c');
+		table.add(ints);
+		table.add(bools);
+		table.add(chars);
+		table.setRowCount(3);
+		table.setRowHeader(1, "second");
+
+		final File file = folder.newFile("types.ijt");
+		io.write(table, file, ColumnarTableIO.Codec.DEFLATE);
+		final GenericTable read = io.read(file);
+		assertEquals(Integer.class, read.get(0).getType());
+		assertEquals(Boolean.class, read.get(1).getType());
+		assertEquals(Character.class, read.get(2).getType());
+		assertEquals(-2, read.get(0, 1));
+		assertEquals(false, read.get(1, 1));
+		assertEquals('c', read.get(2, 2));
+		assertNull(read.getRowHeader(0));
+		assertEquals("second", read.getRowHeader(1));
+
+		final ResultsTable results = io.readResults(file);
+		assertEquals(3, results.getValue(0, 2), 0);
+		assertEquals(1, results.getValue(1, 0), 0);
+		assertEquals('b', results.getValue(2, 1), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedType() throws IOException {
+		final DefaultGenericTable table = new DefaultGenericTable(1, 1);
+		table.set(0, 0, "text");
+		io.write(table, folder.newFile("text.ijt"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testReadOnly() throws IOException {
+		final File file = folder.newFile("readonly.ijt");
+		io.write(createTable(2), file);
+		io.read(file).set(0, 0, 1.0);
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotATable() throws IOException {
+		io.read(folder.newFile("empty.ijt"));
+	}
+
+	// -- Helper methods --
+
+	private void testRoundTrip(final ColumnarTableIO.Codec codec)
+		throws IOException
+	{
+		final int rows = 2 * ColumnarTableIO.BLOCK_ROWS + 3;
+		final ResultsTable table = createTable(rows);
+		final File file = folder.newFile("table.ijt");
+		io.write(table, file, codec);
+
+		final GenericTable read = io.read(file);
+		assertEquals(3, read.getColumnCount());
+		assertEquals(rows, read.getRowCount());
+		for (int c = 0; c < 3; c++) {
+			assertEquals(table.getColumnHeader(c), read.getColumnHeader(c));
+			assertEquals(Double.class, read.get(c).getType());
+			for (int r = 0; r < rows; r += 997) {
+				assertEquals(value(c, r), (Double) read.get(c, r), 0);
+			}
+			assertEquals(value(c, rows - 1), (Double) read.get(c, rows - 1), 0);
+		}
+		assertEquals("first", read.getRowHeader(0));
+
+		final ResultsTable results = io.readResults(file);
+		assertEquals(rows, results.getRowCount());
+		assertEquals("first", results.getRowHeader(0));
+		for (int c = 0; c < 3; c++) {
+			for (int r = 0; r < rows; r++) {
+				if (results.getValue(c, r) != value(c, r)) {
+					assertEquals(value(c, r), results.getValue(c, r), 0);
+				}
+			}
+		}
+		// results can be modified, unlike the mapped table
+		results.appendRow();
+		assertTrue(results.getRowCount() > rows);
+	}
+
+	private ResultsTable createTable(final int rows) {
+		final ResultsTable table = new DefaultResultsTable(3, rows);
+		table.setColumnHeader(0, "A");
+		table.setColumnHeader(1, "B");
+		table.setColumnHeader(2, "C");
+		for (int c = 0; c < 3; c++) {
+			for (int r = 0; r < rows; r++) {
+				table.setValue(c, r, value(c, r));
+			}
+		}
+		table.setRowHeader(0, "first");
+		return table;
+	}
+
+	private double value(final int c, final int r) {
+		return c == 1 ? r % 7 : r * 0.5 + c;
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.imagej.table.ConcurrentResultsTable.RowWriter;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ConcurrentResultsTable}.
+ */
+public class ConcurrentResultsTableTest {
+
+	@Test
+	public void testAppend() {
+		final ConcurrentResultsTable table =
+			new ConcurrentResultsTable("Area", "Mean");
+		assertEquals(2, table.getColumnCount());
+		assertEquals(1, table.getColumnIndex("Mean"));
+		table.appendRow(1, 2);
+		try (final RowWriter writer = table.writer(4)) {
+			writer.appendRow(3, 4);
+			writer.appendRow(5, 6);
+			// NB: Buffered rows are not visible until flushed.
+			assertEquals(1, table.getRowCount());
+		}
+		assertEquals(3, table.getRowCount());
+		assertEquals(5, table.getValue(0, 2), 0);
+
+		final ResultsTable snapshot = table.snapshot();
+		assertEquals(2, snapshot.getColumnCount());
+		assertEquals(3, snapshot.getRowCount());
+		assertEquals("Mean", snapshot.getColumnHeader(1));
+		assertEquals(6, snapshot.getValue(1, 2), 0);
+
+		table.appendRow(7, 8);
+		assertEquals(3, snapshot.getRowCount());
+		assertEquals(4, table.getRowCount());
+	}
+
+	@Test
+	public void testSegments() {
+		final ConcurrentResultsTable table = new ConcurrentResultsTable("X");
+		final int rows = 5 * ConcurrentResultsTable.SEGMENT_SIZE + 17;
+		try (final RowWriter writer = table.writer(1000)) {
+			for (int r = 0; r < rows; r++) {
+				writer.appendRow(r);
+			}
+		}
+		final ResultsTable snapshot = table.snapshot();
+		assertEquals(rows, snapshot.getRowCount());
+		for (int r = 0; r < rows; r++) {
+			assertEquals(r, snapshot.getValue(0, r), 0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongWidth() {
+		new ConcurrentResultsTable("A", "B").appendRow(1);
+	}
+
+	@Test
+	public void testConcurrentAppend() throws InterruptedException {
+		final ConcurrentResultsTable table =
+			new ConcurrentResultsTable("Thread", "Index", "Check");
+		final int threadCount = 32, rowsPerThread = 20000;
+		final List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++) {
+			final int id = t;
+			threads.add(new Thread(() -> {
+				try (final RowWriter writer = table.writer(id % 2 == 0 ? 100 : 7)) {
+					for (int i = 0; i < rowsPerThread; i++) {
+						writer.appendRow(id, i, id * rowsPerThread + i);
+					}
+				}
+			}));
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+
+		// NB: Snapshots taken during appending must be internally consistent.
+		final ResultsTable partial = table.snapshot();
+		for (int r = 0; r < partial.getRowCount(); r++) {
+			assertEquals(partial.getValue(0, r) * rowsPerThread + partial.getValue(
+				1, r), partial.getValue(2, r), 0);
+		}
+
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		final ResultsTable snapshot = table.snapshot();
+		assertEquals(threadCount * rowsPerThread, snapshot.getRowCount());
+		final boolean[] seen = new boolean[threadCount * rowsPerThread];
+		final int[] last = new int[threadCount];
+		Arrays.fill(last, -1);
+		for (int r = 0; r < snapshot.getRowCount(); r++) {
+			final int id = (int) snapshot.getValue(0, r);
+			final int index = (int) snapshot.getValue(1, r);
+			final int check = (int) snapshot.getValue(2, r);
+			assertEquals(id * rowsPerThread + index, check);
+			assertFalse(seen[check]);
+			seen[check] = true;
+			// each thread's rows stay in the order it appended them
+			assertTrue(index > last[id]);
+			last[id] = index;
+		}
+	}
+
+}
@@ -116,6 +116,21 @@ public class DefaultGenericTableTest {
 		assertEquals(table.get(3, 6), (byte) 0);
 	}
 
+	@Test
+	public void testRetainRows() {
+		final GenericTable table = makeTable();
+		table.add(new OffHeapIntColumn("OffHeap"));
+		for (int r = 0; r < 4; r++) {
+			table.set(4, r, r * 10);
+		}
+		table.retainRows(1, 3);
+		assertEquals(table.getRowCount(), 2);
+		assertEquals(table.get(1, 0), '&');
+		assertEquals(table.get(3, 0), "hello");
+		assertEquals(table.get(2, 1), -0.03125f);
+		assertEquals(table.get(4, 1), 30);
+	}
+
 	// TODO add more tests
 
 	// -- Helper methods --
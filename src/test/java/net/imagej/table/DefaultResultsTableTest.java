@@ -34,6 +34,7 @@ package net.imagej.table;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 
+import java.util.BitSet;
 import java.util.List;
 
 import org.junit.Test;
@@ -320,6 +321,130 @@ public class DefaultResultsTableTest {
 		checkTableModifiedRows(table, values, 3, 6);
 	}
 
+	@Test
+	public void testColumnIndex() {
+		final ResultsTable table = createTable();
+		assertEquals(1, table.getColumnIndex("Age"));
+		assertEquals(-1, table.getColumnIndex("Height"));
+
+		table.insertColumn(0, "Height");
+		assertEquals(0, table.getColumnIndex("Height"));
+		assertEquals(2, table.getColumnIndex("Age"));
+
+		table.setColumnHeader(2, "Years");
+		assertEquals(-1, table.getColumnIndex("Age"));
+		assertEquals(2, table.getColumnIndex("Years"));
+
+		// duplicate headers resolve to the first column
+		table.setColumnHeader(3, "Years");
+		assertEquals(2, table.getColumnIndex("Years"));
+		table.removeColumn(2);
+		assertEquals(2, table.getColumnIndex("Years"));
+
+		// headers changed on the column itself are still found
+		table.get(0).setHeader("Width");
+		assertEquals(0, table.getColumnIndex("Width"));
+		assertEquals(-1, table.getColumnIndex("Height"));
+	}
+
+	@Test
+	public void testRowIndex() {
+		final ResultsTable table = createTable();
+		for (int r = 0; r < table.getRowCount(); r++) {
+			table.setRowHeader(r, "r" + r);
+		}
+		assertEquals(5, table.getRowIndex("r5"));
+		assertEquals(-1, table.getRowIndex("x"));
+
+		table.insertRow(2, "x");
+		assertEquals(2, table.getRowIndex("x"));
+		assertEquals(6, table.getRowIndex("r5"));
+
+		table.removeRow("r0");
+		assertEquals(1, table.getRowIndex("x"));
+		assertEquals(5, table.getRowIndex("r5"));
+
+		table.appendRow("last");
+		assertEquals(table.getRowCount() - 1, table.getRowIndex("last"));
+		table.setRowHeader(0, "last");
+		assertEquals(0, table.getRowIndex("last"));
+		table.setRowHeader(0, "first");
+		assertEquals(table.getRowCount() - 1, table.getRowIndex("last"));
+
+		// removed rows lose their headers, even when rows are added back
+		final int rowCount = table.getRowCount();
+		table.setRowCount(rowCount - 1);
+		assertEquals(-1, table.getRowIndex("last"));
+		table.setRowCount(rowCount);
+		assertEquals(-1, table.getRowIndex("last"));
+		assertEquals(rowCount - 1, table.getRowIndex(null));
+	}
+
+	@Test
+	public void testRemoveRowsIf() {
+		final ResultsTable table = createTable();
+		table.setRowHeader(9, "1987");
+		table.removeRowsIf(r -> table.getValue(2, r) < .3);
+		assertEquals(12, table.getRowCount());
+		int row = 0;
+		for (int r = 0; r < DATA.length; r++) {
+			if (DATA[r][2] < .3) continue;
+			for (int c = 0; c < HEADERS.length; c++) {
+				assertEquals(DATA[r][c], table.getValue(c, row), 0);
+			}
+			row++;
+		}
+		assertEquals(3, table.getRowIndex("1987"));
+		assertEquals(null, table.getRowHeader(2));
+	}
+
+	@Test
+	public void testRetainRows() {
+		final ResultsTable table = createTable();
+		table.retainRows(20, 0, 5, 6);
+		assertEquals(4, table.getRowCount());
+		assertEquals(DATA[0][0], table.getValue(0, 0), 0);
+		assertEquals(DATA[5][1], table.getValue(1, 1), 0);
+		assertEquals(DATA[6][2], table.getValue(2, 2), 0);
+		assertEquals(DATA[20][0], table.getValue(0, 3), 0);
+
+		final BitSet rows = new BitSet();
+		rows.set(1, 3);
+		table.removeRows(rows);
+		assertEquals(2, table.getRowCount());
+		assertEquals(DATA[0][0], table.getValue(0, 0), 0);
+		assertEquals(DATA[20][0], table.getValue(0, 1), 0);
+	}
+
+	@Test
+	public void testRemoveRowsByHeader() {
+		final ResultsTable table = createTable();
+		table.setRowHeader(2, "a");
+		table.setRowHeader(4, "b");
+		table.setRowHeader(7, "a");
+		table.removeRows("a", "b", "a");
+		assertEquals(18, table.getRowCount());
+		assertEquals(-1, table.getRowIndex("a"));
+		assertEquals(DATA[3][0], table.getValue(0, 2), 0);
+		assertEquals(DATA[5][0], table.getValue(0, 3), 0);
+		assertEquals(DATA[8][0], table.getValue(0, 5), 0);
+	}
+
+	@Test
+	public void testInsertRowsWithHeaders() {
+		final ResultsTable table = createTable();
+		table.setRowHeader(3, "x");
+		table.insertRows(2, "new1", "new2");
+		assertEquals(23, table.getRowCount());
+		assertEquals("new1", table.getRowHeader(2));
+		assertEquals("new2", table.getRowHeader(3));
+		assertEquals(5, table.getRowIndex("x"));
+		assertEquals(0, table.getValue(0, 2), 0);
+		assertEquals(DATA[2][0], table.getValue(0, 4), 0);
+		table.appendRows("end");
+		assertEquals(23, table.getRowIndex("end"));
+	}
+
 	// TODO - Add more tests. 
 
 	// -- Helper methods --
@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.imglib2.Cursor;
+import net.imglib2.FlatIterationOrder;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ResultsImg}.
+ */
+public class ResultsImgTest {
+
+	@Test
+	public void testDimensions() {
+		final ResultsImg img = new ResultsImg(createTable(3, 4));
+		assertEquals(2, img.numDimensions());
+		assertEquals(3, img.dimension(0));
+		assertEquals(4, img.dimension(1));
+		assertEquals(12, img.size());
+		final long[] max = new long[2];
+		img.max(max);
+		assertArrayEquals(new long[] { 2, 3 }, max);
+		final double[] realMax = new double[2];
+		img.realMax(realMax);
+		assertArrayEquals(new double[] { 2, 3 }, realMax, 0);
+		assertTrue(img.iterationOrder() instanceof FlatIterationOrder);
+	}
+
+	@Test
+	public void testCursor() {
+		final ResultsTable table = createTable(3, 4);
+		final Cursor<DoubleType> cursor = new ResultsImg(table).cursor();
+		for (int row = 0; row < 4; row++) {
+			for (int col = 0; col < 3; col++) {
+				assertTrue(cursor.hasNext());
+				cursor.fwd();
+				assertEquals(col, cursor.getIntPosition(0));
+				assertEquals(row, cursor.getIntPosition(1));
+				assertEquals(value(col, row), cursor.get().get(), 0);
+				cursor.get().set(-1);
+			}
+		}
+		assertFalse(cursor.hasNext());
+
+		// NB: Writes go straight to the table columns.
+		for (int col = 0; col < 3; col++) {
+			for (int row = 0; row < 4; row++) {
+				assertEquals(-1, table.getValue(col, row), 0);
+			}
+		}
+
+		cursor.reset();
+		cursor.jumpFwd(5);
+		assertEquals(1, cursor.getIntPosition(0));
+		assertEquals(1, cursor.getIntPosition(1));
+	}
+
+	@Test
+	public void testEmpty() {
+		assertFalse(new ResultsImg(createTable(3, 0)).cursor().hasNext());
+		assertFalse(new ResultsImg(createTable(0, 3)).cursor().hasNext());
+	}
+
+	@Test
+	public void testRandomAccess() {
+		final ResultsTable table = createTable(3, 4);
+		final RandomAccess<DoubleType> access = new ResultsImg(table)
+			.randomAccess();
+		access.setPosition(new long[] { 2, 1 });
+		assertEquals(value(2, 1), access.get().get(), 0);
+		access.bck(0);
+		assertEquals(value(1, 1), access.get().get(), 0);
+		access.move(2, 1);
+		assertEquals(value(1, 3), access.get().get(), 0);
+
+		final RandomAccess<DoubleType> copy = access.copyRandomAccess();
+		copy.get().set(42);
+		assertEquals(42, table.getValue(1, 3), 0);
+		copy.fwd(0);
+		assertEquals(value(2, 3), copy.get().get(), 0);
+		assertEquals(42, access.get().get(), 0);
+	}
+
+	@Test
+	public void testViews() {
+		final ResultsImg img = new ResultsImg(createTable(3, 4));
+		final IntervalView<DoubleType> view = Views.interval(img, new long[] { 1,
+			1 }, new long[] { 2, 2 });
+		double sum = 0;
+		for (final DoubleType t : Views.iterable(view)) {
+			sum += t.get();
+		}
+		assertEquals(value(1, 1) + value(2, 1) + value(1, 2) + value(2, 2), sum, 0);
+	}
+
+	@Test
+	public void testColumnImg() {
+		final ResultsTable table = createTable(3, 4);
+		final Img<DoubleType> column = new ResultsImg(table).getColumnImg(1);
+		assertEquals(4, column.size());
+		final Cursor<DoubleType> cursor = column.cursor();
+		for (int row = 0; row < 4; row++) {
+			assertEquals(value(1, row), cursor.next().get(), 0);
+		}
+		cursor.get().set(7);
+		assertEquals(7, table.getValue(1, 3), 0);
+	}
+
+	@Test
+	public void testCopy() {
+		final ResultsTable table = createTable(3, 4);
+		final Img<DoubleType> copy = new ResultsImg(table).copy();
+		assertEquals(12, copy.size());
+		final Cursor<DoubleType> cursor = copy.cursor();
+		cursor.next().set(-1);
+		assertEquals(value(0, 0), table.getValue(0, 0), 0);
+	}
+
+	// -- Helper methods --
+
+	private ResultsTable createTable(final int cols, final int rows) {
+		final ResultsTable table = new DefaultResultsTable(cols, rows);
+		for (int col = 0; col < cols; col++) {
+			for (int row = 0; row < rows; row++) {
+				table.setValue(col, row, value(col, row));
+			}
+		}
+		return table;
+	}
+
+	private double value(final int col, final int row) {
+		return 100 * row + col;
+	}
+
+}
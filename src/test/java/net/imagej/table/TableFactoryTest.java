@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link TableFactory} and the {@link OffHeapColumn} implementations.
+ */
+public class TableFactoryTest {
+
+	@Test
+	public void testHeapColumns() {
+		final TableFactory factory = new TableFactory();
+		assertTrue(factory.createColumn(Double.class, "d") instanceof DoubleColumn);
+		assertTrue(factory.createColumn(Integer.class, "i") instanceof IntColumn);
+		assertTrue(factory.createColumn(String.class,
+			"s") instanceof DefaultColumn);
+	}
+
+	@Test
+	public void testDirectTable() throws IOException {
+		testTable(new TableFactory(TableFactory.Storage.DIRECT), false);
+	}
+
+	@Test
+	public void testMappedTable() throws IOException {
+		testTable(new TableFactory(TableFactory.Storage.MAPPED), true);
+	}
+
+	@Test
+	public void testChunkedGrowth() {
+		final OffHeapLongColumn column = new OffHeapLongColumn("big");
+		final int size = 2 * OffHeapColumn.CHUNK_SIZE + 5;
+		for (int i = 0; i < size; i++) {
+			column.add((long) i);
+		}
+		assertEquals(size, column.size());
+		assertEquals(3 * OffHeapColumn.CHUNK_SIZE, column.capacity());
+		for (int i = 0; i < size; i++) {
+			assertEquals(i, column.getValue(i));
+		}
+
+		// insert across a chunk boundary
+		column.add(OffHeapColumn.CHUNK_SIZE - 1, -1L);
+		assertEquals(-1, column.getValue(OffHeapColumn.CHUNK_SIZE - 1));
+		assertEquals(OffHeapColumn.CHUNK_SIZE - 1, column.getValue(
+			OffHeapColumn.CHUNK_SIZE));
+		assertEquals(size - 1, column.getValue(size));
+
+		// remove it again
+		assertEquals(-1L, (long) column.remove(OffHeapColumn.CHUNK_SIZE - 1));
+		assertEquals(size, column.size());
+		for (int i = 0; i < size; i++) {
+			assertEquals(i, column.getValue(i));
+		}
+
+		// shrinking releases chunks; growing again yields default values
+		column.setSize(3);
+		assertEquals(OffHeapColumn.CHUNK_SIZE, column.capacity());
+		column.setSize(10);
+		assertEquals(2, column.getValue(2));
+		assertEquals(0, column.getValue(3));
+		assertEquals(0, column.getValue(9));
+	}
+
+	@Test
+	public void testBlockMoves() {
+		// blocks of all sizes, overlapping themselves or crossing chunks
+		final OffHeapIntColumn column = new OffHeapIntColumn("moves");
+		final List<Integer> expected = new ArrayList<>();
+		final Random random = new Random(0xb10c);
+		final int size = 3 * OffHeapColumn.CHUNK_SIZE - 7;
+		for (int i = 0; i < size; i++) {
+			column.add(i);
+			expected.add(i);
+		}
+		for (int iter = 0; iter < 20; iter++) {
+			final int index = random.nextInt(expected.size());
+			final int count = random.nextInt(iter % 2 == 0 ? 5 : 2 *
+				OffHeapColumn.CHUNK_SIZE);
+			if (iter % 3 == 0) {
+				final int n = Math.min(count, expected.size() - index);
+				column.delete(index, n);
+				expected.subList(index, index + n).clear();
+			}
+			else {
+				column.insert(index, count);
+				expected.addAll(index, Collections.nCopies(count, 0));
+			}
+			assertEquals(expected.size(), column.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals((int) expected.get(i), column.getValue(i));
+			}
+		}
+	}
+
+	@Test
+	public void testTypes() {
+		final OffHeapBoolColumn bools = new OffHeapBoolColumn();
+		bools.add(true);
+		bools.add(false);
+		assertTrue(bools.getValue(0));
+		assertFalse(bools.getValue(1));
+
+		final OffHeapCharColumn chars = new OffHeapCharColumn();
+		chars.add('x');
+		assertEquals('x', chars.getValue(0));
+
+		final OffHeapByteColumn bytes = new OffHeapByteColumn();
+		bytes.add((byte) -7);
+		assertEquals(-7, bytes.getValue(0));
+
+		final OffHeapShortColumn shorts = new OffHeapShortColumn();
+		shorts.add((short) -300);
+		assertEquals(-300, shorts.getValue(0));
+
+		final OffHeapFloatColumn floats = new OffHeapFloatColumn();
+		floats.add(1.5f);
+		assertEquals(1.5f, floats.getValue(0), 0);
+
+		final OffHeapIntColumn ints = new OffHeapIntColumn();
+		ints.add(Integer.MIN_VALUE);
+		ints.set(0, null);
+		assertEquals(0, ints.getValue(0));
+	}
+
+	// -- Helper methods --
+
+	private void testTable(final TableFactory factory, final boolean mapped)
+		throws IOException
+	{
+		final Table<Column<Double>, Double> table = factory.createTable(
+			Double.class, 3, 4);
+		assertEquals(3, table.getColumnCount());
+		assertEquals(4, table.getRowCount());
+		for (final Column<Double> column : table) {
+			assertTrue(column instanceof OffHeapDoubleColumn);
+			assertEquals(mapped, ((OffHeapColumn<?>) column).isMapped());
+			assertEquals(4, column.size());
+		}
+
+		for (int c = 0; c < 3; c++) {
+			for (int r = 0; r < 4; r++) {
+				table.set(c, r, c * 10.0 + r);
+			}
+		}
+		table.setColumnHeader(1, "B");
+		assertEquals(12.0, table.get("B").get(2), 0);
+
+		table.insertRow(1);
+		assertEquals(5, table.getRowCount());
+		assertEquals(20.0, table.get(2, 0), 0);
+		assertEquals(0.0, table.get(2, 1), 0);
+		assertEquals(21.0, table.get(2, 2), 0);
+
+		table.removeRow(0);
+		table.appendColumn("D");
+		assertEquals(4, table.getColumnCount());
+		assertEquals(4, table.get(3).size());
+		assertEquals(13.0, table.get(1, 3), 0);
+
+		for (final Column<Double> column : table) {
+			((OffHeapColumn<?>) column).close();
+		}
+	}
+
+}
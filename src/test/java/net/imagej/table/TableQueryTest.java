@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import net.imagej.table.TableQuery.Aggregate;
+
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tests {@link TableQuery}.
+ */
+public class TableQueryTest {
+
+	@Test
+	public void testAggregates() {
+		final GenericTable table = createTable();
+		final GenericTable result = new TableQuery(table).aggregate("Area",
+			Aggregate.COUNT, Aggregate.SUM, Aggregate.MEAN, Aggregate.STD,
+			Aggregate.MIN, Aggregate.MAX, Aggregate.MEDIAN, Aggregate.quantile(0.25))
+			.execute();
+		assertEquals(1, result.getRowCount());
+		assertEquals(8, result.getColumnCount());
+		assertEquals("count(Area)", result.getColumnHeader(0));
+		assertEquals("p25(Area)", result.getColumnHeader(7));
+
+		// Area = 1, 2, 4, 8, NaN, 16, 32
+		assertEquals(6, (Double) result.get(0, 0), 0);
+		assertEquals(63, (Double) result.get(1, 0), 0);
+		assertEquals(10.5, (Double) result.get(2, 0), 1e-12);
+		assertEquals(Math.sqrt(140.7), (Double) result.get(3, 0), 1e-12);
+		assertEquals(1, (Double) result.get(4, 0), 0);
+		assertEquals(32, (Double) result.get(5, 0), 0);
+		assertEquals(6, (Double) result.get(6, 0), 0);
+		assertEquals(2.5, (Double) result.get(7, 0), 0);
+	}
+
+	@Test
+	public void testGroupBy() {
+		final GenericTable result = new TableQuery(createTable()) //
+			.where("Area", area -> area > 1) //
+			.groupBy("Label") //
+			.aggregate("Area", Aggregate.COUNT, Aggregate.MAX) //
+			.aggregate("Intensity", Aggregate.MEAN) //
+			.execute();
+		assertEquals(2, result.getRowCount());
+		assertEquals("Label", result.getColumnHeader(0));
+		assertEquals(String.class, result.get(0).getType());
+
+		// NB: Groups appear in order; "a" has Areas 2, 8 and 32.
+		assertEquals("a", result.get(0, 0));
+		assertEquals(3, (Double) result.get(1, 0), 0);
+		assertEquals(32, (Double) result.get(2, 0), 0);
+		assertEquals(10, (Double) result.get(3, 0), 0);
+
+		assertEquals("b", result.get(0, 1));
+		assertEquals(2, (Double) result.get(1, 1), 0);
+		assertEquals(16, (Double) result.get(2, 1), 0);
+		assertEquals(30, (Double) result.get(3, 1), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotNumeric() {
+		new TableQuery(createTable()).aggregate("Label", Aggregate.SUM).execute();
+	}
+
+	@Test
+	public void testParallel() {
+		final int rows = 500000;
+		final DefaultGenericTable table = new DefaultGenericTable();
+		final DoubleColumn values = new DoubleColumn("Value");
+		final IntColumn groups = new IntColumn("Group");
+		final double[] v = new double[rows];
+		final int[] g = new int[rows];
+		final double[] sums = new double[7];
+		final Random random = new Random(42);
+		for (int r = 0; r < rows; r++) {
+			v[r] = random.nextGaussian() * 10 + 1000;
+			g[r] = random.nextInt(7);
+			sums[g[r]] += v[r];
+		}
+		values.fill(v);
+		groups.fill(g);
+		table.add(values);
+		table.add(groups);
+
+		final GenericTable serial = new TableQuery(table).groupBy("Group")
+			.aggregate("Value", Aggregate.SUM, Aggregate.STD, Aggregate.MEDIAN)
+			.execute();
+		final Context context = new Context(ThreadService.class);
+		try {
+			final GenericTable parallel = new TableQuery(table, context.getService(
+				ThreadService.class)).groupBy("Group").aggregate("Value",
+					Aggregate.SUM, Aggregate.STD, Aggregate.MEDIAN).execute();
+			assertEquals(7, parallel.getRowCount());
+			for (int r = 0; r < 7; r++) {
+				final int group = (Integer) parallel.get(0, r);
+				assertEquals(group, serial.get(0, r));
+				assertEquals(sums[group], (Double) parallel.get(1, r), 1e-6);
+				assertEquals((Double) serial.get(2, r), (Double) parallel.get(2, r),
+					1e-9);
+				assertEquals((Double) serial.get(3, r), (Double) parallel.get(3, r),
+					0);
+				assertEquals(10, (Double) parallel.get(2, r), 0.5);
+			}
+		}
+		finally {
+			context.dispose();
+		}
+	}
+
+	// -- Helper methods --
+
+	private GenericTable createTable() {
+		final DefaultGenericTable table = new DefaultGenericTable();
+		final DefaultColumn<String> labels = new DefaultColumn<>(String.class,
+			"Label");
+		final DoubleColumn area = new DoubleColumn("Area");
+		final FloatColumn intensity = new FloatColumn("Intensity");
+		final String[] l = { "a", "a", "b", "a", "b", "b", "a" };
+		for (final String label : l) {
+			labels.add(label);
+		}
+		area.fill(new double[] { 1, 2, 4, 8, Double.NaN, 16, 32 });
+		intensity.fill(new float[] { 0, 5, 20, 10, 99, 40, 15 });
+		table.add(labels);
+		table.add(area);
+		table.add(intensity);
+		return table;
+	}
+
+}
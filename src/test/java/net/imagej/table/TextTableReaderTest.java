@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tests {@link TextTableReader}.
+ */
+public class TextTableReaderTest {
+
+	@Test
+	public void testTypes() throws IOException {
+		final GenericTable table = new TextTableReader().read(stream(
+			"Name,Area,Note,Blank\n" + //
+				"cell 1,12.5,,\n" + //
+				"\"cell, 2\",-3e2,7,\r\n" + //
+				"\n" + //
+				"cell 3,NaN,\"say \"\"hi\"\"\",\n"));
+		assertEquals(4, table.getColumnCount());
+		assertEquals(3, table.getRowCount());
+		assertEquals("Name", table.getColumnHeader(0));
+		assertEquals("Blank", table.getColumnHeader(3));
+
+		assertEquals(String.class, table.get(0).getType());
+		assertEquals("cell, 2", table.get(0, 1));
+
+		assertTrue(table.get(1) instanceof DoubleColumn);
+		assertEquals(12.5, (Double) table.get(1, 0), 0);
+		assertEquals(-300, (Double) table.get(1, 1), 0);
+		assertTrue(Double.isNaN((Double) table.get(1, 2)));
+
+		// numbers in a text column keep their value as text
+		assertEquals(String.class, table.get(2).getType());
+		assertNull(table.get(2, 0));
+		assertEquals("7", table.get(2, 1));
+		assertEquals("say \"hi\"", table.get(2, 2));
+
+		assertTrue(table.get(3) instanceof GenericColumn);
+		assertNull(table.get(3, 2));
+	}
+
+	@Test
+	public void testNoHeader() throws IOException {
+		final GenericTable table = new TextTableReader(
+			TextTableReader.Dialect.TSV, null).read(stream("1\tx\n2\n3\ty\tz\n"));
+		assertEquals(3, table.getColumnCount());
+		assertEquals(3, table.getRowCount());
+		assertNull(table.getColumnHeader(0));
+		assertEquals(2, (Double) table.get(0, 1), 0);
+		assertNull(table.get(1, 1));
+		assertNull(table.get(2, 0));
+		assertEquals("z", table.get(2, 2));
+	}
+
+	@Test
+	public void testNumbers() throws IOException {
+		final String[] numbers = { "0", "-0.0", "1", "+2.5", ".125", "3.",
+			"6.02214076e23", "1E-7", "0.1", "123456789012345678901234567890",
+			"0.30000000000000004", "1e400", "Infinity", "-Infinity", "0x1p3",
+			"2.5d", "4.9e-324" };
+		final StringBuilder sb = new StringBuilder();
+		for (final String n : numbers) {
+			sb.append(n).append('\n');
+		}
+		final ResultsTable table = new TextTableReader().readResults(stream(sb
+			.toString()));
+		assertEquals(numbers.length, table.getRowCount());
+		for (int r = 0; r < numbers.length; r++) {
+			assertEquals(numbers[r], Double.doubleToLongBits(Double.parseDouble(
+				numbers[r])), Double.doubleToLongBits(table.getValue(0, r)));
+		}
+	}
+
+	@Test
+	public void testLegacy() throws IOException {
+		final TableLoader loader = new TableLoader();
+		final ResultsTable table = loader.valuesFromTextFile(
+			new BufferedInputStream(stream(
+				"  X   Y, Z\n\n1 2 3\r\n4,,5\t6\n")));
+		assertEquals(3, table.getColumnCount());
+		assertEquals(2, table.getRowCount());
+		assertEquals("Y", table.getColumnHeader(1));
+		assertEquals(3, table.getValue(2, 0), 0);
+		assertEquals(5, table.getValue(1, 1), 0);
+
+		// text in a numeric first row still names the column
+		final ResultsTable mixed = loader.valuesFromTextFile(
+			new BufferedInputStream(stream("a 1\n2 3\n")));
+		assertEquals(2, mixed.getRowCount());
+		assertEquals("a", mixed.getColumnHeader(0));
+		assertTrue(Double.isNaN(mixed.getValue(0, 0)));
+
+		assertNull(loader.valuesFromTextFile(new BufferedInputStream(
+			stream("\n \n"))));
+	}
+
+	@Test(expected = IOException.class)
+	public void testLegacyRagged() throws IOException {
+		new TextTableReader(TextTableReader.Dialect.LEGACY, null).readResults(
+			stream("1 2\n3 4\n5\n"));
+	}
+
+	@Test
+	public void testParallel() throws IOException {
+		final int rows = 600000;
+		final StringBuilder sb = new StringBuilder("index,value,label\n");
+		for (int r = 0; r < rows; r++) {
+			sb.append(r).append(',').append(r * 0.25).append(",row").append(r % 10)
+				.append('\n');
+		}
+		assertTrue(sb.length() > 2 * TextTableReader.BLOCK_SIZE);
+
+		final Context context = new Context(ThreadService.class);
+		try {
+			final GenericTable table = new TextTableReader(
+				TextTableReader.Dialect.CSV, context.getService(ThreadService.class))
+					.read(stream(sb.toString()));
+			assertEquals(rows, table.getRowCount());
+			assertEquals("value", table.getColumnHeader(1));
+			for (int r = 0; r < rows; r++) {
+				assertEquals(r, (Double) table.get(0, r), 0);
+				assertEquals(r * 0.25, (Double) table.get(1, r), 0);
+			}
+			assertEquals("row7", table.get(2, rows - 3));
+		}
+		finally {
+			context.dispose();
+		}
+	}
+
+	@Test
+	public void testLongLine() throws IOException {
+		final StringBuilder sb = new StringBuilder("label,value\n");
+		for (int i = 0; i < 3 * TextTableReader.BLOCK_SIZE; i++) {
+			sb.append('x');
+		}
+		sb.append(",1\nshort,2\n");
+		final GenericTable table = new TextTableReader().read(stream(sb
+			.toString()));
+		assertEquals(2, table.getRowCount());
+		assertEquals(3 * TextTableReader.BLOCK_SIZE, ((String) table.get(0, 0))
+			.length());
+		assertEquals(1, (Double) table.get(1, 0), 0);
+		assertEquals("short", table.get(0, 1));
+	}
+
+	// -- Helper methods --
+
+	private InputStream stream(final String text) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tests {@link BulkCopier}.
+ */
+public class BulkCopierTest {
+
+	private Context context;
+	private ThreadService threadService;
+
+	@Before
+	public void setUp() {
+		context = new Context(ThreadService.class);
+		threadService = context.service(ThreadService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testSameType() {
+		final Img<FloatType> in = random(ArrayImgs.floats(9, 7, 3));
+		final Img<FloatType> out = ArrayImgs.floats(9, 7, 3);
+		assertTrue(BulkCopier.copy(in, out, null));
+		assertCopied(in, out);
+	}
+
+	@Test
+	public void testLayouts() {
+		final long[] dims = { 9, 7, 3, 2 };
+		final Img<FloatType> in = random(PlanarImgs.floats(dims));
+		final Img<FloatType> out = new CellImgFactory<FloatType>(4).create(dims,
+			new FloatType());
+		assertTrue(BulkCopier.copy(in, out, threadService));
+		assertCopied(in, out);
+
+		final Img<FloatType> back = ArrayImgs.floats(dims);
+		assertTrue(BulkCopier.copy(out, back, threadService));
+		assertCopied(in, back);
+	}
+
+	@Test
+	public void testConversion() {
+		final long[] dims = { 9, 7, 3 };
+		final Img<FloatType> floats = random(PlanarImgs.floats(dims));
+		final Img<UnsignedByteType> bytes = ArrayImgs.unsignedBytes(dims);
+		assertTrue(BulkCopier.copy(floats, bytes, null));
+		assertCopied(floats, bytes);
+
+		final Img<IntType> ints = new CellImgFactory<IntType>(5).create(dims,
+			new IntType());
+		assertTrue(BulkCopier.copy(bytes, ints, null));
+		assertCopied(bytes, ints);
+	}
+
+	@Test
+	public void testParallel() {
+		final long[] dims = { 1000, 700, 3 };
+		final Img<FloatType> in = random(ArrayImgs.floats(dims));
+		final Img<IntType> out = PlanarImgs.ints(dims);
+		assertTrue(BulkCopier.copy(in, out, threadService));
+		assertCopied(in, out);
+	}
+
+	@Test
+	public void testUnsupported() {
+		final Img<FloatType> img = ArrayImgs.floats(4, 4);
+		assertFalse(BulkCopier.copy(img, ArrayImgs.floats(4, 5), null));
+		assertFalse(BulkCopier.copy(img, ArrayImgs.bits(4, 4), null));
+		assertFalse(BulkCopier.copy(Views.interval(img, new long[2], new long[] {
+			3, 3 }), ArrayImgs.floats(4, 4), null));
+	}
+
+	// -- Helper methods --
+
+	private static <T extends RealType<T>> Img<T> random(final Img<T> img) {
+		final Random random = new Random(0xdeadbeef);
+		for (final T t : img) {
+			t.setReal(random.nextDouble() * 600 - 300);
+		}
+		return img;
+	}
+
+	/** Checks that the output holds what {@link RealType#setReal} would. */
+	private static <T extends RealType<T>> void assertCopied(
+		final Img<? extends RealType<?>> in, final Img<T> out)
+	{
+		final T expected = out.firstElement().createVariable();
+		final Cursor<? extends RealType<?>> cursor = in.localizingCursor();
+		final RandomAccess<T> access = out.randomAccess();
+		while (cursor.hasNext()) {
+			expected.setReal(cursor.next().getRealDouble());
+			access.setPosition(cursor);
+			assertEquals(expected.getRealDouble(), access.get().getRealDouble(), 0);
+		}
+	}
+
+}